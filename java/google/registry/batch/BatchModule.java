@@ -65,6 +65,12 @@ public class BatchModule {
     return extractOptionalIntParameter(req, "daysOld");
   }
 
+  @Provides
+  @Parameter(VerifyEntityIntegrityAction.PARAM_SAMPLE_PERCENT)
+  static Optional<Integer> provideSamplePercent(HttpServletRequest req) {
+    return extractOptionalIntParameter(req, VerifyEntityIntegrityAction.PARAM_SAMPLE_PERCENT);
+  }
+
   @Provides
   @Parameter("force")
   static Optional<Boolean> provideForce(HttpServletRequest req) {
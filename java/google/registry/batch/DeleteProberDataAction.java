@@ -14,42 +14,54 @@
 
 package google.registry.batch;
 
+import static com.googlecode.objectify.Key.getKind;
 import static google.registry.mapreduce.MapreduceRunner.PARAM_DRY_RUN;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registries.getTldsOfType;
 import static google.registry.request.Action.Method.POST;
 
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.appengine.tools.mapreduce.inputs.DatastoreKeyInput;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
-import com.google.common.base.Splitter;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
-import com.googlecode.objectify.Work;
 import google.registry.mapreduce.MapreduceRunner;
-import google.registry.mapreduce.inputs.EppResourceInputs;
+import google.registry.mapreduce.inputs.ChunkingKeyInput;
+import google.registry.mapreduce.inputs.NullInput;
 import google.registry.model.domain.DomainApplication;
 import google.registry.model.domain.DomainBase;
 import google.registry.model.index.EppResourceIndex;
-import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyDomainIndex;
-import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldType;
 import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.Response;
 import google.registry.util.FormattingLogger;
+import google.registry.util.NonFinalForTesting;
 import google.registry.util.PipelineUtils;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 
 /**
  * Deletes all prober DomainResources and their subordinate history entries, poll messages, and
  * billing events, along with their ForeignKeyDomainIndex and EppResourceIndex entities.
  *
+ * <p>Only the domains on prober TLDs are read, by keys-only queries on the TLD, rather than every
+ * domain in the system. They are handled in chunks: the descendants of all domains in a chunk are
+ * found by concurrent keys-only ancestor queries, and then deleted in large batches outside of
+ * any transaction, since nothing else writes to prober domains once they're deleted. The domains
+ * themselves are deleted last, so that a run that fails partway can be finished by the next one.
+ *
  * <p>See: https://www.youtube.com/watch?v=xuuv0syoHnM
  */
 @Action(path = "/_dr/task/deleteProberData", method = POST)
@@ -57,6 +69,25 @@ public class DeleteProberDataAction implements Runnable {
 
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
+  /** The number of shards to split each prober TLD's domain query into. */
+  private static final int NUM_SHARDS_PER_TLD = 10;
+
+  /** The number of domains whose entities are gathered and deleted together. */
+  private static final int DOMAINS_PER_CHUNK = 50;
+
+  /** The maximum number of keys in one Datastore delete. */
+  @NonFinalForTesting
+  private static int maxKeysPerDelete = 500;
+
+  /** Deletes one batch of entities. Tests replace this to make a batch fail. */
+  @NonFinalForTesting
+  private static Function<List<Key<?>>, Void> batchDeleter = new Function<List<Key<?>>, Void>() {
+    @Override
+    public Void apply(List<Key<?>> batch) {
+      ofy().deleteWithoutBackup().keys(batch).now();
+      return null;
+    }};
+
   @Inject @Parameter(PARAM_DRY_RUN) boolean isDryRun;
   @Inject MapreduceRunner mrRunner;
   @Inject Response response;
@@ -67,12 +98,10 @@ public class DeleteProberDataAction implements Runnable {
     response.sendJavaScriptRedirect(PipelineUtils.createJobPath(mrRunner
         .setJobName("Delete prober data")
         .setModuleName("backend")
-        .runMapOnly(
-            new DeleteProberDataMapper(getProberRoidSuffixes(), isDryRun),
-            ImmutableList.of(EppResourceInputs.createKeyInput(DomainBase.class)))));
+        .runMapOnly(new DeleteProberDataMapper(isDryRun), getInputs(getProberTlds()))));
   }
 
-  private static ImmutableSet<String> getProberRoidSuffixes() {
+  private static ImmutableSet<String> getProberTlds() {
     return FluentIterable.from(getTldsOfType(TldType.TEST))
         .filter(new Predicate<String>() {
           @Override
@@ -81,85 +110,115 @@ public class DeleteProberDataAction implements Runnable {
             // gets set to type TEST.
             return tld.endsWith(".test");
           }})
-        .transform(
-            new Function<String, String>() {
-              @Override
-              public String apply(String tld) {
-                return Registry.get(tld).getRoidSuffix();
-              }})
         .toSet();
   }
 
-  /** Provides the map method that runs for each existing DomainBase entity. */
-  public static class DeleteProberDataMapper extends Mapper<Key<DomainBase>, Void, Void> {
+  /** Returns inputs of chunks of the keys of all domains and applications on the given TLDs. */
+  private static ImmutableList<Input<List<com.google.appengine.api.datastore.Key>>> getInputs(
+      ImmutableSet<String> tlds) {
+    ImmutableList.Builder<Input<List<com.google.appengine.api.datastore.Key>>> inputs =
+        new ImmutableList.Builder<>();
+    for (String tld : tlds) {
+      Query query = new Query(getKind(DomainBase.class))
+          .setFilter(new FilterPredicate("tld", FilterOperator.EQUAL, tld));
+      inputs.add(new ChunkingKeyInput(
+          new DatastoreKeyInput(query, NUM_SHARDS_PER_TLD), DOMAINS_PER_CHUNK));
+    }
+    if (tlds.isEmpty()) {
+      inputs.add(new NullInput<List<com.google.appengine.api.datastore.Key>>());
+    }
+    return inputs.build();
+  }
 
-    private static final long serialVersionUID = 1737761271804180412L;
+  /** Provides the map method that runs for each chunk of prober domain keys. */
+  public static class DeleteProberDataMapper
+      extends Mapper<List<com.google.appengine.api.datastore.Key>, Void, Void> {
+
+    private static final long serialVersionUID = 1737761271804180413L;
 
-    private final ImmutableSet<String> proberRoidSuffixes;
     private final Boolean isDryRun;
 
-    public DeleteProberDataMapper(ImmutableSet<String> proberRoidSuffixes, Boolean isDryRun) {
-      this.proberRoidSuffixes = proberRoidSuffixes;
+    public DeleteProberDataMapper(Boolean isDryRun) {
       this.isDryRun = isDryRun;
     }
 
     @Override
-    public final void map(Key<DomainBase> key) {
+    public final void map(List<com.google.appengine.api.datastore.Key> rawKeys) {
       try {
-        String roidSuffix = Iterables.getLast(Splitter.on('-').split(key.getName()));
-        if (proberRoidSuffixes.contains(roidSuffix)) {
-          deleteDomain(key);
-        } else {
-          getContext().incrementCounter(String.format("skipped, non-prober data"));
+        ImmutableList.Builder<Key<DomainBase>> domainKeys = new ImmutableList.Builder<>();
+        for (com.google.appengine.api.datastore.Key rawKey : rawKeys) {
+          domainKeys.add(Key.<DomainBase>create(rawKey));
         }
+        deleteDomains(domainKeys.build());
       } catch (Throwable t) {
-        logger.severefmt(t, "Error while deleting prober data for key %s", key);
-        getContext().incrementCounter(String.format("error, kind %s", key.getKind()));
+        logger.severefmt(t, "Error while deleting prober data for keys %s", rawKeys);
+        getContext().incrementCounter("error", rawKeys.size());
       }
     }
 
-    private void deleteDomain(final Key<DomainBase> domainKey) {
-      final DomainBase domain = ofy().load().key(domainKey).now();
-      if (domain == null) {
-        // Depending on how stale Datastore indexes are, we can get keys to resources that are
-        // already deleted (e.g. by a recent previous invocation of this mapreduce). So ignore them.
-        getContext().incrementCounter("already deleted");
-        return;
+    private void deleteDomains(ImmutableList<Key<DomainBase>> domainKeys) {
+      Map<Key<DomainBase>, DomainBase> domains = ofy().load().keys(domainKeys);
+      List<DomainBase> domainsToDelete = new ArrayList<>();
+      for (Key<DomainBase> domainKey : domainKeys) {
+        DomainBase domain = domains.get(domainKey);
+        if (domain == null) {
+          // Depending on how stale Datastore indexes are, we can get keys to resources that are
+          // already deleted (e.g. by a recent previous invocation of this mapreduce). So ignore
+          // them.
+          getContext().incrementCounter("already deleted");
+        } else if (domain instanceof DomainApplication) {
+          // Applications are queried along with domains, since they share the DomainBase kind.
+          getContext().incrementCounter("skipped, domain application");
+        } else if (domain.getFullyQualifiedDomainName().equals("nic." + domain.getTld())) {
+          getContext().incrementCounter("skipped, NIC domain");
+        } else {
+          domainsToDelete.add(domain);
+        }
       }
-      if (domain instanceof DomainApplication) {
-        // Cover the case where we somehow have a domain application with a prober ROID suffix.
-        getContext().incrementCounter("skipped, domain application");
-        return;
+      // Start all of the ancestor queries before reading any of their results, so that they run
+      // concurrently. Each selects all descendant HistoryEntries, BillingEvents, PollMessages, and
+      // TLD-specific entities, as well as the domain itself.
+      List<Iterable<Key<Object>>> ancestorQueryKeys = new ArrayList<>();
+      for (DomainBase domain : domainsToDelete) {
+        ancestorQueryKeys.add(ofy().load().ancestor(domain).keys().list());
       }
-      if (domain.getFullyQualifiedDomainName().equals("nic." + domain.getTld())) {
-        getContext().incrementCounter("skipped, NIC domain");
+      ImmutableSet.Builder<Key<?>> descendantKeys = new ImmutableSet.Builder<>();
+      ImmutableSet.Builder<Key<?>> indexKeys = new ImmutableSet.Builder<>();
+      ImmutableSet.Builder<Key<?>> domainKeys = new ImmutableSet.Builder<>();
+      for (int i = 0; i < domainsToDelete.size(); i++) {
+        DomainBase domain = domainsToDelete.get(i);
+        Key<DomainBase> domainKey = Key.create(domain);
+        for (Key<Object> key : ancestorQueryKeys.get(i)) {
+          if (!key.equals(domainKey)) {
+            descendantKeys.add(key);
+          }
+        }
+        indexKeys
+            .add(ForeignKeyDomainIndex.createKey(domain))
+            .add(Key.create(EppResourceIndex.create(domainKey)));
+        domainKeys.add(domainKey);
+      }
+      // Delete the domains last, after their descendants and then their indexes, so that if a
+      // batch fails, the domains are left behind for the next run to find and finish deleting.
+      ImmutableList<ImmutableSet<Key<?>>> keysInDeletionOrder =
+          ImmutableList.of(descendantKeys.build(), indexKeys.build(), domainKeys.build());
+      if (isDryRun) {
+        int count = 0;
+        for (ImmutableSet<Key<?>> keys : keysInDeletionOrder) {
+          logger.infofmt("Would delete the following entities: %s", keys);
+          count += keys.size();
+        }
+        getContext().incrementCounter("domains that would be deleted", domainsToDelete.size());
+        getContext().incrementCounter("total entities that would be deleted", count);
         return;
       }
-
-      final Key<EppResourceIndex> eppIndex = Key.create(EppResourceIndex.create(domainKey));
-      final Key<ForeignKeyIndex<?>> fki = ForeignKeyDomainIndex.createKey(domain);
-
-      int entitiesDeleted = ofy().transact(new Work<Integer>() {
-        @Override
-        public Integer run() {
-          // This ancestor query selects all descendant HistoryEntries, BillingEvents, PollMessages,
-          // and TLD-specific entities, as well as the domain itself.
-          List<Key<Object>> domainAndDependentKeys = ofy().load().ancestor(domainKey).keys().list();
-          ImmutableSet<Key<?>> allKeys = new ImmutableSet.Builder<Key<?>>()
-              .add(fki)
-              .add(eppIndex)
-              .addAll(domainAndDependentKeys)
-              .build();
-          if (isDryRun) {
-            logger.infofmt("Would delete the following entities: %s", allKeys);
-          } else {
-            ofy().deleteWithoutBackup().keys(allKeys);
-          }
-          return allKeys.size();
+      for (ImmutableSet<Key<?>> keys : keysInDeletionOrder) {
+        for (List<Key<?>> batch : Iterables.partition(keys, maxKeysPerDelete)) {
+          batchDeleter.apply(batch);
+          getContext().incrementCounter("total entities deleted", batch.size());
         }
-      });
-      getContext().incrementCounter("domains deleted");
-      getContext().incrementCounter("total entities deleted", entitiesDeleted);
+      }
+      getContext().incrementCounter("domains deleted", domainsToDelete.size());
     }
   }
 }
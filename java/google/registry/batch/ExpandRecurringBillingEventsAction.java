@@ -15,10 +15,13 @@
 package google.registry.batch;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Predicates.in;
+import static com.google.common.base.Predicates.not;
 import static com.google.common.collect.Sets.difference;
 import static google.registry.mapreduce.MapreduceRunner.PARAM_DRY_RUN;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createChildEntityInput;
 import static google.registry.model.common.Cursor.CursorType.RECURRING_BILLING;
+import static google.registry.model.common.Cursor.CursorType.RECURRING_BILLING_BATCHED;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.pricing.PricingEngineProxy.getDomainRenewCost;
 import static google.registry.util.CollectionUtils.union;
@@ -30,13 +33,20 @@ import static google.registry.util.PipelineUtils.createJobPath;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
+import com.google.common.collect.SetMultimap;
+import com.google.common.hash.Hashing;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
@@ -47,6 +57,7 @@ import google.registry.model.billing.BillingEvent.Flag;
 import google.registry.model.billing.BillingEvent.OneTime;
 import google.registry.model.billing.BillingEvent.Recurring;
 import google.registry.model.common.Cursor;
+import google.registry.model.common.Cursor.CursorType;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.registry.Registry;
 import google.registry.request.Action;
@@ -54,10 +65,16 @@ import google.registry.request.Parameter;
 import google.registry.request.Response;
 import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.inject.Inject;
 import org.joda.money.Money;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 
 /**
  * A mapreduce that expands {@link Recurring} billing events into synthetic {@link OneTime} events.
@@ -66,18 +83,31 @@ import org.joda.time.DateTime;
  * {@code cursorTime}) represents the inclusive lower bound on the range of billing times that will
  * be expanded as a result of the job (the exclusive upper bound being the execution time of the
  * job).
+ *
+ * <p>With the {@code batched} parameter set, each shard buffers its recurring events and expands
+ * them a batch at a time. The synthetic events are given ids derived from their recurring event and
+ * billing time, so that the ones already persisted by an earlier (e.g. partially failed) run over
+ * the same range can be found with a single batch load instead of an ancestor query per domain,
+ * and the new ones are saved for many domains per transaction. The first successful batched run
+ * sets the {@link CursorType#RECURRING_BILLING_BATCHED} cursor, after which unbatched runs are
+ * refused. Events billed before that cursor could have been created by an unbatched run with
+ * allocated ids, so batched runs still look for those among the events of their domains before
+ * creating them.
  */
 @Action(path = "/_dr/task/expandRecurringBillingEvents")
 public class ExpandRecurringBillingEventsAction implements Runnable {
 
   public static final String PARAM_CURSOR_TIME = "cursorTime";
+  public static final String PARAM_BATCHED = "batched";
   private static final String ERROR_COUNTER = "errors";
+  private static final String SAVED_COUNTER = "Saved OneTime billing events";
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
   @Inject Clock clock;
   @Inject MapreduceRunner mrRunner;
   @Inject @Parameter(PARAM_DRY_RUN) boolean isDryRun;
   @Inject @Parameter(PARAM_CURSOR_TIME) Optional<DateTime> cursorTimeParam;
+  @Inject @Parameter(PARAM_BATCHED) boolean batched;
   @Inject Response response;
   @Inject ExpandRecurringBillingEventsAction() {}
 
@@ -90,16 +120,29 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
     checkArgument(
         cursorTime.isBefore(executeTime),
         "Cursor time must be earlier than execution time.");
+    Cursor batchedCursor =
+        ofy().load().key(Cursor.createGlobalKey(RECURRING_BILLING_BATCHED)).now();
+    checkArgument(
+        batched || batchedCursor == null,
+        "Recurring billing events have been expanded in batched mode since %s, so unbatched "
+            + "mode can no longer be used.",
+        batchedCursor == null ? null : batchedCursor.getCursorTime());
+    // Until a batched run has succeeded, any billing time in range could have been expanded by an
+    // unbatched run.
+    DateTime batchedSinceTime =
+        (batchedCursor == null ? executeTime : batchedCursor.getCursorTime());
     logger.infofmt(
-        "Running Recurring billing event expansion for billing time range [%s, %s).",
+        "Running %sRecurring billing event expansion for billing time range [%s, %s).",
+        batched ? "batched " : "",
         cursorTime,
         executeTime);
     response.sendJavaScriptRedirect(createJobPath(mrRunner
         .setJobName("Expand Recurring billing events into synthetic OneTime events.")
         .setModuleName("backend")
         .runMapreduce(
-            new ExpandRecurringBillingEventsMapper(isDryRun, cursorTime, clock.nowUtc()),
-            new ExpandRecurringBillingEventsReducer(isDryRun, persistedCursorTime),
+            new ExpandRecurringBillingEventsMapper(
+                isDryRun, batched, cursorTime, executeTime, batchedSinceTime),
+            new ExpandRecurringBillingEventsReducer(isDryRun, batched, persistedCursorTime),
             // Add an extra shard that maps over a null recurring event (see the mapper for why).
             ImmutableList.of(
                 new NullInput<Recurring>(),
@@ -114,15 +157,48 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
 
     private static final long serialVersionUID = 8376442755556228455L;
 
+    /** The number of recurring events expanded together in batched mode. */
+    private static final int RECURRINGS_PER_BATCH = 200;
+
+    /**
+     * The number of domain entity groups saved to per transaction in batched mode.
+     *
+     * <p>Cross-group transactions are limited to 25 entity groups, and the commit log takes one.
+     */
+    private static final int ENTITY_GROUPS_PER_TRANSACTION = 20;
+
     private final boolean isDryRun;
+    private final boolean batched;
     private final DateTime cursorTime;
     private final DateTime executeTime;
 
+    /** The billing time from which synthetic events can only have been created in batched mode. */
+    private final DateTime batchedSinceTime;
+
+    /** Recurring events awaiting expansion in batched mode; flushed at the end of each slice. */
+    private transient List<Recurring> pendingRecurrings;
+
     public ExpandRecurringBillingEventsMapper(
-        boolean isDryRun, DateTime cursorTime, DateTime executeTime) {
+        boolean isDryRun,
+        boolean batched,
+        DateTime cursorTime,
+        DateTime executeTime,
+        DateTime batchedSinceTime) {
       this.isDryRun = isDryRun;
+      this.batched = batched;
       this.cursorTime = cursorTime;
       this.executeTime = executeTime;
+      this.batchedSinceTime = batchedSinceTime;
+    }
+
+    @Override
+    public void beginSlice() {
+      pendingRecurrings = new ArrayList<>();
+    }
+
+    @Override
+    public void endSlice() {
+      flushPendingRecurrings();
     }
 
     @Override
@@ -142,6 +218,13 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
         getContext().incrementCounter("Recurring billing events ignored");
         return;
       }
+      if (batched) {
+        pendingRecurrings.add(recurring);
+        if (pendingRecurrings.size() >= RECURRINGS_PER_BATCH) {
+          flushPendingRecurrings();
+        }
+        return;
+      }
       int billingEventsSaved = 0;
       try {
         billingEventsSaved = ofy().transactNew(new Work<Integer>() {
@@ -151,16 +234,7 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
                 new ImmutableSet.Builder<>();
             final Registry tld = Registry.get(getTldFromDomainName(recurring.getTargetId()));
 
-            // Determine the complete set of times at which this recurring event should occur
-            // (up to and including the runtime of the mapreduce).
-            Iterable<DateTime> eventTimes =
-                recurring.getRecurrenceTimeOfYear().getInstancesInRange(Range.closed(
-                    recurring.getEventTime(),
-                    earliestOf(recurring.getRecurrenceEndTime(), executeTime)));
-
-            // Convert these event times to billing times
-            final ImmutableSet<DateTime> billingTimes =
-                getBillingTimesInScope(eventTimes, cursorTime, executeTime, tld);
+            final ImmutableSet<DateTime> billingTimes = getBillingTimesInScope(recurring, tld);
 
             Iterable<OneTime> oneTimesForDomain = ofy().load()
                 .type(OneTime.class)
@@ -173,22 +247,8 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
             // Create synthetic OneTime events for all billing times that do not yet have an event
             // persisted.
             for (DateTime billingTime : difference(billingTimes, existingBillingTimes)) {
-              DateTime eventTime = billingTime.minus(tld.getAutoRenewGracePeriodLength());
-              // Determine the cost for a one-year renewal.
-              Money renewCost = getDomainRenewCost(recurring.getTargetId(), eventTime, 1);
-              syntheticOneTimesBuilder.add(new BillingEvent.OneTime.Builder()
-                  .setBillingTime(billingTime)
-                  .setClientId(recurring.getClientId())
-                  .setCost(renewCost)
-                  .setEventTime(eventTime)
-                  .setFlags(union(recurring.getFlags(), Flag.SYNTHETIC))
-                  .setParent(recurring.getParentKey())
-                  .setPeriodYears(1)
-                  .setReason(recurring.getReason())
-                  .setSyntheticCreationTime(executeTime)
-                  .setCancellationMatchingBillingEvent(Key.create(recurring))
-                  .setTargetId(recurring.getTargetId())
-                  .build());
+              syntheticOneTimesBuilder.add(
+                  newSyntheticOneTimeBuilder(recurring, billingTime, tld).build());
             }
             Set<OneTime> syntheticOneTimes = syntheticOneTimesBuilder.build();
             if (!isDryRun) {
@@ -204,23 +264,154 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
         getContext().incrementCounter(ERROR_COUNTER);
         throw t;
       }
+      countSavedOneTimes(billingEventsSaved);
+    }
+
+    private void countSavedOneTimes(int billingEventsSaved) {
       if (!isDryRun) {
-        getContext().incrementCounter("Saved OneTime billing events", billingEventsSaved);
+        getContext().incrementCounter(SAVED_COUNTER, billingEventsSaved);
       } else {
         getContext().incrementCounter(
             "Generated OneTime billing events (dry run)", billingEventsSaved);
       }
     }
 
+    /** Expands and clears the recurring events buffered in batched mode. */
+    private void flushPendingRecurrings() {
+      if (pendingRecurrings == null || pendingRecurrings.isEmpty()) {
+        return;
+      }
+      ImmutableList<Recurring> batch = ImmutableList.copyOf(pendingRecurrings);
+      pendingRecurrings.clear();
+      int billingEventsSaved;
+      try {
+        billingEventsSaved = expandBatch(batch);
+      } catch (Throwable t) {
+        logger.severefmt(
+            t,
+            "Error while expanding batch of %d Recurring billing events starting with %s",
+            batch.size(),
+            batch.get(0).getId());
+        getContext().incrementCounter("error: " + t.getClass().getSimpleName());
+        getContext().incrementCounter(ERROR_COUNTER);
+        throw t;
+      }
+      getContext().incrementCounter("Recurring billing event batches expanded");
+      countSavedOneTimes(billingEventsSaved);
+    }
+
     /**
-     * Filters a set of {@link DateTime}s down to event times that are in scope for a particular
-     * mapreduce run, given the cursor time and the mapreduce execution time.
+     * Creates the synthetic {@link OneTime} events for a batch of recurring events, skipping any
+     * that a previous run already saved.
+     *
+     * @return the number of synthetic events saved (or that would have been, on a dry run)
+     */
+    private int expandBatch(ImmutableList<Recurring> batch) {
+      Map<Key<OneTime>, OneTime> syntheticOneTimes = new LinkedHashMap<>();
+      for (Recurring recurring : batch) {
+        Registry tld = Registry.get(getTldFromDomainName(recurring.getTargetId()));
+        for (DateTime billingTime : getBillingTimesInScope(recurring, tld)) {
+          OneTime oneTime = newSyntheticOneTimeBuilder(recurring, billingTime, tld)
+              .setId(getSyntheticOneTimeId(recurring, billingTime))
+              .build();
+          syntheticOneTimes.put(Key.create(oneTime), oneTime);
+        }
+      }
+      Set<Key<OneTime>> existingKeys =
+          ofy().load().keys(syntheticOneTimes.keySet()).keySet();
+      SetMultimap<Key<? extends BillingEvent>, DateTime> unbatchedBillingTimes =
+          loadUnbatchedBillingTimes(
+              Maps.filterKeys(syntheticOneTimes, not(in(existingKeys))).values());
+      // Group the new events by domain, so that each transaction stays under the entity group
+      // limit.
+      final SetMultimap<Key<?>, OneTime> newOneTimesByRoot = LinkedHashMultimap.create();
+      for (Map.Entry<Key<OneTime>, OneTime> entry : syntheticOneTimes.entrySet()) {
+        OneTime oneTime = entry.getValue();
+        if (!existingKeys.contains(entry.getKey())
+            && !unbatchedBillingTimes.containsEntry(
+                oneTime.getCancellationMatchingBillingEvent(), oneTime.getBillingTime())) {
+          newOneTimesByRoot.put(entry.getKey().getRoot(), oneTime);
+        }
+      }
+      if (!isDryRun) {
+        for (final List<Key<?>> roots : Lists.partition(
+            ImmutableList.copyOf(newOneTimesByRoot.keySet()), ENTITY_GROUPS_PER_TRANSACTION)) {
+          ofy().transactNew(new VoidWork() {
+            @Override
+            public void vrun() {
+              for (Key<?> root : roots) {
+                ofy().save().entities(newOneTimesByRoot.get(root));
+              }
+            }});
+        }
+      }
+      return newOneTimesByRoot.size();
+    }
+
+    /**
+     * Returns the billing times of the synthetic events that unbatched runs already saved, keyed
+     * by their recurring events, among those of the domains of the given missing events.
+     *
+     * <p>Only events billed before the switch to batched mode can have been saved by an unbatched
+     * run, so the domains are only queried for those. Once batched runs are past the switch, this
+     * doesn't query at all.
+     */
+    private SetMultimap<Key<? extends BillingEvent>, DateTime> loadUnbatchedBillingTimes(
+        Iterable<OneTime> missingOneTimes) {
+      Set<Key<?>> rootsToQuery = new LinkedHashSet<>();
+      for (OneTime oneTime : missingOneTimes) {
+        if (oneTime.getBillingTime().isBefore(batchedSinceTime)) {
+          rootsToQuery.add(Key.create(oneTime).getRoot());
+        }
+      }
+      SetMultimap<Key<? extends BillingEvent>, DateTime> billingTimes = HashMultimap.create();
+      for (Key<?> root : rootsToQuery) {
+        for (OneTime oneTime : ofy().load().type(OneTime.class).ancestor(root)) {
+          if (oneTime.getCancellationMatchingBillingEvent() != null) {
+            billingTimes.put(
+                oneTime.getCancellationMatchingBillingEvent(), oneTime.getBillingTime());
+          }
+        }
+      }
+      return billingTimes;
+    }
+
+    /**
+     * Returns a builder for the synthetic {@link OneTime} event of a recurring event that is
+     * billed at the given time.
+     */
+    private OneTime.Builder newSyntheticOneTimeBuilder(
+        Recurring recurring, DateTime billingTime, Registry tld) {
+      DateTime eventTime = billingTime.minus(tld.getAutoRenewGracePeriodLength());
+      // Determine the cost for a one-year renewal.
+      Money renewCost = getDomainRenewCost(recurring.getTargetId(), eventTime, 1);
+      return new BillingEvent.OneTime.Builder()
+          .setBillingTime(billingTime)
+          .setClientId(recurring.getClientId())
+          .setCost(renewCost)
+          .setEventTime(eventTime)
+          .setFlags(union(recurring.getFlags(), Flag.SYNTHETIC))
+          .setParent(recurring.getParentKey())
+          .setPeriodYears(1)
+          .setReason(recurring.getReason())
+          .setSyntheticCreationTime(executeTime)
+          .setCancellationMatchingBillingEvent(Key.create(recurring))
+          .setTargetId(recurring.getTargetId());
+    }
+
+    /**
+     * Returns the billing times of a recurring event that are in scope for a particular mapreduce
+     * run, given the cursor time and the mapreduce execution time.
      */
     private ImmutableSet<DateTime> getBillingTimesInScope(
-        Iterable<DateTime> eventTimes,
-        DateTime cursorTime,
-        DateTime executeTime,
-        final Registry tld) {
+        Recurring recurring, final Registry tld) {
+      // Determine the complete set of times at which this recurring event should occur (up to and
+      // including the runtime of the mapreduce).
+      Iterable<DateTime> eventTimes =
+          recurring.getRecurrenceTimeOfYear().getInstancesInRange(Range.closed(
+              recurring.getEventTime(),
+              earliestOf(recurring.getRecurrenceEndTime(), executeTime)));
+      // Convert these event times to billing times.
       return FluentIterable.from(eventTimes)
           .transform(new Function<DateTime, DateTime>() {
             @Override
@@ -231,6 +422,23 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
           .toSet();
     }
 
+    /**
+     * Returns the id of the synthetic {@link OneTime} event of a recurring event that is billed at
+     * the given time, for use in batched mode.
+     *
+     * <p>The ids are hashes, with the second-highest bit set so that they can't collide with the
+     * sequentially allocated ids of other billing events.
+     */
+    @VisibleForTesting
+    static long getSyntheticOneTimeId(Recurring recurring, DateTime billingTime) {
+      long hash = Hashing.sha256().newHasher()
+          .putLong(recurring.getId())
+          .putLong(billingTime.getMillis())
+          .hash()
+          .asLong();
+      return (hash & ((1L << 62) - 1)) | (1L << 62);
+    }
+
     /**
      * Determines an {@link ImmutableSet} of {@link DateTime}s that have already been persisted
      * for a given recurring billing event.
@@ -265,11 +473,13 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
       extends Reducer<DateTime, DateTime, Void> {
 
     private final boolean isDryRun;
+    private final boolean batched;
     private final DateTime expectedPersistedCursorTime;
 
     public ExpandRecurringBillingEventsReducer(
-        boolean isDryRun, DateTime expectedPersistedCursorTime) {
+        boolean isDryRun, boolean batched, DateTime expectedPersistedCursorTime) {
       this.isDryRun = isDryRun;
+      this.batched = batched;
       this.expectedPersistedCursorTime = expectedPersistedCursorTime;
     }
 
@@ -286,9 +496,20 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
           isDryRun ? "(dry run) " : "",
           cursorTime,
           executionTime);
+      final long billingEventsSaved = getContext().getCounter(SAVED_COUNTER).getValue();
       ofy().transact(new VoidWork() {
         @Override
         public void vrun() {
+          // Report throughput against the range that the cursor is about to advance over.
+          Duration elapsed = new Duration(executionTime, ofy().getTransactionTime());
+          logger.infofmt(
+              "Saved %d OneTime billing events for billing event range [%s, %s) in %s "
+                  + "(%.1f per second).",
+              billingEventsSaved,
+              cursorTime,
+              executionTime,
+              elapsed,
+              billingEventsSaved * 1000.0 / Math.max(1, elapsed.getMillis()));
           Cursor cursor = ofy().load().key(Cursor.createGlobalKey(RECURRING_BILLING)).now();
           DateTime currentCursorTime = (cursor == null ? START_OF_TIME : cursor.getCursorTime());
           if (!currentCursorTime.equals(expectedPersistedCursorTime)) {
@@ -300,6 +521,12 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
           }
           if (!isDryRun) {
             ofy().save().entity(Cursor.createGlobal(RECURRING_BILLING, executionTime));
+            if (batched
+                && ofy().load().key(Cursor.createGlobalKey(RECURRING_BILLING_BATCHED)).now()
+                    == null) {
+              // Every billing time before this run's has now been checked for unbatched events.
+              ofy().save().entity(Cursor.createGlobal(RECURRING_BILLING_BATCHED, executionTime));
+            }
           }
         }
       });
@@ -0,0 +1,146 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static google.registry.model.poll.PollQueueSummary.LOOKAHEAD;
+import static google.registry.model.poll.PollQueueSummary.REPAIR_SETTLE_DURATION;
+import static google.registry.model.poll.PollQueueSummary.countPollMessages;
+import static google.registry.request.Action.Method.POST;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static google.registry.util.PipelineUtils.createJobPath;
+
+import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.appengine.tools.mapreduce.inputs.InMemoryInput;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import google.registry.mapreduce.MapreduceRunner;
+import google.registry.model.poll.PollQueueSummary;
+import google.registry.model.registrar.Registrar;
+import google.registry.request.Action;
+import google.registry.request.Response;
+import google.registry.util.Clock;
+import google.registry.util.FormattingLogger;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+
+/**
+ * A mapreduce that keeps the {@link PollQueueSummary} of each registrar complete and accurate.
+ *
+ * <p>Each summary is first checked against a fresh count of the poll messages through the time it
+ * has counted them through, and replaced if its count is off. A summary that has changed too
+ * recently for the query to be trusted, or that changes while it is being recounted, is left alone
+ * until the next run. Each summary is then advanced to track the messages due over the next
+ * {@link PollQueueSummary#LOOKAHEAD}, which this has to run more often than for polls to see them.
+ *
+ * <p>A summary that has overflowed is reset to an empty one instead, which poll message writes
+ * then start updating again. It is only advanced on the next run, once the writes that it missed
+ * while it was overflowed have had time to be indexed.
+ */
+@Action(path = "/_dr/task/reconcilePollQueueSummaries", method = POST)
+public class ReconcilePollQueueSummariesAction implements Runnable {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** The number of registrars handled by each shard of the mapreduce. */
+  private static final int REGISTRARS_PER_SHARD = 20;
+
+  @Inject Clock clock;
+  @Inject MapreduceRunner mrRunner;
+  @Inject Response response;
+  @Inject ReconcilePollQueueSummariesAction() {}
+
+  @Override
+  public void run() {
+    ImmutableList.Builder<String> clientIds = new ImmutableList.Builder<>();
+    for (Registrar registrar : Registrar.loadAll()) {
+      clientIds.add(registrar.getClientId());
+    }
+    response.sendJavaScriptRedirect(createJobPath(mrRunner
+        .setJobName("Reconcile poll queue summaries")
+        .setModuleName("backend")
+        .runMapOnly(
+            new ReconcilePollQueueSummariesMapper(clock.nowUtc()),
+            ImmutableList.of(new InMemoryInput<>(
+                Lists.partition(clientIds.build(), REGISTRARS_PER_SHARD))))));
+  }
+
+  /** Mapper to repair and advance the poll queue summary of a registrar, given its client id. */
+  public static class ReconcilePollQueueSummariesMapper extends Mapper<String, Void, Void> {
+
+    private static final long serialVersionUID = -2986321434329710823L;
+
+    private final DateTime executeTime;
+
+    public ReconcilePollQueueSummariesMapper(DateTime executeTime) {
+      this.executeTime = executeTime;
+    }
+
+    @Override
+    public final void map(String clientId) {
+      try {
+        PollQueueSummary summary = PollQueueSummary.load(clientId);
+        if (summary.isOverflowed()) {
+          reset(summary);
+          return;
+        }
+        repair(clientId);
+        if (PollQueueSummary.advance(clientId, executeTime, executeTime.plus(LOOKAHEAD))) {
+          getContext().incrementCounter("summaries advanced");
+        } else {
+          getContext().incrementCounter("advance skipped, concurrently advanced");
+        }
+      } catch (Throwable t) {
+        logger.severefmt(t, "Error while reconciling poll queue summary for %s", clientId);
+        getContext().incrementCounter("error");
+      }
+    }
+
+    private void reset(PollQueueSummary summary) {
+      String clientId = summary.getClientId();
+      if (!PollQueueSummary.replace(
+          summary, PollQueueSummary.create(clientId, START_OF_TIME, 0, START_OF_TIME))) {
+        getContext().incrementCounter("reset skipped, concurrently modified");
+        return;
+      }
+      logger.infofmt("Reset overflowed poll queue summary for %s", clientId);
+      getContext().incrementCounter("overflowed summaries reset");
+    }
+
+    private void repair(String clientId) {
+      PollQueueSummary summary = PollQueueSummary.load(clientId);
+      if (summary.getTrackedThrough().equals(START_OF_TIME)) {
+        getContext().incrementCounter("repair skipped, nothing tracked yet");
+        return;
+      }
+      if (summary.getLastChangeTime().isAfter(executeTime.minus(REPAIR_SETTLE_DURATION))) {
+        getContext().incrementCounter("repair skipped, changed too recently");
+        return;
+      }
+      long actualCount = countPollMessages(clientId, START_OF_TIME, summary.getCountedThrough());
+      if (actualCount == summary.getDueCount()) {
+        getContext().incrementCounter("summaries already accurate");
+        return;
+      }
+      if (!PollQueueSummary.replace(summary, summary.withDueCount(actualCount))) {
+        getContext().incrementCounter("repair skipped, concurrently modified");
+        return;
+      }
+      logger.infofmt(
+          "Repaired poll queue summary for %s: counted %d messages, had %d",
+          clientId, actualCount, summary.getDueCount());
+      getContext().incrementCounter("summaries repaired");
+    }
+  }
+}
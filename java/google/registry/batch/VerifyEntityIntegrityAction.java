@@ -27,21 +27,22 @@ import static google.registry.util.DateTimeUtils.isAtOrAfter;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 import static google.registry.util.FormattingLogger.getLoggerForCallerClass;
 import static google.registry.util.PipelineUtils.createJobPath;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.joda.time.DateTimeZone.UTC;
 
-import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
 import com.google.appengine.tools.mapreduce.inputs.DatastoreKeyInput;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import com.googlecode.objectify.Key;
 import google.registry.mapreduce.MapreduceRunner;
-import google.registry.mapreduce.inputs.EppResourceInputs;
+import google.registry.mapreduce.inputs.ChunkingKeyInput;
 import google.registry.model.EppResource;
 import google.registry.model.ImmutableObject;
 import google.registry.model.contact.ContactResource;
@@ -58,11 +59,14 @@ import google.registry.model.index.ForeignKeyIndex.ForeignKeyDomainIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyHostIndex;
 import google.registry.model.transfer.TransferData.TransferServerApproveEntity;
 import google.registry.request.Action;
+import google.registry.request.HttpException.BadRequestException;
+import google.registry.request.Parameter;
 import google.registry.request.Response;
 import google.registry.util.FormattingLogger;
 import google.registry.util.NonFinalForTesting;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -87,12 +91,23 @@ import org.joda.time.DateTime;
  *       {@link DomainApplicationIndex} that links to all of them, and has a matching
  *       fullyQualifiedDomainName.
  * </ul>
+ *
+ * <p>Resources and indexes are read in chunks, and everything that a chunk's entities reference is
+ * then loaded in one batch ahead of checking them. For faster routine runs, the {@code
+ * samplePercent} parameter restricts the checks to a deterministic sample of the entities and
+ * foreign keys.
  */
 @Action(path = "/_dr/task/verifyEntityIntegrity", method = POST)
 public class VerifyEntityIntegrityAction implements Runnable {
 
   private static final FormattingLogger logger = getLoggerForCallerClass();
   private static final int NUM_SHARDS = 200;
+
+  /** The number of entities read, and whose references are loaded, together. */
+  private static final int ENTITIES_PER_CHUNK = 100;
+
+  static final String PARAM_SAMPLE_PERCENT = "samplePercent";
+
   @NonFinalForTesting
   @VisibleForTesting
   static BatchComponent component = DaggerBatchComponent.create();
@@ -104,7 +119,8 @@ public class VerifyEntityIntegrityAction implements Runnable {
           ForeignKeyContactIndex.class,
           DomainBase.class,
           HostResource.class,
-          ContactResource.class);
+          ContactResource.class,
+          EppResourceIndex.class);
 
   static final String KIND_CONTACT_RESOURCE = getKind(ContactResource.class);
   static final String KIND_CONTACT_INDEX = getKind(ForeignKeyContactIndex.class);
@@ -117,27 +133,31 @@ public class VerifyEntityIntegrityAction implements Runnable {
 
   @Inject MapreduceRunner mrRunner;
   @Inject Response response;
+  @Inject @Parameter(PARAM_SAMPLE_PERCENT) Optional<Integer> samplePercent;
   @Inject VerifyEntityIntegrityAction() {}
 
   @Override
   public void run() {
+    if (samplePercent.isPresent() && (samplePercent.get() < 1 || samplePercent.get() > 100)) {
+      throw new BadRequestException(
+          String.format("Sample percent must be between 1 and 100: %d", samplePercent.get()));
+    }
     DateTime scanTime = DateTime.now(UTC);
     response.sendJavaScriptRedirect(createJobPath(mrRunner
         .setJobName("Verify entity integrity")
         .setModuleName("backend")
         .setDefaultReduceShards(NUM_SHARDS)
         .runMapreduce(
-            new VerifyEntityIntegrityMapper(scanTime),
+            new VerifyEntityIntegrityMapper(scanTime, samplePercent.or(100)),
             new VerifyEntityIntegrityReducer(scanTime),
             getInputs())));
   }
 
-  private static ImmutableSet<Input<? extends Object>> getInputs() {
-    ImmutableSet.Builder<Input<? extends Object>> builder =
-        new ImmutableSet.Builder<Input<? extends Object>>()
-            .add(EppResourceInputs.createIndexInput());
+  private static ImmutableSet<ChunkingKeyInput> getInputs() {
+    ImmutableSet.Builder<ChunkingKeyInput> builder = new ImmutableSet.Builder<>();
     for (Class<?> clazz : RESOURCE_CLASSES) {
-      builder.add(new DatastoreKeyInput(getKind(clazz), NUM_SHARDS));
+      builder.add(new ChunkingKeyInput(
+          new DatastoreKeyInput(getKind(clazz), NUM_SHARDS), ENTITIES_PER_CHUNK));
     }
     return builder.build();
   }
@@ -183,13 +203,20 @@ public class VerifyEntityIntegrityAction implements Runnable {
    * check integrity of foreign key entities.
    */
   public static class VerifyEntityIntegrityMapper
-      extends Mapper<Object, MapperKey, Key<? extends ImmutableObject>> {
+      extends Mapper<List<?>, MapperKey, Key<? extends ImmutableObject>> {
 
-    private static final long serialVersionUID = -5413882340475018051L;
+    private static final long serialVersionUID = -5413882340475018052L;
     private final DateTime scanTime;
+    private final int samplePercent;
 
     private transient VerifyEntityIntegrityStreamer integrityStreamer;
 
+    /** The keys referenced by the entities being mapped, which were loaded in one batch. */
+    private transient ImmutableSet<Key<Object>> prefetchedKeys;
+
+    /** The entities that exist among {@link #prefetchedKeys}. */
+    private transient Map<Key<Object>, Object> prefetchedEntities;
+
     // The integrityStreamer field must be marked as transient so that instances of the Mapper class
     // can be serialized by the MapReduce framework.  Thus, every time is used, lazily construct it
     // if it doesn't exist yet.
@@ -200,23 +227,140 @@ public class VerifyEntityIntegrityAction implements Runnable {
       return integrityStreamer;
     }
 
-    public VerifyEntityIntegrityMapper(DateTime scanTime) {
+    public VerifyEntityIntegrityMapper(DateTime scanTime, int samplePercent) {
       this.scanTime = scanTime;
+      this.samplePercent = samplePercent;
     }
 
     @Override
-    public final void map(Object keyOrEntity) {
+    public final void map(List<?> chunk) {
+      // Load the chunk of keys in one batch so we're dealing only with entities.
+      List<Object> entities = new ArrayList<>();
       try {
-        // We use different inputs, some that return keys and some that return entities.  Load any
-        // keys that we get so we're dealing only with entities.
-        if (keyOrEntity instanceof com.google.appengine.api.datastore.Key) {
-          Key<?> key = Key.create((com.google.appengine.api.datastore.Key) keyOrEntity);
-          keyOrEntity = ofy().load().key(key).now();
-        }
-        mapEntity(keyOrEntity);
+        entities.addAll(loadChunk(chunk));
+        prefetchReferences(entities);
       } catch (Throwable e) {
         // Log and swallow so that the mapreduce doesn't abort on first error.
-        logger.severefmt(e, "Exception while checking integrity of entity: %s", keyOrEntity);
+        logger.severefmt(
+            e, "Exception while loading entities to check integrity of: %s", chunk);
+        return;
+      }
+      for (Object entity : entities) {
+        try {
+          mapEntity(entity);
+        } catch (Throwable e) {
+          // Log and swallow so that the mapreduce doesn't abort on first error.
+          logger.severefmt(e, "Exception while checking integrity of entity: %s", entity);
+        }
+      }
+    }
+
+    @Override
+    public void endSlice() {
+      if (integrityStreamer != null) {
+        integrityStreamer.flush();
+      }
+      super.endSlice();
+    }
+
+    private Collection<Object> loadChunk(List<?> rawKeys) {
+      List<Key<Object>> keys = new ArrayList<>();
+      for (Object rawKey : rawKeys) {
+        keys.add(Key.create((com.google.appengine.api.datastore.Key) rawKey));
+      }
+      Map<Key<Object>, Object> entities = ofy().load().keys(keys);
+      if (entities.size() < keys.size()) {
+        // The entities were deleted after the keys were read, so there's nothing to check.
+        getContext()
+            .incrementCounter("entities deleted during scan", keys.size() - entities.size());
+      }
+      return entities.values();
+    }
+
+    /** Loads everything that the sampled entities reference in one batch. */
+    private void prefetchReferences(List<Object> entities) {
+      ImmutableSet.Builder<Key<Object>> keys = new ImmutableSet.Builder<>();
+      for (Object entity : entities) {
+        if (isSampled(Key.create(entity))) {
+          addReferencedKeys(entity, keys);
+        }
+      }
+      prefetchedKeys = keys.build();
+      prefetchedEntities = ofy().load().keys(prefetchedKeys);
+    }
+
+    /** Adds the keys of all entities whose existence is verified when mapping an entity. */
+    private static void addReferencedKeys(Object entity, ImmutableSet.Builder<Key<Object>> keys) {
+      if (entity instanceof DomainBase) {
+        DomainBase domainBase = (DomainBase) entity;
+        addKeys(keys, domainBase.getReferencedContacts());
+        addKeys(keys, domainBase.getNameservers());
+        if (domainBase instanceof DomainResource) {
+          DomainResource domain = (DomainResource) domainBase;
+          addKey(keys, domain.getTransferData().getServerApproveAutorenewEvent());
+          addKey(keys, domain.getTransferData().getServerApproveAutorenewPollMessage());
+          addKey(keys, domain.getTransferData().getServerApproveBillingEvent());
+          addKeys(keys, domain.getTransferData().getServerApproveEntities());
+          addKey(keys, domain.getApplication());
+          addKey(keys, domain.getAutorenewBillingEvent());
+          for (GracePeriod gracePeriod : domain.getGracePeriods()) {
+            addKey(keys, gracePeriod.getOneTimeBillingEvent());
+            addKey(keys, gracePeriod.getRecurringBillingEvent());
+          }
+        }
+      } else if (entity instanceof HostResource) {
+        addKey(keys, ((HostResource) entity).getSuperordinateDomain());
+      } else if (entity instanceof ForeignKeyIndex<?>) {
+        addKey(keys, ((ForeignKeyIndex<?>) entity).getResourceKey());
+      } else if (entity instanceof DomainApplicationIndex) {
+        addKeys(keys, ((DomainApplicationIndex) entity).getKeys());
+      } else if (entity instanceof EppResourceIndex) {
+        addKey(keys, ((EppResourceIndex) entity).getKey());
+      }
+    }
+
+    private static void addKeys(
+        ImmutableSet.Builder<Key<Object>> keys, Iterable<? extends Key<?>> keysToAdd) {
+      for (Key<?> key : keysToAdd) {
+        addKey(keys, key);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addKey(ImmutableSet.Builder<Key<Object>> keys, @Nullable Key<?> key) {
+      if (key != null) {
+        keys.add((Key<Object>) key);
+      }
+    }
+
+    /** Returns whether the checks of references from the entity with the given key are sampled. */
+    private boolean isSampled(Key<?> key) {
+      return isSampled(key.getString());
+    }
+
+    /**
+     * Returns whether the given id is in the sample.
+     *
+     * <p>This is a deterministic function of the id, so that all of the entities emitted under the
+     * same mapper key are either checked together or not at all.
+     */
+    private boolean isSampled(String id) {
+      return isSampled(id, samplePercent);
+    }
+
+    @VisibleForTesting
+    static boolean isSampled(String id, int samplePercent) {
+      return samplePercent >= 100
+          || (Hashing.murmur3_32().hashString(id, UTF_8).asInt() & Integer.MAX_VALUE) % 100
+              < samplePercent;
+    }
+
+    /** Emits a key to be reduced, if its mapper key is in the sample. */
+    private void emitIfSampled(MapperKey mapperKey, Key<? extends ImmutableObject> key) {
+      if (isSampled(mapperKey.kind + ":" + mapperKey.id)) {
+        emit(mapperKey, key);
+      } else {
+        getContext().incrementCounter("skipped by sampling " + mapperKey.kind);
       }
     }
 
@@ -236,7 +380,8 @@ public class VerifyEntityIntegrityAction implements Runnable {
     }
 
     private void mapEppResource(EppResource resource) {
-      emit(MapperKey.create(EntityKind.EPP_RESOURCE, resource.getRepoId()), Key.create(resource));
+      emitIfSampled(
+          MapperKey.create(EntityKind.EPP_RESOURCE, resource.getRepoId()), Key.create(resource));
       if (resource instanceof DomainBase) {
         DomainBase domainBase = (DomainBase) resource;
         Key<?> key = Key.create(domainBase);
@@ -245,7 +390,7 @@ public class VerifyEntityIntegrityAction implements Runnable {
         if (domainBase instanceof DomainApplication) {
           getContext().incrementCounter("domain applications");
           DomainApplication application = (DomainApplication) domainBase;
-          emit(
+          emitIfSampled(
               MapperKey.create(EntityKind.APPLICATION, application.getFullyQualifiedDomainName()),
               Key.create(application));
         } else if (domainBase instanceof DomainResource) {
@@ -272,21 +417,21 @@ public class VerifyEntityIntegrityAction implements Runnable {
             verifyExistence(key, gracePeriod.getOneTimeBillingEvent());
             verifyExistence(key, gracePeriod.getRecurringBillingEvent());
           }
-          emit(
+          emitIfSampled(
               MapperKey.create(EntityKind.DOMAIN, domain.getFullyQualifiedDomainName()),
               Key.create(domain));
         }
       } else if (resource instanceof ContactResource) {
         getContext().incrementCounter("contact resources");
         ContactResource contact = (ContactResource) resource;
-        emit(
+        emitIfSampled(
             MapperKey.create(EntityKind.CONTACT, contact.getContactId()),
             Key.create(contact));
       } else if (resource instanceof HostResource) {
         getContext().incrementCounter("host resources");
         HostResource host = (HostResource) resource;
         verifyExistence(Key.create(host), host.getSuperordinateDomain());
-        emit(
+        emitIfSampled(
             MapperKey.create(EntityKind.HOST, host.getFullyQualifiedHostName()),
             Key.create(host));
       } else {
@@ -311,13 +456,13 @@ public class VerifyEntityIntegrityAction implements Runnable {
       }
       if (fki instanceof ForeignKeyDomainIndex) {
         getContext().incrementCounter("domain foreign key indexes");
-        emit(MapperKey.create(EntityKind.DOMAIN, fki.getForeignKey()), fkiKey);
+        emitIfSampled(MapperKey.create(EntityKind.DOMAIN, fki.getForeignKey()), fkiKey);
       } else if (fki instanceof ForeignKeyContactIndex) {
         getContext().incrementCounter("contact foreign key indexes");
-        emit(MapperKey.create(EntityKind.CONTACT, fki.getForeignKey()), fkiKey);
+        emitIfSampled(MapperKey.create(EntityKind.CONTACT, fki.getForeignKey()), fkiKey);
       } else if (fki instanceof ForeignKeyHostIndex) {
         getContext().incrementCounter("host foreign key indexes");
-        emit(MapperKey.create(EntityKind.HOST, fki.getForeignKey()), fkiKey);
+        emitIfSampled(MapperKey.create(EntityKind.HOST, fki.getForeignKey()), fkiKey);
       } else {
         throw new IllegalStateException(
             String.format("Foreign key index is of unknown type: %s", fki));
@@ -336,7 +481,7 @@ public class VerifyEntityIntegrityAction implements Runnable {
               Key.create(application),
               "Domain application index points to application with different domain name");
         }
-        emit(
+        emitIfSampled(
             MapperKey.create(EntityKind.APPLICATION, dai.getFullyQualifiedDomainName()),
             daiKey);
       }
@@ -351,15 +496,22 @@ public class VerifyEntityIntegrityAction implements Runnable {
           eri.getKey(),
           "EPP resource index id does not match repoId of reference");
       verifyExistence(eriKey, eri.getKey());
-      emit(MapperKey.create(EntityKind.EPP_RESOURCE, eriRepoId), eriKey);
+      emitIfSampled(MapperKey.create(EntityKind.EPP_RESOURCE, eriRepoId), eriKey);
       getContext().incrementCounter("EPP resource indexes to " + eri.getKind());
     }
 
     private <E> void verifyExistence(Key<?> source, Set<Key<E>> targets) {
-      Set<Key<E>> missingEntityKeys =
-          Sets.difference(targets, ofy().load().<E>keys(targets).keySet());
+      if (!isSampled(source)) {
+        return;
+      }
+      ImmutableSet.Builder<Key<E>> missingEntityKeys = new ImmutableSet.Builder<>();
+      for (Key<E> target : targets) {
+        if (loadReference(target) == null) {
+          missingEntityKeys.add(target);
+        }
+      }
       integrity().checkOneToMany(
-          missingEntityKeys.isEmpty(),
+          missingEntityKeys.build().isEmpty(),
           source,
           targets,
           "Target entity does not exist");
@@ -367,13 +519,23 @@ public class VerifyEntityIntegrityAction implements Runnable {
 
     @Nullable
     private <E> E verifyExistence(Key<?> source, @Nullable Key<E> target) {
-      if (target == null) {
+      if (target == null || !isSampled(source)) {
         return null;
       }
-      E entity = ofy().load().key(target).now();
+      E entity = loadReference(target);
       integrity().check(entity != null, source, target, "Target entity does not exist");
       return entity;
     }
+
+    /** Returns a referenced entity, from those that were prefetched if it was among them. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private <E> E loadReference(Key<E> key) {
+      if (prefetchedKeys != null && prefetchedKeys.contains(key)) {
+        return (E) prefetchedEntities.get(key);
+      }
+      return ofy().load().key(key).now();
+    }
   }
 
   /** Reducer that checks integrity of foreign key entities. */
@@ -400,6 +562,14 @@ public class VerifyEntityIntegrityAction implements Runnable {
       this.scanTime = scanTime;
     }
 
+    @Override
+    public void endSlice() {
+      if (integrityStreamer != null) {
+        integrityStreamer.flush();
+      }
+      super.endSlice();
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public void reduce(MapperKey mapperKey, ReducerInput<Key<? extends ImmutableObject>> keys) {
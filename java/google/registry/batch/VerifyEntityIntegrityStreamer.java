@@ -36,10 +36,12 @@ import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import google.registry.bigquery.BigqueryFactory;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.util.Retrier;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -49,15 +51,22 @@ import org.joda.time.DateTime;
 
 /**
  * An injected utility class used to check entity integrity and stream violations to BigQuery.
+ *
+ * <p>Violations are buffered, and streamed in requests of up to {@link #MAX_ROWS_PER_REQUEST}
+ * rows, so {@link #flush} must be called when done with the streamer.
  */
 @AutoFactory(allowSubclasses = true)
 public class VerifyEntityIntegrityStreamer {
 
+  /** The maximum number of rows to stream to BigQuery in one request, as BigQuery recommends. */
+  static final int MAX_ROWS_PER_REQUEST = 500;
+
   private final String projectId;
   private final BigqueryFactory bigqueryFactory;
   private final Supplier<String> idGenerator;
   private final Retrier retrier;
   private final DateTime scanTime;
+  private final List<Rows> bufferedRows = new ArrayList<>();
   private Bigquery bigquery;
 
   public VerifyEntityIntegrityStreamer(
@@ -84,8 +93,8 @@ public class VerifyEntityIntegrityStreamer {
   }
 
   /**
-   * Check that the given conditional holds, and if not, stream the supplied source, target, and
-   * message information to BigQuery.
+   * Check that the given conditional holds, and if not, buffer the supplied source, target, and
+   * message information to be streamed to BigQuery.
    *
    * @return Whether the check succeeded.
    */
@@ -167,10 +176,23 @@ public class VerifyEntityIntegrityStreamer {
             new TableDataInsertAllRequest.Rows().setJson(rowData).setInsertId(idGenerator.get()));
       }
     }
-    streamToBigqueryWithRetry(rows.build());
+    bufferedRows.addAll(rows.build());
+    while (bufferedRows.size() >= MAX_ROWS_PER_REQUEST) {
+      List<Rows> request = bufferedRows.subList(0, MAX_ROWS_PER_REQUEST);
+      streamToBigqueryWithRetry(ImmutableList.copyOf(request));
+      request.clear();
+    }
     return false;
   }
 
+  /** Streams any buffered violations to BigQuery. */
+  void flush() {
+    for (List<Rows> request : Lists.partition(bufferedRows, MAX_ROWS_PER_REQUEST)) {
+      streamToBigqueryWithRetry(ImmutableList.copyOf(request));
+    }
+    bufferedRows.clear();
+  }
+
   private void streamToBigqueryWithRetry(List<Rows> rows) {
     try {
       final InsertAll request =
@@ -245,6 +245,20 @@ public final class RegistryConfig {
       return 100;
     }
 
+    /**
+     * Number of resources that mapreduces buffer before rewinding them to a point in time together,
+     * so that the commit log mutations they need are fetched in a single batch get.
+     *
+     * @see google.registry.model.EppResourceUtils#loadAtPointInTime
+     * @see google.registry.rde.RdeStagingMapper
+     * @see google.registry.tools.server.GenerateZoneFilesAction
+     */
+    @Provides
+    @Config("pointInTimeLoadBatchSize")
+    public static int providePointInTimeLoadBatchSize() {
+      return 100;
+    }
+
     /**
      * Returns the Google Cloud Storage bucket for staging BRDA escrow deposits.
      *
@@ -429,6 +443,30 @@ public final class RegistryConfig {
       return config.registryPolicy.tmchMarksDbUrl;
     }
 
+    /**
+     * Maximum number of lines in each LORDN file uploaded to MarksDB.
+     *
+     * @see google.registry.tmch.NordnUploadAction
+     */
+    @Provides
+    @Config("lordnMaxLinesPerUpload")
+    public static int provideLordnMaxLinesPerUpload(RegistryConfigSettings config) {
+      return config.registryPolicy.lordnMaxLinesPerUpload;
+    }
+
+    /**
+     * Maximum number of bytes of CSV lines in each LORDN file uploaded to MarksDB.
+     *
+     * <p>A single line longer than this is still uploaded, as a file of its own.
+     *
+     * @see google.registry.tmch.NordnUploadAction
+     */
+    @Provides
+    @Config("lordnMaxBytesPerUpload")
+    public static int provideLordnMaxBytesPerUpload(RegistryConfigSettings config) {
+      return config.registryPolicy.lordnMaxBytesPerUpload;
+    }
+
     /**
      * The email address that outgoing emails from the app are sent from.
      *
@@ -886,6 +924,17 @@ public final class RegistryConfig {
       return config.kms.projectId;
     }
 
+    /**
+     * Returns the amount of time that a decrypted secret is kept in memory by the KMS keyring.
+     *
+     * @see google.registry.keyring.kms.KmsKeyring
+     */
+    @Provides
+    @Config("kmsSecretCacheDuration")
+    public static Duration provideKmsSecretCacheDuration(RegistryConfigSettings config) {
+      return Duration.standardSeconds(config.kms.secretCacheSeconds);
+    }
+
     @Provides
     @Config("customLogicFactoryClass")
     public static String provideCustomLogicFactoryClass(RegistryConfigSettings config) {
@@ -1120,6 +1169,35 @@ public final class RegistryConfig {
     return Duration.standardSeconds(CONFIG_SETTINGS.get().caching.singletonCacheRefreshSeconds);
   }
 
+  /**
+   * Returns the amount of time between checks of whether the in-memory registrar snapshot is stale.
+   *
+   * @see google.registry.model.registrar.RegistrarCache
+   */
+  public static Duration getRegistrarVersionCheckDuration() {
+    return Duration.standardSeconds(CONFIG_SETTINGS.get().caching.registrarVersionCheckSeconds);
+  }
+
+  /**
+   * Returns the amount of time that a domain name is remembered as taken by the drop-catch check
+   * that runs before domain create transactions, or zero if the check is disabled.
+   *
+   * @see google.registry.flows.domain.RecentDomainCreates
+   */
+  public static Duration getRecentDomainCreateMarkerDuration() {
+    return Duration.standardSeconds(
+        CONFIG_SETTINGS.get().caching.recentDomainCreateMarkerSeconds);
+  }
+
+  /**
+   * Returns the amount of time that the cached view of all TLD cursors is served before reloading.
+   *
+   * @see google.registry.model.common.CursorDao
+   */
+  public static Duration getCursorCacheDuration() {
+    return Duration.standardSeconds(CONFIG_SETTINGS.get().caching.cursorCacheSeconds);
+  }
+
   /**
    * Returns the amount of time a domain label list should be cached in memory before expiring.
    *
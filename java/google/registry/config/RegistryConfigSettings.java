@@ -68,6 +68,8 @@ public class RegistryConfigSettings {
     public String tmchCaMode;
     public String tmchCrlUrl;
     public String tmchMarksDbUrl;
+    public int lordnMaxLinesPerUpload;
+    public int lordnMaxBytesPerUpload;
     public String checkApiServletClientId;
     public String reservedTermsExportDisclaimer;
     public String whoisDisclaimer;
@@ -84,11 +86,15 @@ public class RegistryConfigSettings {
   public static class Kms {
     public String keyringName;
     public String projectId;
+    public int secretCacheSeconds;
   }
 
   /** Configuration for caching. */
   public static class Caching {
     public int singletonCacheRefreshSeconds;
+    public int registrarVersionCheckSeconds;
+    public int recentDomainCreateMarkerSeconds;
+    public int cursorCacheSeconds;
     public int domainLabelCachingSeconds;
     public int singletonCachePersistSeconds;
     public int staticPremiumListMaxCachedEntries;
@@ -15,19 +15,28 @@
 package google.registry.cron;
 
 import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
+import static google.registry.cron.FanoutUtils.createTaskName;
+import static google.registry.cron.FanoutUtils.enqueueInBatches;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
-import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.request.Action;
 import google.registry.request.Parameter;
+import google.registry.util.Clock;
 import google.registry.util.TaskEnqueuer;
 import java.util.Random;
 import javax.inject.Inject;
+import org.joda.time.DateTime;
 
-/** Action for fanning out cron tasks for each commit log bucket. */
+/**
+ * Action for fanning out cron tasks for each commit log bucket.
+ *
+ * <p>The tasks are enqueued in batches, with names that keep them from being enqueued twice by
+ * runs of the same fanout in the same minute.
+ */
 @Action(path = "/_dr/cron/commitLogFanout", automaticallyPrintOk = true)
 public final class CommitLogFanoutAction implements Runnable {
 
@@ -35,6 +44,7 @@ public final class CommitLogFanoutAction implements Runnable {
 
   private static final Random random = new Random();
 
+  @Inject Clock clock;
   @Inject TaskEnqueuer taskEnqueuer;
   @Inject @Parameter("endpoint") String endpoint;
   @Inject @Parameter("queue") String queue;
@@ -43,14 +53,17 @@ public final class CommitLogFanoutAction implements Runnable {
 
   @Override
   public void run() {
-    Queue taskQueue = getQueue(queue);
+    DateTime now = clock.nowUtc();
+    String fanoutId = queue + endpoint;
+    ImmutableList.Builder<TaskOptions> tasks = new ImmutableList.Builder<>();
     for (int bucketId : CommitLogBucket.getBucketIds()) {
-      TaskOptions taskOptions = TaskOptions.Builder.withUrl(endpoint)
+      tasks.add(TaskOptions.Builder.withUrl(endpoint)
+          .taskName(createTaskName(fanoutId, Integer.toString(bucketId), now))
           .param(BUCKET_PARAM, Integer.toString(bucketId))
           .countdownMillis(jitterSeconds.isPresent()
               ? random.nextInt((int) SECONDS.toMillis(jitterSeconds.get()))
-              : 0);
-      taskEnqueuer.enqueue(taskQueue, taskOptions);
+              : 0));
     }
+    enqueueInBatches(taskEnqueuer, getQueue(queue), tasks.build());
   }
 }
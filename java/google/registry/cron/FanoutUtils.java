@@ -0,0 +1,75 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.cron;
+
+import static com.google.appengine.api.taskqueue.QueueConstants.maxTasksPerAdd;
+import static com.google.common.collect.Lists.partition;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.hash.Hashing;
+import google.registry.util.FormattingLogger;
+import google.registry.util.TaskEnqueuer;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/** Static utilities for the actions that fan out cron tasks. */
+final class FanoutUtils {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  private static final DateTimeFormatter MINUTE_FORMATTER =
+      DateTimeFormat.forPattern("yyyyMMddHHmm").withZoneUTC();
+
+  /**
+   * Returns a name for a fanned out task that is the same for every run of a fanout in a minute.
+   *
+   * <p>App Engine refuses to add a task with the name of a recent one, so this keeps a cron job
+   * that is delivered twice, or a fanout that is retried after enqueuing only some of its tasks,
+   * from running any of the tasks twice.
+   *
+   * @param fanoutId identifies the fanout, e.g. by its queue, endpoint and parameters
+   * @param target the TLD, bucket, etc, that the task is for
+   */
+  static String createTaskName(String fanoutId, String target, DateTime now) {
+    return String.format(
+        "fanout-%08x-%s-%s",
+        Hashing.murmur3_32().hashString(fanoutId, UTF_8).asInt(),
+        target.replaceAll("[^a-zA-Z0-9_-]", "_"),
+        MINUTE_FORMATTER.print(now));
+  }
+
+  /**
+   * Enqueues tasks in batches of as many as the queue accepts in a single request.
+   *
+   * <p>Tasks with the names of tasks that were already enqueued are skipped, and the rest of their
+   * batch is still enqueued.
+   */
+  static void enqueueInBatches(TaskEnqueuer taskEnqueuer, Queue queue, List<TaskOptions> tasks) {
+    for (List<TaskOptions> batch : partition(tasks, maxTasksPerAdd())) {
+      try {
+        taskEnqueuer.enqueue(queue, batch);
+      } catch (TaskAlreadyExistsException e) {
+        logger.infofmt("Skipped tasks that were already enqueued: %s", e.getTaskNames());
+      }
+    }
+  }
+
+  private FanoutUtils() {}
+}
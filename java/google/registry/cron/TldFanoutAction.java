@@ -23,14 +23,16 @@ import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Iterables.getFirst;
 import static com.google.common.collect.Multimaps.filterKeys;
 import static com.google.common.collect.Sets.difference;
+import static google.registry.cron.FanoutUtils.createTaskName;
+import static google.registry.cron.FanoutUtils.enqueueInBatches;
 import static google.registry.model.registry.Registries.getTldsOfType;
 import static google.registry.model.registry.Registry.TldType.REAL;
 import static google.registry.model.registry.Registry.TldType.TEST;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
-import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
@@ -38,10 +40,12 @@ import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.ParameterMap;
 import google.registry.request.RequestParameters;
+import google.registry.util.Clock;
 import google.registry.util.TaskEnqueuer;
 import java.util.Random;
 import java.util.Set;
 import javax.inject.Inject;
+import org.joda.time.DateTime;
 
 /**
  * Action for fanning out cron tasks shared by TLD.
@@ -66,6 +70,9 @@ import javax.inject.Inject;
  * <li>{@code :tld} Substituted with an ASCII tld, if tld fanout is enabled.
  *   This patharg is mostly useful for aesthetic purposes, since tasks are already namespaced.
  * </ul>
+ *
+ * <p>The tasks are enqueued in batches, with names that keep them from being enqueued twice by
+ * runs of the same fanout in the same minute.
  */
 @Action(path = "/_dr/cron/fanout", automaticallyPrintOk = true)
 public final class TldFanoutAction implements Runnable {
@@ -92,6 +99,7 @@ public final class TldFanoutAction implements Runnable {
   private static final String TLD_PATHARG = ":tld";
   private static final Random random = new Random();
 
+  @Inject Clock clock;
   @Inject TaskEnqueuer taskEnqueuer;
   @Inject @Parameter(ENDPOINT_PARAM) String endpoint;
   @Inject @Parameter(QUEUE_PARAM) String queue;
@@ -110,10 +118,15 @@ public final class TldFanoutAction implements Runnable {
         forEachRealTld ? getTldsOfType(REAL) : ImmutableSet.<String>of(),
         forEachTestTld ? getTldsOfType(TEST) : ImmutableSet.<String>of()));
     Multimap<String, String> flowThruParams = filterKeys(params, not(in(CONTROL_PARAMS)));
-    Queue taskQueue = getQueue(queue);
+    DateTime now = clock.nowUtc();
+    // Fanouts to the same endpoint can differ by their parameters alone, e.g. the LORDN phase.
+    String fanoutId = queue + endpoint + flowThruParams;
+    ImmutableList.Builder<TaskOptions> tasks = new ImmutableList.Builder<>();
     for (String namespace : difference(namespaces, excludes)) {
-      taskEnqueuer.enqueue(taskQueue, createTaskOptions(namespace, flowThruParams));
+      tasks.add(createTaskOptions(namespace, flowThruParams)
+          .taskName(createTaskName(fanoutId, namespace, now)));
     }
+    enqueueInBatches(taskEnqueuer, getQueue(queue), tasks.build());
   }
 
   private TaskOptions createTaskOptions(String tld, Multimap<String, String> params) {
@@ -84,8 +84,7 @@ public class DnsQueue {
    * Adds a task to the queue to refresh the DNS information for the specified subordinate host.
    */
   public TaskHandle addHostRefreshTask(String fullyQualifiedHostName) {
-    Optional<InternetDomainName> tld =
-        Registries.findTldForName(InternetDomainName.from(fullyQualifiedHostName));
+    Optional<InternetDomainName> tld = Registries.findTldForName(fullyQualifiedHostName);
     checkArgument(tld.isPresent(),
         String.format("%s is not a subordinate host to a known tld", fullyQualifiedHostName));
     return addToQueue(TargetType.HOST, fullyQualifiedHostName, tld.get().toString());
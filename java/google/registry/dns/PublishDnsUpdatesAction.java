@@ -14,7 +14,6 @@
 
 package google.registry.dns;
 
-import static google.registry.model.server.Lock.executeWithLocks;
 import static google.registry.request.Action.Method.POST;
 import static google.registry.util.CollectionUtils.nullToEmpty;
 
@@ -22,6 +21,7 @@ import com.google.common.net.InternetDomainName;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsMetrics.Status;
 import google.registry.dns.writer.DnsWriter;
+import google.registry.model.server.LockHandler;
 import google.registry.request.Action;
 import google.registry.request.HttpException.ServiceUnavailableException;
 import google.registry.request.Parameter;
@@ -46,6 +46,7 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   @Inject DnsQueue dnsQueue;
   @Inject DnsWriterProxy dnsWriterProxy;
   @Inject DnsMetrics dnsMetrics;
+  @Inject LockHandler lockHandler;
   @Inject @Config("dnsWriteLockTimeout") Duration timeout;
   @Inject @Parameter(RequestParameters.PARAM_TLD) String tld;
   @Inject @Parameter(DOMAINS_PARAM) Set<String> domains;
@@ -55,12 +56,11 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   /** Runs the task. */
   @Override
   public void run() {
-    String lockName = String.format("DNS zone %s", tld);
     // If executeWithLocks fails to get the lock, it does not throw an exception, simply returns
     // false. We need to make sure to take note of this error; otherwise, a failed lock might result
     // in the update task being dequeued and dropped. A message will already have been logged
     // to indicate the problem.
-    if (!executeWithLocks(this, getClass(), tld, timeout, lockName)) {
+    if (!lockHandler.executeWithLocks(this, getClass(), tld, timeout, getLockName())) {
       throw new ServiceUnavailableException("Lock failure");
     }
   }
@@ -72,29 +72,42 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
     return null;
   }
 
+  private String getLockName() {
+    return String.format("DNS zone %s", tld);
+  }
+
   /** Steps through the domain and host refreshes contained in the parameters and processes them. */
   private void processBatch() {
-    try (DnsWriter writer = dnsWriterProxy.getForTld(tld)) {
-      for (String domain : nullToEmpty(domains)) {
-        if (!DomainNameUtils.isUnder(
-            InternetDomainName.from(domain), InternetDomainName.from(tld))) {
-          dnsMetrics.incrementPublishDomainRequests(tld, Status.REJECTED);
-          logger.severefmt("%s: skipping domain %s not under tld", tld, domain);
-        } else {
-          dnsMetrics.incrementPublishDomainRequests(tld, Status.ACCEPTED);
-          writer.publishDomain(domain);
-        }
+    // The writer isn't closed in a finally block, because closing it commits the batch, which must
+    // not happen if publishing failed or the lock was lost.
+    DnsWriter writer = dnsWriterProxy.getForTld(tld);
+    for (String domain : nullToEmpty(domains)) {
+      if (!DomainNameUtils.isUnder(
+          InternetDomainName.from(domain), InternetDomainName.from(tld))) {
+        dnsMetrics.incrementPublishDomainRequests(tld, Status.REJECTED);
+        logger.severefmt("%s: skipping domain %s not under tld", tld, domain);
+      } else {
+        dnsMetrics.incrementPublishDomainRequests(tld, Status.ACCEPTED);
+        writer.publishDomain(domain);
       }
-      for (String host : nullToEmpty(hosts)) {
-        if (!DomainNameUtils.isUnder(
-            InternetDomainName.from(host), InternetDomainName.from(tld))) {
-          dnsMetrics.incrementPublishHostRequests(tld, Status.REJECTED);
-          logger.severefmt("%s: skipping host %s not under tld", tld, host);
-        } else {
-          dnsMetrics.incrementPublishHostRequests(tld, Status.ACCEPTED);
-          writer.publishHost(host);
-        }
+    }
+    for (String host : nullToEmpty(hosts)) {
+      if (!DomainNameUtils.isUnder(
+          InternetDomainName.from(host), InternetDomainName.from(tld))) {
+        dnsMetrics.incrementPublishHostRequests(tld, Status.REJECTED);
+        logger.severefmt("%s: skipping host %s not under tld", tld, host);
+      } else {
+        dnsMetrics.incrementPublishHostRequests(tld, Status.ACCEPTED);
+        writer.publishHost(host);
       }
     }
+    // The lease on the lock may have run out while the batch was being built, in which case a later
+    // batch for the zone may already have been committed, and committing this one would overwrite
+    // it with older data. This can't fence the DNS server itself, but it narrows the window to the
+    // commit.
+    if (!lockHandler.isStillHeld(getLockName(), tld)) {
+      throw new ServiceUnavailableException("Lost lock before committing the batch");
+    }
+    writer.close();
   }
 }
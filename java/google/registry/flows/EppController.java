@@ -18,12 +18,15 @@ import static com.google.common.base.Strings.nullToEmpty;
 import static com.google.common.io.BaseEncoding.base64;
 import static google.registry.flows.EppXmlTransformer.unmarshal;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
+import google.registry.flows.EppMetrics.Phase;
 import google.registry.flows.FlowModule.EppExceptionInProviderException;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppinput.EppInput;
@@ -64,9 +67,12 @@ public final class EppController {
     metricBuilder.setPrivilegeLevel(isSuperuser ? "SUPERUSER" : "NORMAL");
     try {
       EppInput eppInput;
+      Stopwatch unmarshalStopwatch = Stopwatch.createStarted();
       try {
         eppInput = unmarshal(EppInput.class, inputXmlBytes);
       } catch (EppException e) {
+        eppMetrics.recordPhaseTime(
+            "", Phase.UNMARSHAL, unmarshalStopwatch.elapsed(MICROSECONDS));
         // Log the unmarshalling error, with the raw bytes (in base64) to help with debugging.
         logger.infofmt(
             e,
@@ -85,6 +91,8 @@ public final class EppController {
         metricBuilder.setStatus(e.getResult().getCode());
         return getErrorResponse(e.getResult(), Trid.create(null));
       }
+      eppMetrics.recordPhaseTime(
+          eppInput.getCommandName(), Phase.UNMARSHAL, unmarshalStopwatch.elapsed(MICROSECONDS));
       metricBuilder.setCommandName(eppInput.getCommandName());
       if (!eppInput.getTargetIds().isEmpty()) {
         metricBuilder.setEppTarget(Joiner.on(',').join(eppInput.getTargetIds()));
@@ -25,6 +25,24 @@ import javax.inject.Inject;
 /** EPP Instrumentation. */
 public class EppMetrics {
 
+  /** The phases of handling an EPP request whose times are recorded separately. */
+  public enum Phase {
+    /** Parsing and validating the request XML. */
+    UNMARSHAL,
+
+    /** Running the flow itself, summed over all of its transaction attempts. */
+    FLOW,
+
+    /**
+     * The rest of the time spent in the flow's transaction, e.g. writing commit logs, committing
+     * and retrying.
+     */
+    TRANSACTION,
+
+    /** Serializing and validating the response XML. */
+    MARSHAL
+  }
+
   private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
       ImmutableSet.of(
           LabelDescriptor.create("command", "The name of the command."),
@@ -45,6 +63,18 @@ public class EppMetrics {
               LABEL_DESCRIPTORS,
               EventMetric.DEFAULT_FITTER);
 
+  private static final EventMetric phaseTime =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/epp/phase_time",
+              "Time spent in each phase of handling EPP requests",
+              "microseconds",
+              ImmutableSet.of(
+                  LabelDescriptor.create(
+                      "command", "The name of the command, or empty if not yet known."),
+                  LabelDescriptor.create("phase", "The phase of handling the request.")),
+              EventMetric.DEFAULT_FITTER);
+
   @Inject
   public EppMetrics() {}
 
@@ -73,4 +103,9 @@ public class EppMetrics {
         metric.getClientId().or(""),
         eppStatusCode);
   }
+
+  /** Record the time spent in one phase of handling an EPP request. */
+  public void recordPhaseTime(String commandName, Phase phase, long micros) {
+    phaseTime.record(micros, commandName, phase.name());
+  }
 }
@@ -17,10 +17,14 @@ package google.registry.flows;
 
 import static google.registry.flows.EppXmlTransformer.marshalWithLenientRetry;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.net.MediaType;
+import google.registry.flows.EppMetrics.Phase;
+import google.registry.model.eppoutput.EppOutput;
 import google.registry.request.Response;
 import google.registry.util.FormattingLogger;
 import javax.inject.Inject;
@@ -34,6 +38,7 @@ public class EppRequestHandler {
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
   @Inject EppController eppController;
+  @Inject EppMetrics eppMetrics;
   @Inject Response response;
   @Inject EppRequestHandler() {}
 
@@ -46,16 +51,18 @@ public class EppRequestHandler {
       boolean isSuperuser,
       byte[] inputXmlBytes) {
     try {
-      response.setPayload(new String(
-          marshalWithLenientRetry(
-              eppController.handleEppCommand(
-                  sessionMetadata,
-                  credentials,
-                  eppRequestSource,
-                  isDryRun,
-                  isSuperuser,
-                  inputXmlBytes)),
-          UTF_8));
+      EppOutput output = eppController.handleEppCommand(
+          sessionMetadata,
+          credentials,
+          eppRequestSource,
+          isDryRun,
+          isSuperuser,
+          inputXmlBytes);
+      Stopwatch marshalStopwatch = Stopwatch.createStarted();
+      byte[] outputXmlBytes = marshalWithLenientRetry(output);
+      // The command isn't known here, so marshalling times are only broken down by phase.
+      eppMetrics.recordPhaseTime("", Phase.MARSHAL, marshalStopwatch.elapsed(MICROSECONDS));
+      response.setPayload(new String(outputXmlBytes, UTF_8));
       response.setContentType(APPLICATION_EPP_XML);
       // Note that we always return 200 (OK) even if the EppController returns an error response.
       // This is because returning an non-OK HTTP status code will cause the proxy server to
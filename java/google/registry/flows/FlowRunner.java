@@ -18,16 +18,20 @@ import static com.google.common.base.Throwables.getStackTraceAsString;
 import static com.google.common.io.BaseEncoding.base64;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.xml.XmlTransformer.prettyPrint;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.Work;
+import google.registry.flows.EppMetrics.Phase;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.DryRun;
 import google.registry.flows.FlowModule.InputXml;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.Transactional;
 import google.registry.model.eppcommon.Trid;
+import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppoutput.EppOutput;
 import google.registry.monitoring.whitebox.EppMetric;
 import google.registry.util.FormattingLogger;
@@ -54,7 +58,10 @@ public class FlowRunner {
 
   @Inject @ClientId String clientId;
   @Inject TransportCredentials credentials;
+  @Inject EppInput eppInput;
+  @Inject EppMetrics eppMetrics;
   @Inject EppRequestSource eppRequestSource;
+  @Inject Class<? extends Flow> flowClass;
   @Inject Provider<Flow> flowProvider;
   @Inject @InputXml byte[] inputXmlBytes;
   @Inject @DryRun boolean isDryRun;
@@ -94,13 +101,31 @@ public class FlowRunner {
             "xmlBytes", xmlBase64)));
     if (!isTransactional) {
       metric.incrementAttempts();
-      return EppOutput.create(flowProvider.get().run());
+      Stopwatch flowStopwatch = Stopwatch.createStarted();
+      try {
+        return EppOutput.create(flowProvider.get().run());
+      } finally {
+        eppMetrics.recordPhaseTime(
+            eppInput.getCommandName(), Phase.FLOW, flowStopwatch.elapsed(MICROSECONDS));
+      }
+    }
+    TransactionalFlowWithHooks hooks =
+        TransactionalFlowWithHooks.class.isAssignableFrom(flowClass)
+            ? (TransactionalFlowWithHooks) flowProvider.get()
+            : null;
+    if (hooks != null) {
+      hooks.beforeTransaction();
     }
+    // The flow's own time is summed over all attempts, and the rest of the time in the transaction
+    // (commit logs, the commit itself and any retries) is recorded separately.
+    final Stopwatch flowStopwatch = Stopwatch.createUnstarted();
+    Stopwatch transactionStopwatch = Stopwatch.createStarted();
     try {
-      return ofy().transact(new Work<EppOutput>() {
+      EppOutput result = ofy().transact(new Work<EppOutput>() {
         @Override
         public EppOutput run() {
           metric.incrementAttempts();
+          flowStopwatch.start();
           try {
             EppOutput output = EppOutput.create(flowProvider.get().run());
             if (isDryRun) {
@@ -109,8 +134,15 @@ public class FlowRunner {
             return output;
           } catch (EppException e) {
             throw new RuntimeException(e);
+          } finally {
+            flowStopwatch.stop();
           }
         }});
+      transactionStopwatch.stop();
+      if (hooks != null) {
+        hooks.afterCommit();
+      }
+      return result;
     } catch (DryRunException e) {
       return e.output;
     } catch (RuntimeException e) {
@@ -119,6 +151,13 @@ public class FlowRunner {
         throw (EppException) e.getCause();
       }
       throw e;
+    } finally {
+      long flowMicros = flowStopwatch.elapsed(MICROSECONDS);
+      eppMetrics.recordPhaseTime(eppInput.getCommandName(), Phase.FLOW, flowMicros);
+      eppMetrics.recordPhaseTime(
+          eppInput.getCommandName(),
+          Phase.TRANSACTION,
+          transactionStopwatch.elapsed(MICROSECONDS) - flowMicros);
     }
   }
 
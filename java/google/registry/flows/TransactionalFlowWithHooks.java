@@ -0,0 +1,34 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+/**
+ * Interface for a {@link TransactionalFlow} that also does work outside of its transaction.
+ *
+ * <p>{@link FlowRunner} calls these hooks on a separate instance of the flow from the one(s) that
+ * {@link #run} is called on, so they can't share state with the transaction.
+ */
+public interface TransactionalFlowWithHooks extends TransactionalFlow {
+
+  /**
+   * Called once before the transaction is first attempted.
+   *
+   * <p>Throwing an {@link EppException} here fails the command without opening a transaction.
+   */
+  void beforeTransaction() throws EppException;
+
+  /** Called once after the transaction has committed, which never happens for dry runs. */
+  void afterCommit();
+}
@@ -26,7 +26,6 @@ import static google.registry.model.EppResourceUtils.checkResourcesExist;
 import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainName;
 import static google.registry.model.registry.label.ReservationType.UNRESERVED;
 import static google.registry.model.registry.label.ReservationType.getTypeOfHighestSeverity;
-import static google.registry.pricing.PricingEngineProxy.isDomainPremium;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
@@ -182,7 +181,7 @@ public final class DomainCheckFlow implements Flow {
     }
     ImmutableSet<ReservationType> reservationTypes = getReservationTypes(domainName);
     if (reservationTypes.equals(ImmutableSet.of(UNRESERVED))
-        && isDomainPremium(domainName.toString(), now)
+        && pricingLogic.isPremium(domainName.toString(), now)
         && registry.getPremiumPriceAckRequired()
         && eppInput.getSingleExtension(FeeCheckCommandExtension.class) == null) {
       return "Premium names require EPP ext.";
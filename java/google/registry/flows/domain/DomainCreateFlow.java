@@ -14,6 +14,7 @@
 
 package google.registry.flows.domain;
 
+import static com.google.common.base.Strings.isNullOrEmpty;
 import static google.registry.flows.FlowUtils.persistEntityChanges;
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
 import static google.registry.flows.ResourceFlowUtils.verifyResourceDoesNotExist;
@@ -57,7 +58,7 @@ import google.registry.flows.ExtensionManager;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.TargetId;
-import google.registry.flows.TransactionalFlow;
+import google.registry.flows.TransactionalFlowWithHooks;
 import google.registry.flows.custom.DomainCreateFlowCustomLogic;
 import google.registry.flows.custom.DomainCreateFlowCustomLogic.BeforeResponseParameters;
 import google.registry.flows.custom.DomainCreateFlowCustomLogic.BeforeResponseReturnData;
@@ -93,6 +94,7 @@ import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.tmch.LordnTask;
+import google.registry.util.Clock;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
@@ -150,7 +152,7 @@ import org.joda.time.DateTime;
  * @error {@link DomainCreateFlow.NoGeneralRegistrationsInCurrentPhaseException}
  */
 
-public class DomainCreateFlow implements TransactionalFlow {
+public class DomainCreateFlow implements TransactionalFlowWithHooks {
 
   private static final ImmutableSet<TldState> SUNRISE_STATES =
       Sets.immutableEnumSet(TldState.SUNRISE, TldState.SUNRUSH);
@@ -168,8 +170,23 @@ public class DomainCreateFlow implements TransactionalFlow {
   @Inject DomainFlowTmchUtils tmchUtils;
   @Inject DomainPricingLogic pricingLogic;
   @Inject DnsQueue dnsQueue;
+  @Inject Clock clock;
   @Inject DomainCreateFlow() {}
 
+  /** Rejects creates of names that are obviously taken before contending on a transaction. */
+  @Override
+  public void beforeTransaction() throws EppException {
+    // Clients that aren't logged in are left to run(), so that they get the login error.
+    if (!isNullOrEmpty(clientId)) {
+      RecentDomainCreates.checkBeforeTransaction(targetId, clock.nowUtc());
+    }
+  }
+
+  @Override
+  public void afterCommit() {
+    RecentDomainCreates.recordCreate(targetId, clock.nowUtc());
+  }
+
   @Override
   public final EppResponse run() throws EppException {
     extensionManager.register(
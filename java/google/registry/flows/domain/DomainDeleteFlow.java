@@ -45,7 +45,7 @@ import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.TargetId;
 import google.registry.flows.ResourceFlowUtils;
 import google.registry.flows.SessionMetadata;
-import google.registry.flows.TransactionalFlow;
+import google.registry.flows.TransactionalFlowWithHooks;
 import google.registry.flows.custom.DomainDeleteFlowCustomLogic;
 import google.registry.flows.custom.DomainDeleteFlowCustomLogic.AfterValidationParameters;
 import google.registry.flows.custom.DomainDeleteFlowCustomLogic.BeforeResponseParameters;
@@ -95,7 +95,7 @@ import org.joda.time.DateTime;
  * @error {@link DomainFlowUtils.BadCommandForRegistryPhaseException}
  * @error {@link DomainFlowUtils.NotAuthorizedForTldException}
  */
-public final class DomainDeleteFlow implements TransactionalFlow {
+public final class DomainDeleteFlow implements TransactionalFlowWithHooks {
 
   private static final ImmutableSet<StatusValue> DISALLOWED_STATUSES = ImmutableSet.of(
       StatusValue.CLIENT_DELETE_PROHIBITED,
@@ -116,6 +116,15 @@ public final class DomainDeleteFlow implements TransactionalFlow {
   @Inject DomainDeleteFlowCustomLogic customLogic;
   @Inject DomainDeleteFlow() {}
 
+  @Override
+  public void beforeTransaction() {}
+
+  /** Lets creates of the name through again, now that the name may become available. */
+  @Override
+  public void afterCommit() {
+    RecentDomainCreates.recordDelete(targetId);
+  }
+
   @Override
   public final EppResponse run() throws EppException {
     extensionManager.register(MetadataExtension.class, SecDnsCreateExtension.class);
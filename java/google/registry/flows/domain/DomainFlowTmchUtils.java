@@ -18,7 +18,11 @@ import static com.google.common.collect.Iterables.concat;
 import static google.registry.flows.EppXmlTransformer.unmarshal;
 import static google.registry.util.DateTimeUtils.isAtOrAfter;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import google.registry.flows.EppException;
 import google.registry.flows.EppException.ParameterValuePolicyErrorException;
 import google.registry.flows.EppException.ParameterValueSyntaxErrorException;
@@ -38,6 +42,7 @@ import java.security.SignatureException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.CertificateRevokedException;
+import java.security.cert.X509Certificate;
 import javax.inject.Inject;
 import javax.xml.crypto.MarshalException;
 import javax.xml.crypto.dsig.XMLSignatureException;
@@ -48,6 +53,22 @@ import org.xml.sax.SAXException;
 /** TMCH utility functions for domain flows. */
 public final class DomainFlowTmchUtils {
 
+  /** The maximum number of verified signed marks to keep in memory. */
+  private static final int VERIFIED_SIGNED_MARKS_CACHE_SIZE = 1000;
+
+  /**
+   * Signed marks whose XML signatures have already been verified, keyed by the SHA-256 hash of
+   * their decoded bytes.
+   *
+   * <p>Registrars tend to retry the same SMD many times, and parsing and checking its XML signature
+   * is by far the most expensive part of verifying it. Only that part is skipped for a cached mark:
+   * the revocation list, the signing certificate (against the current CRL), and the mark's own
+   * validity window are checked again every time, so entries never need to be invalidated when
+   * either list changes.
+   */
+  private static final Cache<HashCode, VerifiedSignedMark> VERIFIED_SIGNED_MARKS =
+      CacheBuilder.newBuilder().maximumSize(VERIFIED_SIGNED_MARKS_CACHE_SIZE).build();
+
   private final TmchXmlSignature tmchXmlSignature;
 
   @Inject
@@ -79,11 +100,17 @@ public final class DomainFlowTmchUtils {
       throw new SignedMarkEncodingErrorException();
     }
 
+    HashCode hash = Hashing.sha256().hashBytes(signedMarkData);
+    VerifiedSignedMark verified = VERIFIED_SIGNED_MARKS.getIfPresent(hash);
     SignedMark signedMark;
-    try {
-      signedMark = unmarshal(SignedMark.class, signedMarkData);
-    } catch (EppException e) {
-      throw new SignedMarkParsingErrorException();
+    if (verified == null) {
+      try {
+        signedMark = unmarshal(SignedMark.class, signedMarkData);
+      } catch (EppException e) {
+        throw new SignedMarkParsingErrorException();
+      }
+    } else {
+      signedMark = verified.signedMark;
     }
 
     if (SignedMarkRevocationList.get().isSmdRevoked(signedMark.getId(), now)) {
@@ -91,7 +118,12 @@ public final class DomainFlowTmchUtils {
     }
 
     try {
-      tmchXmlSignature.verify(signedMarkData);
+      if (verified == null) {
+        X509Certificate certificate = tmchXmlSignature.verify(signedMarkData);
+        VERIFIED_SIGNED_MARKS.put(hash, new VerifiedSignedMark(signedMark, certificate));
+      } else {
+        tmchXmlSignature.verifyCertificate(verified.certificate);
+      }
     } catch (CertificateExpiredException e) {
       throw new SignedMarkCertificateExpiredException();
     } catch (CertificateNotYetValidException e) {
@@ -119,6 +151,18 @@ public final class DomainFlowTmchUtils {
     return signedMark;
   }
 
+  /** A parsed signed mark whose XML signature is valid, and the certificate that signed it. */
+  private static final class VerifiedSignedMark {
+
+    final SignedMark signedMark;
+    final X509Certificate certificate;
+
+    VerifiedSignedMark(SignedMark signedMark, X509Certificate certificate) {
+      this.signedMark = signedMark;
+      this.certificate = certificate;
+    }
+  }
+
   /** Returns true if the mark contains a valid claim that matches the label. */
   private static boolean containsMatchingLabel(Mark mark, String label) {
     for (Trademark trademark : mark.getTrademarks()) {
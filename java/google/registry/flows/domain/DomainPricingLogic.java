@@ -14,12 +14,13 @@
 
 package google.registry.flows.domain;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.model.ofy.ObjectifyService.ofy;
-import static google.registry.pricing.PricingEngineProxy.getDomainCreateCost;
-import static google.registry.pricing.PricingEngineProxy.getDomainFeeClass;
-import static google.registry.pricing.PricingEngineProxy.getDomainRenewCost;
+import static google.registry.pricing.PricingEngineProxy.getPricesForDomainName;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
 import com.google.common.net.InternetDomainName;
 import com.googlecode.objectify.Key;
 import google.registry.flows.EppException;
@@ -36,6 +37,7 @@ import google.registry.model.domain.LrpTokenEntity;
 import google.registry.model.domain.fee.BaseFee;
 import google.registry.model.domain.fee.BaseFee.FeeType;
 import google.registry.model.domain.fee.Fee;
+import google.registry.model.pricing.PremiumPricingEngine.DomainPrices;
 import google.registry.model.registry.Registry;
 import javax.inject.Inject;
 import org.joda.money.CurrencyUnit;
@@ -46,10 +48,18 @@ import org.joda.time.DateTime;
  * Provides pricing for create, renew, etc, operations, with call-outs that can be customized by
  * providing a {@link DomainPricingCustomLogic} implementation that operates on cross-TLD or per-TLD
  * logic.
+ *
+ * <p>There is one instance of this class per flow, which remembers the base prices of each domain
+ * name it is asked about. A fee check can ask for several commands and periods for each of up to
+ * {@code maxChecks} names, and the prices for all of them are derived from a single lookup of the
+ * name's prices through the TLD's premium pricing engine.
  */
 @FlowScope
 public final class DomainPricingLogic {
 
+  /** Base prices of the domain names priced so far in this flow, by name and price time. */
+  private final Table<String, DateTime, DomainPrices> pricesCache = HashBasedTable.create();
+
   @Inject DomainPricingCustomLogic customLogic;
 
   @Inject
@@ -62,7 +72,7 @@ public final class DomainPricingLogic {
 
     // Get the vanilla create cost.
     BaseFee createFeeOrCredit =
-        Fee.create(getDomainCreateCost(domainName, date, years).getAmount(), FeeType.CREATE);
+        Fee.create(getCreateCost(domainName, date, years).getAmount(), FeeType.CREATE);
 
     // Create fees for the cost and the EAP fee, if any.
     Fee eapFee = registry.getEapFeeFor(date);
@@ -94,7 +104,7 @@ public final class DomainPricingLogic {
       DateTime date,
       int years)
       throws EppException {
-    Money renewCost = getDomainRenewCost(domainName, date, years);
+    Money renewCost = getRenewCost(domainName, date, years);
     return customLogic.customizeRenewPrice(
         RenewPriceParameters.newBuilder()
             .setFeesAndCredits(
@@ -117,7 +127,7 @@ public final class DomainPricingLogic {
         new FeesAndCredits.Builder()
             .setCurrency(registry.getCurrency())
             .addFeeOrCredit(
-                Fee.create(getDomainRenewCost(domainName, date, 1).getAmount(), FeeType.RENEW))
+                Fee.create(getRenewCost(domainName, date, 1).getAmount(), FeeType.RENEW))
             .addFeeOrCredit(
                 Fee.create(registry.getStandardRestoreCost().getAmount(), FeeType.RESTORE))
             .build();
@@ -137,7 +147,7 @@ public final class DomainPricingLogic {
       DateTime transferDate,
       int years)
       throws EppException {
-    Money renewCost = getDomainRenewCost(domainName, transferDate, years);
+    Money renewCost = getRenewCost(domainName, transferDate, years);
     return customLogic.customizeTransferPrice(
         TransferPriceParameters.newBuilder()
             .setFeesAndCredits(
@@ -192,7 +202,32 @@ public final class DomainPricingLogic {
 
   /** Returns the fee class for a given domain and date. */
   public Optional<String> getFeeClass(String domainName, DateTime date) {
-    return getDomainFeeClass(domainName, date);
+    return getPrices(domainName, date).getFeeClass();
+  }
+
+  /** Returns whether a given domain is premium on a given date. */
+  public boolean isPremium(String domainName, DateTime date) {
+    return getPrices(domainName, date).isPremium();
+  }
+
+  private Money getCreateCost(String domainName, DateTime date, int years) {
+    checkArgument(years > 0, "Number of years must be positive");
+    return getPrices(domainName, date).getCreateCost().multipliedBy(years);
+  }
+
+  private Money getRenewCost(String domainName, DateTime date, int years) {
+    checkArgument(years > 0, "Number of years must be positive");
+    return getPrices(domainName, date).getRenewCost().multipliedBy(years);
+  }
+
+  /** Returns the base prices for a domain on a given date, looking them up only once per flow. */
+  private DomainPrices getPrices(String domainName, DateTime date) {
+    DomainPrices prices = pricesCache.get(domainName, date);
+    if (prices == null) {
+      prices = getPricesForDomainName(domainName, date);
+      pricesCache.put(domainName, date, prices);
+    }
+    return prices;
   }
 
   /**
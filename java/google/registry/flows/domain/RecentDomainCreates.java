@@ -0,0 +1,163 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows.domain;
+
+import static google.registry.config.RegistryConfig.getRecentDomainCreateMarkerDuration;
+import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.earliestOf;
+import static google.registry.util.DomainNameUtils.canonicalizeDomainName;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.googlecode.objectify.Work;
+import google.registry.flows.exceptions.ResourceAlreadyExistsException;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.index.ForeignKeyIndex;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Short-lived, per-instance markers for domain names that are known to be taken.
+ *
+ * <p>During drop-catch events many creates for the same few names arrive at once. All but one of
+ * them are bound to fail the existence check inside the {@link DomainCreateFlow} transaction, but
+ * each would first contend with the winner on that transaction. {@link #checkBeforeTransaction}
+ * lets {@link DomainCreateFlow#beforeTransaction} reject them before any transaction is opened,
+ * with the same error that the flow itself would return.
+ *
+ * <p>A name is marked as taken when a create of it commits on this instance, or when a
+ * transactionless read of its {@link ForeignKeyIndex} finds an existing domain. Markers are only
+ * kept for a few seconds, which bounds how long a name that was deleted on another instance can be
+ * wrongly rejected here; a delete on this instance clears the marker straight away. Markers are
+ * keyed by canonical name, and names that aren't in canonical form are never rejected here, since
+ * the flow fails them with a more specific error. The check inside the transaction stays the
+ * source of truth.
+ */
+public final class RecentDomainCreates {
+
+  /** Bound on the number of markers kept, so that a flood of distinct names can't exhaust RAM. */
+  private static final int MAX_MARKERS = 10000;
+
+  /** The shared instance, which is absent when the marker duration is zero. */
+  private static final Optional<RecentDomainCreates> INSTANCE = createInstance();
+
+  private final Duration markerDuration;
+
+  /** Times until which names are considered taken, keyed by fully qualified domain name. */
+  private final Cache<String, DateTime> takenUntil =
+      CacheBuilder.newBuilder().maximumSize(MAX_MARKERS).build();
+
+  private RecentDomainCreates(Duration markerDuration) {
+    this.markerDuration = markerDuration;
+  }
+
+  /**
+   * Creates an instance that keeps markers for the given duration.
+   *
+   * <p>This is only used directly by tests. Unit tests configure a zero duration, which disables
+   * the shared instance so that markers don't leak from one test into the next.
+   */
+  @VisibleForTesting
+  static RecentDomainCreates create(Duration markerDuration) {
+    return new RecentDomainCreates(markerDuration);
+  }
+
+  private static Optional<RecentDomainCreates> createInstance() {
+    Duration markerDuration = getRecentDomainCreateMarkerDuration();
+    return markerDuration.isEqual(Duration.ZERO)
+        ? Optional.<RecentDomainCreates>absent()
+        : Optional.of(create(markerDuration));
+  }
+
+  /**
+   * Throws if a domain with the given name obviously exists, without opening a transaction.
+   *
+   * <p>This does nothing if the check is disabled.
+   */
+  public static void checkBeforeTransaction(String targetId, DateTime now)
+      throws ResourceAlreadyExistsException {
+    if (INSTANCE.isPresent()) {
+      INSTANCE.get().check(targetId, now);
+    }
+  }
+
+  /** Records that a create of the given name has just committed. */
+  public static void recordCreate(String targetId, DateTime now) {
+    if (INSTANCE.isPresent()) {
+      INSTANCE.get().markTaken(targetId, now);
+    }
+  }
+
+  /** Records that a delete of the given name has just committed. */
+  public static void recordDelete(String targetId) {
+    if (INSTANCE.isPresent()) {
+      INSTANCE.get().unmark(targetId);
+    }
+  }
+
+  @VisibleForTesting
+  void check(String targetId, final DateTime now) throws ResourceAlreadyExistsException {
+    final Optional<String> domainName = canonicalize(targetId);
+    if (!domainName.isPresent() || !domainName.get().equals(targetId)) {
+      // The flow rejects names that are invalid or not in canonical form with errors of its own.
+      return;
+    }
+    DateTime markerExpiration = takenUntil.getIfPresent(domainName.get());
+    if (markerExpiration != null && now.isBefore(markerExpiration)) {
+      throw new ResourceAlreadyExistsException(targetId, true);
+    }
+    DomainResource domain = ofy().doTransactionless(new Work<DomainResource>() {
+      @Override
+      public DomainResource run() {
+        // This is cacheable because we are outside of a transaction.
+        return loadByForeignKey(DomainResource.class, domainName.get(), now);
+      }});
+    if (domain != null) {
+      // Even a domain in its add grace period is marked; if it gets deleted on this instance the
+      // marker is cleared by recordDelete(), and otherwise it expires within a few seconds.
+      takenUntil.put(
+          domainName.get(), earliestOf(now.plus(markerDuration), domain.getDeletionTime()));
+      throw new ResourceAlreadyExistsException(targetId, true);
+    }
+  }
+
+  @VisibleForTesting
+  void markTaken(String targetId, DateTime now) {
+    Optional<String> domainName = canonicalize(targetId);
+    if (domainName.isPresent()) {
+      takenUntil.put(domainName.get(), now.plus(markerDuration));
+    }
+  }
+
+  @VisibleForTesting
+  void unmark(String targetId) {
+    Optional<String> domainName = canonicalize(targetId);
+    if (domainName.isPresent()) {
+      takenUntil.invalidate(domainName.get());
+    }
+  }
+
+  /** Returns the canonical form of the given name, or absent if it isn't a valid domain name. */
+  private static Optional<String> canonicalize(String targetId) {
+    try {
+      return Optional.of(canonicalizeDomainName(targetId));
+    } catch (IllegalArgumentException e) {
+      return Optional.absent();
+    }
+  }
+}
@@ -16,13 +16,12 @@ package google.registry.flows.poll;
 
 import static com.google.common.base.Preconditions.checkState;
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
-import static google.registry.flows.poll.PollFlowUtils.getPollMessagesQuery;
+import static google.registry.flows.poll.PollFlowUtils.getPollMessageCount;
 import static google.registry.model.eppoutput.Result.Code.SUCCESS_WITH_NO_MESSAGES;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 
 import com.googlecode.objectify.Key;
-import com.googlecode.objectify.Work;
 import google.registry.flows.EppException;
 import google.registry.flows.EppException.AuthorizationErrorException;
 import google.registry.flows.EppException.ObjectDoesNotExistException;
@@ -92,6 +91,10 @@ public class PollAckFlow implements TransactionalFlow {
       throw new NotAuthorizedToAckMessageException();
     }
 
+    // We need to return the new queue length. The poll queue summary is only updated as the
+    // transaction commits, so the count read here still includes the acked message.
+    int messageCount = getPollMessageCount(clientId, now);
+
     // This keeps track of whether we should include the current acked message in the updated
     // message count that's returned to the user. The only case where we do so is if an autorenew
     // poll message is acked, but its next event is already ready to be delivered.
@@ -116,15 +119,8 @@ public class PollAckFlow implements TransactionalFlow {
         ofy().delete().entity(autorenewPollMessage);
       }
     }
-    // We need to return the new queue length. If this was the last message in the queue being
-    // acked, then we return a special status code indicating that. Note that the query will
-    // include the message being acked.
-
-    int messageCount = ofy().doTransactionless(new Work<Integer>() {
-      @Override
-      public Integer run() {
-        return getPollMessagesQuery(clientId, now).count();
-      }});
+    // If this was the last message in the queue being acked, then we return a special status code
+    // indicating that.
     if (!includeAckedMessageInCount) {
       messageCount--;
     }
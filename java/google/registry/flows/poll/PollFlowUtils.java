@@ -16,13 +16,18 @@ package google.registry.flows.poll;
 
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
+import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Query;
 import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollQueueSummary;
+import google.registry.util.FormattingLogger;
 import org.joda.time.DateTime;
 
 /** Static utility functions for poll flows. */
 public final class PollFlowUtils {
 
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
   private PollFlowUtils() {}
 
   /** Returns a query for poll messages for the logged in registrar which are not in the future. */
@@ -33,4 +38,28 @@ public final class PollFlowUtils {
         .filter("eventTime <=", now.toDate())
         .order("eventTime");
   }
+
+  /**
+   * Returns the number of poll messages for the registrar which are not in the future.
+   *
+   * <p>This is read off of the registrar's {@link PollQueueSummary}, which is kept up to date in
+   * the same transactions as the poll messages themselves. In a transaction, the count doesn't yet
+   * reflect any changes that the transaction itself makes to poll messages. A summary that doesn't
+   * account for every message due by now, because it hasn't been advanced far enough yet or has
+   * overflowed, is ignored and the messages are counted with a query instead.
+   */
+  static int getPollMessageCount(final String clientId, final DateTime now) {
+    PollQueueSummary summary = PollQueueSummary.load(clientId);
+    if (summary.isCompleteAt(now)) {
+      return summary.countDue(now);
+    }
+    logger.infofmt(
+        "Poll queue summary for %s is incomplete at %s, so counting its queue with a query",
+        clientId, now);
+    return ofy().doTransactionless(new Work<Integer>() {
+      @Override
+      public Integer run() {
+        return getPollMessagesQuery(clientId, now).count();
+      }});
+  }
 }
@@ -15,6 +15,7 @@
 package google.registry.flows.poll;
 
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
+import static google.registry.flows.poll.PollFlowUtils.getPollMessageCount;
 import static google.registry.flows.poll.PollFlowUtils.getPollMessagesQuery;
 import static google.registry.model.eppoutput.Result.Code.SUCCESS_WITH_ACK_MESSAGE;
 import static google.registry.model.eppoutput.Result.Code.SUCCESS_WITH_NO_MESSAGES;
@@ -30,6 +31,7 @@ import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.poll.MessageQueueInfo;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.poll.PollMessageExternalKeyConverter;
+import google.registry.model.poll.PollQueueSummary;
 import google.registry.util.Clock;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
@@ -41,7 +43,9 @@ import org.joda.time.DateTime;
  * the registrar, as well as the total number of pending messages. Note that poll messages whose
  * event time is in the future (i.e. they are speculative and could still be changed or rescinded)
  * are ignored. The externally visible id for the poll message that the registrar sees is generated
- * by {@link PollMessageExternalKeyConverter}.
+ * by {@link PollMessageExternalKeyConverter}. The pending messages are counted by the registrar's
+ * {@link PollQueueSummary} whenever it is complete, so that polls don't get slower as the queue
+ * grows.
  *
  * @error {@link PollRequestFlow.UnexpectedMessageIdException}
  */
@@ -61,9 +65,14 @@ public class PollRequestFlow implements Flow {
     if (!messageId.isEmpty()) {
       throw new UnexpectedMessageIdException();
     }
-    // Return the oldest message from the queue.
     DateTime now = clock.nowUtc();
-    PollMessage pollMessage = getPollMessagesQuery(clientId, now).first().now();
+    // A count read off of a complete summary is strongly consistent, so an empty queue doesn't need
+    // the query at all. The query can still come up empty if a new message hasn't been indexed yet.
+    int queueLength = getPollMessageCount(clientId, now);
+    // Return the oldest message from the queue.
+    PollMessage pollMessage = (queueLength <= 0)
+        ? null
+        : getPollMessagesQuery(clientId, now).first().now();
     if (pollMessage == null) {
       return responseBuilder.setResultFromCode(SUCCESS_WITH_NO_MESSAGES).build();
     }
@@ -72,7 +81,7 @@ public class PollRequestFlow implements Flow {
         .setMessageQueueInfo(new MessageQueueInfo.Builder()
             .setQueueDate(pollMessage.getEventTime())
             .setMsg(pollMessage.getMsg())
-            .setQueueLength(getPollMessagesQuery(clientId, now).count())
+            .setQueueLength(queueLength)
             .setMessageId(PollMessage.EXTERNAL_KEY_CONVERTER.convert(Key.create(pollMessage)))
             .build())
         .setMultipleResData(pollMessage.getResponseData())
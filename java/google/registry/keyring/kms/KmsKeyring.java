@@ -19,12 +19,17 @@ import static google.registry.keyring.api.PgpHelper.KeyRequirement.ENCRYPT;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.googlecode.objectify.Key;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.keyring.api.Keyring;
 import google.registry.keyring.api.KeyringException;
 import google.registry.keyring.api.PgpHelper;
 import google.registry.model.server.KmsSecret;
+import google.registry.model.server.KmsSecretRevision;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -39,11 +44,18 @@ import org.bouncycastle.openpgp.bc.BcPGPPublicKeyRing;
 import org.bouncycastle.openpgp.bc.BcPGPSecretKeyRing;
 import org.bouncycastle.openpgp.operator.bc.BcPBESecretKeyDecryptorBuilder;
 import org.bouncycastle.openpgp.operator.bc.BcPGPDigestCalculatorProvider;
+import org.joda.time.Duration;
 
 /**
  * A {@link Keyring} implementation which stores encrypted secrets in Datastore and decrypts them
  * using encryption keys stored in Cloud KMS.
  *
+ * <p>Decrypted secrets, and the PGP keys parsed from them, are cached in memory for a bounded
+ * time. The caches are keyed by {@link KmsSecretRevision}, whose key includes the secret name, and
+ * the latest revision of a secret is still looked up on every request. So a secret rotated by
+ * {@link KmsUpdater} is used right away, and only the revision load and the Cloud KMS decrypt call
+ * are saved. The caches live as long as the keyring does, so it should be bound as a singleton.
+ *
  * @see <a href="https://cloud.google.com/kms/docs/">Google Cloud Key Management Service
  *     Documentation</a>
  */
@@ -68,9 +80,32 @@ public class KmsKeyring implements Keyring {
 
   private final KmsConnection kmsConnection;
 
+  /** Decrypted secret values, by the revision they were decrypted from. */
+  private final Cache<Key<KmsSecretRevision>, byte[]> decryptedSecrets;
+
+  /** Public keys parsed from revisions, as the primary key of their keyring. */
+  private final Cache<Key<KmsSecretRevision>, PGPPublicKey> primaryPublicKeys;
+
+  /** Public keys parsed from revisions, as the encryption subkey of their keyring. */
+  private final Cache<Key<KmsSecretRevision>, PGPPublicKey> encryptionPublicKeys;
+
+  /** Private keys parsed from revisions. */
+  private final Cache<Key<KmsSecretRevision>, PGPPrivateKey> privateKeys;
+
   @Inject
-  KmsKeyring(KmsConnection kmsConnection) {
+  KmsKeyring(
+      KmsConnection kmsConnection, @Config("kmsSecretCacheDuration") Duration cacheDuration) {
     this.kmsConnection = kmsConnection;
+    this.decryptedSecrets = newCache(cacheDuration);
+    this.primaryPublicKeys = newCache(cacheDuration);
+    this.encryptionPublicKeys = newCache(cacheDuration);
+    this.privateKeys = newCache(cacheDuration);
+  }
+
+  private static <V> Cache<Key<KmsSecretRevision>, V> newCache(Duration cacheDuration) {
+    return CacheBuilder.newBuilder()
+        .expireAfterWrite(cacheDuration.getMillis(), MILLISECONDS)
+        .<Key<KmsSecretRevision>, V>build();
   }
 
   @Override
@@ -148,58 +183,98 @@ public class KmsKeyring implements Keyring {
   public void close() {}
 
   private PGPKeyPair getKeyPair(String publicKeyName, String privateKeyName) {
-    try {
-      PGPPublicKey publicKey =
-          new BcPGPPublicKeyRing(getPgpInputStream(publicKeyName)).getPublicKey();
-      return new PGPKeyPair(publicKey, getPrivateKey(privateKeyName));
-    } catch (IOException e) {
-      throw new KeyringException(
-          String.format(
-              "Could not parse public key %s and private key %s", publicKeyName, privateKeyName),
-          e);
+    return new PGPKeyPair(getPublicKey(publicKeyName), getPrivateKey(privateKeyName));
+  }
+
+  private PGPPublicKey getPublicKey(String publicKeyName) {
+    Key<KmsSecretRevision> revisionKey = getLatestRevisionKey(publicKeyName);
+    PGPPublicKey publicKey = primaryPublicKeys.getIfPresent(revisionKey);
+    if (publicKey == null) {
+      try {
+        publicKey =
+            new BcPGPPublicKeyRing(getPgpInputStream(publicKeyName, revisionKey)).getPublicKey();
+      } catch (IOException e) {
+        throw new KeyringException(
+            String.format("Could not parse public key %s", publicKeyName), e);
+      }
+      primaryPublicKeys.put(revisionKey, publicKey);
     }
+    return publicKey;
   }
 
   private PGPPublicKey getPublicKeyForEncrypting(String publicKeyName) {
-    try {
-      return PgpHelper.lookupPublicSubkey(
-              new BcPGPPublicKeyRing(getPgpInputStream(publicKeyName)), ENCRYPT)
-          .get();
-    } catch (IOException e) {
-      throw new KeyringException(String.format("Could not parse public key %s", publicKeyName), e);
+    Key<KmsSecretRevision> revisionKey = getLatestRevisionKey(publicKeyName);
+    PGPPublicKey publicKey = encryptionPublicKeys.getIfPresent(revisionKey);
+    if (publicKey == null) {
+      try {
+        publicKey =
+            PgpHelper.lookupPublicSubkey(
+                    new BcPGPPublicKeyRing(getPgpInputStream(publicKeyName, revisionKey)),
+                    ENCRYPT)
+                .get();
+      } catch (IOException e) {
+        throw new KeyringException(
+            String.format("Could not parse public key %s", publicKeyName), e);
+      }
+      encryptionPublicKeys.put(revisionKey, publicKey);
     }
+    return publicKey;
   }
 
   private PGPPrivateKey getPrivateKey(String privateKeyName) {
-    try {
-      PGPSecretKeyRing privateKeyRing = new BcPGPSecretKeyRing(getPgpInputStream(privateKeyName));
-      // There shouldn't be a passphrase on the key
-      return privateKeyRing
-          .getSecretKey()
-          .extractPrivateKey(
-              new BcPBESecretKeyDecryptorBuilder(new BcPGPDigestCalculatorProvider())
-                  .build(new char[0]));
-    } catch (IOException | PGPException e) {
-      throw new KeyringException(
-          String.format("Could not parse private key %s", privateKeyName), e);
+    Key<KmsSecretRevision> revisionKey = getLatestRevisionKey(privateKeyName);
+    PGPPrivateKey privateKey = privateKeys.getIfPresent(revisionKey);
+    if (privateKey == null) {
+      try {
+        PGPSecretKeyRing privateKeyRing =
+            new BcPGPSecretKeyRing(getPgpInputStream(privateKeyName, revisionKey));
+        // There shouldn't be a passphrase on the key
+        privateKey =
+            privateKeyRing
+                .getSecretKey()
+                .extractPrivateKey(
+                    new BcPBESecretKeyDecryptorBuilder(new BcPGPDigestCalculatorProvider())
+                        .build(new char[0]));
+      } catch (IOException | PGPException e) {
+        throw new KeyringException(
+            String.format("Could not parse private key %s", privateKeyName), e);
+      }
+      privateKeys.put(revisionKey, privateKey);
     }
+    return privateKey;
   }
 
-  private InputStream getPgpInputStream(String privateKeyName) throws IOException {
-    return PGPUtil.getDecoderStream(new ByteArrayInputStream(getDecryptedData(privateKeyName)));
+  private InputStream getPgpInputStream(String keyName, Key<KmsSecretRevision> revisionKey)
+      throws IOException {
+    return PGPUtil.getDecoderStream(
+        new ByteArrayInputStream(getDecryptedData(keyName, revisionKey)));
   }
 
   private byte[] getDecryptedData(String keyName) {
+    return getDecryptedData(keyName, getLatestRevisionKey(keyName));
+  }
+
+  /** Returns the key of the latest revision of a secret, which changes whenever it is rotated. */
+  private static Key<KmsSecretRevision> getLatestRevisionKey(String keyName) {
     KmsSecret secret =
         ofy().load().key(Key.create(getCrossTldKey(), KmsSecret.class, keyName)).now();
     checkState(secret != null, "Requested secret '%s' does not exist.", keyName);
-    String encryptedData = ofy().load().key(secret.getLatestRevision()).now().getEncryptedValue();
+    return secret.getLatestRevision();
+  }
 
+  private byte[] getDecryptedData(String keyName, Key<KmsSecretRevision> revisionKey) {
+    byte[] decryptedData = decryptedSecrets.getIfPresent(revisionKey);
+    if (decryptedData != null) {
+      return decryptedData;
+    }
+    String encryptedData = ofy().load().key(revisionKey).now().getEncryptedValue();
     try {
-      return kmsConnection.decrypt(secret.getName(), encryptedData);
+      decryptedData = kmsConnection.decrypt(keyName, encryptedData);
     } catch (IOException e) {
       throw new KeyringException(
           String.format("CloudKMS decrypt operation failed for secret %s", keyName), e);
     }
+    decryptedSecrets.put(revisionKey, decryptedData);
+    return decryptedData;
   }
 }
@@ -19,9 +19,14 @@ import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Lists.partition;
 import static com.google.common.collect.Lists.transform;
+import static google.registry.loadtest.LoadTestTemplates.ARBITRARY_VALID_HOST_LENGTH;
+import static google.registry.loadtest.LoadTestTemplates.EXISTING_CONTACT;
+import static google.registry.loadtest.LoadTestTemplates.EXISTING_DOMAIN;
+import static google.registry.loadtest.LoadTestTemplates.EXISTING_HOST;
+import static google.registry.loadtest.LoadTestTemplates.MAX_CONTACT_LENGTH;
+import static google.registry.loadtest.LoadTestTemplates.MAX_DOMAIN_LABEL_LENGTH;
 import static google.registry.security.XsrfTokenManager.X_CSRF_TOKEN;
 import static google.registry.util.FormattingLogger.getLoggerForCallerClass;
-import static google.registry.util.ResourceUtils.readResourceUtf8;
 import static java.util.Arrays.asList;
 import static org.joda.time.DateTimeZone.UTC;
 
@@ -61,13 +66,6 @@ public class LoadTestAction implements Runnable {
   private static final FormattingLogger logger = getLoggerForCallerClass();
 
   private static final int NUM_QUEUES = 10;
-  private static final int ARBITRARY_VALID_HOST_LENGTH = 40;
-  private static final int MAX_CONTACT_LENGTH = 13;
-  private static final int MAX_DOMAIN_LABEL_LENGTH = 63;
-
-  private static final String EXISTING_DOMAIN = "testdomain";
-  private static final String EXISTING_CONTACT = "contact";
-  private static final String EXISTING_HOST = "ns1";
 
   private static final Random random = new Random();
 
@@ -292,7 +290,7 @@ public class LoadTestAction implements Runnable {
   }
 
   private String loadXml(String name) {
-    return readResourceUtf8(LoadTestAction.class, String.format("templates/%s.xml", name));
+    return LoadTestTemplates.loadTemplate(name);
   }
 
   private List<String> createNumCopies(String xml, int numCopies) {
@@ -319,11 +317,7 @@ public class LoadTestAction implements Runnable {
   }
 
   private String getRandomLabel(int numChars) {
-    StringBuilder name = new StringBuilder();
-    for (int j = 0; j < numChars; j++) {
-      name.append(Character.forDigit(random.nextInt(Character.MAX_RADIX), Character.MAX_RADIX));
-    }
-    return name.toString();
+    return LoadTestTemplates.getRandomLabel(random, numChars);
   }
 
   private List<TaskOptions> createTasks(List<String> xmls, DateTime start) {
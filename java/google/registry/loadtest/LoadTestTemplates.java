@@ -0,0 +1,57 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.loadtest;
+
+import static google.registry.util.ResourceUtils.readResourceUtf8;
+
+import java.util.Random;
+
+/**
+ * The EPP templates used for load testing, and the names used to fill them in.
+ *
+ * <p>These are shared by {@link LoadTestAction}, which enqueues them as tasks on the server, and
+ * by the {@code run_load_test} command of the registry tool, which sends them itself.
+ */
+public final class LoadTestTemplates {
+
+  public static final int ARBITRARY_VALID_HOST_LENGTH = 40;
+  public static final int MAX_CONTACT_LENGTH = 13;
+  public static final int MAX_DOMAIN_LABEL_LENGTH = 63;
+
+  /** Names of objects that the load test environment is expected to already contain. */
+  public static final String EXISTING_DOMAIN = "testdomain";
+  public static final String EXISTING_CONTACT = "contact";
+  public static final String EXISTING_HOST = "ns1";
+
+  /**
+   * Returns the template with the given name, e.g. {@code domain_create}.
+   *
+   * <p>The templates have placeholders such as {@code %domain%} and {@code %tld%} to be replaced.
+   */
+  public static String loadTemplate(String name) {
+    return readResourceUtf8(LoadTestTemplates.class, String.format("templates/%s.xml", name));
+  }
+
+  /** Returns a random label of the given length made up of lowercase letters and digits. */
+  public static String getRandomLabel(Random random, int numChars) {
+    StringBuilder name = new StringBuilder();
+    for (int j = 0; j < numChars; j++) {
+      name.append(Character.forDigit(random.nextInt(Character.MAX_RADIX), Character.MAX_RADIX));
+    }
+    return name.toString();
+  }
+
+  private LoadTestTemplates() {}
+}
@@ -32,7 +32,15 @@ public class CacheUtils {
    * lists downloaded from the TMCH get updated in Datastore and the caches need to be refreshed.)
    */
   public static <T> Supplier<T> memoizeWithShortExpiration(Supplier<T> original) {
-    Duration expiration = getSingletonCacheRefreshDuration();
+    return memoizeForDuration(original, getSingletonCacheRefreshDuration());
+  }
+
+  /**
+   * Memoize a supplier for the given length of time.
+   *
+   * <p>A zero duration (as configured in unit tests) disables memoization altogether.
+   */
+  public static <T> Supplier<T> memoizeForDuration(Supplier<T> original, Duration expiration) {
     return expiration.isEqual(ZERO)
         ? original
         : memoizeWithExpiration(original, expiration.getMillis(), MILLISECONDS);
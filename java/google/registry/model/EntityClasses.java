@@ -41,9 +41,11 @@ import google.registry.model.ofy.CommitLogCheckpointRoot;
 import google.registry.model.ofy.CommitLogManifest;
 import google.registry.model.ofy.CommitLogMutation;
 import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollQueueSummary;
 import google.registry.model.rde.RdeRevision;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registrar.RegistrarContact;
+import google.registry.model.registrar.RegistrarVersion;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.label.PremiumList;
 import google.registry.model.registry.label.ReservedList;
@@ -54,6 +56,7 @@ import google.registry.model.server.Lock;
 import google.registry.model.server.ServerSecret;
 import google.registry.model.smd.SignedMarkRevocationList;
 import google.registry.model.tmch.ClaimsListShard;
+import google.registry.model.tmch.ClaimsListShard.ClaimsListDelta;
 import google.registry.model.tmch.ClaimsListShard.ClaimsListRevision;
 import google.registry.model.tmch.ClaimsListShard.ClaimsListSingleton;
 import google.registry.model.tmch.TmchCrl;
@@ -70,6 +73,7 @@ public final class EntityClasses {
           BillingEvent.OneTime.class,
           BillingEvent.Recurring.class,
           ClaimsListShard.class,
+          ClaimsListDelta.class,
           ClaimsListRevision.class,
           ClaimsListSingleton.class,
           CommitLogBucket.class,
@@ -100,6 +104,7 @@ public final class EntityClasses {
           PollMessage.class,
           PollMessage.Autorenew.class,
           PollMessage.OneTime.class,
+          PollQueueSummary.class,
           PremiumList.class,
           PremiumList.PremiumListEntry.class,
           PremiumList.PremiumListRevision.class,
@@ -109,6 +114,7 @@ public final class EntityClasses {
           RegistrarContact.class,
           RegistrarCredit.class,
           RegistrarCreditBalance.class,
+          RegistrarVersion.class,
           Registry.class,
           ReservedList.class,
           ServerSecret.class,
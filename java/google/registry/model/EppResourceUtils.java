@@ -18,11 +18,15 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Iterables.transform;
 import static google.registry.model.index.ForeignKeyIndex.loadAndGetKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.DateTimeUtils.isAtOrAfter;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 import static google.registry.util.DateTimeUtils.latestOf;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Result;
 import com.googlecode.objectify.cmd.Query;
@@ -42,7 +46,10 @@ import google.registry.model.registry.Registry;
 import google.registry.model.transfer.TransferData;
 import google.registry.model.transfer.TransferStatus;
 import google.registry.util.FormattingLogger;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -229,6 +236,27 @@ public final class EppResourceUtils {
     }
   }
 
+  /**
+   * Returns the earliest time at which {@link #projectResourceOntoBuilderAtTime} would change the
+   * given resource, or {@code START_OF_TIME} if the resource must always be rebuilt when projected.
+   *
+   * <p>This is the time at which a pending transfer, if any, is automatically approved. A resource
+   * that was loaded without any status values needs a rebuild to pick up its implicit OK status,
+   * so it is never considered stable.
+   */
+  public static <T extends EppResource & ResourceWithTransferData>
+      DateTime getNextProjectionChangeTime(T resource) {
+    if (resource.getStatusValues().isEmpty()) {
+      return START_OF_TIME;
+    }
+    TransferData transferData = resource.getTransferData();
+    if (TransferStatus.PENDING.equals(transferData.getTransferStatus())) {
+      return Optional.fromNullable(transferData.getPendingTransferExpirationTime())
+          .or(START_OF_TIME);
+    }
+    return END_OF_TIME;
+  }
+
   /**
    * Rewinds an {@link EppResource} object to a given point in time.
    *
@@ -276,6 +304,69 @@ public final class EppResourceUtils {
       }};
   }
 
+  /**
+   * Rewinds many {@link EppResource} objects to a given point in time in a single batch.
+   *
+   * <p>This is equivalent to calling {@link #loadAtPointInTime(EppResource, DateTime)} on each of
+   * the resources, except that the {@link CommitLogMutation} entities for all resources modified
+   * after {@code timestamp} are fetched with one asynchronous batch get, rather than one get per
+   * resource. The same warnings about rewinding only backwards in time and about the granularity of
+   * revisions apply.
+   *
+   * @return an asynchronous operation returning a map from the key of each resource to that
+   *     resource at {@code timestamp}, in the iteration order of {@code resources}, omitting any
+   *     resources that are deleted or not yet created at {@code timestamp}
+   */
+  public static <T extends EppResource> Result<ImmutableMap<Key<T>, T>> loadAtPointInTime(
+      Iterable<T> resources, final DateTime timestamp) {
+    final Map<Key<T>, T> resourcesByKey = new LinkedHashMap<>();
+    final Map<Key<T>, Key<CommitLogMutation>> mutationKeys = new HashMap<>();
+    for (T resource : resources) {
+      Key<T> resourceKey = Key.create(resource);
+      resourcesByKey.put(resourceKey, resource);
+      // Only resources that existed at the requested time and were modified since need a revision.
+      if (timestamp.isBefore(resource.getCreationTime())
+          || isAtOrAfter(timestamp, resource.getUpdateAutoTimestamp().getTimestamp())) {
+        continue;
+      }
+      Key<CommitLogManifest> revision = findMostRecentRevisionAtTime(resource, timestamp);
+      if (revision == null) {
+        logger.severefmt("No revision found for %s, falling back to resource.", resourceKey);
+        continue;
+      }
+      mutationKeys.put(resourceKey, CommitLogMutation.createKey(revision, resourceKey));
+    }
+    final Map<Key<CommitLogMutation>, CommitLogMutation> mutations =
+        ofy().load().keys(mutationKeys.values());
+    return new Result<ImmutableMap<Key<T>, T>>() {
+      @Override
+      public ImmutableMap<Key<T>, T> now() {
+        ImmutableMap.Builder<Key<T>, T> builder = new ImmutableMap.Builder<>();
+        for (Entry<Key<T>, T> entry : resourcesByKey.entrySet()) {
+          T loadedResource = entry.getValue();
+          if (timestamp.isBefore(loadedResource.getCreationTime())) {
+            continue;
+          }
+          Key<CommitLogMutation> mutationKey = mutationKeys.get(entry.getKey());
+          if (mutationKey != null) {
+            CommitLogMutation mutation = mutations.get(mutationKey);
+            if (mutation != null) {
+              loadedResource = ofy().load().fromEntity(mutation.getEntity());
+            } else {
+              logger.severefmt(
+                  "Couldn't load mutation for revision at %s for %s, falling back to resource."
+                      + " Revision: %s",
+                  timestamp, entry.getKey(), mutationKey.getParent());
+            }
+          }
+          if (isActive(loadedResource, timestamp)) {
+            builder.put(entry.getKey(), cloneProjectedAtTime(loadedResource, timestamp));
+          }
+        }
+        return builder.build();
+      }};
+  }
+
   /**
    * Returns an asynchronous result holding the most recent Datastore revision of a given
    * EppResource before or at the provided timestamp using the EppResource revisions map, falling
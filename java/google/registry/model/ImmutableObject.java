@@ -30,7 +30,6 @@ import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 import java.lang.reflect.Field;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -60,7 +59,7 @@ public abstract class ImmutableObject implements Cloneable {
   private boolean equalsImmutableObject(ImmutableObject other) {
     return getClass().equals(other.getClass())
         && hashCode() == other.hashCode()
-        && ModelUtils.getFieldValues(this).equals(ModelUtils.getFieldValues(other));
+        && ModelUtils.fieldValuesEqual(this, other);
   }
 
   @Override
@@ -71,7 +70,7 @@ public abstract class ImmutableObject implements Cloneable {
   @Override
   public int hashCode() {
     if (hashCode == null) {
-      hashCode = Arrays.hashCode(ModelUtils.getFieldValues(this).values().toArray());
+      hashCode = ModelUtils.hashFieldValues(this);
     }
     return hashCode;
   }
@@ -94,6 +93,11 @@ public abstract class ImmutableObject implements Cloneable {
     return ModelUtils.cloneEmptyToNull(t);
   }
 
+  /** Returns whether {@link #cloneEmptyToNull} would set any of the object's fields to null. */
+  protected static boolean hasEmptyValues(ImmutableObject t) {
+    return ModelUtils.hasEmptyValues(t);
+  }
+
   /**
    * Returns a string view of the object, formatted like:
    *
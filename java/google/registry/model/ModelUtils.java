@@ -30,6 +30,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
@@ -38,6 +39,9 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Parent;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
@@ -81,11 +85,71 @@ public class ModelUtils {
             return ImmutableMap.copyOf(fields);
           }});
 
+  /** Caches compiled accessors for all instance fields on an object, in the same order. */
+  private static final LoadingCache<Class<?>, ImmutableList<FieldAccessor>> ACCESSORS_CACHE =
+      CacheBuilder.newBuilder().build(new CacheLoader<Class<?>, ImmutableList<FieldAccessor>>() {
+          @Override
+          public ImmutableList<FieldAccessor> load(Class<?> clazz) {
+            ImmutableList.Builder<FieldAccessor> accessors = new ImmutableList.Builder<>();
+            for (Field field : getAllFields(clazz).values()) {
+              accessors.add(new FieldAccessor(field));
+            }
+            return accessors.build();
+          }});
+
+  /**
+   * A getter for a single field, compiled to a {@link MethodHandle} once per class.
+   *
+   * <p>Reading through a method handle avoids the access checks and boxing of argument arrays that
+   * {@link Field#get} does on every call, which matters because {@link ImmutableObject#equals} and
+   * {@link ImmutableObject#hashCode} read every field of every object put in a set or map.
+   */
+  static final class FieldAccessor {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final Field field;
+    private final MethodHandle getter;
+
+    FieldAccessor(Field field) {
+      this.field = field;
+      try {
+        this.getter = MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    Field getField() {
+      return field;
+    }
+
+    /** Returns the raw value of this field on the given instance. */
+    Object get(Object instance) {
+      try {
+        return (Object) getter.invokeExact(instance);
+      } catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /** Returns the value of this field, with arrays wrapped as {@link List} views. */
+    Object getComparableValue(Object instance) {
+      Object value = get(instance);
+      return (value != null && value.getClass().isArray()) ? arrayAsList(value) : value;
+    }
+  }
+
   /** Lists all instance fields on an object, including non-public and inherited fields. */
   static Map<String, Field> getAllFields(Class<?> clazz) {
     return ALL_FIELDS_CACHE.getUnchecked(clazz);
   }
 
+  /** Lists compiled accessors for all fields returned by {@link #getAllFields}, in order. */
+  static ImmutableList<FieldAccessor> getFieldAccessors(Class<?> clazz) {
+    return ACCESSORS_CACHE.getUnchecked(clazz);
+  }
+
   /** Return a string representing the persisted schema of a type or enum. */
   static String getSchema(Class<?> clazz) {
     StringBuilder stringBuilder = new StringBuilder();
@@ -190,25 +254,53 @@ public class ModelUtils {
   static Map<Field, Object> getFieldValues(Object instance) {
     // Don't make this ImmutableMap because field values can be null.
     Map<Field, Object> values = new LinkedHashMap<>();
-    for (Field field : getAllFields(instance.getClass()).values()) {
-      Object value = getFieldValue(instance, field);
-      if (value != null && value.getClass().isArray()) {
-        // It's surprisingly difficult to convert arrays into lists if the array might be primitive.
-        final Object arrayValue = value;
-        value = new AbstractList<Object>() {
-            @Override
-            public Object get(int index) {
-              return Array.get(arrayValue, index);
-            }
+    for (FieldAccessor accessor : getFieldAccessors(instance.getClass())) {
+      values.put(accessor.getField(), accessor.getComparableValue(instance));
+    }
+    return values;
+  }
 
-            @Override
-            public int size() {
-              return Array.getLength(arrayValue);
-            }};
+  /**
+   * Returns whether two instances of the same class have equal values in every field.
+   *
+   * <p>This is equivalent to comparing the maps returned by {@link #getFieldValues}, but reads the
+   * fields pairwise and stops at the first difference instead of materializing both maps.
+   */
+  static boolean fieldValuesEqual(Object instance, Object other) {
+    for (FieldAccessor accessor : getFieldAccessors(instance.getClass())) {
+      if (!Objects.equals(
+          accessor.getComparableValue(instance), accessor.getComparableValue(other))) {
+        return false;
       }
-      values.put(field, value);
     }
-    return values;
+    return true;
+  }
+
+  /**
+   * Returns a hash of all field values, equal to {@link java.util.Arrays#hashCode(Object[])} over
+   * the values of the map returned by {@link #getFieldValues}.
+   */
+  static int hashFieldValues(Object instance) {
+    int result = 1;
+    for (FieldAccessor accessor : getFieldAccessors(instance.getClass())) {
+      result = 31 * result + Objects.hashCode(accessor.getComparableValue(instance));
+    }
+    return result;
+  }
+
+  /** Wraps an array, which might be primitive, as a {@link List} view. */
+  private static List<Object> arrayAsList(final Object arrayValue) {
+    // It's surprisingly difficult to convert arrays into lists if the array might be primitive.
+    return new AbstractList<Object>() {
+        @Override
+        public Object get(int index) {
+          return Array.get(arrayValue, index);
+        }
+
+        @Override
+        public int size() {
+          return Array.getLength(arrayValue);
+        }};
   }
 
   /** Functional helper for {@link #cloneEmptyToNull}. */
@@ -240,11 +332,11 @@ public class ModelUtils {
         if (obj instanceof ImmutableObject) {
           // Recurse on the fields of an ImmutableObject.
           ImmutableObject copy = ImmutableObject.clone((ImmutableObject) obj);
-          for (Field field : getAllFields(obj.getClass()).values()) {
-            Object oldValue = getFieldValue(obj, field);
+          for (FieldAccessor accessor : getFieldAccessors(obj.getClass())) {
+            Object oldValue = accessor.get(obj);
             Object newValue = apply(oldValue);
             if (!Objects.equals(oldValue, newValue)) {
-              setFieldValue(copy, field, newValue);
+              setFieldValue(copy, accessor.getField(), newValue);
             }
           }
           return copy;
@@ -258,8 +350,43 @@ public class ModelUtils {
     return (T) CLONE_EMPTY_TO_NULL.apply(obj);
   }
 
+  /**
+   * Returns whether {@link #cloneEmptyToNull} would set anything in the object to null, without
+   * cloning it. This errs towards true for collections that mix ImmutableObjects with other types.
+   */
+  protected static boolean hasEmptyValues(Object obj) {
+    if (obj instanceof ImmutableSortedMap) {
+      return false;
+    }
+    if ("".equals(obj)
+        || (obj instanceof Collection && ((Collection<?>) obj).isEmpty())
+        || (obj instanceof Map && ((Map<?, ?>) obj).isEmpty())
+        || (obj != null && obj.getClass().isArray() && Array.getLength(obj) == 0)) {
+      return true;
+    }
+    Iterable<?> children = ImmutableList.of();
+    if (obj instanceof Set || obj instanceof List) {
+      children = (Iterable<?>) obj;
+    } else if (obj instanceof Map) {
+      children = ((Map<?, ?>) obj).values();
+    } else if (obj instanceof ImmutableObject) {
+      for (FieldAccessor accessor : getFieldAccessors(obj.getClass())) {
+        if (hasEmptyValues(accessor.get(obj))) {
+          return true;
+        }
+      }
+    }
+    for (Object child : children) {
+      if (child instanceof ImmutableObject && hasEmptyValues(child)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   @VisibleForTesting
   static void resetCaches() {
     ALL_FIELDS_CACHE.invalidateAll();
+    ACCESSORS_CACHE.invalidateAll();
   }
 }
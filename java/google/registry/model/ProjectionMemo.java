@@ -0,0 +1,63 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+
+/**
+ * Memo of {@link EppResource#cloneProjectedAtTime} results for the duration of a single request.
+ *
+ * <p>Entries are keyed on the identity of the loaded resource. Objectify hands out a single
+ * instance per entity for the lifetime of a session, so repeated projections of the same resource
+ * within a request (such as the superordinate domain of every host in a nameserver search) are
+ * computed once. A new memo must be created for each request, since nothing is ever evicted. This
+ * class is not thread-safe.
+ */
+public final class ProjectionMemo {
+
+  private final Map<EppResource, Projection> projections = new IdentityHashMap<>();
+
+  @Inject
+  public ProjectionMemo() {}
+
+  /** A resource projected to a particular time. */
+  private static final class Projection {
+
+    final DateTime time;
+    final EppResource projected;
+
+    Projection(DateTime time, EppResource projected) {
+      this.time = time;
+      this.projected = projected;
+    }
+  }
+
+  /**
+   * Returns the given resource projected to the given time, reusing the most recent projection of
+   * this same instance if it was made at the same time.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends EppResource> T cloneProjectedAtTime(T resource, DateTime now) {
+    Projection projection = projections.get(resource);
+    if (projection == null || !projection.time.equals(now)) {
+      projection = new Projection(now, resource.cloneProjectedAtTime(now));
+      projections.put(resource, projection);
+    }
+    return (T) projection.projected;
+  }
+}
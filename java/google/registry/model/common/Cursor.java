@@ -73,6 +73,14 @@ public class Cursor extends ImmutableObject {
      */
     RECURRING_BILLING(EntityGroupRoot.class),
 
+    /**
+     * Cursor that marks the switch of recurring billing expansion to batched mode. The value of
+     * this cursor is the execution time of the first successful batched expansion job. Synthetic
+     * events billed before then may have been created by unbatched jobs, which don't give them the
+     * ids that batched jobs look for. Once this cursor is set, unbatched jobs are no longer run.
+     */
+    RECURRING_BILLING_BATCHED(EntityGroupRoot.class),
+
     /**
      * Cursor for {@link google.registry.export.sheet.SyncRegistrarsSheetAction}. The DateTime
      * stored is the last time that registrar changes were successfully synced to the sheet. If
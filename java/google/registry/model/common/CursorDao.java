@@ -0,0 +1,179 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.common;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.config.RegistryConfig.getCursorCacheDuration;
+import static google.registry.model.CacheUtils.memoizeForDuration;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table.Cell;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import google.registry.model.common.Cursor.CursorType;
+import google.registry.model.registry.Registries;
+import google.registry.model.registry.Registry;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import google.registry.util.Clock;
+import google.registry.util.FormattingLogger;
+import google.registry.util.NonFinalForTesting;
+import google.registry.util.SystemClock;
+import java.util.Map;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Loads the {@link Cursor}s of many TLDs at once.
+ *
+ * <p>Callers that need the cursors of every TLD, such as RDE scheduling, would otherwise load them
+ * one key at a time. Every TLD's cursors are children of the same entity group root, so they can
+ * all be read in one batched get, inside or outside of a transaction.
+ *
+ * <p>Read-only callers can instead use {@link #loadCached}, a view of all TLD cursors that is
+ * reloaded at most once per configured cursor cache duration. How far each TLD cursor trails the
+ * present is reported from that view in the {@code /cursor/lag} gauge.
+ */
+public final class CursorDao {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** The cursor types that are scoped to a TLD. */
+  public static final ImmutableSet<CursorType> TLD_CURSOR_TYPES =
+      FluentIterable.from(ImmutableList.copyOf(CursorType.values()))
+          .filter(new Predicate<CursorType>() {
+            @Override
+            public boolean apply(CursorType cursorType) {
+              return cursorType.getScopeClass().equals(Registry.class);
+            }})
+          .toSet();
+
+  @NonFinalForTesting
+  private static Clock clock = new SystemClock();
+
+  /** Supplier of the cached view of all TLD cursors. */
+  @NonFinalForTesting
+  private static Supplier<ImmutableTable<String, CursorType, Cursor>> cache =
+      createFreshCache(getCursorCacheDuration());
+
+  @VisibleForTesting
+  static Supplier<ImmutableTable<String, CursorType, Cursor>> createFreshCache(
+      Duration cacheDuration) {
+    return memoizeForDuration(
+        new Supplier<ImmutableTable<String, CursorType, Cursor>>() {
+          @Override
+          public ImmutableTable<String, CursorType, Cursor> get() {
+            return ofy().doTransactionless(new Work<ImmutableTable<String, CursorType, Cursor>>() {
+              @Override
+              public ImmutableTable<String, CursorType, Cursor> run() {
+                return load(Registries.getTlds(), TLD_CURSOR_TYPES);
+              }});
+          }},
+        cacheDuration);
+  }
+
+  static {
+    MetricRegistryImpl.getDefault()
+        .newGauge(
+            "/cursor/lag",
+            "Time by which cursors trail the present, or negative if they're ahead of it",
+            "seconds",
+            ImmutableSet.of(
+                LabelDescriptor.create("tld", "The TLD of the cursor."),
+                LabelDescriptor.create("type", "The type of the cursor.")),
+            new Supplier<ImmutableMap<ImmutableList<String>, Long>>() {
+              @Override
+              public ImmutableMap<ImmutableList<String>, Long> get() {
+                return getCursorLags();
+              }},
+            Long.class);
+  }
+
+  /**
+   * Loads the cursors of the given types for the given TLDs in one batched get.
+   *
+   * @return a table of the cursors that exist, by TLD and cursor type
+   * @throws IllegalArgumentException if any of the cursor types isn't scoped to a TLD
+   */
+  public static ImmutableTable<String, CursorType, Cursor> load(
+      Iterable<String> tlds, Iterable<CursorType> cursorTypes) {
+    for (CursorType cursorType : cursorTypes) {
+      checkArgument(
+          TLD_CURSOR_TYPES.contains(cursorType),
+          "Cursor type is not scoped to a TLD: %s",
+          cursorType);
+    }
+    ImmutableTable.Builder<String, CursorType, Key<Cursor>> keysBuilder =
+        new ImmutableTable.Builder<>();
+    for (String tld : ImmutableSet.copyOf(tlds)) {
+      Registry registry = Registry.get(tld);
+      for (CursorType cursorType : ImmutableSet.copyOf(cursorTypes)) {
+        keysBuilder.put(tld, cursorType, Cursor.createKey(cursorType, registry));
+      }
+    }
+    ImmutableTable<String, CursorType, Key<Cursor>> keys = keysBuilder.build();
+    Map<Key<Cursor>, Cursor> cursors = ofy().load().keys(keys.values());
+    ImmutableTable.Builder<String, CursorType, Cursor> table = new ImmutableTable.Builder<>();
+    for (Cell<String, CursorType, Key<Cursor>> cell : keys.cellSet()) {
+      Cursor cursor = cursors.get(cell.getValue());
+      if (cursor != null) {
+        table.put(cell.getRowKey(), cell.getColumnKey(), cursor);
+      }
+    }
+    return table.build();
+  }
+
+  /**
+   * Returns a cached view of the cursors of all types for all TLDs.
+   *
+   * <p>This is for read-only callers only, such as dashboards, since it may be as old as the
+   * configured cursor cache duration. All of the cursors in it were loaded at the same time, so it
+   * is a consistent view of them as of then.
+   */
+  public static ImmutableTable<String, CursorType, Cursor> loadCached() {
+    return cache.get();
+  }
+
+  /** Returns the lag of each TLD cursor in the cached view, in seconds, for the gauge. */
+  @VisibleForTesting
+  static ImmutableMap<ImmutableList<String>, Long> getCursorLags() {
+    ImmutableTable<String, CursorType, Cursor> cursors;
+    try {
+      cursors = loadCached();
+    } catch (RuntimeException e) {
+      // Don't let a failed load take down the metric reporter; the gauge just skips this round.
+      logger.warningfmt(e, "Failed to load cursors for the lag gauge");
+      return ImmutableMap.of();
+    }
+    DateTime now = clock.nowUtc();
+    ImmutableMap.Builder<ImmutableList<String>, Long> lags = new ImmutableMap.Builder<>();
+    for (Cell<String, CursorType, Cursor> cell : cursors.cellSet()) {
+      lags.put(
+          ImmutableList.of(cell.getRowKey(), cell.getColumnKey().name()),
+          (now.getMillis() - cell.getValue().getCursorTime().getMillis()) / 1000);
+    }
+    return lags.build();
+  }
+
+  private CursorDao() {}
+}
@@ -21,6 +21,7 @@ import static google.registry.model.ofy.Ofy.RECOMMENDED_MEMCACHE_EXPIRATION;
 import static google.registry.util.CollectionUtils.difference;
 import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
 import static google.registry.util.CollectionUtils.union;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.DateTimeUtils.earliestOf;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 import static google.registry.util.DateTimeUtils.leapSafeAddYears;
@@ -34,6 +35,7 @@ import com.googlecode.objectify.annotation.IgnoreSave;
 import com.googlecode.objectify.condition.IfNull;
 import google.registry.model.EppResource.ForeignKeyedEppResource;
 import google.registry.model.EppResource.ResourceWithTransferData;
+import google.registry.model.EppResourceUtils;
 import google.registry.model.annotations.ExternalMessagingName;
 import google.registry.model.billing.BillingEvent;
 import google.registry.model.domain.rgp.GracePeriodStatus;
@@ -231,6 +233,12 @@ public class DomainResource extends DomainBase
    */
   @Override
   public DomainResource cloneProjectedAtTime(final DateTime now) {
+    if (now.isBefore(getNextProjectionChangeTime())) {
+      // Nothing expires or gets approved by now, so skip the transfer and grace period logic below.
+      // The full projection would still apply the normalization in Builder.build(), which loaded
+      // domains have almost always had already, so only rebuild the ones that haven't.
+      return isNormalized() ? this : asBuilder().build();
+    }
 
     TransferData transferData = getTransferData();
     DateTime transferExpirationTime = transferData.getPendingTransferExpirationTime();
@@ -313,6 +321,37 @@ public class DomainResource extends DomainBase
     return builder.build();
   }
 
+  /**
+   * Returns the earliest of the times at which a pending transfer is approved, the domain
+   * autorenews, or one of its grace periods expires, since those are the only changes that
+   * {@link #cloneProjectedAtTime} makes.
+   */
+  public DateTime getNextProjectionChangeTime() {
+    if (registrationExpirationTime == null) {
+      return START_OF_TIME;
+    }
+    DateTime changeTime =
+        earliestOf(registrationExpirationTime, EppResourceUtils.getNextProjectionChangeTime(this));
+    for (GracePeriod gracePeriod : getGracePeriods()) {
+      if (gracePeriod.getExpirationTime().isBefore(changeTime)) {
+        changeTime = gracePeriod.getExpirationTime();
+      }
+    }
+    return changeTime;
+  }
+
+  /** Returns whether {@link Builder#build} would leave this domain exactly as it is. */
+  private boolean isNormalized() {
+    ImmutableSet<StatusValue> statusValues = getStatusValues();
+    return getDeletionTime() != null
+        && !TransferData.EMPTY.equals(transferData)
+        && statusValues.contains(StatusValue.INACTIVE) == getNameservers().isEmpty()
+        && (statusValues.contains(StatusValue.OK)
+            ? statusValues.size() == 1
+            : !statusValues.isEmpty())
+        && !hasEmptyValues(this);
+  }
+
   /** Return what the expiration time would be if the given number of years were added to it. */
   public static DateTime extendRegistrationWithCap(
       DateTime now,
@@ -33,6 +33,8 @@ import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
 import google.registry.model.BackupGroupRoot;
 import google.registry.model.ImmutableObject;
+import google.registry.model.poll.PollQueueSummary;
+import google.registry.model.registrar.RegistrarVersion;
 import google.registry.util.Clock;
 import java.util.HashSet;
 import java.util.Map;
@@ -123,6 +125,12 @@ class CommitLoggedWork<R> extends VoidWork {
 
   /** Records all mutations enrolled by this transaction to a {@link CommitLogManifest} entry. */
   private void saveCommitLog(TransactionInfo info) {
+    // This also covers poll messages saved without backups, which don't show up in the commit log.
+    PollQueueSummary.recordChanges(info.getPollMessagesBefore(), info.getPollMessagesAfter());
+    // Likewise, registrars saved without backups still bump the version, once per transaction.
+    if (info.changesRegistrars()) {
+      RegistrarVersion.bump();
+    }
     ImmutableSet<Key<?>> touchedKeys = info.getTouchedKeys();
     if (touchedKeys.isEmpty()) {
       return;
@@ -142,6 +142,8 @@ public class Ofy {
         checkState(Iterables.all(keys, notNull()), "Can't delete a null key.");
         checkProhibitedAnnotations(keys, NotBackedUp.class, VirtualEntity.class);
         TRANSACTION_INFO.get().putDeletes(keys);
+        TRANSACTION_INFO.get().putPollMessageDeletes(keys);
+        TRANSACTION_INFO.get().putRegistrarDeletes(keys);
       }
     };
   }
@@ -150,12 +152,19 @@ public class Ofy {
    * Delete, without any augmentations except to check that we're not saving any virtual entities.
    *
    * <p>No backups get written.
+   *
+   * <p>Poll messages changed in a transaction still update their poll queue summaries, and
+   * registrars changed in a transaction still bump the registrar version.
    */
   public Deleter deleteWithoutBackup() {
     return new AugmentedDeleter() {
       @Override
       protected void handleDeletion(Iterable<Key<?>> keys) {
         checkProhibitedAnnotations(keys, VirtualEntity.class);
+        if (inTransaction()) {
+          TRANSACTION_INFO.get().putPollMessageDeletes(keys);
+          TRANSACTION_INFO.get().putRegistrarDeletes(keys);
+        }
       }
     };
   }
@@ -175,6 +184,8 @@ public class Ofy {
         checkProhibitedAnnotations(entities, NotBackedUp.class, VirtualEntity.class);
         ImmutableMap<Key<?>, ?> keysToEntities = uniqueIndex(entities, OBJECTS_TO_KEYS);
         TRANSACTION_INFO.get().putSaves(keysToEntities);
+        TRANSACTION_INFO.get().putPollMessageSaves(entities);
+        TRANSACTION_INFO.get().putRegistrarSaves(entities);
       }
     };
   }
@@ -183,12 +194,19 @@ public class Ofy {
    * Save, without any augmentations except to check that we're not saving any virtual entities.
    *
    * <p>No backups get written.
+   *
+   * <p>Poll messages changed in a transaction still update their poll queue summaries, and
+   * registrars changed in a transaction still bump the registrar version.
    */
   public Saver saveWithoutBackup() {
     return new AugmentedSaver() {
       @Override
       protected void handleSave(Iterable<?> entities) {
         checkProhibitedAnnotations(entities, VirtualEntity.class);
+        if (inTransaction()) {
+          TRANSACTION_INFO.get().putPollMessageSaves(entities);
+          TRANSACTION_INFO.get().putRegistrarSaves(entities);
+        }
       }
     };
   }
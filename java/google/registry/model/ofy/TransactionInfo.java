@@ -21,13 +21,22 @@ import static com.google.common.collect.Maps.toMap;
 import static com.googlecode.objectify.ObjectifyService.ofy;
 import static google.registry.model.ofy.CommitLogBucket.getArbitraryBucketId;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
+import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollQueueSummary;
+import google.registry.model.registrar.Registrar;
+import google.registry.model.registrar.RegistrarVersion;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import org.joda.time.DateTime;
 
 /** Metadata for an {@link Ofy} transaction that saves commit logs. */
@@ -55,6 +64,27 @@ class TransactionInfo {
    */
   private final ImmutableMap.Builder<Key<?>, Object> changesBuilder = new ImmutableMap.Builder<>();
 
+  /**
+   * The poll messages that the transaction saves or deletes, with or without backups.
+   *
+   * <p>These are kept apart from {@link #changesBuilder} so that {@link PollQueueSummary} can be
+   * updated for every change. Each message maps to its state before the transaction and after it.
+   */
+  private final Map<Key<PollMessage>, PollMessageChange> pollMessageChanges = new HashMap<>();
+
+  /**
+   * Whether the transaction saves or deletes any registrars, with or without backups.
+   *
+   * <p>If so, the {@link RegistrarVersion} is bumped once as the transaction commits.
+   */
+  private boolean changesRegistrars;
+
+  /** The states of a poll message before and after the transaction, absent if it didn't exist. */
+  private static class PollMessageChange {
+    Optional<PollMessage> before;
+    Optional<PollMessage> after;
+  }
+
   TransactionInfo(DateTime now) {
     this.transactionTime = now;
     ofy().load().key(bucketKey);  // Asynchronously load value into session cache.
@@ -79,6 +109,128 @@ class TransactionInfo {
     changesBuilder.putAll(toMap(keys, constant(TransactionInfo.Delete.SENTINEL)));
   }
 
+  /**
+   * Records the poll messages among entities that are being saved.
+   *
+   * <p>The state of a message from before the transaction is taken from the session cache if the
+   * transaction loaded it. Otherwise it is loaded here, except for messages that are saved with
+   * event times too far off to matter to {@link PollQueueSummary}. Those are assumed to be new,
+   * which saves a read in each transaction that creates one, such as every domain create. Code
+   * that moves an existing message that far out has to load it first, which it needs to anyway.
+   */
+  void putPollMessageSaves(Iterable<?> entities) {
+    ImmutableSet<Key<?>> sessionKeys = null;
+    List<Key<PollMessage>> keysToLoad = new ArrayList<>();
+    for (Object entity : entities) {
+      if (entity instanceof PollMessage) {
+        PollMessage pollMessage = (PollMessage) entity;
+        Key<PollMessage> key = Key.create(pollMessage);
+        getPollMessageChange(key).after = Optional.of(pollMessage);
+        if (sessionKeys == null) {
+          sessionKeys = getSessionKeys();
+        }
+        if (sessionKeys.contains(key)
+            || PollQueueSummary.isTracked(pollMessage.getEventTime(), transactionTime)) {
+          keysToLoad.add(key);
+        }
+      }
+    }
+    if (sessionKeys != null) {
+      putPollMessagesBefore(keysToLoad);
+    }
+  }
+
+  /** Records the poll messages among keys that are being deleted. */
+  void putPollMessageDeletes(Iterable<Key<?>> keys) {
+    List<Key<PollMessage>> keysToLoad = new ArrayList<>();
+    for (Key<?> key : keys) {
+      if (PollMessage.class.isAssignableFrom(
+          ofy().factory().getMetadata(key).getEntityClass())) {
+        @SuppressWarnings("unchecked")
+        Key<PollMessage> pollMessageKey = (Key<PollMessage>) key;
+        getPollMessageChange(pollMessageKey).after = Optional.absent();
+        keysToLoad.add(pollMessageKey);
+      }
+    }
+    if (!keysToLoad.isEmpty()) {
+      putPollMessagesBefore(keysToLoad);
+    }
+  }
+
+  /** Records whether any of the entities that are being saved are registrars. */
+  void putRegistrarSaves(Iterable<?> entities) {
+    for (Object entity : entities) {
+      if (entity instanceof Registrar) {
+        changesRegistrars = true;
+        return;
+      }
+    }
+  }
+
+  /** Records whether any of the keys that are being deleted are of registrars. */
+  void putRegistrarDeletes(Iterable<Key<?>> keys) {
+    for (Key<?> key : keys) {
+      if (key.getKind().equals(Key.getKind(Registrar.class))) {
+        changesRegistrars = true;
+        return;
+      }
+    }
+  }
+
+  boolean changesRegistrars() {
+    return changesRegistrars;
+  }
+
+  private PollMessageChange getPollMessageChange(Key<PollMessage> key) {
+    PollMessageChange change = pollMessageChanges.get(key);
+    if (change == null) {
+      change = new PollMessageChange();
+      pollMessageChanges.put(key, change);
+    }
+    return change;
+  }
+
+  /**
+   * Fills in the states from before the transaction for newly changed poll messages.
+   *
+   * <p>Messages that are already in the session cache come from there without another read, and
+   * messages that aren't among the keys to load are taken to be new.
+   */
+  private void putPollMessagesBefore(List<Key<PollMessage>> keysToLoad) {
+    Map<Key<PollMessage>, PollMessage> loaded = ofy().load().keys(keysToLoad);
+    for (Entry<Key<PollMessage>, PollMessageChange> entry : pollMessageChanges.entrySet()) {
+      if (entry.getValue().before == null) {
+        entry.getValue().before = Optional.fromNullable(loaded.get(entry.getKey()));
+      }
+    }
+  }
+
+  /** Returns the states from before the transaction of the poll messages that it changes. */
+  ImmutableMap<Key<PollMessage>, PollMessage> getPollMessagesBefore() {
+    ImmutableMap.Builder<Key<PollMessage>, PollMessage> builder = new ImmutableMap.Builder<>();
+    for (Entry<Key<PollMessage>, PollMessageChange> entry : pollMessageChanges.entrySet()) {
+      if (entry.getValue().before.isPresent()) {
+        builder.put(entry.getKey(), entry.getValue().before.get());
+      }
+    }
+    return builder.build();
+  }
+
+  /** Returns the states after the transaction of the poll messages that it changes. */
+  ImmutableMap<Key<PollMessage>, PollMessage> getPollMessagesAfter() {
+    ImmutableMap.Builder<Key<PollMessage>, PollMessage> builder = new ImmutableMap.Builder<>();
+    for (Entry<Key<PollMessage>, PollMessageChange> entry : pollMessageChanges.entrySet()) {
+      if (entry.getValue().after.isPresent()) {
+        builder.put(entry.getKey(), entry.getValue().after.get());
+      }
+    }
+    return builder.build();
+  }
+
+  private static ImmutableSet<Key<?>> getSessionKeys() {
+    return ((SessionKeyExposingObjectify) ofy()).getSessionKeys();
+  }
+
   ImmutableSet<Key<?>> getTouchedKeys() {
     return ImmutableSet.copyOf(changesBuilder.build().keySet());
   }
@@ -0,0 +1,455 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.poll;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Sets.union;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static google.registry.util.DateTimeUtils.earliestOf;
+import static google.registry.util.DateTimeUtils.isBeforeOrAt;
+import static google.registry.util.DateTimeUtils.latestOf;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.annotation.Embed;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.NotBackedUp;
+import google.registry.model.annotations.NotBackedUp.Reason;
+import google.registry.util.NonFinalForTesting;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Count of a registrar's pending {@link PollMessage}s, kept up to date transactionally.
+ *
+ * <p>Counting a registrar's whole poll queue on every poll costs time linear in its length. This
+ * entity instead holds the number of the registrar's poll messages with event times at or before
+ * {@link #countedThrough}, plus the keys and event times of the messages after that through
+ * {@link #trackedThrough}, so that the number of messages due at any time up to then can be read
+ * off of it without a query.
+ *
+ * <p>The summary is updated in the same transaction as every write of one of the registrar's poll
+ * messages whose old or new event time is within {@link #TRACKING_WINDOW} of the transaction
+ * time; see {@link #recordChanges}. Messages further off than that are only picked up when
+ * {@link #advance} moves {@link #trackedThrough} forward, which has to happen at least every
+ * {@link #LOOKAHEAD} to keep the summary complete. By then the index entries of such messages are
+ * long settled, so the eventually consistent query that finds them is safe to trust.
+ *
+ * <p>A summary only keeps up to {@link #maxTrackedMessages} upcoming messages and removals, to stay
+ * well under the entity size limit. If a registrar has more than that coming due, its summary is
+ * marked as {@link #overflowed} and left alone by poll message writes, and polls count its queue
+ * with a query until the reconcile job resets the summary.
+ */
+@Entity
+@NotBackedUp(reason = Reason.AUTO_GENERATED)
+public class PollQueueSummary extends ImmutableObject {
+
+  /** How far past the present {@link #advance} moves the time that messages are tracked through. */
+  public static final Duration LOOKAHEAD = Duration.standardHours(6);
+
+  /**
+   * How far past the transaction time poll message writes have to update the summary.
+   *
+   * <p>This exceeds {@link #LOOKAHEAD} by enough that any message that {@link #advance} finds and
+   * that wasn't recorded transactionally was written at least an hour before it runs.
+   */
+  public static final Duration TRACKING_WINDOW = LOOKAHEAD.plus(Duration.standardHours(1));
+
+  /** How long a summary must be left unchanged before its count can be checked by a query. */
+  public static final Duration REPAIR_SETTLE_DURATION = Duration.standardMinutes(10);
+
+  /** The most upcoming messages and untracked removals that a summary can hold between them. */
+  @NonFinalForTesting
+  private static int maxTrackedMessages = 1000;
+
+  /** A poll message that is due after {@link #countedThrough}. */
+  @Embed
+  public static class UpcomingMessage extends ImmutableObject {
+
+    Key<PollMessage> messageKey;
+
+    DateTime eventTime;
+
+    public Key<PollMessage> getMessageKey() {
+      return messageKey;
+    }
+
+    public DateTime getEventTime() {
+      return eventTime;
+    }
+
+    public static UpcomingMessage create(Key<PollMessage> messageKey, DateTime eventTime) {
+      UpcomingMessage instance = new UpcomingMessage();
+      instance.messageKey = messageKey;
+      instance.eventTime = eventTime;
+      return instance;
+    }
+  }
+
+  /** The client id of the registrar whose queue is counted. */
+  @Id
+  String clientId;
+
+  /** The time through which poll messages are included in {@link #dueCount}. */
+  DateTime countedThrough = START_OF_TIME;
+
+  /** The number of poll messages with event times at or before {@link #countedThrough}. */
+  long dueCount;
+
+  /** The time through which all poll messages after {@link #countedThrough} are upcoming. */
+  DateTime trackedThrough = START_OF_TIME;
+
+  /**
+   * The poll messages with event times after {@link #countedThrough}.
+   *
+   * <p>This includes all of them through {@link #trackedThrough}, and any later ones that were
+   * written within the tracking window since.
+   */
+  Set<UpcomingMessage> upcomingMessages;
+
+  /**
+   * Messages after {@link #trackedThrough} that were deleted or moved since the last advance.
+   *
+   * <p>These keep {@link #advance} from adding messages that a stale index still returns.
+   */
+  Set<Key<PollMessage>> untrackedRemovals;
+
+  /** The time of the last transaction that recorded a change to the queue. */
+  DateTime lastChangeTime = START_OF_TIME;
+
+  /**
+   * Whether the summary had more than {@link #maxTrackedMessages} messages to track.
+   *
+   * <p>An overflowed summary has dropped its upcoming messages and removals, so it can't be read or
+   * advanced, and writes of poll messages no longer update it.
+   */
+  boolean overflowed;
+
+  public String getClientId() {
+    return clientId;
+  }
+
+  public DateTime getCountedThrough() {
+    return countedThrough;
+  }
+
+  public long getDueCount() {
+    return dueCount;
+  }
+
+  public DateTime getTrackedThrough() {
+    return trackedThrough;
+  }
+
+  public ImmutableSet<UpcomingMessage> getUpcomingMessages() {
+    return nullToEmptyImmutableCopy(upcomingMessages);
+  }
+
+  public ImmutableSet<Key<PollMessage>> getUntrackedRemovals() {
+    return nullToEmptyImmutableCopy(untrackedRemovals);
+  }
+
+  public DateTime getLastChangeTime() {
+    return lastChangeTime;
+  }
+
+  public boolean isOverflowed() {
+    return overflowed;
+  }
+
+  /** Returns the number of the registrar's poll messages with event times at or before now. */
+  public int countDue(DateTime now) {
+    long count = dueCount;
+    for (UpcomingMessage message : getUpcomingMessages()) {
+      if (isBeforeOrAt(message.eventTime, now)) {
+        count++;
+      }
+    }
+    return Ints.saturatedCast(count);
+  }
+
+  /** Whether all messages due at the given time are accounted for by this summary. */
+  public boolean isCompleteAt(DateTime now) {
+    return !overflowed && isBeforeOrAt(now, trackedThrough);
+  }
+
+  /** Creates a summary with no upcoming messages. */
+  public static PollQueueSummary create(
+      String clientId, DateTime countedThrough, long dueCount, DateTime trackedThrough) {
+    checkArgument(dueCount >= 0, "Negative poll message count: %s", dueCount);
+    checkArgument(
+        isBeforeOrAt(countedThrough, trackedThrough),
+        "Messages counted through %s but only tracked through %s",
+        countedThrough,
+        trackedThrough);
+    PollQueueSummary instance = new PollQueueSummary();
+    instance.clientId = clientId;
+    instance.countedThrough = countedThrough;
+    instance.dueCount = dueCount;
+    instance.trackedThrough = trackedThrough;
+    return instance;
+  }
+
+  /** Loads the summary for a registrar, or an empty one with no messages counted yet. */
+  public static PollQueueSummary load(String clientId) {
+    PollQueueSummary summary = ofy().load().key(createKey(clientId)).now();
+    return summary == null
+        ? create(clientId, START_OF_TIME, 0, START_OF_TIME)
+        : summary;
+  }
+
+  @VisibleForTesting
+  static Key<PollQueueSummary> createKey(String clientId) {
+    return Key.create(PollQueueSummary.class, clientId);
+  }
+
+  /**
+   * Returns the number of the registrar's poll messages with event times in the given range.
+   *
+   * <p>This uses an eventually consistent query, so it must not be called in a transaction.
+   *
+   * @param after exclusive lower bound on the event times
+   * @param through inclusive upper bound on the event times
+   */
+  public static int countPollMessages(String clientId, DateTime after, DateTime through) {
+    if (!after.isBefore(through)) {
+      return 0;
+    }
+    return ofy().load()
+        .type(PollMessage.class)
+        .filter("clientId", clientId)
+        .filter("eventTime >", after.toDate())
+        .filter("eventTime <=", through.toDate())
+        .count();
+  }
+
+  /**
+   * Transactionally replaces a summary, as long as it hasn't changed since it was loaded.
+   *
+   * @return whether the replacement was saved
+   */
+  public static boolean replace(
+      final PollQueueSummary expected, final PollQueueSummary replacement) {
+    checkArgument(
+        expected.clientId.equals(replacement.clientId),
+        "Summaries are for different registrars: %s, %s",
+        expected.clientId,
+        replacement.clientId);
+    return ofy().transactNew(new Work<Boolean>() {
+      @Override
+      public Boolean run() {
+        if (!load(expected.clientId).equals(expected)) {
+          return false;
+        }
+        ofy().saveWithoutBackup().entity(replacement);
+        return true;
+      }});
+  }
+
+  /**
+   * Whether a write of a poll message with the given event time has to update its summary.
+   *
+   * <p>Writes of messages that are due further off are left for {@link #advance} to pick up.
+   */
+  public static boolean isTracked(DateTime eventTime, DateTime transactionTime) {
+    return isBeforeOrAt(eventTime, transactionTime.plus(TRACKING_WINDOW));
+  }
+
+  /**
+   * Updates the summaries of the registrars whose poll messages the current transaction changes.
+   *
+   * <p>This is called by {@link google.registry.model.ofy.Ofy} as the transaction commits, with
+   * every poll message that it saved or deleted. A message missing from {@code before} is being
+   * created, and one missing from {@code after} is being deleted.
+   */
+  public static void recordChanges(
+      ImmutableMap<Key<PollMessage>, PollMessage> before,
+      ImmutableMap<Key<PollMessage>, PollMessage> after) {
+    DateTime now = ofy().getTransactionTime();
+    Map<String, PollQueueSummary> changedSummaries = new HashMap<>();
+    for (Key<PollMessage> key : union(before.keySet(), after.keySet())) {
+      PollMessage oldMessage = before.get(key);
+      PollMessage newMessage = after.get(key);
+      if (oldMessage != null && isTracked(oldMessage.getEventTime(), now)) {
+        loadForChange(oldMessage.getClientId(), changedSummaries)
+            .remove(key, oldMessage.getEventTime());
+      }
+      if (newMessage != null && isTracked(newMessage.getEventTime(), now)) {
+        loadForChange(newMessage.getClientId(), changedSummaries)
+            .add(key, newMessage.getEventTime());
+      }
+    }
+    for (PollQueueSummary summary : changedSummaries.values()) {
+      if (summary.overflowed) {
+        continue;
+      }
+      summary.foldThrough(earliestOf(now, summary.trackedThrough));
+      summary.lastChangeTime = now;
+      summary.save();
+    }
+  }
+
+  /** Returns a mutable copy of a registrar's summary, loading it once per transaction. */
+  private static PollQueueSummary loadForChange(
+      String clientId, Map<String, PollQueueSummary> changedSummaries) {
+    PollQueueSummary summary = changedSummaries.get(clientId);
+    if (summary == null) {
+      summary = load(clientId).mutableCopy();
+      changedSummaries.put(clientId, summary);
+    }
+    return summary;
+  }
+
+  private PollQueueSummary mutableCopy() {
+    PollQueueSummary copy = clone(this);
+    copy.upcomingMessages = new HashSet<>(getUpcomingMessages());
+    copy.untrackedRemovals = new HashSet<>(getUntrackedRemovals());
+    return copy;
+  }
+
+  /**
+   * Saves a mutable copy, storing empty sets as null like a freshly loaded summary has them.
+   *
+   * <p>If the copy has more messages to track than a summary can hold, it is saved as overflowed.
+   */
+  private void save() {
+    if (upcomingMessages.size() + untrackedRemovals.size() > maxTrackedMessages) {
+      overflowed = true;
+      upcomingMessages.clear();
+      untrackedRemovals.clear();
+    }
+    if (upcomingMessages.isEmpty()) {
+      upcomingMessages = null;
+    }
+    if (untrackedRemovals.isEmpty()) {
+      untrackedRemovals = null;
+    }
+    ofy().saveWithoutBackup().entity(this);
+  }
+
+  /** Takes a message out of a mutable copy of a summary. */
+  private void remove(Key<PollMessage> key, DateTime eventTime) {
+    if (isBeforeOrAt(eventTime, countedThrough)) {
+      // This only goes negative if the summary has drifted, which repairs will put right.
+      dueCount--;
+    } else {
+      upcomingMessages.remove(UpcomingMessage.create(key, eventTime));
+      // A stale index can still return the message to the next advance, which has to skip it.
+      if (eventTime.isAfter(trackedThrough)) {
+        untrackedRemovals.add(key);
+      }
+    }
+  }
+
+  /** Puts a message into a mutable copy of a summary. */
+  private void add(Key<PollMessage> key, DateTime eventTime) {
+    untrackedRemovals.remove(key);
+    if (isBeforeOrAt(eventTime, countedThrough)) {
+      dueCount++;
+    } else {
+      upcomingMessages.add(UpcomingMessage.create(key, eventTime));
+    }
+  }
+
+  /** Moves the upcoming messages through the given time into the count of a mutable copy. */
+  private void foldThrough(DateTime time) {
+    if (!time.isAfter(countedThrough)) {
+      return;
+    }
+    for (Iterator<UpcomingMessage> iterator = upcomingMessages.iterator(); iterator.hasNext(); ) {
+      if (isBeforeOrAt(iterator.next().eventTime, time)) {
+        iterator.remove();
+        dueCount++;
+      }
+    }
+    countedThrough = time;
+  }
+
+  /**
+   * Moves the time through which a registrar's poll messages are tracked forward.
+   *
+   * <p>The messages between the current and the new time are found with an eventually consistent
+   * query, so this must not be called in a transaction. Messages that were written transactionally
+   * since the query ran are already in the summary, and messages that the query returns but that
+   * have been removed since are in its {@link #untrackedRemovals}. Any message that is due by
+   * {@code now} is folded into the count.
+   *
+   * @return whether the summary was advanced, which it isn't if it was advanced concurrently or
+   *     has overflowed
+   */
+  public static boolean advance(
+      final String clientId, final DateTime now, final DateTime newTrackedThrough) {
+    final PollQueueSummary summary = load(clientId);
+    if (summary.overflowed) {
+      return false;
+    }
+    if (!newTrackedThrough.isAfter(summary.trackedThrough)) {
+      return true;
+    }
+    final Map<Key<PollMessage>, DateTime> found = new HashMap<>();
+    for (PollMessage message : ofy().load()
+        .type(PollMessage.class)
+        .filter("clientId", clientId)
+        .filter("eventTime >", summary.trackedThrough.toDate())
+        .filter("eventTime <=", newTrackedThrough.toDate())) {
+      found.put(Key.create(message), message.getEventTime());
+    }
+    return ofy().transactNew(new Work<Boolean>() {
+      @Override
+      public Boolean run() {
+        PollQueueSummary current = load(clientId).mutableCopy();
+        if (current.overflowed || !current.trackedThrough.equals(summary.trackedThrough)) {
+          return false;
+        }
+        ImmutableSet.Builder<Key<PollMessage>> upcomingKeys = new ImmutableSet.Builder<>();
+        for (UpcomingMessage message : current.upcomingMessages) {
+          upcomingKeys.add(message.messageKey);
+        }
+        ImmutableSet<Key<PollMessage>> alreadyHandled =
+            ImmutableSet.copyOf(union(upcomingKeys.build(), current.untrackedRemovals));
+        for (Map.Entry<Key<PollMessage>, DateTime> entry : found.entrySet()) {
+          if (!alreadyHandled.contains(entry.getKey())) {
+            current.add(entry.getKey(), entry.getValue());
+          }
+        }
+        current.untrackedRemovals.clear();
+        current.trackedThrough = newTrackedThrough;
+        current.foldThrough(latestOf(current.countedThrough, earliestOf(now, newTrackedThrough)));
+        current.save();
+        return true;
+      }});
+  }
+
+  /** Returns a copy of this summary with a corrected count, for repairs. */
+  public PollQueueSummary withDueCount(long actualDueCount) {
+    checkArgument(actualDueCount >= 0, "Negative poll message count: %s", actualDueCount);
+    PollQueueSummary repaired = clone(this);
+    repaired.dueCount = actualDueCount;
+    return repaired;
+  }
+}
@@ -48,7 +48,7 @@ public interface PremiumPricingEngine {
     private Money renewCost;
     private Optional<String> feeClass;
 
-    static DomainPrices create(
+    public static DomainPrices create(
         boolean isPremium,
         Money createCost,
         Money renewCost,
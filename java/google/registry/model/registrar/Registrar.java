@@ -63,6 +63,7 @@ import google.registry.model.UpdateAutoTimestamp;
 import google.registry.model.annotations.ReportedOn;
 import google.registry.model.common.EntityGroupRoot;
 import google.registry.util.CidrAddressBlock;
+import google.registry.util.CidrAddressBlockMatcher;
 import google.registry.util.NonFinalForTesting;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -424,6 +425,14 @@ public class Registrar extends ImmutableObject implements Buildable, Jsonifiable
     return nullToEmptyImmutableCopy(ipAddressWhitelist);
   }
 
+  /**
+   * Returns the IP address whitelist compiled into a matcher, which is precompiled for registrars
+   * loaded with {@link #loadByClientIdCached}.
+   */
+  public CidrAddressBlockMatcher getIpAddressWhitelistMatcher() {
+    return RegistrarCache.getIpAddressWhitelistMatcher(this);
+  }
+
   public RegistrarAddress getLocalizedAddress() {
     return localizedAddress;
   }
@@ -781,6 +790,18 @@ public class Registrar extends ImmutableObject implements Buildable, Jsonifiable
       }});
   }
 
+  /**
+   * Returns a registrar by its client id from the in-memory snapshot of all registrars.
+   *
+   * <p>Use this on read-only paths that run for every request, such as EPP authentication and TLD
+   * access checks. The snapshot can lag behind Datastore for up to the configured registrar version
+   * check interval, so use {@link #loadByClientId} to load a registrar that is about to be changed.
+   */
+  @Nullable
+  public static Registrar loadByClientIdCached(String clientId) {
+    return RegistrarCache.loadByClientId(clientId);
+  }
+
   /**
    * Load registrar entities by client id range outside of a transaction.
    *
@@ -0,0 +1,168 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registrar;
+
+import static google.registry.config.RegistryConfig.getRegistrarVersionCheckDuration;
+import static google.registry.model.CacheUtils.memoizeForDuration;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.googlecode.objectify.Work;
+import google.registry.util.CidrAddressBlockMatcher;
+import google.registry.util.NonFinalForTesting;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import org.joda.time.Duration;
+
+/**
+ * In-memory snapshot of all registrars, shared by every request on an instance.
+ *
+ * <p>The snapshot is versioned by the {@link RegistrarVersion} entity, which every registrar save
+ * bumps in the same transaction. The version is only checked once per configured interval, so in
+ * between the snapshot is served without any Datastore reads.
+ *
+ * <p>Each registrar's IP address whitelist is compiled into a {@link CidrAddressBlockMatcher} when
+ * the snapshot is loaded.
+ */
+final class RegistrarCache {
+
+  /** The shared instance, which is absent when the version check interval is zero. */
+  @NonFinalForTesting
+  private static Optional<RegistrarCache> instance =
+      createInstance(getRegistrarVersionCheckDuration());
+
+  private final Supplier<Optional<Long>> versionSupplier;
+  private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+  private RegistrarCache(Supplier<Optional<Long>> versionSupplier) {
+    this.versionSupplier = versionSupplier;
+  }
+
+  /**
+   * Creates an instance that checks the given supplier for the current version on every call.
+   *
+   * <p>This is only used directly by tests.
+   */
+  @VisibleForTesting
+  static RegistrarCache create(Supplier<Optional<Long>> versionSupplier) {
+    return new RegistrarCache(versionSupplier);
+  }
+
+  /**
+   * Creates an instance that checks the current version at most once per the given interval.
+   *
+   * <p>Unit tests configure a zero interval, which disables the shared instance altogether, just
+   * like {@link google.registry.model.CacheUtils#memoizeWithShortExpiration} does.
+   */
+  @VisibleForTesting
+  static Optional<RegistrarCache> createInstance(Duration checkInterval) {
+    if (checkInterval.isEqual(Duration.ZERO)) {
+      return Optional.absent();
+    }
+    return Optional.of(create(memoizeForDuration(
+        new Supplier<Optional<Long>>() {
+          @Override
+          public Optional<Long> get() {
+            return RegistrarVersion.load();
+          }},
+        checkInterval)));
+  }
+
+  /** @see Registrar#loadByClientIdCached */
+  @Nullable
+  static Registrar loadByClientId(String clientId) {
+    return instance.isPresent()
+        ? instance.get().getRegistrar(clientId)
+        : Registrar.loadByClientId(clientId);
+  }
+
+  /** @see Registrar#getIpAddressWhitelistMatcher */
+  static CidrAddressBlockMatcher getIpAddressWhitelistMatcher(Registrar registrar) {
+    return instance.isPresent()
+        ? instance.get().getMatcher(registrar)
+        : CidrAddressBlockMatcher.create(registrar.getIpAddressWhitelist());
+  }
+
+  /** Returns the registrar with the given client id from a current snapshot, or null. */
+  @Nullable
+  Registrar getRegistrar(String clientId) {
+    CachedRegistrar cached = getSnapshot().registrars.get(clientId);
+    return cached == null ? null : cached.registrar;
+  }
+
+  /**
+   * Returns the whitelist matcher for a registrar, which is precompiled if the registrar came from
+   * the current snapshot and compiled on the spot otherwise.
+   */
+  CidrAddressBlockMatcher getMatcher(Registrar registrar) {
+    Snapshot current = snapshot.get();
+    CachedRegistrar cached =
+        (current == null) ? null : current.registrars.get(registrar.getClientId());
+    return cached != null && cached.registrar == registrar
+        ? cached.ipAddressWhitelistMatcher
+        : CidrAddressBlockMatcher.create(registrar.getIpAddressWhitelist());
+  }
+
+  private Snapshot getSnapshot() {
+    // Read the version before the registrars, so that a concurrent write is picked up next time.
+    Optional<Long> version = versionSupplier.get();
+    Snapshot current = snapshot.get();
+    if (current == null || !current.version.equals(version)) {
+      current = new Snapshot(version, loadRegistrars());
+      snapshot.set(current);
+    }
+    return current;
+  }
+
+  private static ImmutableMap<String, CachedRegistrar> loadRegistrars() {
+    return ofy().doTransactionless(new Work<ImmutableMap<String, CachedRegistrar>>() {
+      @Override
+      public ImmutableMap<String, CachedRegistrar> run() {
+        ImmutableMap.Builder<String, CachedRegistrar> builder = new ImmutableMap.Builder<>();
+        for (Registrar registrar : Registrar.loadAll()) {
+          builder.put(registrar.getClientId(), new CachedRegistrar(registrar));
+        }
+        return builder.build();
+      }});
+  }
+
+  /** All registrars as of a given version. */
+  private static final class Snapshot {
+
+    final Optional<Long> version;
+    final ImmutableMap<String, CachedRegistrar> registrars;
+
+    Snapshot(Optional<Long> version, ImmutableMap<String, CachedRegistrar> registrars) {
+      this.version = version;
+      this.registrars = registrars;
+    }
+  }
+
+  /** A registrar along with the state that is precomputed for it. */
+  private static final class CachedRegistrar {
+
+    final Registrar registrar;
+    final CidrAddressBlockMatcher ipAddressWhitelistMatcher;
+
+    CachedRegistrar(Registrar registrar) {
+      this.registrar = registrar;
+      this.ipAddressWhitelistMatcher =
+          CidrAddressBlockMatcher.create(registrar.getIpAddressWhitelist());
+    }
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registrar;
+
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.annotation.Entity;
+import google.registry.model.annotations.NotBackedUp;
+import google.registry.model.annotations.NotBackedUp.Reason;
+import google.registry.model.common.CrossTldSingleton;
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * Version stamp of the registrars, which changes whenever any registrar is saved.
+ *
+ * <p>This lets {@link RegistrarCache} check whether its snapshot is stale with a single entity
+ * load. It lives in the cross-TLD entity group along with the registrars, so it is bumped in the
+ * same transaction as each registrar save or delete, as that transaction commits.
+ */
+@Entity
+@NotBackedUp(reason = Reason.AUTO_GENERATED)
+public class RegistrarVersion extends CrossTldSingleton {
+
+  private static final Random random = new SecureRandom();
+
+  long version;
+
+  /**
+   * Saves a new version in the current transaction.
+   *
+   * <p>This is called by {@link google.registry.model.ofy.Ofy} as each transaction that changes
+   * any registrars commits.
+   */
+  public static void bump() {
+    ofy().assertInTransaction();
+    RegistrarVersion instance = new RegistrarVersion();
+    instance.version = random.nextLong();
+    ofy().saveWithoutBackup().entity(instance).now();
+  }
+
+  /** Returns the current version, or absent if no registrar was saved since versioning began. */
+  @VisibleForTesting
+  static Optional<Long> load() {
+    RegistrarVersion instance = ofy().doTransactionless(new Work<RegistrarVersion>() {
+      @Override
+      public RegistrarVersion run() {
+        return ofy().load().entity(new RegistrarVersion()).now();
+      }});
+    return instance == null ? Optional.<Long>absent() : Optional.of(instance.version);
+  }
+}
@@ -37,8 +37,20 @@ public final class Registries {
 
   private Registries() {}
 
-  /** Supplier of a cached registries map. */
-  private static Supplier<ImmutableMap<String, TldType>> cache = createFreshCache();
+  /** Supplier of a cached registries map and the suffix trie compiled from its TLDs. */
+  private static Supplier<CachedRegistries> cache = createFreshCache();
+
+  /** Snapshot of the registries map, along with a {@link TldSuffixTrie} built from its keys. */
+  private static final class CachedRegistries {
+
+    final ImmutableMap<String, TldType> tldTypes;
+    final TldSuffixTrie tldTrie;
+
+    CachedRegistries(ImmutableMap<String, TldType> tldTypes) {
+      this.tldTypes = tldTypes;
+      this.tldTrie = TldSuffixTrie.create(tldTypes.keySet());
+    }
+  }
 
   /**
    * Returns a newly-created Supplier of a registries to types map.
@@ -46,18 +58,18 @@ public final class Registries {
    * <p>The supplier's get() method enters a transactionless context briefly to avoid enrolling the
    * query inside an unrelated client-affecting transaction.
    */
-  private static Supplier<ImmutableMap<String, TldType>> createFreshCache() {
-    return memoizeWithShortExpiration(new Supplier<ImmutableMap<String, TldType>>() {
+  private static Supplier<CachedRegistries> createFreshCache() {
+    return memoizeWithShortExpiration(new Supplier<CachedRegistries>() {
       @Override
-      public ImmutableMap<String, TldType> get() {
-        return ofy().doTransactionless(new Work<ImmutableMap<String, TldType>>() {
+      public CachedRegistries get() {
+        return ofy().doTransactionless(new Work<CachedRegistries>() {
           @Override
-          public ImmutableMap<String, TldType> run() {
+          public CachedRegistries run() {
             ImmutableMap.Builder<String, TldType> builder = new ImmutableMap.Builder<>();
             for (Registry registry : ofy().load().type(Registry.class).ancestor(getCrossTldKey())) {
               builder.put(registry.getTldStr(), registry.getTldType());
             }
-            return builder.build();
+            return new CachedRegistries(builder.build());
           }});
       }});
   }
@@ -69,11 +81,11 @@ public final class Registries {
   }
 
   public static ImmutableSet<String> getTlds() {
-    return cache.get().keySet();
+    return cache.get().tldTypes.keySet();
   }
 
   public static ImmutableSet<String> getTldsOfType(TldType type) {
-    return ImmutableSet.copyOf(filterValues(cache.get(), equalTo(type)).keySet());
+    return ImmutableSet.copyOf(filterValues(cache.get().tldTypes, equalTo(type)).keySet());
   }
 
   /** Shortcut to check whether a tld exists or else throw. If it exists, it is returned back. */
@@ -98,14 +110,22 @@ public final class Registries {
    * @return TLD or absent if {@code domainName} has no labels under an authoritative TLD
    */
   public static Optional<InternetDomainName> findTldForName(InternetDomainName domainName) {
-    ImmutableSet<String> tlds = getTlds();
-    while (domainName.hasParent()) {
-      domainName = domainName.parent();
-      if (tlds.contains(domainName.toString())) {
-        return Optional.of(domainName);
-      }
-    }
-    return Optional.absent();
+    return findTldForName(domainName.toString());
+  }
+
+  /**
+   * Returns TLD which the fully qualified domain name or hostname falls under, no matter how many
+   * levels of sublabels there are.
+   *
+   * <p>This is equivalent to {@link #findTldForName(InternetDomainName)}, but lets callers that
+   * only hold the string form of a name skip parsing it into an {@link InternetDomainName}.
+   *
+   * @param fullyQualifiedName canonical domain name or host name (but not TLD), without a
+   *     trailing dot
+   * @return TLD or absent if {@code fullyQualifiedName} has no labels under an authoritative TLD
+   */
+  public static Optional<InternetDomainName> findTldForName(String fullyQualifiedName) {
+    return Optional.fromNullable(cache.get().tldTrie.findTldForName(fullyQualifiedName));
   }
 
   /**
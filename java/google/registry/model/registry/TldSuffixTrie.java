@@ -0,0 +1,131 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry;
+
+import com.google.common.base.Ascii;
+import com.google.common.net.InternetDomainName;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * Immutable trie of TLD strings, keyed on their characters from right to left.
+ *
+ * <p>This lets {@link Registries} find the longest TLD that a name falls under by scanning the
+ * name once from its end, instead of walking {@link InternetDomainName#parent()} and probing a
+ * set with the string form of every ancestor.
+ */
+final class TldSuffixTrie {
+
+  private static final char[] NO_KEYS = new char[0];
+  private static final Node[] NO_CHILDREN = new Node[0];
+
+  private final Node root;
+
+  private TldSuffixTrie(Node root) {
+    this.root = root;
+  }
+
+  /** Compiles a trie from the given set of TLD strings, which must be in canonical form. */
+  static TldSuffixTrie create(Iterable<String> tlds) {
+    NodeBuilder rootBuilder = new NodeBuilder();
+    for (String tld : tlds) {
+      NodeBuilder node = rootBuilder;
+      for (int i = tld.length() - 1; i >= 0; i--) {
+        node = node.getOrCreateChild(tld.charAt(i));
+      }
+      node.tld = tld;
+    }
+    return new TldSuffixTrie(rootBuilder.build());
+  }
+
+  /**
+   * Returns the longest TLD in this trie that the given name falls under, or null if there is
+   * none.
+   *
+   * <p>The name must be a fully qualified domain or host name without a trailing dot. A TLD only
+   * matches on a label boundary and never matches the whole name, so neither {@code "foo"} nor
+   * {@code "barfoo"} falls under the TLD {@code "foo"}. Uppercase ASCII letters are folded so that
+   * callers holding non-canonical names get the same answer as {@link InternetDomainName} would.
+   */
+  @Nullable
+  InternetDomainName findTldForName(String name) {
+    InternetDomainName match = null;
+    Node node = root;
+    // Stop before index 1, since a match must leave at least one character and a dot before it.
+    for (int i = name.length() - 1; i > 1; i--) {
+      node = node.getChild(Ascii.toLowerCase(name.charAt(i)));
+      if (node == null) {
+        break;
+      }
+      if (node.tld != null && name.charAt(i - 1) == '.') {
+        match = node.tld;
+      }
+    }
+    return match;
+  }
+
+  /** A frozen trie node whose child keys are kept sorted for binary search. */
+  private static final class Node {
+
+    private final char[] keys;
+    private final Node[] children;
+
+    /** The TLD ending at this node, or null if this node is only an interior node. */
+    @Nullable private final InternetDomainName tld;
+
+    private Node(char[] keys, Node[] children, @Nullable InternetDomainName tld) {
+      this.keys = keys;
+      this.children = children;
+      this.tld = tld;
+    }
+
+    @Nullable
+    Node getChild(char c) {
+      int index = Arrays.binarySearch(keys, c);
+      return index < 0 ? null : children[index];
+    }
+  }
+
+  /** Mutable node used while compiling the trie. */
+  private static final class NodeBuilder {
+
+    private final TreeMap<Character, NodeBuilder> children = new TreeMap<>();
+
+    @Nullable private String tld;
+
+    NodeBuilder getOrCreateChild(char c) {
+      NodeBuilder child = children.get(c);
+      if (child == null) {
+        child = new NodeBuilder();
+        children.put(c, child);
+      }
+      return child;
+    }
+
+    Node build() {
+      char[] keys = children.isEmpty() ? NO_KEYS : new char[children.size()];
+      Node[] builtChildren = children.isEmpty() ? NO_CHILDREN : new Node[children.size()];
+      int i = 0;
+      for (Map.Entry<Character, NodeBuilder> entry : children.entrySet()) {
+        keys[i] = entry.getKey();
+        builtChildren[i] = entry.getValue().build();
+        i++;
+      }
+      return new Node(keys, builtChildren, tld == null ? null : InternetDomainName.from(tld));
+    }
+  }
+}
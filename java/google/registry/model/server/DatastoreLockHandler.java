@@ -0,0 +1,59 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.server;
+
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.googlecode.objectify.Work;
+import dagger.Binds;
+import dagger.Module;
+import java.util.concurrent.Callable;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import org.joda.time.Duration;
+
+/** {@link LockHandler} that holds {@link Lock}s in Datastore. */
+public class DatastoreLockHandler implements LockHandler {
+
+  @Inject
+  DatastoreLockHandler() {}
+
+  @Override
+  public boolean executeWithLocks(
+      Callable<Void> callable,
+      @Nullable Class<?> requester,
+      @Nullable String tld,
+      Duration leaseLength,
+      String... lockNames) {
+    return Lock.executeWithLocks(callable, requester, tld, leaseLength, lockNames);
+  }
+
+  @Override
+  public boolean isStillHeld(final String lockName, @Nullable final String tld) {
+    final long fencingToken = Lock.getHeldFencingToken(lockName, tld);
+    return ofy().transactNew(new Work<Boolean>() {
+      @Override
+      public Boolean run() {
+        return Lock.isHeld(lockName, tld, fencingToken);
+      }});
+  }
+
+  /** Dagger module for {@link DatastoreLockHandler}. */
+  @Module
+  public abstract static class DatastoreLockHandlerModule {
+    @Binds
+    abstract LockHandler bindLockHandler(DatastoreLockHandler lockHandler);
+  }
+}
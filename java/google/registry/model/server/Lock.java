@@ -14,7 +14,10 @@
 
 package google.registry.model.server;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.throwIfInstanceOf;
 import static com.google.common.base.Throwables.throwIfUnchecked;
 import static com.google.common.collect.Iterables.getFirst;
 import static com.google.common.collect.Iterables.skip;
@@ -23,9 +26,13 @@ import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.CollectionUtils.nullToEmpty;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.DateTimeUtils.isAtOrAfter;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
@@ -34,13 +41,17 @@ import com.googlecode.objectify.annotation.Id;
 import google.registry.model.ImmutableObject;
 import google.registry.model.annotations.NotBackedUp;
 import google.registry.model.annotations.NotBackedUp.Reason;
-import google.registry.util.AppEngineTimeLimiter;
+import google.registry.model.server.LockMetrics.AcquireStatus;
+import google.registry.model.server.LockMetrics.RenewStatus;
 import google.registry.util.FormattingLogger;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -48,6 +59,12 @@ import org.joda.time.Duration;
 /**
  * A lock on some shared resource. Locks are either specific to a tld or global to the entire
  * system, in which case a tld of null is used.
+ *
+ * <p>Each acquisition of a lock gets a fencing token that is greater than that of any earlier
+ * acquisition. Work that writes to Datastore while holding a lock can check in its transaction
+ * that the lock is {@link #isHeld still held}, so that a writer whose lease has run out can't
+ * overwrite the work of the lock's next holder. Lock entities are never deleted, so that the
+ * tokens keep counting up across releases.
  */
 @Entity
 @NotBackedUp(reason = Reason.TRANSIENT)
@@ -55,9 +72,13 @@ public class Lock extends ImmutableObject {
 
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
-  /** Fudge factor to make sure we kill threads before a lock actually expires. */
+  /** Fudge factor to make sure we renew leases before a lock actually expires. */
   private static final Duration LOCK_TIMEOUT_FUDGE = Duration.standardSeconds(5);
 
+  /** Fencing tokens of the locks held by the work running on the current thread, by lock id. */
+  private static final ThreadLocal<ImmutableMap<String, Long>> heldFencingTokens =
+      new ThreadLocal<>();
+
   /** The name of the locked resource. */
   @Id
   String lockId;
@@ -65,6 +86,9 @@ public class Lock extends ImmutableObject {
   /** When the lock can be considered implicitly released. */
   DateTime expirationTime;
 
+  /** The fencing token of the most recent acquisition of the lock. */
+  long fencingToken;
+
   /**
    * Insertion-ordered set of classes requesting access to the lock.
    *
@@ -81,6 +105,7 @@ public class Lock extends ImmutableObject {
       String resourceName,
       @Nullable String tld,
       DateTime expirationTime,
+      long fencingToken,
       LinkedHashSet<String> queue) {
     checkArgument(!Strings.isNullOrEmpty(resourceName), "resourceName cannot be null or empty");
     Lock instance = new Lock();
@@ -88,10 +113,19 @@ public class Lock extends ImmutableObject {
     // across different TLDs.
     instance.lockId = makeLockId(resourceName, tld);
     instance.expirationTime = expirationTime;
+    instance.fencingToken = fencingToken;
     instance.queue = queue;
     return instance;
   }
 
+  public DateTime getExpirationTime() {
+    return expirationTime;
+  }
+
+  public long getFencingToken() {
+    return fencingToken;
+  }
+
   private static String makeLockId(String resourceName, @Nullable String tld) {
     return String.format("%s-%s", tld, resourceName);
   }
@@ -110,7 +144,9 @@ public class Lock extends ImmutableObject {
             ? new LinkedHashSet<String>() : newLinkedHashSet(lock.queue);
         queue.add(requester.getCanonicalName());
         DateTime expirationTime = (lock == null) ? START_OF_TIME : lock.expirationTime;
-        ofy().saveWithoutBackup().entity(create(resourceName, tld, expirationTime, queue));
+        long fencingToken = (lock == null) ? 0 : lock.fencingToken;
+        ofy().saveWithoutBackup()
+            .entity(create(resourceName, tld, expirationTime, fencingToken, queue));
       }});
   }
 
@@ -132,43 +168,114 @@ public class Lock extends ImmutableObject {
           if (!getFirst(nullToEmpty((lock == null) ? null : lock.queue), requesterName)
               .equals(requesterName)) {
             // Another class is at the top of the queue; we can't acquire the lock.
+            LockMetrics.recordAcquire(resourceName, tld, AcquireStatus.QUEUED);
             return null;
           }
+          long fencingToken = (lock == null) ? 1 : lock.fencingToken + 1;
           Lock newLock = create(
               resourceName,
               tld,
               ofy().getTransactionTime().plus(leaseLength),
+              fencingToken,
               newLinkedHashSet((lock == null)
                   ? ImmutableList.<String>of() : skip(lock.queue, 1)));
           // Locks are not parented under an EntityGroupRoot (so as to avoid write contention) and
           // don't need to be backed up.
           ofy().saveWithoutBackup().entity(newLock);
+          LockMetrics.recordAcquire(resourceName, tld, AcquireStatus.ACQUIRED);
           return newLock;
         }
+        LockMetrics.recordAcquire(resourceName, tld, AcquireStatus.HELD);
         return null;
       }});
   }
 
+  /**
+   * Extends the lease on the lock from now, as long as it is still held.
+   *
+   * @return the renewed lock, or null if it has expired or been taken over
+   */
+  @Nullable
+  Lock renew(final Duration leaseLength) {
+    return ofy().transactNew(new Work<Lock>() {
+      @Override
+      public Lock run() {
+        // The loaded lock may differ from this one in its queue, which others join while it's held,
+        // so it's the fencing token that tells whether it's still the same acquisition.
+        Lock loadedLock = ofy().load().type(Lock.class).id(lockId).now();
+        if (loadedLock == null
+            || loadedLock.fencingToken != fencingToken
+            || isAtOrAfter(ofy().getTransactionTime(), loadedLock.expirationTime)) {
+          return null;
+        }
+        Lock renewedLock = clone(loadedLock);
+        renewedLock.expirationTime = ofy().getTransactionTime().plus(leaseLength);
+        ofy().saveWithoutBackup().entity(renewedLock);
+        return renewedLock;
+      }});
+  }
+
   /** Release the lock. */
   void release() {
-    // Just use the default clock because we aren't actually doing anything that will use the clock.
     ofy().transact(new VoidWork() {
       @Override
       public void vrun() {
-        // To release a lock, check that no one else has already obtained it and if not delete it.
-        // If the lock in Datastore was different then this lock is gone already; this can happen
-        // if release() is called around the expiration time and the lock expires underneath us.
+        // To release a lock, check that no one else has already obtained it and if not expire it.
+        // If the lock in Datastore has a different token then this lock is gone already; this can
+        // happen if release() is called around the expiration time and the lock expires underneath
+        // us. The lock is kept rather than deleted, so that its next holder's fencing token is
+        // still greater than this one.
         Lock loadedLock = ofy().load().type(Lock.class).id(lockId).now();
-        if (Lock.this.equals(loadedLock)) {
-          // Use noBackupOfy() so that we don't create a commit log entry for deleting the lock.
-          ofy().deleteWithoutBackup().entity(Lock.this);
+        if (loadedLock != null && loadedLock.fencingToken == fencingToken) {
+          Lock releasedLock = clone(loadedLock);
+          releasedLock.expirationTime = ofy().getTransactionTime();
+          ofy().saveWithoutBackup().entity(releasedLock);
         }
       }});
   }
 
   /**
-   * Acquire one or more locks and execute a Void {@link Callable} on a thread that will be
-   * killed if it doesn't complete before the lease expires.
+   * Returns whether a lock is still held under the given fencing token.
+   *
+   * <p>This must be called in a transaction, so that the work it guards is only committed if the
+   * lock hasn't been lost in the meantime.
+   */
+  public static boolean isHeld(String resourceName, @Nullable String tld, long fencingToken) {
+    ofy().assertInTransaction();
+    Lock lock = ofy().load()
+        .type(Lock.class)
+        .id(makeLockId(resourceName, Strings.emptyToNull(tld)))
+        .now();
+    return lock != null
+        && lock.fencingToken == fencingToken
+        && ofy().getTransactionTime().isBefore(lock.expirationTime);
+  }
+
+  /**
+   * Returns the fencing token of a lock held by the {@link #executeWithLocks} work running on the
+   * current thread.
+   *
+   * @throws IllegalStateException if the current thread doesn't hold the lock
+   */
+  public static long getHeldFencingToken(String resourceName, @Nullable String tld) {
+    String lockId = makeLockId(resourceName, Strings.emptyToNull(tld));
+    ImmutableMap<String, Long> fencingTokens = heldFencingTokens.get();
+    checkState(
+        fencingTokens != null && fencingTokens.containsKey(lockId),
+        "Lock %s is not held by the current thread",
+        lockId);
+    return fencingTokens.get(lockId);
+  }
+
+  /**
+   * Acquire one or more locks and execute a Void {@link Callable} on a separate thread, renewing
+   * the leases on the locks for as long as it runs.
+   *
+   * <p>The leases are renewed well before they expire, so short leases can be used even for long
+   * running work: they only bound how long a lock stays taken after its holder has died. If a
+   * lease can't be renewed (e.g. because a renewal was delayed past its expiration and someone
+   * else took the lock) then the callable is interrupted, and an {@link IllegalStateException}
+   * is thrown.
    *
    * <p>If the requester isn't null, this will join each lock's queue before attempting to acquire
    * that lock. Clients that are concerned with starvation should specify a requester and those that
@@ -185,66 +292,90 @@ public class Lock extends ImmutableObject {
       @Nullable String tld,
       Duration leaseLength,
       String... lockNames) {
+    checkArgument(leaseLength.isLongerThan(LOCK_TIMEOUT_FUDGE));
+    tld = Strings.emptyToNull(tld);
+    // The most recent version of each acquired lock, by name.
+    Map<String, Lock> acquiredLocks = new LinkedHashMap<>();
+    Stopwatch stopwatch = Stopwatch.createUnstarted();
     try {
-      return AppEngineTimeLimiter.create().callWithTimeout(
-          new LockingCallable(
-              callable, requester, Strings.emptyToNull(tld), leaseLength, lockNames),
-          leaseLength.minus(LOCK_TIMEOUT_FUDGE).getMillis(),
-          TimeUnit.MILLISECONDS,
-          true);
+      // Make sure we join locks in a fixed (lexicographical) order to avoid deadlock.
+      for (String lockName : ImmutableSortedSet.copyOf(lockNames)) {
+        if (requester != null) {
+          joinQueue(requester, lockName, tld);
+        }
+        Lock lock = acquire(requester, lockName, tld, leaseLength);
+        if (lock == null) {
+          logger.infofmt("Couldn't acquire lock: %s", lockName);
+          return false;
+        }
+        logger.infofmt("Acquired lock: %s", lockName);
+        acquiredLocks.put(lockName, lock);
+      }
+      stopwatch.start();
+      callWhileRenewing(callable, tld, leaseLength, acquiredLocks);
+      return true;
     } catch (Exception e) {
       throwIfUnchecked(e);
       throw new RuntimeException(e);
+    } finally {
+      for (Map.Entry<String, Lock> entry : acquiredLocks.entrySet()) {
+        entry.getValue().release();
+        logger.infofmt("Released lock: %s", entry.getValue().lockId);
+        if (stopwatch.isRunning()) {
+          LockMetrics.recordHoldTime(entry.getKey(), tld, stopwatch.elapsed(MILLISECONDS));
+        }
+      }
     }
   }
 
-  /** A {@link Callable} that acquires and releases a lock around a delegate {@link Callable}. */
-  private static class LockingCallable implements Callable<Boolean> {
-    final Callable<Void> delegate;
-    final Class<?> requester;
-    @Nullable final String tld;
-    final Duration leaseLength;
-    final Set<String> lockNames;
-
-    LockingCallable(
-        Callable<Void> delegate,
-        Class<?> requester,
-        String tld,
-        Duration leaseLength,
-        String... lockNames) {
-      checkArgument(leaseLength.isLongerThan(LOCK_TIMEOUT_FUDGE));
-      this.delegate = delegate;
-      this.requester = requester;
-      this.tld = tld;
-      this.leaseLength = leaseLength;
-      // Make sure we join locks in a fixed (lexicographical) order to avoid deadlock.
-      this.lockNames = ImmutableSortedSet.copyOf(lockNames);
+  /**
+   * Runs a callable on a new request thread, renewing the leases on the given locks (and updating
+   * the map with the renewed versions) until it finishes.
+   */
+  private static void callWhileRenewing(
+      final Callable<Void> callable,
+      @Nullable String tld,
+      Duration leaseLength,
+      Map<String, Lock> acquiredLocks)
+      throws Exception {
+    ImmutableMap.Builder<String, Long> fencingTokensBuilder = new ImmutableMap.Builder<>();
+    for (Lock lock : acquiredLocks.values()) {
+      fencingTokensBuilder.put(lock.lockId, lock.fencingToken);
     }
-
-    @Override
-    public Boolean call() throws Exception {
-      Set<Lock> acquiredLocks = new HashSet<>();
-      try {
-        for (String lockName : lockNames) {
-          if (requester != null) {
-            joinQueue(requester, lockName, tld);
-          }
-          Lock lock = acquire(requester, lockName, tld, leaseLength);
-          if (lock == null) {
-            logger.infofmt("Couldn't acquire lock: %s", lockName);
-            return false;
+    final ImmutableMap<String, Long> fencingTokens = fencingTokensBuilder.build();
+    long renewalIntervalMillis = leaseLength.minus(LOCK_TIMEOUT_FUDGE).getMillis() / 2;
+    ExecutorService executor = newSingleThreadExecutor(currentRequestThreadFactory());
+    try {
+      Future<Void> future = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          heldFencingTokens.set(fencingTokens);
+          return callable.call();
+        }});
+      while (true) {
+        try {
+          future.get(renewalIntervalMillis, MILLISECONDS);
+          return;
+        } catch (ExecutionException e) {
+          throwIfInstanceOf(e.getCause(), Exception.class);
+          throwIfUnchecked(e.getCause());
+          throw e;
+        } catch (TimeoutException e) {
+          for (Map.Entry<String, Lock> entry : acquiredLocks.entrySet()) {
+            Lock renewedLock = entry.getValue().renew(leaseLength);
+            if (renewedLock == null) {
+              LockMetrics.recordRenewal(entry.getKey(), tld, RenewStatus.LOST);
+              throw new IllegalStateException(
+                  String.format("Lost lock while in use: %s", entry.getValue().lockId));
+            }
+            LockMetrics.recordRenewal(entry.getKey(), tld, RenewStatus.RENEWED);
+            entry.setValue(renewedLock);
           }
-          logger.infofmt("Acquired lock: %s", lockName);
-          acquiredLocks.add(lock);
-        }
-        delegate.call();
-        return true;
-      } finally {
-        for (Lock lock : acquiredLocks) {
-          lock.release();
-          logger.infofmt("Released lock: %s", lock.lockId);
         }
       }
+    } finally {
+      // Interrupts the callable if it's still running, i.e. if a lease was lost.
+      executor.shutdownNow();
     }
   }
 }
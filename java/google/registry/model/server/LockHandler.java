@@ -0,0 +1,52 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.server;
+
+import java.util.concurrent.Callable;
+import javax.annotation.Nullable;
+import org.joda.time.Duration;
+
+/**
+ * Runs work while holding locks on shared resources.
+ *
+ * <p>This is injected rather than calling {@link Lock} directly so that tests can substitute a
+ * lock service that doesn't need Datastore.
+ */
+public interface LockHandler {
+
+  /**
+   * Acquires one or more locks and executes a Void {@link Callable} while holding them.
+   *
+   * @return whether all locks were acquired and the callable was run.
+   * @see Lock#executeWithLocks
+   */
+  boolean executeWithLocks(
+      Callable<Void> callable,
+      @Nullable Class<?> requester,
+      @Nullable String tld,
+      Duration leaseLength,
+      String... lockNames);
+
+  /**
+   * Returns whether the {@link #executeWithLocks} work running on the current thread still holds
+   * a lock, i.e. whether its lease hasn't run out and been taken over by someone else.
+   *
+   * <p>Work that writes outside of Datastore should check this just before committing its writes,
+   * since once the lock has been taken over its next holder may already have written newer data.
+   *
+   * @throws IllegalStateException if the current thread isn't running work that acquired the lock
+   */
+  boolean isStillHeld(String lockName, @Nullable String tld);
+}
@@ -0,0 +1,95 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.server;
+
+import static com.google.common.base.Strings.nullToEmpty;
+import static google.registry.monitoring.metrics.EventMetric.DEFAULT_FITTER;
+
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import javax.annotation.Nullable;
+
+/** Instrumentation for {@link Lock}s. */
+final class LockMetrics {
+
+  /** Outcome of an attempt to acquire a lock. */
+  enum AcquireStatus {
+    /** The lock was acquired. */
+    ACQUIRED,
+
+    /** The lock was held by someone else. */
+    HELD,
+
+    /** The lock was free, but another requester was ahead in its queue. */
+    QUEUED
+  }
+
+  /** Outcome of an attempt to renew the lease on a lock. */
+  enum RenewStatus { RENEWED, LOST }
+
+  private static final LabelDescriptor RESOURCE_LABEL =
+      LabelDescriptor.create("resource", "The name of the locked resource.");
+
+  private static final LabelDescriptor TLD_LABEL =
+      LabelDescriptor.create("tld", "The TLD of the lock, or empty for cross-TLD locks.");
+
+  private static final IncrementableMetric acquireRequests =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/lock/acquire_requests",
+              "Count of attempts to acquire locks",
+              "count",
+              ImmutableSet.of(
+                  RESOURCE_LABEL,
+                  TLD_LABEL,
+                  LabelDescriptor.create("status", "The outcome of the attempt.")));
+
+  private static final IncrementableMetric renewRequests =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/lock/renew_requests",
+              "Count of attempts to renew the leases on locks",
+              "count",
+              ImmutableSet.of(
+                  RESOURCE_LABEL,
+                  TLD_LABEL,
+                  LabelDescriptor.create("status", "The outcome of the attempt.")));
+
+  private static final EventMetric holdTime =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/lock/hold_time",
+              "Time for which locks were held by work run under them",
+              "milliseconds",
+              ImmutableSet.of(RESOURCE_LABEL, TLD_LABEL),
+              DEFAULT_FITTER);
+
+  static void recordAcquire(String resourceName, @Nullable String tld, AcquireStatus status) {
+    acquireRequests.increment(resourceName, nullToEmpty(tld), status.name());
+  }
+
+  static void recordRenewal(String resourceName, @Nullable String tld, RenewStatus status) {
+    renewRequests.increment(resourceName, nullToEmpty(tld), status.name());
+  }
+
+  static void recordHoldTime(String resourceName, @Nullable String tld, long millis) {
+    holdTime.record(millis, resourceName, nullToEmpty(tld));
+  }
+
+  private LockMetrics() {}
+}
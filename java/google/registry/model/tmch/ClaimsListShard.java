@@ -14,19 +14,28 @@
 
 package google.registry.model.tmch;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Verify.verify;
+import static com.google.common.util.concurrent.Futures.getUnchecked;
 import static google.registry.model.CacheUtils.memoizeWithShortExpiration;
 import static google.registry.model.ofy.ObjectifyService.allocateId;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.ofy.Ofy.RECOMMENDED_MEMCACHE_EXPIRATION;
+import static google.registry.util.CollectionUtils.nullToEmpty;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.SettableFuture;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
@@ -44,10 +53,17 @@ import google.registry.model.annotations.VirtualEntity;
 import google.registry.model.common.CrossTldSingleton;
 import google.registry.util.CollectionUtils;
 import google.registry.util.Concurrent;
+import google.registry.util.FormattingLogger;
 import google.registry.util.NonFinalForTesting;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 
@@ -56,13 +72,20 @@ import org.joda.time.DateTime;
  *
  * <p>The claims list is actually sharded into multiple {@link ClaimsListShard} entities to work
  * around the Datastore limitation of 1M max size per entity. However, when calling {@link #get} all
- * of the shards are recombined into one {@link ClaimsListShard} object.
+ * of the shards are recombined into one {@link ClaimsListShard} object, which is held in memory in
+ * a packed form until the next revision goes live.
  *
  * <p>ClaimsList shards are tied to a specific revision and are persisted individually, then the
  * entire claims list is atomically shifted over to using the new shards by persisting the new
  * revision object and updating the {@link ClaimsListSingleton} pointing to it. This bypasses the
  * 10MB per transaction limit.
  *
+ * <p>Most new claims lists differ from the previous one in only a handful of labels, so they are
+ * usually saved as a {@link ClaimsListDelta} on top of the active revision instead, and instances
+ * that already hold the list in memory only load and apply the new deltas. Once a revision has
+ * {@link #maxDeltas} deltas, or a new list differs by more than a shard's worth of labels, the
+ * whole list is compacted into a new revision again.
+ *
  * <p>Therefore, it is never OK to save an instance of this class directly to Datastore. Instead you
  * must use the {@link #save} method to do it for you.
  */
@@ -70,11 +93,18 @@ import org.joda.time.DateTime;
 @NotBackedUp(reason = Reason.EXTERNALLY_SOURCED)
 public class ClaimsListShard extends ImmutableObject {
 
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
   /** The number of claims list entries to store per shard.  Do not modify except for in tests. */
   @VisibleForTesting
   @NonFinalForTesting
   static int shardSize = 10000;
 
+  /** The number of deltas saved on top of a revision before the list is saved in full again. */
+  @VisibleForTesting
+  @NonFinalForTesting
+  static int maxDeltas = 50;
+
   @Id
   long id;
 
@@ -93,48 +123,45 @@ public class ClaimsListShard extends ImmutableObject {
   boolean isShard = false;
 
   /**
-   * A cached supplier that fetches the claims list shards from Datastore and recombines them
-   * into a single {@link ClaimsListShard} object.
+   * A cached supplier of the active claims list revision and its number of deltas.
+   *
+   * <p>Checking the revision is a single (memcached) entity load, so this is what gets refreshed on
+   * the short expiration. The shards themselves are only reloaded when the revision changes, and
+   * only new deltas are loaded when they are added to the revision.
    */
-  private static final Supplier<ClaimsListShard> CACHE =
-      memoizeWithShortExpiration(new Supplier<ClaimsListShard>() {
+  private static final Supplier<Optional<ClaimsListSingleton>> SINGLETON_CACHE =
+      memoizeWithShortExpiration(new Supplier<Optional<ClaimsListSingleton>>() {
         @Override
-        public ClaimsListShard get() {
-          // Find the most recent revision.
-          Key<ClaimsListRevision> revisionKey = getCurrentRevision();
-
-          Map<String, String> combinedLabelsToKeys = new HashMap<>();
-          DateTime creationTime = START_OF_TIME;
-          if (revisionKey != null) {
-            // Grab all of the keys for the shards that belong to the current revision.
-            final List<Key<ClaimsListShard>> shardKeys =
-                ofy().load().type(ClaimsListShard.class).ancestor(revisionKey).keys().list();
-
-            // Load all of the shards concurrently, each in a separate transaction.
-            List<ClaimsListShard> shards = Concurrent.transform(
-                shardKeys, new Function<Key<ClaimsListShard>, ClaimsListShard>() {
-                  @Override
-                  public ClaimsListShard apply(final Key<ClaimsListShard> key) {
-                    return ofy().transactNewReadOnly(new Work<ClaimsListShard>() {
-                      @Override
-                      public ClaimsListShard run() {
-                        return ofy().load().key(key).now();
-                      }});
-                  }});
-
-            // Combine the shards together and return the concatenated ClaimsList.
-            if (!shards.isEmpty()) {
-              creationTime = shards.get(0).creationTime;
-              for (ClaimsListShard shard : shards) {
-                combinedLabelsToKeys.putAll(shard.labelsToKeys);
-                checkState(
-                    creationTime.equals(shard.creationTime), "Inconsistent creation times.");
-              }
-            }
-          }
-          return create(creationTime, ImmutableMap.copyOf(combinedLabelsToKeys));
+        public Optional<ClaimsListSingleton> get() {
+          return Optional.fromNullable(loadSingleton());
         }});
 
+  /** The most recently loaded claims list, which is swapped out whenever a new one is loaded. */
+  private static final AtomicReference<LoadedClaimsList> loadedClaimsList =
+      new AtomicReference<>();
+
+  /** The most recently started load of a new claims list, if any. */
+  private static final AtomicReference<SettableFuture<LoadedClaimsList>> pendingLoad =
+      new AtomicReference<>();
+
+  /**
+   * Runs loads of new claims lists, so that requests never pay for rebuilding the list.
+   *
+   * <p>Each load gets its own App Engine background thread, which is fine since at most one load
+   * runs at a time and new revisions are rare. Outside of App Engine (most likely in a
+   * command-line tool) there are no requests to hold up, so the load runs on the calling thread.
+   */
+  @NonFinalForTesting
+  private static Executor loadExecutor = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      if (currentRequestThreadFactory() == null) {
+        command.run();
+      } else {
+        ThreadManager.createBackgroundThread(command).start();
+      }
+    }};
+
   public DateTime getCreationTime() {
     return creationTime;
   }
@@ -153,12 +180,67 @@ public class ClaimsListShard extends ImmutableObject {
   }
 
   /**
-   * Save the Claims list to Datastore by writing the new shards in a series of transactions,
-   * switching over to using them atomically, then deleting the old ones.
+   * Save the Claims list to Datastore.
+   *
+   * <p>If the list differs little enough from the active one, only the differences are saved, as a
+   * new {@link ClaimsListDelta} of the active revision. Otherwise the new shards are written in a
+   * series of transactions, switched over to atomically, and then the old ones are deleted.
    */
   public void save() {
-    // Figure out what the next versionId should be based on which ones already exist.
-    final Key<ClaimsListRevision> oldRevision = getCurrentRevision();
+    ClaimsListSingleton singleton = loadSingleton();
+    if (singleton != null
+        && singleton.activeRevision != null
+        && singleton.deltaCount < maxDeltas
+        && saveDelta(singleton)) {
+      return;
+    }
+    saveRevision(singleton == null ? null : singleton.activeRevision);
+  }
+
+  /**
+   * Saves the differences between this list and the active one as a new delta.
+   *
+   * @return whether the delta was saved, which it isn't if the lists differ by too many labels
+   */
+  private boolean saveDelta(final ClaimsListSingleton oldSingleton) {
+    ClaimsListShard activeList = loadAt(
+        loadedClaimsList.get(), oldSingleton.activeRevision, oldSingleton.deltaCount).claimsList;
+    final Map<String, String> changedLabelsToKeys = new HashMap<>();
+    for (Map.Entry<String, String> entry : labelsToKeys.entrySet()) {
+      if (!entry.getValue().equals(activeList.getClaimKey(entry.getKey()))) {
+        changedLabelsToKeys.put(entry.getKey(), entry.getValue());
+      }
+    }
+    final Set<String> removedLabels = new HashSet<>();
+    for (String label : activeList.labelsToKeys.keySet()) {
+      if (!labelsToKeys.containsKey(label)) {
+        removedLabels.add(label);
+      }
+    }
+    if (changedLabelsToKeys.size() + removedLabels.size() > shardSize) {
+      return false;
+    }
+    ofy().transactNew(new VoidWork() {
+      @Override
+      public void vrun() {
+        verify(
+            oldSingleton.equals(loadSingleton()),
+            "ClaimsList on Registries was updated by someone else while attempting to update.");
+        int deltaCount = oldSingleton.deltaCount + 1;
+        ofy().saveWithoutBackup().entities(
+            ClaimsListDelta.create(
+                oldSingleton.activeRevision,
+                deltaCount,
+                creationTime,
+                changedLabelsToKeys,
+                removedLabels),
+            ClaimsListSingleton.create(oldSingleton.activeRevision, deltaCount));
+      }});
+    return true;
+  }
+
+  /** Saves this list as the shards of a new revision, and deletes the old revision. */
+  private void saveRevision(@Nullable final Key<ClaimsListRevision> oldRevision) {
     final Key<ClaimsListRevision> parentKey = ClaimsListRevision.createKey();
 
     // Save the ClaimsList shards in separate transactions.
@@ -186,10 +268,12 @@ public class ClaimsListShard extends ImmutableObject {
                 || getCurrentRevision().equals(oldRevision),
             "ClaimsList on Registries was updated by someone else while attempting to update.");
         ofy().saveWithoutBackup().entity(ClaimsListSingleton.create(parentKey));
-        // Delete the old ClaimsListShard entities.
+        // Delete the old ClaimsListShard and ClaimsListDelta entities.
         if (oldRevision != null) {
           ofy().deleteWithoutBackup()
               .keys(ofy().load().type(ClaimsListShard.class).ancestor(oldRevision).keys());
+          ofy().deleteWithoutBackup()
+              .keys(ofy().load().type(ClaimsListDelta.class).ancestor(oldRevision).keys());
         }
       }});
   }
@@ -203,10 +287,223 @@ public class ClaimsListShard extends ImmutableObject {
     return instance;
   }
 
-  /** Return a single logical instance that combines all Datastore shards. */
+  /**
+   * Return a single logical instance that combines all Datastore shards.
+   *
+   * <p>The combined list is held in memory in packed form and is only rebuilt when the active
+   * {@link ClaimsListRevision} changes, or when deltas are added to it, in which case only the new
+   * deltas are loaded and merged in. That happens in the background, and the previously loaded
+   * list keeps being served until the new one is ready. Only when nothing has been loaded yet does
+   * a request wait, for the first load to finish.
+   */
   @Nullable
   public static ClaimsListShard get() {
-    return CACHE.get();
+    Optional<ClaimsListSingleton> singleton = SINGLETON_CACHE.get();
+    Key<ClaimsListRevision> revision =
+        singleton.isPresent() ? singleton.get().activeRevision : null;
+    int deltaCount = singleton.isPresent() ? singleton.get().deltaCount : 0;
+    LoadedClaimsList loaded = loadedClaimsList.get();
+    if (loaded != null && loaded.isCurrent(revision, deltaCount)) {
+      return loaded.claimsList;
+    }
+    Future<LoadedClaimsList> load = startLoading(revision, deltaCount);
+    // Re-read the loaded list, in case the load has already finished.
+    loaded = loadedClaimsList.get();
+    if (loaded != null) {
+      return loaded.claimsList;
+    }
+    return getUnchecked(load).claimsList;
+  }
+
+  /**
+   * Starts loading the claims list as of the given state on {@link #loadExecutor}, unless a load is
+   * already running, and returns the running load.
+   *
+   * <p>A running load might be for an older state. Once it finishes, the next call to {@link #get}
+   * starts another one.
+   */
+  private static Future<LoadedClaimsList> startLoading(
+      @Nullable final Key<ClaimsListRevision> revision, final int deltaCount) {
+    SettableFuture<LoadedClaimsList> running = pendingLoad.get();
+    if (running != null && !running.isDone()) {
+      return running;
+    }
+    final SettableFuture<LoadedClaimsList> load = SettableFuture.create();
+    if (!pendingLoad.compareAndSet(running, load)) {
+      // Another thread just started a load.
+      return pendingLoad.get();
+    }
+    Runnable loader = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          LoadedClaimsList reloaded = loadAt(loadedClaimsList.get(), revision, deltaCount);
+          loadedClaimsList.set(reloaded);
+          load.set(reloaded);
+        } catch (Throwable e) {
+          logger.severe(e, "Error loading claims list");
+          load.setException(e);
+        }
+      }};
+    try {
+      loadExecutor.execute(loader);
+    } catch (RuntimeException e) {
+      load.setException(e);
+      throw e;
+    }
+    return load;
+  }
+
+  /**
+   * Returns the claims list as of the given number of deltas on top of the given revision.
+   *
+   * <p>If the given previously loaded list is of an earlier state of the same revision, only the
+   * deltas it is missing are loaded and applied to it.
+   */
+  private static LoadedClaimsList loadAt(
+      @Nullable LoadedClaimsList loaded,
+      @Nullable Key<ClaimsListRevision> revision,
+      int deltaCount) {
+    if (loaded != null && loaded.isCurrent(revision, deltaCount)) {
+      return loaded;
+    }
+    if (loaded == null || !Objects.equal(loaded.revision, revision)) {
+      loaded = new LoadedClaimsList(revision, 0, load(revision));
+    }
+    return loaded.withDeltas(loadDeltas(revision, loaded.deltaCount, deltaCount), deltaCount);
+  }
+
+  /** Loads the deltas of a revision after the first {@code from}, through the {@code to}th. */
+  private static List<ClaimsListDelta> loadDeltas(
+      @Nullable final Key<ClaimsListRevision> revision, int from, int to) {
+    if (revision == null || from >= to) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<Key<ClaimsListDelta>> keysBuilder = new ImmutableList.Builder<>();
+    for (long id = from + 1; id <= to; id++) {
+      keysBuilder.add(Key.create(revision, ClaimsListDelta.class, id));
+    }
+    final ImmutableList<Key<ClaimsListDelta>> keys = keysBuilder.build();
+    // The deltas are in the singleton's entity group, which they share with no flow's resources, so
+    // load them outside of any transaction to avoid enlisting that group in one. They're immutable
+    // once saved, so a transactionless read sees them as they were written.
+    Map<Key<ClaimsListDelta>, ClaimsListDelta> deltas = ofy().doTransactionless(
+        new Work<Map<Key<ClaimsListDelta>, ClaimsListDelta>>() {
+          @Override
+          public Map<Key<ClaimsListDelta>, ClaimsListDelta> run() {
+            return ofy().load().keys(keys);
+          }});
+    ImmutableList.Builder<ClaimsListDelta> orderedDeltas = new ImmutableList.Builder<>();
+    for (Key<ClaimsListDelta> key : keys) {
+      ClaimsListDelta delta = deltas.get(key);
+      checkState(delta != null, "Missing claims list delta %s", key);
+      orderedDeltas.add(delta);
+    }
+    return orderedDeltas.build();
+  }
+
+  /** Loads all shards of the given revision and packs them into a single instance. */
+  private static ClaimsListShard load(@Nullable Key<ClaimsListRevision> revisionKey) {
+    DateTime creationTime = START_OF_TIME;
+    List<ClaimsListShard> shards = ImmutableList.of();
+    if (revisionKey != null) {
+      // Grab all of the keys for the shards that belong to the current revision.
+      final List<Key<ClaimsListShard>> shardKeys =
+          ofy().load().type(ClaimsListShard.class).ancestor(revisionKey).keys().list();
+
+      // Load all of the shards concurrently, each in a separate transaction.
+      shards = Concurrent.transform(
+          shardKeys, new Function<Key<ClaimsListShard>, ClaimsListShard>() {
+            @Override
+            public ClaimsListShard apply(final Key<ClaimsListShard> key) {
+              return ofy().transactNewReadOnly(new Work<ClaimsListShard>() {
+                @Override
+                public ClaimsListShard run() {
+                  return ofy().load().key(key).now();
+                }});
+            }});
+
+      if (!shards.isEmpty()) {
+        creationTime = shards.get(0).creationTime;
+        for (ClaimsListShard shard : shards) {
+          checkState(creationTime.equals(shard.creationTime), "Inconsistent creation times.");
+        }
+      }
+    }
+    // Pack the shards together rather than merging them into one big map of strings.
+    List<Map<String, String>> shardMaps = new ArrayList<>(shards.size());
+    for (ClaimsListShard shard : shards) {
+      shardMaps.add(shard.labelsToKeys);
+    }
+    ClaimsListShard instance = new ClaimsListShard();
+    instance.id = allocateId();
+    instance.creationTime = creationTime;
+    instance.labelsToKeys = PackedClaimsMap.copyOf(shardMaps);
+    return instance;
+  }
+
+  /** Drops the in-memory claims list, since revision ids are reused from one test to the next. */
+  @VisibleForTesting
+  public static void resetCache() {
+    loadedClaimsList.set(null);
+    pendingLoad.set(null);
+  }
+
+  /** Sets what runs claims list loads, since unit tests have no App Engine background threads. */
+  @VisibleForTesting
+  public static void setLoadExecutorForTesting(Executor executor) {
+    loadExecutor = executor;
+  }
+
+  /** A combined claims list, along with the revision and number of deltas it was loaded from. */
+  private static final class LoadedClaimsList {
+
+    @Nullable final Key<ClaimsListRevision> revision;
+    final int deltaCount;
+    final ClaimsListShard claimsList;
+
+    LoadedClaimsList(
+        @Nullable Key<ClaimsListRevision> revision, int deltaCount, ClaimsListShard claimsList) {
+      this.revision = revision;
+      this.deltaCount = deltaCount;
+      this.claimsList = claimsList;
+    }
+
+    /**
+     * Returns whether this is at least as recent as the given state.
+     *
+     * <p>A list that already has more deltas than the given state is current too, since the given
+     * state may have been read from a cache that has yet to catch up.
+     */
+    boolean isCurrent(@Nullable Key<ClaimsListRevision> otherRevision, int otherDeltaCount) {
+      return Objects.equal(revision, otherRevision) && deltaCount >= otherDeltaCount;
+    }
+
+    /** Returns a new list with the given deltas, which follow this one's, applied in order. */
+    LoadedClaimsList withDeltas(List<ClaimsListDelta> deltas, int newDeltaCount) {
+      if (deltas.isEmpty()) {
+        return this;
+      }
+      // Combine the deltas first, so that the packed map only has to be rebuilt once.
+      Map<String, String> changedLabelsToKeys = new HashMap<>();
+      Set<String> removedLabels = new HashSet<>();
+      for (ClaimsListDelta delta : deltas) {
+        for (String label : nullToEmpty(delta.removedLabels)) {
+          changedLabelsToKeys.remove(label);
+          removedLabels.add(label);
+        }
+        for (Map.Entry<String, String> entry : nullToEmpty(delta.changedLabelsToKeys).entrySet()) {
+          removedLabels.remove(entry.getKey());
+          changedLabelsToKeys.put(entry.getKey(), entry.getValue());
+        }
+      }
+      ClaimsListShard instance = new ClaimsListShard();
+      instance.id = allocateId();
+      instance.creationTime = deltas.get(deltas.size() - 1).creationTime;
+      instance.labelsToKeys = ((PackedClaimsMap) claimsList.labelsToKeys)
+          .withChanges(changedLabelsToKeys, removedLabels);
+      return new LoadedClaimsList(revision, newDeltaCount, instance);
+    }
   }
 
   /** As a safety mechanism, fail if someone tries to save this class directly. */
@@ -241,6 +538,48 @@ public class ClaimsListShard extends ImmutableObject {
     }
   }
 
+  /**
+   * The changes from one claims list to the next, saved on top of a {@link ClaimsListRevision}.
+   *
+   * <p>The deltas of a revision are numbered from one, in the order they are applied, and the
+   * {@link ClaimsListSingleton} records how many of them are live.
+   */
+  @Entity
+  @NotBackedUp(reason = Reason.EXTERNALLY_SOURCED)
+  public static class ClaimsListDelta extends ImmutableObject {
+
+    @Parent
+    Key<ClaimsListRevision> parent;
+
+    @Id
+    long id;
+
+    /** The creation time of the claims list as of this delta. */
+    DateTime creationTime;
+
+    /** Labels that were added or given new claims keys, with their claims keys. */
+    @EmbedMap
+    Map<String, String> changedLabelsToKeys;
+
+    /** Labels that were removed. */
+    Set<String> removedLabels;
+
+    static ClaimsListDelta create(
+        Key<ClaimsListRevision> revision,
+        long id,
+        DateTime creationTime,
+        Map<String, String> changedLabelsToKeys,
+        Set<String> removedLabels) {
+      ClaimsListDelta instance = new ClaimsListDelta();
+      instance.parent = checkNotNull(revision);
+      instance.id = id;
+      instance.creationTime = checkNotNull(creationTime);
+      instance.changedLabelsToKeys = ImmutableMap.copyOf(changedLabelsToKeys);
+      instance.removedLabels = ImmutableSet.copyOf(removedLabels);
+      return instance;
+    }
+  }
+
   /**
    * Serves as the coordinating claims list singleton linking to the {@link ClaimsListRevision}
    * that is live.
@@ -251,9 +590,17 @@ public class ClaimsListShard extends ImmutableObject {
   public static class ClaimsListSingleton extends CrossTldSingleton {
     Key<ClaimsListRevision> activeRevision;
 
+    /** The number of {@link ClaimsListDelta}s of the active revision that are live. */
+    int deltaCount;
+
     static ClaimsListSingleton create(Key<ClaimsListRevision> revision) {
+      return create(revision, 0);
+    }
+
+    static ClaimsListSingleton create(Key<ClaimsListRevision> revision, int deltaCount) {
       ClaimsListSingleton instance = new ClaimsListSingleton();
       instance.activeRevision = revision;
+      instance.deltaCount = deltaCount;
       return instance;
     }
 
@@ -269,10 +616,15 @@ public class ClaimsListShard extends ImmutableObject {
    */
   @Nullable
   public static Key<ClaimsListRevision> getCurrentRevision() {
-    ClaimsListSingleton singleton = ofy().load().entity(new ClaimsListSingleton()).now();
+    ClaimsListSingleton singleton = loadSingleton();
     return singleton == null ? null : singleton.activeRevision;
   }
 
+  @Nullable
+  private static ClaimsListSingleton loadSingleton() {
+    return ofy().load().entity(new ClaimsListSingleton()).now();
+  }
+
   /** Exception when trying to directly save a {@link ClaimsListShard} without sharding. */
   public static class UnshardedSaveException extends RuntimeException {}
 }
@@ -0,0 +1,365 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.tmch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Immutable map from claims labels to claims keys, packed into a handful of byte arrays.
+ *
+ * <p>Labels are sorted by their UTF-8 bytes and front-coded in blocks of {@link #BLOCK_SIZE}: the
+ * first label of each block is stored whole and every following label only stores the suffix that
+ * differs from its predecessor. A lookup binary searches the whole first labels of the blocks and
+ * then decodes at most one block. Claims keys are stored back to back as UTF-8, indexed by the
+ * position of their label in sorted order.
+ *
+ * <p>This holds a full claims list in a small fraction of the memory that a {@code HashMap} of
+ * {@link String} objects needs, and it never retains a reference to the maps it was built from.
+ */
+final class PackedClaimsMap extends AbstractMap<String, String> {
+
+  /** The number of labels per front-coded block. */
+  static final int BLOCK_SIZE = 16;
+
+  private final int size;
+  private final int maxLabelLength;
+  private final byte[] labelData;
+  private final int[] blockOffsets;
+  private final byte[] keyData;
+  private final int[] keyOffsets;
+
+  private PackedClaimsMap(
+      int size,
+      int maxLabelLength,
+      byte[] labelData,
+      int[] blockOffsets,
+      byte[] keyData,
+      int[] keyOffsets) {
+    this.size = size;
+    this.maxLabelLength = maxLabelLength;
+    this.labelData = labelData;
+    this.blockOffsets = blockOffsets;
+    this.keyData = keyData;
+    this.keyOffsets = keyOffsets;
+  }
+
+  /**
+   * Packs the entries of the given maps into a new instance.
+   *
+   * <p>If more than one map contains the same label, the claims key from the last of them wins, as
+   * it would with successive calls to {@link Map#putAll}.
+   */
+  static PackedClaimsMap copyOf(Iterable<? extends Map<String, String>> maps) {
+    List<PackedEntry> entries = new ArrayList<>();
+    for (Map<String, String> map : maps) {
+      for (Map.Entry<String, String> entry : map.entrySet()) {
+        entries.add(new PackedEntry(entry.getKey().getBytes(UTF_8), entry.getValue()));
+      }
+    }
+    // The sort is stable, so of several entries with the same label the last one added is last.
+    Collections.sort(entries);
+    return pack(entries);
+  }
+
+  /**
+   * Returns a copy of this map with the given labels added or changed and the given labels removed.
+   *
+   * <p>The entries of this map are already in order, so they are merged with the sorted changes in
+   * linear time instead of being sorted all over again.
+   */
+  PackedClaimsMap withChanges(Map<String, String> changedLabelsToKeys, Set<String> removedLabels) {
+    List<PackedEntry> changes = new ArrayList<>();
+    for (Map.Entry<String, String> entry : changedLabelsToKeys.entrySet()) {
+      changes.add(new PackedEntry(entry.getKey().getBytes(UTF_8), entry.getValue()));
+    }
+    for (String label : removedLabels) {
+      changes.add(new PackedEntry(label.getBytes(UTF_8), null));
+    }
+    Collections.sort(changes);
+    List<PackedEntry> merged = new ArrayList<>(size + changes.size());
+    Cursor cursor = new Cursor(0);
+    int next = 0;
+    while (cursor.index < size) {
+      cursor.advance();
+      PackedEntry existing = new PackedEntry(
+          Arrays.copyOf(cursor.label, cursor.labelLength), getKey(cursor.index - 1));
+      while (next < changes.size() && changes.get(next).compareTo(existing) < 0) {
+        merged.add(changes.get(next++));
+      }
+      // Any change to this label comes right after it, and so takes its place.
+      merged.add(existing);
+    }
+    merged.addAll(changes.subList(next, changes.size()));
+    return pack(merged);
+  }
+
+  /**
+   * Packs a list of entries that is sorted by label.
+   *
+   * <p>Of several entries with the same label, only the last one is kept, and it is dropped too if
+   * it has no claims key.
+   */
+  private static PackedClaimsMap pack(List<PackedEntry> entries) {
+    ByteArrayOutputStream labels = new ByteArrayOutputStream();
+    ByteArrayOutputStream keys = new ByteArrayOutputStream();
+    List<Integer> blockStarts = new ArrayList<>();
+    int[] keyOffsets = new int[entries.size() + 1];
+    int size = 0;
+    int maxLabelLength = 0;
+    byte[] previous = null;
+    for (int i = 0; i < entries.size(); i++) {
+      PackedEntry entry = entries.get(i);
+      if ((i + 1 < entries.size() && entry.compareTo(entries.get(i + 1)) == 0)
+          || entry.key == null) {
+        continue;
+      }
+      byte[] label = entry.label;
+      if (size % BLOCK_SIZE == 0) {
+        blockStarts.add(labels.size());
+        writeVarInt(labels, label.length);
+        labels.write(label, 0, label.length);
+      } else {
+        int prefix = commonPrefixLength(previous, label);
+        writeVarInt(labels, prefix);
+        writeVarInt(labels, label.length - prefix);
+        labels.write(label, prefix, label.length - prefix);
+      }
+      byte[] key = entry.key.getBytes(UTF_8);
+      keys.write(key, 0, key.length);
+      keyOffsets[++size] = keys.size();
+      maxLabelLength = Math.max(maxLabelLength, label.length);
+      previous = label;
+    }
+    int[] blockOffsets = new int[blockStarts.size()];
+    for (int i = 0; i < blockOffsets.length; i++) {
+      blockOffsets[i] = blockStarts.get(i);
+    }
+    return new PackedClaimsMap(
+        size,
+        maxLabelLength,
+        labels.toByteArray(),
+        blockOffsets,
+        keys.toByteArray(),
+        Arrays.copyOf(keyOffsets, size + 1));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(@Nullable Object label) {
+    return get(label) != null;
+  }
+
+  /** Returns the claims key for the given label, or null if the label is not in the list. */
+  @Override
+  @Nullable
+  public String get(@Nullable Object label) {
+    if (!(label instanceof String) || size == 0) {
+      return null;
+    }
+    byte[] target = ((String) label).getBytes(UTF_8);
+    if (target.length > maxLabelLength) {
+      return null;
+    }
+    // Find the last block whose first label is no greater than the target.
+    int low = 0;
+    int high = blockOffsets.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      int position = blockOffsets[mid];
+      int length = readVarInt(labelData, position);
+      position += varIntLength(length);
+      if (compareBytes(labelData, position, length, target) <= 0) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    Cursor cursor = new Cursor(low);
+    int end = Math.min(size, (low + 1) * BLOCK_SIZE);
+    while (cursor.index < end) {
+      cursor.advance();
+      int comparison = compareBytes(cursor.label, 0, cursor.labelLength, target);
+      if (comparison == 0) {
+        return getKey(cursor.index - 1);
+      } else if (comparison > 0) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+          private final Cursor cursor = new Cursor(0);
+
+          @Override
+          public boolean hasNext() {
+            return cursor.index < size;
+          }
+
+          @Override
+          public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            cursor.advance();
+            return new SimpleImmutableEntry<>(
+                new String(cursor.label, 0, cursor.labelLength, UTF_8),
+                getKey(cursor.index - 1));
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  /** Returns the approximate number of bytes held by the arrays backing this map. */
+  long getPackedSizeInBytes() {
+    return labelData.length + keyData.length + 4L * (blockOffsets.length + keyOffsets.length);
+  }
+
+  private String getKey(int index) {
+    return new String(keyData, keyOffsets[index], keyOffsets[index + 1] - keyOffsets[index], UTF_8);
+  }
+
+  /** Decodes labels in order, starting at the first label of a block. */
+  private final class Cursor {
+
+    private final byte[] label = new byte[maxLabelLength];
+    private int labelLength;
+    private int position;
+
+    /** The number of labels decoded so far, counting from the start of the map. */
+    private int index;
+
+    Cursor(int block) {
+      position = blockOffsets.length == 0 ? 0 : blockOffsets[block];
+      index = block * BLOCK_SIZE;
+    }
+
+    void advance() {
+      int prefix = 0;
+      if (index % BLOCK_SIZE != 0) {
+        prefix = readVarInt(labelData, position);
+        position += varIntLength(prefix);
+      }
+      int suffix = readVarInt(labelData, position);
+      position += varIntLength(suffix);
+      System.arraycopy(labelData, position, label, prefix, suffix);
+      position += suffix;
+      labelLength = prefix + suffix;
+      index++;
+    }
+  }
+
+  /**
+   * A label and claims key pair that sorts by the unsigned bytes of the label.
+   *
+   * <p>A null claims key marks a label that is being removed.
+   */
+  private static final class PackedEntry implements Comparable<PackedEntry> {
+
+    final byte[] label;
+    @Nullable final String key;
+
+    PackedEntry(byte[] label, @Nullable String key) {
+      this.label = label;
+      this.key = key;
+    }
+
+    @Override
+    public int compareTo(PackedEntry other) {
+      return compareBytes(label, 0, label.length, other.label);
+    }
+  }
+
+  private static int compareBytes(byte[] data, int offset, int length, byte[] other) {
+    int limit = Math.min(length, other.length);
+    for (int i = 0; i < limit; i++) {
+      int difference = (data[offset + i] & 0xff) - (other[i] & 0xff);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return length - other.length;
+  }
+
+  private static int commonPrefixLength(byte[] left, byte[] right) {
+    int limit = Math.min(left.length, right.length);
+    int i = 0;
+    while (i < limit && left[i] == right[i]) {
+      i++;
+    }
+    return i;
+  }
+
+  private static void writeVarInt(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static int readVarInt(byte[] data, int position) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = data[position++];
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+
+  private static int varIntLength(int value) {
+    int length = 1;
+    while ((value & ~0x7f) != 0) {
+      value >>>= 7;
+      length++;
+    }
+    return length;
+  }
+}
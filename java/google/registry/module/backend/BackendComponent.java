@@ -26,6 +26,7 @@ import google.registry.groups.GroupsModule;
 import google.registry.groups.GroupssettingsModule;
 import google.registry.keyring.api.DummyKeyringModule;
 import google.registry.keyring.api.KeyModule;
+import google.registry.model.server.DatastoreLockHandler.DatastoreLockHandlerModule;
 import google.registry.module.backend.BackendRequestComponent.BackendRequestComponentModule;
 import google.registry.monitoring.metrics.MetricReporter;
 import google.registry.monitoring.whitebox.StackdriverModule;
@@ -53,6 +54,7 @@ import javax.inject.Singleton;
         BackendRequestComponentModule.class,
         BigqueryModule.class,
         ConfigModule.class,
+        DatastoreLockHandlerModule.class,
         DatastoreServiceModule.class,
         DirectoryModule.class,
         DriveModule.class,
@@ -15,6 +15,7 @@
 package google.registry.module.backend;
 
 import static google.registry.model.registry.Registries.assertTldExists;
+import static google.registry.request.RequestParameters.extractBooleanParameter;
 import static google.registry.request.RequestParameters.extractOptionalDatetimeParameter;
 import static google.registry.request.RequestParameters.extractRequiredParameter;
 
@@ -45,4 +46,10 @@ public class BackendModule {
     return extractOptionalDatetimeParameter(
         req, ExpandRecurringBillingEventsAction.PARAM_CURSOR_TIME);
   }
+
+  @Provides
+  @Parameter(ExpandRecurringBillingEventsAction.PARAM_BATCHED)
+  static boolean provideBatched(HttpServletRequest req) {
+    return extractBooleanParameter(req, ExpandRecurringBillingEventsAction.PARAM_BATCHED);
+  }
 }
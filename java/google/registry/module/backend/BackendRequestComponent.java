@@ -26,6 +26,7 @@ import google.registry.batch.DeleteContactsAndHostsAction;
 import google.registry.batch.DeleteProberDataAction;
 import google.registry.batch.ExpandRecurringBillingEventsAction;
 import google.registry.batch.MapreduceEntityCleanupAction;
+import google.registry.batch.ReconcilePollQueueSummariesAction;
 import google.registry.batch.RefreshDnsOnHostRenameAction;
 import google.registry.batch.VerifyEntityIntegrityAction;
 import google.registry.cron.CommitLogFanoutAction;
@@ -125,6 +126,7 @@ interface BackendRequestComponent {
   RdeStagingAction rdeStagingAction();
   RdeUploadAction rdeUploadAction();
   RdeReporter rdeReporter();
+  ReconcilePollQueueSummariesAction reconcilePollQueueSummariesAction();
   RefreshDnsAction refreshDnsAction();
   RefreshDnsOnHostRenameAction refreshDnsOnHostRenameAction();
   RestoreCommitLogsAction restoreCommitLogsAction();
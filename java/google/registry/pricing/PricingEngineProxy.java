@@ -22,6 +22,7 @@ import com.google.common.base.Optional;
 import google.registry.model.pricing.PremiumPricingEngine;
 import google.registry.model.pricing.PremiumPricingEngine.DomainPrices;
 import google.registry.model.registry.Registry;
+import google.registry.util.NonFinalForTesting;
 import java.util.Map;
 import org.joda.money.Money;
 import org.joda.time.DateTime;
@@ -32,7 +33,8 @@ import org.joda.time.DateTime;
  */
 public final class PricingEngineProxy {
 
-  private static final Map<String, PremiumPricingEngine>
+  @NonFinalForTesting
+  private static Map<String, PremiumPricingEngine>
       premiumPricingEngines = DaggerPricingComponent.create().premiumPricingEngines();
 
   /** Returns the billing cost for registering the specified domain name for this many years. */
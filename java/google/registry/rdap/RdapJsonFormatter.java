@@ -34,6 +34,7 @@ import com.googlecode.objectify.Key;
 import google.registry.config.RdapNoticeDescriptor;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.model.EppResource;
+import google.registry.model.ProjectionMemo;
 import google.registry.model.contact.ContactPhoneNumber;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.contact.PostalInfo;
@@ -49,6 +50,7 @@ import google.registry.model.registrar.RegistrarContact;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.request.HttpException.InternalServerErrorException;
 import google.registry.request.HttpException.NotFoundException;
+import google.registry.request.RequestScope;
 import google.registry.util.FormattingLogger;
 import google.registry.util.Idn;
 import java.net.Inet4Address;
@@ -60,7 +62,6 @@ import java.util.Locale;
 import java.util.Map;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import javax.inject.Singleton;
 import org.joda.time.DateTime;
 
 /**
@@ -74,11 +75,12 @@ import org.joda.time.DateTime;
  * @see <a href="https://tools.ietf.org/html/rfc7483">
  *        RFC 7483: JSON Responses for the Registration Data Access Protocol (RDAP)</a>
  */
-@Singleton
+@RequestScope
 public class RdapJsonFormatter {
 
   @Inject @Config("rdapTosPath") String rdapTosPath;
   @Inject @Config("rdapHelpMap") ImmutableMap<String, RdapNoticeDescriptor> rdapHelpMap;
+  @Inject ProjectionMemo projectionMemo;
   @Inject RdapJsonFormatter() {}
 
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
@@ -560,7 +562,8 @@ public class RdapJsonFormatter {
       statuses.add(StatusValue.LINKED);
     }
     if (hostResource.isSubordinate()
-        && ofy().load().key(hostResource.getSuperordinateDomain()).now().cloneProjectedAtTime(now)
+        && projectionMemo.cloneProjectedAtTime(
+                ofy().load().key(hostResource.getSuperordinateDomain()).now(), now)
             .getStatusValues()
                 .contains(StatusValue.PENDING_TRANSFER)) {
       statuses.add(StatusValue.PENDING_TRANSFER);
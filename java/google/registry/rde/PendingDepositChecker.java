@@ -18,11 +18,14 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableTable;
 import com.googlecode.objectify.Work;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.model.common.Cursor;
 import google.registry.model.common.Cursor.CursorType;
+import google.registry.model.common.CursorDao;
 import google.registry.model.rde.RdeMode;
 import google.registry.model.registry.Registries;
 import google.registry.model.registry.Registry;
@@ -83,13 +86,20 @@ public final class PendingDepositChecker {
     ImmutableSetMultimap.Builder<String, PendingDeposit> builder =
         new ImmutableSetMultimap.Builder<>();
     DateTime now = clock.nowUtc();
+    ImmutableSet.Builder<String> tldsBuilder = new ImmutableSet.Builder<>();
     for (String tld : Registries.getTldsOfType(TldType.REAL)) {
-      Registry registry = Registry.get(tld);
-      if (!registry.getEscrowEnabled()) {
-        continue;
+      if (Registry.get(tld).getEscrowEnabled()) {
+        tldsBuilder.add(tld);
       }
-      // Avoid creating a transaction unless absolutely necessary.
-      Cursor cursor = ofy().load().key(Cursor.createKey(cursorType, registry)).now();
+    }
+    ImmutableSet<String> tlds = tldsBuilder.build();
+    // Load all of the cursors at once, and avoid creating a transaction unless absolutely
+    // necessary.
+    ImmutableTable<String, CursorType, Cursor> cursors =
+        CursorDao.load(tlds, ImmutableSet.of(cursorType));
+    for (String tld : tlds) {
+      Registry registry = Registry.get(tld);
+      Cursor cursor = cursors.get(tld, cursorType);
       DateTime cursorValue = (cursor != null ? cursor.getCursorTime() : startingPoint);
       if (isBeforeOrAt(cursorValue, now)) {
         DateTime watermark = (cursor != null
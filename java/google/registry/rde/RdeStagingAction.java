@@ -164,6 +164,7 @@ public final class RdeStagingAction implements Runnable {
   @Inject Response response;
   @Inject MapreduceRunner mrRunner;
   @Inject @Config("transactionCooldown") Duration transactionCooldown;
+  @Inject @Config("pointInTimeLoadBatchSize") int pointInTimeLoadBatchSize;
   @Inject RdeStagingAction() {}
 
   @Override
@@ -196,7 +197,7 @@ public final class RdeStagingAction implements Runnable {
         .setModuleName("backend")
         .setDefaultReduceShards(pendings.size())
         .runMapreduce(
-            new RdeStagingMapper(pendings),
+            new RdeStagingMapper(pendings, pointInTimeLoadBatchSize),
             reducer,
             ImmutableList.of(
                 // Add an extra shard that maps over a null resource. See the mapper code for why.
@@ -14,19 +14,23 @@
 
 package google.registry.rde;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Predicates.in;
 import static com.google.common.base.Strings.nullToEmpty;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.auto.value.AutoValue;
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Result;
 import google.registry.model.EppResource;
 import google.registry.model.contact.ContactResource;
@@ -34,20 +38,33 @@ import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
 import google.registry.model.rde.RdeMode;
 import google.registry.model.registrar.Registrar;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import org.joda.time.DateTime;
 
-/** Mapper for {@link RdeStagingAction}. */
+/**
+ * Mapper for {@link RdeStagingAction}.
+ *
+ * <p>Resources are buffered on each slice and rewound to their deposit watermarks in batches, so
+ * that the commit log mutations needed to rewind a whole batch (and the superordinate domains of
+ * its subordinate hosts) are fetched with a few batch gets instead of one get per resource.
+ */
 public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit, DepositFragment> {
 
   private static final long serialVersionUID = -1518185703789372524L;
 
   private final ImmutableSetMultimap<String, PendingDeposit> pendings;
+  private final int batchSize;
   private final RdeMarshaller marshaller = new RdeMarshaller();
 
-  RdeStagingMapper(ImmutableSetMultimap<String, PendingDeposit> pendings) {
+  /** Resources mapped on the current slice that have not yet been rewound and emitted. */
+  private final ArrayList<EppResource> batch = new ArrayList<>();
+
+  RdeStagingMapper(ImmutableSetMultimap<String, PendingDeposit> pendings, int batchSize) {
+    checkArgument(batchSize > 0, "Batch size must be positive");
     this.pendings = pendings;
+    this.batchSize = batchSize;
   }
 
   @Override
@@ -82,43 +99,86 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
       return;
     }
 
-    // Contacts and hosts get emitted on all TLDs, even if domains don't reference them.
-    boolean shouldEmitOnAllTlds = !(resource instanceof DomainResource);
-
-    // Get the set of all TLDs to which this resource should be emitted.
-    ImmutableSet<String> tlds =
-        shouldEmitOnAllTlds
-            ? pendings.keySet()
-            : ImmutableSet.of(((DomainResource) resource).getTld());
-
-    // Get the set of all point-in-time watermarks we need, to minimize rewinding.
-    ImmutableSet<DateTime> dates =
-        FluentIterable
-            .from(shouldEmitOnAllTlds
-                ? pendings.values()
-                : pendings.get(((DomainResource) resource).getTld()))
-            .transform(new Function<PendingDeposit, DateTime>() {
-              @Override
-              public DateTime apply(PendingDeposit pending) {
-                return pending.watermark();
-              }})
-            .toSet();
-
-    // Launch asynchronous fetches of point-in-time representations of resource.
-    ImmutableMap<DateTime, Result<EppResource>> resourceAtTimes =
-        ImmutableMap.copyOf(Maps.asMap(dates,
-            new Function<DateTime, Result<EppResource>>() {
-              @Override
-              public Result<EppResource> apply(DateTime input) {
-                return loadAtPointInTime(resource, input);
-              }}));
-
-    // Convert resource to an XML fragment for each watermark/mode pair lazily and cache the result.
-    Fragmenter fragmenter = new Fragmenter(resourceAtTimes);
-
-    // Emit resource as an XML fragment for all TLDs and modes pending deposit.
-    for (String tld : tlds) {
-      for (PendingDeposit pending : pendings.get(tld)) {
+    batch.add(resource);
+    if (batch.size() >= batchSize) {
+      flushBatch();
+    }
+  }
+
+  @Override
+  public void endSlice() {
+    // Nothing may stay buffered across slices, since the mapper is serialized between them.
+    flushBatch();
+    super.endSlice();
+  }
+
+  /** Rewinds all buffered resources to the watermarks they need and emits them as fragments. */
+  private void flushBatch() {
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    // Group the resources by each point-in-time watermark they need, to minimize rewinding.
+    SetMultimap<DateTime, EppResource> resourcesByWatermark = LinkedHashMultimap.create();
+    for (EppResource resource : batch) {
+      for (PendingDeposit pending : getPendingDeposits(resource)) {
+        resourcesByWatermark.put(pending.watermark(), resource);
+      }
+    }
+
+    // Launch asynchronous batch fetches of point-in-time representations of all resources.
+    Map<DateTime, Result<ImmutableMap<Key<EppResource>, EppResource>>> resultsAtTimes =
+        new HashMap<>();
+    for (DateTime watermark : resourcesByWatermark.keySet()) {
+      resultsAtTimes.put(
+          watermark, loadAtPointInTime(resourcesByWatermark.get(watermark), watermark));
+    }
+    Map<DateTime, ImmutableMap<Key<EppResource>, EppResource>> resourcesAtTimes = new HashMap<>();
+    for (Map.Entry<DateTime, Result<ImmutableMap<Key<EppResource>, EppResource>>> entry
+        : resultsAtTimes.entrySet()) {
+      resourcesAtTimes.put(entry.getKey(), entry.getValue().now());
+    }
+
+    // Subordinate hosts are marshalled along with their superordinate domains, so load and rewind
+    // all of those in batches as well.
+    SetMultimap<DateTime, Key<DomainResource>> superordinateKeysByWatermark =
+        LinkedHashMultimap.create();
+    for (Map.Entry<DateTime, ImmutableMap<Key<EppResource>, EppResource>> entry
+        : resourcesAtTimes.entrySet()) {
+      for (EppResource resource : entry.getValue().values()) {
+        if (resource instanceof HostResource && ((HostResource) resource).isSubordinate()) {
+          superordinateKeysByWatermark.put(
+              entry.getKey(), ((HostResource) resource).getSuperordinateDomain());
+        }
+      }
+    }
+    Map<Key<DomainResource>, DomainResource> superordinateDomains =
+        ofy().load().keys(ImmutableSet.copyOf(superordinateKeysByWatermark.values()));
+    Map<DateTime, Result<ImmutableMap<Key<DomainResource>, DomainResource>>>
+        superordinateResultsAtTimes = new HashMap<>();
+    for (DateTime watermark : superordinateKeysByWatermark.keySet()) {
+      // Note that loadAtPointInTime() does cloneProjectedAtTime(watermark) for us.
+      superordinateResultsAtTimes.put(
+          watermark,
+          loadAtPointInTime(
+              Maps.filterKeys(
+                      superordinateDomains, in(superordinateKeysByWatermark.get(watermark)))
+                  .values(),
+              watermark));
+    }
+    Map<DateTime, ImmutableMap<Key<DomainResource>, DomainResource>> superordinatesAtTimes =
+        new HashMap<>();
+    for (Map.Entry<DateTime, Result<ImmutableMap<Key<DomainResource>, DomainResource>>> entry
+        : superordinateResultsAtTimes.entrySet()) {
+      superordinatesAtTimes.put(entry.getKey(), entry.getValue().now());
+    }
+
+    // Emit each resource as an XML fragment for all TLDs and modes pending deposit.
+    for (EppResource resource : batch) {
+      // Convert resource to an XML fragment for each watermark/mode pair lazily and cache it.
+      Fragmenter fragmenter =
+          new Fragmenter(Key.create(resource), resourcesAtTimes, superordinatesAtTimes);
+      for (PendingDeposit pending : getPendingDeposits(resource)) {
         // Hosts and contacts don't get included in BRDA deposits.
         if (pending.mode() == RdeMode.THIN
             && (resource instanceof ContactResource
@@ -132,17 +192,34 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
       }
     }
 
+    batch.clear();
     // Avoid running out of memory.
     ofy().clearSessionCache();
   }
 
+  /** Returns all deposits that the given resource should be emitted to. */
+  private ImmutableCollection<PendingDeposit> getPendingDeposits(EppResource resource) {
+    // Contacts and hosts get emitted on all TLDs, even if domains don't reference them.
+    return (resource instanceof DomainResource)
+        ? pendings.get(((DomainResource) resource).getTld())
+        : pendings.values();
+  }
+
   /** Loading cache that turns a resource into XML for the various points in time and modes. */
   private class Fragmenter {
     private final Map<WatermarkModePair, Optional<DepositFragment>> cache = new HashMap<>();
-    private final ImmutableMap<DateTime, Result<EppResource>> resourceAtTimes;
+    private final Key<EppResource> resourceKey;
+    private final Map<DateTime, ImmutableMap<Key<EppResource>, EppResource>> resourcesAtTimes;
+    private final Map<DateTime, ImmutableMap<Key<DomainResource>, DomainResource>>
+        superordinatesAtTimes;
 
-    Fragmenter(ImmutableMap<DateTime, Result<EppResource>> resourceAtTimes) {
-      this.resourceAtTimes = resourceAtTimes;
+    Fragmenter(
+        Key<EppResource> resourceKey,
+        Map<DateTime, ImmutableMap<Key<EppResource>, EppResource>> resourcesAtTimes,
+        Map<DateTime, ImmutableMap<Key<DomainResource>, DomainResource>> superordinatesAtTimes) {
+      this.resourceKey = resourceKey;
+      this.resourcesAtTimes = resourcesAtTimes;
+      this.superordinatesAtTimes = superordinatesAtTimes;
     }
 
     Optional<DepositFragment> marshal(DateTime watermark, RdeMode mode) {
@@ -150,7 +227,7 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
       if (result != null) {
         return result;
       }
-      EppResource resource = resourceAtTimes.get(watermark).now();
+      EppResource resource = resourcesAtTimes.get(watermark).get(resourceKey);
       if (resource == null) {
         result = Optional.absent();
         cache.put(WatermarkModePair.create(watermark, RdeMode.FULL), result);
@@ -171,9 +248,7 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
         result = Optional.of(host.isSubordinate()
             ? marshaller.marshalSubordinateHost(
                 host,
-                // Note that loadAtPointInTime() does cloneProjectedAtTime(watermark) for us.
-                loadAtPointInTime(
-                    ofy().load().key(host.getSuperordinateDomain()).now(), watermark).now())
+                superordinatesAtTimes.get(watermark).get(host.getSuperordinateDomain()))
             : marshaller.marshalExternalHost(host));
         cache.put(WatermarkModePair.create(watermark, RdeMode.FULL), result);
         cache.put(WatermarkModePair.create(watermark, RdeMode.THIN), result);
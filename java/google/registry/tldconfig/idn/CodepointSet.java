@@ -0,0 +1,89 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tldconfig.idn;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.primitives.Ints;
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * An immutable set of Unicode codepoints, compiled for fast membership tests.
+ *
+ * <p>Codepoints in the Basic Multilingual Plane are held in a two-level bitmap: the high byte of
+ * the codepoint picks a page of 256 bits, and the low byte picks a bit in that page. Pages with no
+ * codepoints in them are left null, so a table that only covers a few scripts costs a few hundred
+ * bytes. The rarer supplementary codepoints are kept in a sorted array and binary searched.
+ */
+final class CodepointSet {
+
+  private static final int PAGE_BITS = 8;
+  private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+  private static final int WORDS_PER_PAGE = (1 << PAGE_BITS) / Long.SIZE;
+
+  /** The BMP bitmap, indexed by the high byte of the codepoint; null pages are empty. */
+  private final long[][] bmpPages;
+
+  /** The supplementary codepoints in ascending order. */
+  private final int[] supplementaryCodepoints;
+
+  private CodepointSet(long[][] bmpPages, int[] supplementaryCodepoints) {
+    this.bmpPages = bmpPages;
+    this.supplementaryCodepoints = supplementaryCodepoints;
+  }
+
+  /** Returns true if the given codepoint is in this set. */
+  boolean contains(int codepoint) {
+    if (codepoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+      long[] page = bmpPages[codepoint >>> PAGE_BITS];
+      int bit = codepoint & PAGE_MASK;
+      return page != null && (page[bit >>> 6] & (1L << bit)) != 0;
+    }
+    return Arrays.binarySearch(supplementaryCodepoints, codepoint) >= 0;
+  }
+
+  /** Builder for {@link CodepointSet}. */
+  static final class Builder {
+
+    private final long[][] bmpPages =
+        new long[Character.MIN_SUPPLEMENTARY_CODE_POINT >>> PAGE_BITS][];
+    private final SortedSet<Integer> supplementaryCodepoints = new TreeSet<>();
+
+    Builder add(int codepoint) {
+      checkArgument(Character.isValidCodePoint(codepoint), "Invalid codepoint: %s", codepoint);
+      if (codepoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        int pageIndex = codepoint >>> PAGE_BITS;
+        if (bmpPages[pageIndex] == null) {
+          bmpPages[pageIndex] = new long[WORDS_PER_PAGE];
+        }
+        int bit = codepoint & PAGE_MASK;
+        bmpPages[pageIndex][bit >>> 6] |= 1L << bit;
+      } else {
+        supplementaryCodepoints.add(codepoint);
+      }
+      return this;
+    }
+
+    CodepointSet build() {
+      long[][] pages = new long[bmpPages.length][];
+      for (int i = 0; i < pages.length; i++) {
+        pages[i] = (bmpPages[i] == null) ? null : bmpPages[i].clone();
+      }
+      return new CodepointSet(pages, Ints.toArray(supplementaryCodepoints));
+    }
+  }
+}
@@ -18,11 +18,9 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.base.Optional;
-import com.google.common.collect.ImmutableRangeSet;
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
+import google.registry.tldconfig.idn.LanguageValidator.LabelScanner;
 import java.net.URI;
 
 /** An IDN table for a particular TLD. */
@@ -48,8 +46,8 @@ public final class IdnTable {
   /** Public URL of policy for this IDN table, which is needed by RDE. */
   private final URI policy;
 
-  /** {@link RangeSet} containing the valid codepoints in this table. */
-  private final RangeSet<Integer> validCodepoints;
+  /** {@link CodepointSet} containing the valid codepoints in this table. */
+  private final CodepointSet validCodepoints;
 
   /** Validates the language rules associated with this IDN table. */
   private final Optional<LanguageValidator> languageValidator;
@@ -58,7 +56,7 @@ public final class IdnTable {
       String name,
       URI url,
       URI policy,
-      RangeSet<Integer> validCodepoints,
+      CodepointSet validCodepoints,
       Optional<LanguageValidator> languageValidator) {
     this.name = name;
     this.url = checkNotNull(url, "%s missing '# URL: http://foo.example/page' line", name);
@@ -81,28 +79,34 @@ public final class IdnTable {
 
   /**
    * Returns true if the given label is valid for this IDN table. A label is considered valid if all
-   * of its codepoints are in the IDN table.
+   * of its codepoints are in the IDN table and it meets the rules of the table's language.
+   *
+   * <p>Both are checked in a single pass over the label.
    */
   boolean isValidLabel(String label) {
+    LabelScanner scanner =
+        languageValidator.isPresent() ? languageValidator.get().newLabelScanner() : null;
     final int length = label.length();
     for (int i = 0; i < length; ) {
       int codepoint = label.codePointAt(i);
       if (!validCodepoints.contains(codepoint)) {
         return false;
       }
+      if (scanner != null && !scanner.scan(codepoint)) {
+        return false;
+      }
 
       // Some codepoints take up more than one character in Java strings (e.g. high and low
       // surrogates).
       i += Character.charCount(codepoint);
     }
-    return !(languageValidator.isPresent()
-        && !languageValidator.get().isValidLabelForLanguage(label));
+    return scanner == null || scanner.isValid();
   }
 
   /** Creates an IDN table given the lines from text file. */
   static IdnTable createFrom(
       String language, Iterable<String> data, Optional<LanguageValidator> languageValidator) {
-    ImmutableRangeSet.Builder<Integer> rangeSet = new ImmutableRangeSet.Builder<>();
+    CodepointSet.Builder codepoints = new CodepointSet.Builder();
     URI url = null;
     URI policy = null;
     for (String line : data) {
@@ -121,10 +125,9 @@ public final class IdnTable {
         continue;
       }
 
-      int codepoint = readCodepoint(line);
-      rangeSet.add(Range.<Integer>singleton(codepoint));
+      codepoints.add(readCodepoint(line));
     }
-    return new IdnTable(language, url, policy, rangeSet.build(), languageValidator);
+    return new IdnTable(language, url, policy, codepoints.build(), languageValidator);
   }
 
   /**
@@ -19,9 +19,7 @@ import static java.lang.Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS;
 import static java.lang.Character.UnicodeBlock.HIRAGANA;
 import static java.lang.Character.UnicodeBlock.KATAKANA;
 
-import com.google.common.collect.ImmutableRangeSet;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Range;
 import java.lang.Character.UnicodeBlock;
 
 /**
@@ -47,31 +45,36 @@ class JapaneseLanguageValidator extends LanguageValidator {
       CJK_SYMBOLS_AND_PUNCTUATION, HIRAGANA, KATAKANA, CJK_UNIFIED_IDEOGRAPHS);
 
   /**
-   * Codepoints which are technically considered to be in the Japanese language, but are
-   * "exceptions" in that they can not appear in a label with a KATAKANA MIDDLE DOT or
+   * Returns true for codepoints which are technically considered to be in the Japanese language,
+   * but are "exceptions" in that they can not appear in a label with a KATAKANA MIDDLE DOT or
    * IDEOGRAPHIC_CLOSING_MARK unless other Japanese non-exception codepoints are also present.
    */
-  private static final ImmutableRangeSet<Integer> JAPANESE_EXCEPTION_CODEPOINTS =
-      new ImmutableRangeSet.Builder<Integer>()
-      .add(Range.<Integer>singleton(IDEOGRAPHIC_CLOSING_MARK))
-      .add(Range.<Integer>singleton(KATAKANA_MIDDLE_DOT))
-      .add(Range.<Integer>singleton(KATAKANA_HIRAGANA_PROLONGED_SOUND_MARK))
-      .build();
+  private static boolean isJapaneseExceptionCodepoint(int codepoint) {
+    return codepoint == IDEOGRAPHIC_CLOSING_MARK
+        || codepoint == KATAKANA_MIDDLE_DOT
+        || codepoint == KATAKANA_HIRAGANA_PROLONGED_SOUND_MARK;
+  }
 
   @Override
-  boolean isValidLabelForLanguage(String label) {
-    boolean requiresJapaneseNonExceptionCodepoint = false;
-    boolean hasJapaneseCodepoint = false;
-    boolean hasJapaneseNonExceptionCodepoint = false;
-
-    final int length = label.length();
-    int codepoints = 0;
-    UnicodeBlock precedingUnicodeBlock = null;
-    for (int i = 0; i < length; ) {
-      int codepoint = label.codePointAt(i);
-      UnicodeBlock unicodeBlock = UnicodeBlock.of(codepoint);
-      boolean isException = JAPANESE_EXCEPTION_CODEPOINTS.contains(codepoint);
-      boolean isJapanese = JAPANESE_UNICODE_BLOCKS.contains(unicodeBlock);
+  LabelScanner newLabelScanner() {
+    return new JapaneseLabelScanner();
+  }
+
+  /** Carries the script-mixing state of a label from one codepoint to the next. */
+  private static final class JapaneseLabelScanner extends LabelScanner {
+
+    private boolean requiresJapaneseNonExceptionCodepoint = false;
+    private boolean hasJapaneseCodepoint = false;
+    private boolean hasJapaneseNonExceptionCodepoint = false;
+    private int codepoints = 0;
+    private UnicodeBlock precedingUnicodeBlock = null;
+
+    @Override
+    boolean scan(int codepoint) {
+      // ASCII codepoints are never Japanese, so there's no need to look up their Unicode block.
+      UnicodeBlock unicodeBlock = (codepoint < 0x80) ? null : UnicodeBlock.of(codepoint);
+      boolean isException = isJapaneseExceptionCodepoint(codepoint);
+      boolean isJapanese = unicodeBlock != null && JAPANESE_UNICODE_BLOCKS.contains(unicodeBlock);
 
       // A label containing KATAKANA_MIDDLE_DOT or IDEOGRAPHIC_CLOSING_MARK requires a Japanese
       // language codepoint to also appear in the label.
@@ -99,23 +102,20 @@ class JapaneseLanguageValidator extends LanguageValidator {
         hasJapaneseCodepoint = true;
       }
 
-      // Some codepoints take up more than one character in Java strings (e.g. high and low
-      // surrogates).
-      i += Character.charCount(codepoint);
       ++codepoints;
       precedingUnicodeBlock = unicodeBlock;
-    }
 
-    // A label with the KATAKANA MIDDLE DOT or IDEOGRAPHIC_CLOSING_MARK codepoint must also have
-    // some Japanese character in the label. The Japanese "exception" characters do not count in
-    // this regard.
-    if (requiresJapaneseNonExceptionCodepoint && !hasJapaneseNonExceptionCodepoint) {
-      return false;
+      // Any label with Japanese characters (including "exception" characters) can only be 15
+      // codepoints long, so there's no need to look any further once it's too long.
+      return !(hasJapaneseCodepoint && (codepoints > MAX_LENGTH_JAPANESE_STRING));
     }
 
-    // Any label with Japanese characters (including "exception" characters) can only be 15
-    // codepoints long.
-    return !(hasJapaneseCodepoint && (codepoints > MAX_LENGTH_JAPANESE_STRING));
-
+    @Override
+    boolean isValid() {
+      // A label with the KATAKANA MIDDLE DOT or IDEOGRAPHIC_CLOSING_MARK codepoint must also have
+      // some Japanese character in the label. The Japanese "exception" characters do not count in
+      // this regard.
+      return !(requiresJapaneseNonExceptionCodepoint && !hasJapaneseNonExceptionCodepoint);
+    }
   }
 }
@@ -29,5 +29,36 @@ abstract class LanguageValidator {
   }
 
   /** Returns true if the label meets the context rules for this language. */
-  abstract boolean isValidLabelForLanguage(String label);
+  boolean isValidLabelForLanguage(String label) {
+    LabelScanner scanner = newLabelScanner();
+    final int length = label.length();
+    for (int i = 0; i < length; ) {
+      int codepoint = label.codePointAt(i);
+      if (!scanner.scan(codepoint)) {
+        return false;
+      }
+      i += Character.charCount(codepoint);
+    }
+    return scanner.isValid();
+  }
+
+  /** Returns a new scanner to check the codepoints of a single label against this language. */
+  abstract LabelScanner newLabelScanner();
+
+  /**
+   * Checks the context rules of a language one codepoint at a time, so that they can be applied in
+   * the same pass over a label as its codepoints are looked up in the IDN table.
+   */
+  abstract static class LabelScanner {
+
+    /**
+     * Accepts the next codepoint of the label.
+     *
+     * @return false if the label is already known to break the rules of the language
+     */
+    abstract boolean scan(int codepoint);
+
+    /** Returns true if the codepoints scanned so far make up a valid label for the language. */
+    abstract boolean isValid();
+  }
 }
@@ -76,18 +76,28 @@ public class LordnTask {
   /** Leases and returns all tasks from the queue with the specified tag tld, in batches. */
   public static List<TaskHandle> loadAllTasks(Queue queue, String tld) {
     ImmutableList.Builder<TaskHandle> allTasks = new ImmutableList.Builder<>();
+    while (true) {
+      List<TaskHandle> tasks = leaseTasks(queue, tld);
+      allTasks.addAll(tasks);
+      if (tasks.isEmpty()) {
+        return allTasks.build();
+      }
+    }
+  }
+
+  /**
+   * Leases and returns the next batch of tasks from the queue with the specified tag tld, or an
+   * empty list if there are none left.
+   */
+  public static List<TaskHandle> leaseTasks(Queue queue, String tld) {
     int numErrors = 0;
     long backOff = backOffMillis;
     while (true) {
       try {
-        List<TaskHandle> tasks = queue.leaseTasks(LeaseOptions.Builder
+        return queue.leaseTasks(LeaseOptions.Builder
             .withTag(tld)
             .leasePeriod(LEASE_PERIOD.getMillis(), TimeUnit.MILLISECONDS)
             .countLimit(BATCH_SIZE));
-        allTasks.addAll(tasks);
-        if (tasks.isEmpty()) {
-          return allTasks.build();
-        }
       } catch (TransientFailureException | DeadlineExceededException e) {
         if (++numErrors >= 3) {
           throw new RuntimeException("Error leasing tasks", e);
@@ -44,10 +44,10 @@ import google.registry.util.FormattingLogger;
 import google.registry.util.UrlFetchException;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import javax.inject.Inject;
-import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 /**
@@ -55,6 +55,12 @@ import org.joda.time.Duration;
  * enqueues subsequent upload verification tasks.  A unique actionLogId is generated and passed
  * along to the verify action so that connected verify tasks can be identified by looking at logs.
  *
+ * <p>Tasks are leased in batches and their lines are uploaded as a series of LORDN files, each of
+ * at most {@code lordnMaxLinesPerUpload} lines and {@code lordnMaxBytesPerUpload} bytes of lines,
+ * so that a large backlog never has to be held in memory all at once. The tasks of each file are
+ * deleted as soon as MarksDB accepts it. If an upload fails, the tasks of that file and of any
+ * later ones stay leased, and are uploaded by a later run once their leases expire.
+ *
  * @see NordnVerifyAction
  */
 @Action(path = NordnUploadAction.PATH, method = Action.Method.POST, automaticallyPrintOk = true)
@@ -76,6 +82,8 @@ public final class NordnUploadAction implements Runnable {
   @Inject LordnRequestInitializer lordnRequestInitializer;
   @Inject URLFetchService fetchService;
   @Inject @Config("tmchMarksdbUrl") String tmchMarksdbUrl;
+  @Inject @Config("lordnMaxLinesPerUpload") int maxLinesPerUpload;
+  @Inject @Config("lordnMaxBytesPerUpload") int maxBytesPerUpload;
   @Inject @Parameter(LORDN_PHASE_PARAM) String phase;
   @Inject @Parameter(RequestParameters.PARAM_TLD) String tld;
   @Inject NordnUploadAction() {}
@@ -103,18 +111,40 @@ public final class NordnUploadAction implements Runnable {
     checkArgument(phase.equals(PARAM_LORDN_PHASE_SUNRISE)
         || phase.equals(PARAM_LORDN_PHASE_CLAIMS),
         "Invalid phase specified to Nordn servlet: %s.", phase);
-    DateTime now = clock.nowUtc();
     Queue queue = getQueue(
         phase.equals(PARAM_LORDN_PHASE_SUNRISE) ? LordnTask.QUEUE_SUNRISE : LordnTask.QUEUE_CLAIMS);
     String columns = phase.equals(PARAM_LORDN_PHASE_SUNRISE) ? COLUMNS_SUNRISE : COLUMNS_CLAIMS;
-    List<TaskHandle> tasks = LordnTask.loadAllTasks(queue, tld);
-    if (!tasks.isEmpty()) {
-      String csvData = convertTasksToCsv(tasks, now, columns);
-      uploadCsvToLordn(String.format("/LORDN/%s/%s", tld, phase), csvData);
-      queue.deleteTask(tasks);
+    List<TaskHandle> pendingTasks = new ArrayList<>();
+    long pendingBytes = 0;
+    for (List<TaskHandle> tasks = LordnTask.leaseTasks(queue, tld);
+        !tasks.isEmpty();
+        tasks = LordnTask.leaseTasks(queue, tld)) {
+      for (TaskHandle task : tasks) {
+        int lineBytes = task.getPayload().length + 1;  // Including the newline.
+        if (!pendingTasks.isEmpty()
+            && (pendingTasks.size() >= maxLinesPerUpload
+                || pendingBytes + lineBytes > maxBytesPerUpload)) {
+          uploadAndDeleteTasks(queue, pendingTasks, columns);
+          pendingTasks.clear();
+          pendingBytes = 0;
+        }
+        pendingTasks.add(task);
+        pendingBytes += lineBytes;
+      }
+    }
+    if (!pendingTasks.isEmpty()) {
+      uploadAndDeleteTasks(queue, pendingTasks, columns);
     }
   }
 
+  /** Uploads the lines of the given tasks as a single LORDN file, then deletes the tasks. */
+  private void uploadAndDeleteTasks(Queue queue, List<TaskHandle> tasks, String columns)
+      throws IOException {
+    String csvData = convertTasksToCsv(tasks, clock.nowUtc(), columns);
+    uploadCsvToLordn(String.format("/LORDN/%s/%s", tld, phase), csvData);
+    queue.deleteTask(tasks);
+  }
+
   /**
    * Upload LORDN file to MarksDB.
    *
@@ -75,6 +75,7 @@ public final class TmchXmlSignature {
    * <p>This method DOES NOT check if the SMD ID is revoked. It's only concerned with the
    * cryptographic stuff.
    *
+   * @return the certificate whose key signed the SMD, which has been verified as of now
    * @throws GeneralSecurityException for unsupported protocols, certs not signed by the TMCH,
    *     incorrect keys, and for invalid, old, not-yet-valid or revoked certificates.
    * @throws IOException
@@ -82,7 +83,7 @@ public final class TmchXmlSignature {
    * @throws ParserConfigurationException
    * @throws SAXException
    */
-  public void verify(byte[] smdXml)
+  public X509Certificate verify(byte[] smdXml)
       throws GeneralSecurityException, IOException, MarshalException, ParserConfigurationException,
           SAXException, XMLSignatureException {
     checkArgument(smdXml.length > 0);
@@ -93,7 +94,7 @@ public final class TmchXmlSignature {
       throw new XMLSignatureException("Expected exactly one <ds:Signature> element.");
     }
     XMLSignatureFactory factory = XMLSignatureFactory.getInstance("DOM");
-    KeyValueKeySelector selector = new KeyValueKeySelector(tmchCertificateAuthority);
+    KeyValueKeySelector selector = new KeyValueKeySelector(this);
     DOMValidateContext context = new DOMValidateContext(selector, signatureNodes.item(0));
     XMLSignature signature = factory.unmarshalXMLSignature(context);
 
@@ -107,6 +108,24 @@ public final class TmchXmlSignature {
     if (!isValid) {
       throw new XMLSignatureException(explainValidationProblem(context, signature));
     }
+    return selector.selectedCertificate;
+  }
+
+  /**
+   * Verifies that a certificate that was used to sign an SMD is still valid as of now.
+   *
+   * <p>This repeats only the certificate checks of {@link #verify}, against the current CRL, so
+   * callers that have already verified the XML signature of an SMD can cheaply recheck it later.
+   *
+   * @throws GeneralSecurityException for certs not signed by the TMCH, and for invalid, old,
+   *     not-yet-valid or revoked certificates.
+   */
+  public void verifyCertificate(X509Certificate cert) throws GeneralSecurityException {
+    try {
+      tmchCertificateAuthority.verify(cert);
+    } catch (SignatureException e) {
+      throw new CertificateSignatureException(e.getMessage());
+    }
   }
 
   private static Document parseSmdDocument(InputStream input)
@@ -140,10 +159,13 @@ public final class TmchXmlSignature {
   /** Callback class for DOM validator checks validity of {@code <ds:KeyInfo>} elements. */
   private static final class KeyValueKeySelector extends KeySelector {
 
-    private final TmchCertificateAuthority tmchCertificateAuthority;
+    private final TmchXmlSignature tmchXmlSignature;
+
+    /** The certificate whose public key was last selected. */
+    @Nullable X509Certificate selectedCertificate;
 
-    KeyValueKeySelector(TmchCertificateAuthority tmchCertificateAuthority) {
-      this.tmchCertificateAuthority = tmchCertificateAuthority;
+    KeyValueKeySelector(TmchXmlSignature tmchXmlSignature) {
+      this.tmchXmlSignature = tmchXmlSignature;
     }
 
     @Nullable
@@ -164,12 +186,11 @@ public final class TmchXmlSignature {
             if (x509DataChild instanceof X509Certificate) {
               X509Certificate cert = (X509Certificate) x509DataChild;
               try {
-                tmchCertificateAuthority.verify(cert);
-              } catch (SignatureException e) {
-                throw new KeySelectorException(new CertificateSignatureException(e.getMessage()));
+                tmchXmlSignature.verifyCertificate(cert);
               } catch (GeneralSecurityException e) {
                 throw new KeySelectorException(e);
               }
+              selectedCertificate = cert;
               return new SimpleKeySelectorResult(cert.getPublicKey());
             }
           }
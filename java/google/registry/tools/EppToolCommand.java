@@ -139,22 +139,29 @@ abstract class EppToolCommand extends ConfirmingCommand implements ServerSideCom
   private List<String> processCommands(boolean dryRun) throws IOException {
     ImmutableList.Builder<String> responses = new ImmutableList.Builder<>();
     for (XmlEppParameters command : commands) {
-      Map<String, Object> params = new HashMap<>();
-      params.put("dryRun", dryRun);
-      params.put("clientId", command.clientId);
-      params.put("superuser", superuser);
-      params.put("xml", URLEncoder.encode(command.xml, UTF_8.toString()));
-      String requestBody =
-          Joiner.on('&').withKeyValueSeparator("=").join(filterValues(params, notNull()));
-      responses.add(nullToEmpty(connection.send(
-          "/_dr/epptool",
-          ImmutableMap.<String, String>of(),
-          MediaType.FORM_DATA,
-          requestBody.getBytes(UTF_8))));
+      responses.add(sendEpp(connection, command.clientId, superuser, dryRun, command.xml));
     }
     return responses.build();
   }
 
+  /** Sends an EPP command to the epptool endpoint of the server and returns its response. */
+  static String sendEpp(
+      Connection connection, String clientId, boolean superuser, boolean dryRun, String xml)
+      throws IOException {
+    Map<String, Object> params = new HashMap<>();
+    params.put("dryRun", dryRun);
+    params.put("clientId", clientId);
+    params.put("superuser", superuser);
+    params.put("xml", URLEncoder.encode(xml, UTF_8.toString()));
+    String requestBody =
+        Joiner.on('&').withKeyValueSeparator("=").join(filterValues(params, notNull()));
+    return nullToEmpty(connection.send(
+        "/_dr/epptool",
+        ImmutableMap.<String, String>of(),
+        MediaType.FORM_DATA,
+        requestBody.getBytes(UTF_8)));
+  }
+
   @Override
   public String execute() throws Exception {
     return isDryRun() ? "" : addHeader("Response", Joiner.on("\n").join(processCommands(false)));
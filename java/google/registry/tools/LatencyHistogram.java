@@ -0,0 +1,127 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A histogram of latencies in microseconds, with bounded relative error.
+ *
+ * <p>This follows the layout of an HdrHistogram with two significant digits. Values below 128 get
+ * a bucket each. Above that, each power of two is split into 64 equal buckets, so the bucket that
+ * a value falls into is never more than 1/64th of the value wide. Values of 2^41
+ * microseconds (about 25 days) or more are clamped into the last bucket.
+ *
+ * <p>All methods are synchronized, since a histogram is shared by the threads sending requests.
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+  private static final int MAX_SHIFT = 34;
+
+  private final long[] counts = new long[SUB_BUCKET_COUNT + MAX_SHIFT * SUB_BUCKET_HALF_COUNT];
+  private long totalCount;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max;
+
+  /** Records a single latency, in microseconds. */
+  synchronized void record(long micros) {
+    checkArgument(micros >= 0, "Negative latency: %s", micros);
+    counts[getIndex(micros)]++;
+    totalCount++;
+    sum += micros;
+    min = Math.min(min, micros);
+    max = Math.max(max, micros);
+  }
+
+  /** Adds all of the latencies recorded by another histogram into this one. */
+  synchronized void add(LatencyHistogram other) {
+    synchronized (other) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += other.counts[i];
+      }
+      totalCount += other.totalCount;
+      sum += other.sum;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+  }
+
+  synchronized long getCount() {
+    return totalCount;
+  }
+
+  synchronized long getMin() {
+    return totalCount == 0 ? 0 : min;
+  }
+
+  synchronized long getMax() {
+    return max;
+  }
+
+  synchronized double getMean() {
+    return totalCount == 0 ? 0 : ((double) sum) / totalCount;
+  }
+
+  /**
+   * Returns the latency at or below which the given percentage of the recorded latencies fall.
+   *
+   * <p>The value returned is the highest value in the bucket holding that latency, capped at the
+   * maximum recorded latency, so it is never an underestimate.
+   */
+  synchronized long getValueAtPercentile(double percentile) {
+    checkArgument(
+        percentile >= 0 && percentile <= 100, "Percentile out of range: %s", percentile);
+    if (totalCount == 0) {
+      return 0;
+    }
+    long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= countAtPercentile) {
+        return Math.min(getHighestValueInBucket(i), max);
+      }
+    }
+    return max;
+  }
+
+  private static int getIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    // The shift that brings the value into [64, 128), i.e. keeps its top 7 bits.
+    int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    if (shift > MAX_SHIFT) {
+      return SUB_BUCKET_COUNT + MAX_SHIFT * SUB_BUCKET_HALF_COUNT - 1;
+    }
+    return SUB_BUCKET_COUNT
+        + (shift - 1) * SUB_BUCKET_HALF_COUNT
+        + (int) (value >>> shift)
+        - SUB_BUCKET_HALF_COUNT;
+  }
+
+  private static long getHighestValueInBucket(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+    long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -14,13 +14,14 @@
 
 package google.registry.tools;
 
-import static google.registry.model.ofy.ObjectifyService.ofy;
-
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Ordering;
 import google.registry.model.common.Cursor;
 import google.registry.model.common.Cursor.CursorType;
+import google.registry.model.common.CursorDao;
 import google.registry.model.registry.Registries;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldType;
@@ -50,7 +51,7 @@ final class ListCursorsCommand implements RemoteApiCommand {
 
   @Override
   public void run() throws Exception {
-    List<String> lines = new ArrayList<>();
+    ImmutableSet.Builder<String> tlds = new ImmutableSet.Builder<>();
     for (String tld : Registries.getTlds()) {
       Registry registry = Registry.get(tld);
       if (filterTldType != registry.getTldType()) {
@@ -59,7 +60,13 @@ final class ListCursorsCommand implements RemoteApiCommand {
       if (filterEscrowEnabled && !registry.getEscrowEnabled()) {
         continue;
       }
-      Cursor cursor = ofy().load().key(Cursor.createKey(cursorType, registry)).now();
+      tlds.add(tld);
+    }
+    ImmutableTable<String, CursorType, Cursor> cursors =
+        CursorDao.load(tlds.build(), ImmutableSet.of(cursorType));
+    List<String> lines = new ArrayList<>();
+    for (String tld : tlds.build()) {
+      Cursor cursor = cursors.get(tld, cursorType);
       lines.add(String.format("%-25s%s", cursor != null ? cursor.getCursorTime() : "absent", tld));
     }
     for (String line : Ordering.natural().sortedCopy(lines)) {
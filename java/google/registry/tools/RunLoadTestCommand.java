@@ -0,0 +1,377 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.loadtest.LoadTestTemplates.ARBITRARY_VALID_HOST_LENGTH;
+import static google.registry.loadtest.LoadTestTemplates.EXISTING_CONTACT;
+import static google.registry.loadtest.LoadTestTemplates.EXISTING_DOMAIN;
+import static google.registry.loadtest.LoadTestTemplates.EXISTING_HOST;
+import static google.registry.loadtest.LoadTestTemplates.MAX_CONTACT_LENGTH;
+import static google.registry.loadtest.LoadTestTemplates.MAX_DOMAIN_LABEL_LENGTH;
+import static google.registry.loadtest.LoadTestTemplates.getRandomLabel;
+import static google.registry.loadtest.LoadTestTemplates.loadTemplate;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ascii;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Ordering;
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
+import google.registry.tools.params.KeyValueMapParameter.StringToIntegerMap;
+import google.registry.tools.params.PathParameter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import org.json.simple.JSONValue;
+
+/**
+ * Command to send a load of EPP commands to a server and report their latencies.
+ *
+ * <p>The commands are built from the same templates as {@link
+ * google.registry.loadtest.LoadTestAction}, and are sent to the epptool endpoint of whichever
+ * server the tool is pointed at. Against a local development server, this measures the whole EPP
+ * stack on a single machine.
+ *
+ * <p>In {@link Mode#OPEN} mode, commands are sent at a fixed rate whether or not earlier ones have
+ * been answered, and each latency is measured from the time its command was due to be sent rather
+ * than the time it actually was. So a stall in the server shows up in the latencies of all the
+ * commands it held up, instead of just delaying the load (the "coordinated omission" problem). In
+ * {@link Mode#CLOSED} mode, a fixed number of workers each send their next command as soon as the
+ * previous one is answered, which measures the throughput that the server can sustain.
+ *
+ * <p>The report is written as JSON, with the latency percentiles of each kind of command and the
+ * number of its commands that got each EPP result code. Commands that got no response, e.g.
+ * because the connection failed, are counted separately from those whose response had no result
+ * code in it, e.g. a server error page.
+ */
+@Parameters(
+    separators = " =",
+    commandDescription = "Send a load of EPP commands to a server and report their latencies.")
+final class RunLoadTestCommand implements ServerSideCommand {
+
+  /** How commands are paced. */
+  enum Mode {
+    /** Commands are sent at a fixed rate. */
+    OPEN,
+
+    /** Each worker sends its next command when its previous one is answered. */
+    CLOSED
+  }
+
+  /** The kinds of EPP command that can be sent, named after their load test templates. */
+  enum Operation {
+    CONTACT_CREATE("%contact%", MAX_CONTACT_LENGTH),
+    CONTACT_INFO,
+    DOMAIN_CHECK,
+    DOMAIN_CREATE("%domain%", MAX_DOMAIN_LABEL_LENGTH),
+    DOMAIN_INFO,
+    HOST_CREATE("%host%", ARBITRARY_VALID_HOST_LENGTH),
+    HOST_INFO;
+
+    /** The placeholder that is filled with a new random name for each command, if any. */
+    @Nullable private final String randomPlaceholder;
+
+    private final int randomLength;
+
+    Operation() {
+      this(null, 0);
+    }
+
+    Operation(@Nullable String randomPlaceholder, int randomLength) {
+      this.randomPlaceholder = randomPlaceholder;
+      this.randomLength = randomLength;
+    }
+
+    String getTemplateName() {
+      return Ascii.toLowerCase(name());
+    }
+  }
+
+  private static final Pattern RESULT_CODE_PATTERN = Pattern.compile("<result code=\"(\\d+)\"");
+
+  /** The result recorded for a command that failed to get any response from the server. */
+  private static final String NO_RESPONSE_RESULT = "noResponse";
+
+  /** The result recorded for a command whose response had no EPP result code in it. */
+  private static final String UNPARSEABLE_RESPONSE_RESULT = "unparseableResponse";
+
+  @Parameter(
+      names = {"-c", "--client"},
+      description = "Client identifier of the registrar to send the commands as.",
+      required = true)
+  String clientId;
+
+  @Parameter(
+      names = {"-t", "--tld"},
+      description = "TLD of the domains to check, create and get info on.",
+      required = true)
+  String tld;
+
+  @Parameter(
+      names = "--mode",
+      description = "OPEN to send commands at a fixed rate, or CLOSED to send each worker's next "
+          + "command as soon as its previous one is answered.")
+  Mode mode = Mode.OPEN;
+
+  @Parameter(
+      names = "--rate",
+      description = "Number of commands to send per second in OPEN mode.")
+  int rate = 10;
+
+  @Parameter(
+      names = "--concurrency",
+      description = "Maximum number of commands awaiting responses at once. In OPEN mode, commands "
+          + "that are due when this many are outstanding wait, and the wait counts as latency.")
+  int concurrency = 10;
+
+  @Parameter(
+      names = "--duration_seconds",
+      description = "Number of seconds to send commands for.")
+  int durationSeconds = 60;
+
+  @Parameter(
+      names = "--max_commands",
+      description = "Maximum number of commands to send, even if the duration hasn't passed.")
+  int maxCommands = Integer.MAX_VALUE;
+
+  @Parameter(
+      names = "--mix",
+      description = "Relative weights of the kinds of command to send, e.g. "
+          + "domain_check=10,domain_info=5,domain_create=1",
+      converter = StringToIntegerMap.class,
+      validateWith = StringToIntegerMap.class)
+  ImmutableMap<String, Integer> mix = ImmutableMap.of("domain_check", 1);
+
+  @Parameter(
+      names = {"-o", "--output"},
+      description = "Output file for the JSON report.",
+      validateWith = PathParameter.OutputFile.class)
+  Path output = Paths.get("/dev/stdout");
+
+  @VisibleForTesting
+  Ticker ticker = Ticker.systemTicker();
+
+  private final Random random = new Random();
+
+  private Connection connection;
+
+  /** The command XML of each kind to send, with all but the random placeholders filled in. */
+  private final Map<Operation, String> xmls = new EnumMap<>(Operation.class);
+
+  private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+
+  private Operation[] weightedOperations;
+  private int[] cumulativeWeights;
+
+  /** The latencies and results of the commands of one kind. */
+  private static class OperationStats {
+    final LatencyHistogram latencies = new LatencyHistogram();
+    final Multiset<String> results = ConcurrentHashMultiset.create();
+  }
+
+  @Override
+  public void setConnection(Connection connection) {
+    this.connection = connection;
+  }
+
+  @Override
+  public void run() throws Exception {
+    checkArgument(
+        RegistryToolEnvironment.get() != RegistryToolEnvironment.PRODUCTION,
+        "DO NOT RUN LOADTESTS IN PROD!");
+    checkArgument(rate > 0, "--rate must be positive");
+    checkArgument(concurrency > 0, "--concurrency must be positive");
+    checkArgument(durationSeconds > 0, "--duration_seconds must be positive");
+    checkArgument(maxCommands > 0, "--max_commands must be positive");
+    prepareOperations();
+    connection.prefetchXsrfToken();
+
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    long startNanos = ticker.read();
+    try {
+      if (mode == Mode.OPEN) {
+        runOpenLoop(executor, startNanos);
+      } else {
+        runClosedLoop(executor, startNanos);
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, NANOSECONDS);
+    }
+    long elapsedNanos = ticker.read() - startNanos;
+    Files.write(output, (JSONValue.toJSONString(buildReport(elapsedNanos)) + "\n").getBytes(UTF_8));
+  }
+
+  private void prepareOperations() {
+    checkArgument(!mix.isEmpty(), "--mix must name at least one kind of command");
+    weightedOperations = new Operation[mix.size()];
+    cumulativeWeights = new int[mix.size()];
+    int totalWeight = 0;
+    int i = 0;
+    for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+      Operation operation;
+      try {
+        operation = Operation.valueOf(Ascii.toUpperCase(entry.getKey()));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Unknown kind of command: " + entry.getKey(), e);
+      }
+      checkArgument(entry.getValue() > 0, "Weight of %s must be positive", entry.getKey());
+      totalWeight += entry.getValue();
+      weightedOperations[i] = operation;
+      cumulativeWeights[i] = totalWeight;
+      i++;
+
+      String xml = loadTemplate(operation.getTemplateName()).replace("%tld%", tld);
+      ImmutableMap<String, String> existingNames = ImmutableMap.of(
+          "%domain%", EXISTING_DOMAIN, "%contact%", EXISTING_CONTACT, "%host%", EXISTING_HOST);
+      for (Map.Entry<String, String> name : existingNames.entrySet()) {
+        if (!name.getKey().equals(operation.randomPlaceholder)) {
+          xml = xml.replace(name.getKey(), name.getValue());
+        }
+      }
+      xmls.put(operation, xml);
+      stats.put(operation, new OperationStats());
+    }
+  }
+
+  /** Sends commands at a fixed rate, measuring each latency from when the command was due. */
+  private void runOpenLoop(ExecutorService executor, long startNanos) throws InterruptedException {
+    long intervalNanos = SECONDS.toNanos(1) / rate;
+    long deadlineNanos = startNanos + SECONDS.toNanos(durationSeconds);
+    long dueNanos = startNanos;
+    for (int sent = 0; sent < maxCommands && dueNanos < deadlineNanos; sent++) {
+      NANOSECONDS.sleep(dueNanos - ticker.read());
+      final Operation operation = pickOperation();
+      final long commandDueNanos = dueNanos;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          sendCommand(operation, commandDueNanos);
+        }});
+      dueNanos += intervalNanos;
+    }
+  }
+
+  /** Sends commands from a fixed number of workers, each waiting for its previous response. */
+  private void runClosedLoop(ExecutorService executor, long startNanos) {
+    final long deadlineNanos = startNanos + SECONDS.toNanos(durationSeconds);
+    final AtomicInteger remaining = new AtomicInteger(maxCommands);
+    for (int i = 0; i < concurrency; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          while (ticker.read() < deadlineNanos && remaining.getAndDecrement() > 0) {
+            sendCommand(pickOperation(), ticker.read());
+          }
+        }});
+    }
+  }
+
+  private Operation pickOperation() {
+    int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+    int i = 0;
+    while (pick >= cumulativeWeights[i]) {
+      i++;
+    }
+    return weightedOperations[i];
+  }
+
+  private void sendCommand(Operation operation, long startNanos) {
+    String xml = xmls.get(operation);
+    if (operation.randomPlaceholder != null) {
+      xml = xml.replace(
+          operation.randomPlaceholder, getRandomLabel(random, operation.randomLength));
+    }
+    String result;
+    try {
+      result = getResultCode(EppToolCommand.sendEpp(connection, clientId, false, false, xml));
+    } catch (IOException | RuntimeException e) {
+      result = NO_RESPONSE_RESULT;
+    }
+    OperationStats operationStats = stats.get(operation);
+    operationStats.latencies.record(NANOSECONDS.toMicros(ticker.read() - startNanos));
+    operationStats.results.add(result);
+  }
+
+  private static String getResultCode(String response) {
+    Matcher matcher = RESULT_CODE_PATTERN.matcher(response);
+    return matcher.find() ? matcher.group(1) : UNPARSEABLE_RESPONSE_RESULT;
+  }
+
+  private ImmutableMap<String, Object> buildReport(long elapsedNanos) {
+    LatencyHistogram overall = new LatencyHistogram();
+    ImmutableMap.Builder<String, Object> operations = new ImmutableMap.Builder<>();
+    for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+      OperationStats operationStats = entry.getValue();
+      overall.add(operationStats.latencies);
+      ImmutableMap.Builder<String, Long> results = new ImmutableMap.Builder<>();
+      for (String result : Ordering.natural().sortedCopy(operationStats.results.elementSet())) {
+        results.put(result, (long) operationStats.results.count(result));
+      }
+      operations.put(
+          entry.getKey().getTemplateName(),
+          ImmutableMap.of(
+              "commands", operationStats.latencies.getCount(),
+              "results", results.build(),
+              "latencyMillis", summarize(operationStats.latencies)));
+    }
+    double elapsedSeconds = ((double) elapsedNanos) / SECONDS.toNanos(1);
+    ImmutableMap.Builder<String, Object> report = new ImmutableMap.Builder<>();
+    report.put("mode", mode.name());
+    if (mode == Mode.OPEN) {
+      report.put("rate", rate);
+    }
+    report.put("concurrency", concurrency);
+    report.put("elapsedSeconds", elapsedSeconds);
+    report.put("commands", overall.getCount());
+    report.put("commandsPerSecond", elapsedSeconds == 0 ? 0 : overall.getCount() / elapsedSeconds);
+    report.put("latencyMillis", summarize(overall));
+    report.put("operations", operations.build());
+    return report.build();
+  }
+
+  private static ImmutableMap<String, Double> summarize(LatencyHistogram histogram) {
+    return new ImmutableMap.Builder<String, Double>()
+        .put("min", toMillis(histogram.getMin()))
+        .put("mean", histogram.getMean() / 1000)
+        .put("p50", toMillis(histogram.getValueAtPercentile(50)))
+        .put("p90", toMillis(histogram.getValueAtPercentile(90)))
+        .put("p99", toMillis(histogram.getValueAtPercentile(99)))
+        .put("p99.9", toMillis(histogram.getValueAtPercentile(99.9)))
+        .put("max", toMillis(histogram.getMax()))
+        .build();
+  }
+
+  private static double toMillis(long micros) {
+    return micros / 1000.0;
+  }
+}
@@ -15,6 +15,7 @@
 package google.registry.tools.server;
 
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Predicates.notNull;
 import static com.google.common.collect.Iterators.filter;
 import static com.google.common.io.BaseEncoding.base16;
@@ -32,10 +33,13 @@ import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.gcs.GcsUtils;
 import google.registry.mapreduce.MapreduceRunner;
@@ -55,9 +59,12 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -87,15 +94,6 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   /** Format for the zone file header. */
   private static final String HEADER_FORMAT = "$ORIGIN\t%s.\n\n";
 
-  /** Format for NS records. */
-  private static final String NS_FORMAT = "%s\t%d\tIN\tNS\t%s.\n";
-
-  /** Format for DS records. */
-  private static final String DS_FORMAT = "%s\t%d\tIN\tDS\t%d %d %d %s\n";
-
-  /** Format for A and AAAA records. */
-  private static final String A_FORMAT = "%s\t%d\tIN\t%s\t%s\n";
-
   // TODO(b/20454352): Overhaul TTL configuration mechanism.
   /** The time to live for exported NS record, in seconds. */
   private static final int TTL_NS = 180;
@@ -106,11 +104,24 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   /** The time to live for exported A/AAAA record, in seconds. */
   private static final int TTL_A = 3600;
 
+  /** Fields between the owner name and the data of NS records. */
+  private static final String NS_TOKENS = "\t" + TTL_NS + "\tIN\tNS\t";
+
+  /** Fields between the owner name and the data of DS records. */
+  private static final String DS_TOKENS = "\t" + TTL_DS + "\tIN\tDS\t";
+
+  /** Fields between the owner name and the data of A records. */
+  private static final String A_TOKENS = "\t" + TTL_A + "\tIN\tA\t";
+
+  /** Fields between the owner name and the data of AAAA records. */
+  private static final String AAAA_TOKENS = "\t" + TTL_A + "\tIN\tAAAA\t";
+
   @Inject MapreduceRunner mrRunner;
   @Inject JsonActionRunner jsonActionRunner;
   @Inject @Config("zoneFilesBucket") String bucket;
   @Inject @Config("gcsBufferSize") int gcsBufferSize;
   @Inject @Config("commitLogDatastoreRetention") Duration datastoreRetention;
+  @Inject @Config("pointInTimeLoadBatchSize") int pointInTimeLoadBatchSize;
   @Inject Clock clock;
   @Inject GenerateZoneFilesAction() {}
 
@@ -144,7 +155,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
         .setModuleName("tools")
         .setDefaultReduceShards(tlds.size())
         .runMapreduce(
-            new GenerateBindFileMapper(tlds, exportTime),
+            new GenerateBindFileMapper(tlds, exportTime, pointInTimeLoadBatchSize),
             new GenerateBindFileReducer(bucket, exportTime, gcsBufferSize),
             ImmutableList.of(
                 new NullInput<EppResource>(),
@@ -165,17 +176,35 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
         "filenames", filenames);
   }
 
-  /** Mapper to find domains and hosts that were active at a given time. */
+  /**
+   * Mapper to find domains and hosts that were active at a given time.
+   *
+   * <p>Resources are buffered on each slice and rewound to the export time in batches, along with
+   * the nameservers of all buffered domains, so that the commit log mutations they need are fetched
+   * with a few batch gets instead of one get per resource and nameserver.
+   */
   static class GenerateBindFileMapper extends Mapper<EppResource, String, String> {
 
     private static final long serialVersionUID = 4647941823789859913L;
 
     private final ImmutableSet<String> tlds;
     private final DateTime exportTime;
+    private final int batchSize;
+
+    /** Domains mapped on the current slice that have not yet been rewound and emitted. */
+    private final ArrayList<DomainResource> domainBatch = new ArrayList<>();
+
+    /** Hosts mapped on the current slice that have not yet been rewound and emitted. */
+    private final ArrayList<HostResource> hostBatch = new ArrayList<>();
 
-    GenerateBindFileMapper(ImmutableSet<String> tlds, DateTime exportTime) {
+    /** Buffer that each stanza is written into before being emitted, reused across stanzas. */
+    private transient StringBuilder stanzaBuffer;
+
+    GenerateBindFileMapper(ImmutableSet<String> tlds, DateTime exportTime, int batchSize) {
+      checkArgument(batchSize > 0, "Batch size must be positive");
       this.tlds = tlds;
       this.exportTime = exportTime;
+      this.batchSize = batchSize;
     }
 
     @Override
@@ -184,42 +213,92 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
         for (String tld : tlds) {
           emit(tld, null);
         }
-      } else if (resource instanceof DomainResource) {
-        mapDomain((DomainResource) resource);
+        return;
+      }
+      if (resource instanceof DomainResource) {
+        DomainResource domain = (DomainResource) resource;
+        // Domains never change their tld, so we can check if it's from the wrong tld right away.
+        if (tlds.contains(domain.getTld())) {
+          domainBatch.add(domain);
+        }
       } else {
-        mapHost((HostResource) resource);
+        hostBatch.add((HostResource) resource);
+      }
+      if (domainBatch.size() + hostBatch.size() >= batchSize) {
+        flushBatch();
       }
     }
 
-    private void mapDomain(DomainResource domain) {
-      // Domains never change their tld, so we can check if it's from the wrong tld right away.
-      if (tlds.contains(domain.getTld())) {
-        domain = loadAtPointInTime(domain, exportTime).now();
-        // A null means the domain was deleted (or not created) at this time.
-        if (domain != null && domain.shouldPublishToDns()) {
-          String stanza = domainStanza(domain, exportTime);
-          if (!stanza.isEmpty()) {
-            emit(domain.getTld(), stanza);
-            getContext().incrementCounter(domain.getTld() + " domains");
-          }
+    @Override
+    public void beginSlice() {
+      super.beginSlice();
+      stanzaBuffer = new StringBuilder();
+    }
+
+    @Override
+    public void endSlice() {
+      // Nothing may stay buffered across slices, since the mapper is serialized between them.
+      flushBatch();
+      super.endSlice();
+    }
+
+    /** Rewinds all buffered domains and hosts to the export time and emits their stanzas. */
+    private void flushBatch() {
+      if (domainBatch.isEmpty() && hostBatch.isEmpty()) {
+        return;
+      }
+      // Launch both batch loads before waiting on either of them. Resources missing from the
+      // results were deleted (or not created) at the export time.
+      Result<ImmutableMap<Key<DomainResource>, DomainResource>> domainsResult =
+          loadAtPointInTime(domainBatch, exportTime);
+      Result<ImmutableMap<Key<HostResource>, HostResource>> hostsResult =
+          loadAtPointInTime(hostBatch, exportTime);
+      mapDomains(domainsResult.now().values());
+      for (HostResource host : hostsResult.now().values()) {
+        mapHost(host);
+      }
+      domainBatch.clear();
+      hostBatch.clear();
+    }
+
+    private void mapDomains(Iterable<DomainResource> domainsAtExportTime) {
+      ImmutableList<DomainResource> domains = FluentIterable.from(domainsAtExportTime)
+          .filter(new Predicate<DomainResource>() {
+            @Override
+            public boolean apply(DomainResource domain) {
+              return domain.shouldPublishToDns();
+            }})
+          .toList();
+      // Load the nameservers of all domains at the export time in case they've been renamed or
+      // deleted.
+      Set<Key<HostResource>> nameserverKeys = new HashSet<>();
+      for (DomainResource domain : domains) {
+        nameserverKeys.addAll(domain.getNameservers());
+      }
+      ImmutableMap<Key<HostResource>, HostResource> nameservers =
+          loadAtPointInTime(ofy().load().keys(nameserverKeys).values(), exportTime).now();
+      for (DomainResource domain : domains) {
+        stanzaBuffer.setLength(0);
+        appendDomainStanza(stanzaBuffer, domain, nameservers);
+        if (stanzaBuffer.length() > 0) {
+          emit(domain.getTld(), stanzaBuffer.toString());
+          getContext().incrementCounter(domain.getTld() + " domains");
         }
       }
     }
 
     private void mapHost(HostResource host) {
-      host = loadAtPointInTime(host, exportTime).now();
-      if (host != null) {  // A null means the host was deleted (or not created) at this time.
-        // Find a matching tld. Hosts might change their tld, so check after the point-in-time load.
-        String fullyQualifiedHostName = host.getFullyQualifiedHostName();
-        for (String tld : tlds) {
-          if (fullyQualifiedHostName.endsWith("." + tld)) {
-            String stanza = hostStanza(host);
-            if (!stanza.isEmpty()) {
-              emit(tld, stanza);
-              getContext().incrementCounter(tld + " hosts");
-            }
-            return;
+      // Find a matching tld. Hosts might change their tld, so check after the point-in-time load.
+      String fullyQualifiedHostName = host.getFullyQualifiedHostName();
+      for (String tld : tlds) {
+        if (fullyQualifiedHostName.endsWith("." + tld)) {
+          stanzaBuffer.setLength(0);
+          appendHostStanza(stanzaBuffer, host);
+          if (stanzaBuffer.length() > 0) {
+            emit(tld, stanzaBuffer.toString());
+            getContext().incrementCounter(tld + " hosts");
           }
+          return;
         }
       }
     }
@@ -263,39 +342,45 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   }
 
   /**
-   * Generates DNS records for a domain (NS and DS).
+   * Writes the DNS records for a domain (NS and DS) to a buffer.
    *
-   * These look like this:
+   * <p>These look like this:
    * {@code
    *   foo.tld 180 IN NS ns.example.com.
    *   foo.tld 86400 IN DS 1 2 3 000102
    * }
    */
-  private static String domainStanza(DomainResource domain, DateTime exportTime) {
-    StringBuilder result = new StringBuilder();
-    for (HostResource nameserver : ofy().load().keys(domain.getNameservers()).values()) {
-      result.append(String.format(
-          NS_FORMAT,
-          domain.getFullyQualifiedDomainName(),
-          TTL_NS,
-          // Load the nameservers at the export time in case they've been renamed or deleted.
-          loadAtPointInTime(nameserver, exportTime).now().getFullyQualifiedHostName()));
+  private static void appendDomainStanza(
+      StringBuilder out,
+      DomainResource domain,
+      Map<Key<HostResource>, HostResource> nameserversAtExportTime) {
+    String domainName = domain.getFullyQualifiedDomainName();
+    for (Key<HostResource> nameserverKey : domain.getNameservers()) {
+      HostResource nameserver = nameserversAtExportTime.get(nameserverKey);
+      if (nameserver == null) {
+        continue;  // The nameserver was deleted (or not created) at the export time.
+      }
+      out.append(domainName)
+          .append(NS_TOKENS)
+          .append(nameserver.getFullyQualifiedHostName())
+          .append(".\n");
     }
     for (DelegationSignerData dsData : domain.getDsData()) {
-      result.append(String.format(
-          DS_FORMAT,
-          domain.getFullyQualifiedDomainName(),
-          TTL_DS,
-          dsData.getKeyTag(),
-          dsData.getAlgorithm(),
-          dsData.getDigestType(),
-          base16().encode((dsData.getDigest()))));
+      out.append(domainName)
+          .append(DS_TOKENS)
+          .append(dsData.getKeyTag())
+          .append(' ')
+          .append(dsData.getAlgorithm())
+          .append(' ')
+          .append(dsData.getDigestType())
+          .append(' ')
+          .append(base16().encode(dsData.getDigest()))
+          .append('\n');
     }
-    return result.toString();
   }
 
   /**
-   * Generates DNS records for a domain (A and AAAA).
+   * Writes the DNS records for a host (A and AAAA) to a buffer.
    *
    * <p>These look like this:
    * {@code
@@ -303,18 +388,14 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
    *   ns.foo.tld 3600 IN AAAA 0:0:0:0:0:0:0:1
    * }
    */
-  private static String hostStanza(HostResource host) {
-    StringBuilder result = new StringBuilder();
+  private static void appendHostStanza(StringBuilder out, HostResource host) {
+    String hostName = host.getFullyQualifiedHostName();
     for (InetAddress addr : host.getInetAddresses()) {
-      // must be either IPv4 or IPv6
-      String rrSetClass = (addr instanceof Inet4Address) ? "A" : "AAAA";
-      result.append(String.format(
-          A_FORMAT,
-          host.getFullyQualifiedHostName(),
-          TTL_A,
-          rrSetClass,
-          addr.getHostAddress()));
+      out.append(hostName)
+          // must be either IPv4 or IPv6
+          .append((addr instanceof Inet4Address) ? A_TOKENS : AAAA_TOKENS)
+          .append(addr.getHostAddress())
+          .append('\n');
     }
-    return result.toString();
   }
 }
@@ -0,0 +1,139 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.UnsignedBytes;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Immutable matcher that checks an address against a whole list of {@link CidrAddressBlock}s.
+ *
+ * <p>The blocks are compiled into sorted, non-overlapping address intervals, one list per address
+ * family, so a check is a single binary search no matter how many blocks there are. It gives the
+ * same answer as calling {@link CidrAddressBlock#contains(InetAddress)} on each block in turn.
+ */
+public final class CidrAddressBlockMatcher {
+
+  private static final Comparator<byte[]> ADDRESS_ORDER =
+      UnsignedBytes.lexicographicalComparator();
+
+  private static final CidrAddressBlockMatcher EMPTY = new CidrAddressBlockMatcher(
+      ImmutableList.<CidrAddressBlock>of(), new byte[0][], new byte[0][]);
+
+  private final ImmutableList<CidrAddressBlock> blocks;
+
+  /** Lowest addresses of the intervals, sorted first by length (so by family) and then value. */
+  private final byte[][] lows;
+
+  /** Highest addresses of the intervals, in the same order as {@link #lows}. */
+  private final byte[][] highs;
+
+  private CidrAddressBlockMatcher(
+      ImmutableList<CidrAddressBlock> blocks, byte[][] lows, byte[][] highs) {
+    this.blocks = blocks;
+    this.lows = lows;
+    this.highs = highs;
+  }
+
+  /** Compiles a matcher for the given blocks. */
+  public static CidrAddressBlockMatcher create(Iterable<CidrAddressBlock> blocks) {
+    ImmutableList<CidrAddressBlock> blockList = ImmutableList.copyOf(blocks);
+    if (blockList.isEmpty()) {
+      return EMPTY;
+    }
+    List<byte[][]> intervals = new ArrayList<>(blockList.size());
+    for (CidrAddressBlock block : blockList) {
+      intervals.add(new byte[][] {
+          block.getInetAddress().getAddress(), block.getAllOnesAddress().getAddress()});
+    }
+    // Sort by low address, and blocks with the same low address from widest to narrowest.
+    Collections.sort(intervals, new Comparator<byte[][]>() {
+      @Override
+      public int compare(byte[][] left, byte[][] right) {
+        int result = compareAddresses(left[0], right[0]);
+        return result != 0 ? result : compareAddresses(right[1], left[1]);
+      }});
+    // Merge each interval into the previous one if they overlap, extending it if need be.
+    List<byte[][]> merged = new ArrayList<>(intervals.size());
+    for (byte[][] interval : intervals) {
+      byte[][] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+      if (last == null
+          || last[1].length != interval[0].length
+          || compareAddresses(last[1], interval[0]) < 0) {
+        merged.add(interval);
+      } else if (compareAddresses(last[1], interval[1]) < 0) {
+        last[1] = interval[1];
+      }
+    }
+    byte[][] lows = new byte[merged.size()][];
+    byte[][] highs = new byte[merged.size()][];
+    for (int i = 0; i < merged.size(); i++) {
+      lows[i] = merged.get(i)[0];
+      highs[i] = merged.get(i)[1];
+    }
+    return new CidrAddressBlockMatcher(blockList, lows, highs);
+  }
+
+  /** Returns the blocks that this matcher was compiled from. */
+  public ImmutableList<CidrAddressBlock> getBlocks() {
+    return blocks;
+  }
+
+  public boolean isEmpty() {
+    return blocks.isEmpty();
+  }
+
+  /** Returns {@code true} if any of the blocks contains the given address. */
+  public boolean contains(@Nullable InetAddress ipAddr) {
+    if (ipAddr == null || lows.length == 0) {
+      return false;
+    }
+    byte[] address = ipAddr.getAddress();
+    // Find the last interval that starts at or before the address.
+    int low = 0;
+    int high = lows.length - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (compareAddresses(lows[mid], address) <= 0) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found >= 0
+        && highs[found].length == address.length
+        && compareAddresses(address, highs[found]) <= 0;
+  }
+
+  /** Orders IPv4 addresses before IPv6 ones, and addresses of the same family by value. */
+  private static int compareAddresses(byte[] left, byte[] right) {
+    return left.length != right.length
+        ? left.length - right.length
+        : ADDRESS_ORDER.compare(left, right);
+  }
+
+  @Override
+  public String toString() {
+    return blocks.toString();
+  }
+}
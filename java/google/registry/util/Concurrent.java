@@ -16,15 +16,27 @@ package google.registry.util;
 
 import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static google.registry.monitoring.metrics.EventMetric.DEFAULT_FITTER;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.Environment;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.common.util.concurrent.Uninterruptibles;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -32,14 +44,69 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
-/** Utilities for multithreaded operations in App Engine requests. */
+/**
+ * Utilities for multithreaded operations in App Engine requests.
+ *
+ * <p>Threads that work on App Engine APIs can only come from the request thread factory, and can't
+ * outlive the request that started them, so each call gets its own pool. The calls on an instance
+ * do share a limit on how many items may be worked on at once, though, so that a burst of
+ * concurrent requests can't multiply the thread count without bound.
+ */
 public final class Concurrent {
 
   /** Maximum number of threads per pool. The actual GAE per-request limit is 50. */
   private static final int MAX_THREADS = 10;
 
+  /** Maximum number of items that may be transformed at once on an instance, across all calls. */
+  @VisibleForTesting
+  static final int MAX_INSTANCE_THREADS = 40;
+
+  /** How long before the request deadline any unfinished items are cancelled. */
+  private static final long DEADLINE_MARGIN_MILLIS = 5000;
+
+  private static final Semaphore instancePermits = new Semaphore(MAX_INSTANCE_THREADS, true);
+
+  /** Number of items that have been submitted but haven't started running yet. */
+  private static final AtomicLong queuedItems = new AtomicLong();
+
+  /** Whether the current thread is transforming an item, and so already holds a permit. */
+  private static final ThreadLocal<Boolean> isTransformThread = new ThreadLocal<Boolean>() {
+    @Override
+    protected Boolean initialValue() {
+      return false;
+    }};
+
+  private static final EventMetric itemLatency =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/concurrent/transform/item_latency",
+              "Time spent on items by Concurrent.transform",
+              "milliseconds",
+              ImmutableSet.of(
+                  LabelDescriptor.create(
+                      "stage", "Whether the item was waiting for a thread, or running.")),
+              DEFAULT_FITTER);
+
+  static {
+    MetricRegistryImpl.getDefault()
+        .newGauge(
+            "/concurrent/transform/queued_items",
+            "Count of items waiting for a thread in Concurrent.transform",
+            "count",
+            ImmutableSet.<LabelDescriptor>of(),
+            new Supplier<ImmutableMap<ImmutableList<String>, Long>>() {
+              @Override
+              public ImmutableMap<ImmutableList<String>, Long> get() {
+                return ImmutableMap.of(ImmutableList.<String>of(), queuedItems.get());
+              }},
+            Long.class);
+  }
+
   /**
    * Runs transform with the default number of threads.
    *
@@ -52,10 +119,15 @@ public final class Concurrent {
   /**
    * Processes {@code items} in parallel using {@code funk}, with the specified number of threads.
    *
+   * <p>Items beyond the instance-wide limit wait for another call's items to finish, except when
+   * called from within {@code funk} itself, since that could otherwise deadlock. Any items still
+   * unfinished shortly before the request deadline are cancelled.
+   *
    * <p><b>Note:</b> Spawned threads will inherit the same namespace.
    *
    * @throws UncheckedExecutionException to wrap the exception thrown by {@code funk}. This will
-   *     only contain the exception information for the first exception thrown.
+   *     only contain the exception information for the first exception thrown. On cancellation it
+   *     wraps a {@link TimeoutException}.
    * @return transformed {@code items} in the same order.
    */
   public static <A, B> ImmutableList<B> transform(
@@ -73,29 +145,62 @@ public final class Concurrent {
       // For more info see: http://stackoverflow.com/questions/15976406
       return FluentIterable.from(items).transform(funk).toList();
     }
+    final boolean holdsPermit = isTransformThread.get();
     ExecutorService executor = newFixedThreadPool(threadCount, threadFactory);
     try {
       List<Future<B>> futures = new ArrayList<>();
       for (final A item : items) {
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        queuedItems.incrementAndGet();
         futures.add(executor.submit(new Callable<B>() {
           @Override
-          public B call() {
-            return funk.apply(item);
+          public B call() throws InterruptedException {
+            try {
+              if (!holdsPermit) {
+                instancePermits.acquire();
+              }
+            } finally {
+              queuedItems.decrementAndGet();
+            }
+            itemLatency.record(stopwatch.elapsed(MILLISECONDS), "queued");
+            stopwatch.reset().start();
+            isTransformThread.set(true);
+            try {
+              return funk.apply(item);
+            } finally {
+              if (!holdsPermit) {
+                instancePermits.release();
+              }
+              itemLatency.record(stopwatch.elapsed(MILLISECONDS), "running");
+            }
           }}));
       }
       ImmutableList.Builder<B> results = new ImmutableList.Builder<>();
       for (Future<B> future : futures) {
         try {
-          results.add(Uninterruptibles.getUninterruptibly(future));
+          results.add(
+              Uninterruptibles.getUninterruptibly(future, getTimeLeftMillis(), MILLISECONDS));
         } catch (ExecutionException e) {
           throw new UncheckedExecutionException(e.getCause());
+        } catch (TimeoutException e) {
+          throw new UncheckedExecutionException(new TimeoutException(
+              "Cancelled unfinished items as the request deadline approached"));
         }
       }
       return results.build();
     } finally {
-      executor.shutdownNow();
+      // Items that never started won't get to count themselves off the queue.
+      queuedItems.addAndGet(-executor.shutdownNow().size());
     }
   }
 
+  /** Returns how much longer items may run for in the current request. */
+  private static long getTimeLeftMillis() {
+    Environment environment = ApiProxy.getCurrentEnvironment();
+    return (environment == null)
+        ? Long.MAX_VALUE
+        : max(0, environment.getRemainingMillis() - DEADLINE_MARGIN_MILLIS);
+  }
+
   private Concurrent() {}
 }
@@ -22,7 +22,6 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
-import com.google.common.net.InternetDomainName;
 import google.registry.model.host.HostResource;
 import google.registry.model.registry.Registries;
 import java.net.InetAddress;
@@ -52,9 +51,7 @@ final class NameserverLookupByIpCommand implements WhoisCommand {
         .filter(new Predicate<HostResource>() {
           @Override
           public boolean apply(final HostResource host) {
-            return Registries
-                .findTldForName(InternetDomainName.from(host.getFullyQualifiedHostName()))
-                .isPresent();
+            return Registries.findTldForName(host.getFullyQualifiedHostName()).isPresent();
           }})
         .toList();
     if (hosts.isEmpty()) {
@@ -20,6 +20,7 @@ import static google.registry.model.ofy.ObjectifyService.ofy;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.net.InetAddresses;
+import google.registry.model.ProjectionMemo;
 import google.registry.model.host.HostResource;
 import google.registry.model.registrar.Registrar;
 import java.net.InetAddress;
@@ -45,12 +46,13 @@ final class NameserverWhoisResponse extends WhoisResponseImpl {
   @Override
   public WhoisResponseResults getResponse(boolean preferUnicode, String disclaimer) {
     BasicEmitter emitter = new BasicEmitter();
+    ProjectionMemo projectionMemo = new ProjectionMemo();
     for (int i = 0; i < hosts.size(); i++) {
       HostResource host = hosts.get(i);
       String clientId =
           host.isSubordinate()
-              ? ofy().load().key(host.getSuperordinateDomain()).now()
-                  .cloneProjectedAtTime(getTimestamp())
+              ? projectionMemo.cloneProjectedAtTime(
+                      ofy().load().key(host.getSuperordinateDomain()).now(), getTimestamp())
                   .getCurrentSponsorClientId()
               : host.getPersistedCurrentSponsorClientId();
       Registrar registrar = getRegistrar(clientId);
@@ -195,7 +195,7 @@ abstract class WhoisResponseImpl implements WhoisResponse {
   /** Returns the registrar for this client id, or an empty registrar with null values. */
   static Registrar getRegistrar(@Nullable String clientId) {
     return Optional
-        .fromNullable(clientId == null ? null : Registrar.loadByClientId(clientId))
+        .fromNullable(clientId == null ? null : Registrar.loadByClientIdCached(clientId))
         .or(EMPTY_REGISTRAR);
   }
 }
@@ -18,16 +18,20 @@ import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.testing.DatastoreHelper.persistActiveDomainApplication;
 import static google.registry.testing.DatastoreHelper.persistDeletedDomain;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.DatastoreHelper.persistSimpleResource;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.model.ImmutableObject;
 import google.registry.model.billing.BillingEvent;
 import google.registry.model.billing.BillingEvent.Reason;
+import google.registry.model.domain.DomainApplication;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
@@ -37,7 +41,9 @@ import google.registry.model.registry.Registry.TldType;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeResponse;
+import google.registry.testing.InjectRule;
 import google.registry.testing.mapreduce.MapreduceTestCase;
+import java.util.List;
 import java.util.Set;
 import org.joda.money.Money;
 import org.joda.time.DateTime;
@@ -56,6 +62,9 @@ public class DeleteProberDataActionTest extends MapreduceTestCase<DeleteProberDa
   @Rule
   public final ExceptionRule thrown = new ExceptionRule();
 
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
   @Before
   public void init() {
     // Entities in these two should not be touched.
@@ -115,6 +124,85 @@ public class DeleteProberDataActionTest extends MapreduceTestCase<DeleteProberDa
     assertNotDeleted(oaEntities);
   }
 
+  @Test
+  public void testSuccess_dryRun_runsWithoutDeletingData() throws Exception {
+    Set<ImmutableObject> tldEntities = persistLotsOfDomains("tld");
+    Set<ImmutableObject> oaEntities = persistLotsOfDomains("oa-canary.test");
+    action.isDryRun = true;
+    runMapreduce();
+    assertNotDeleted(tldEntities);
+    assertNotDeleted(oaEntities);
+  }
+
+  @Test
+  public void testSuccess_doesntDeleteDomainApplications() throws Exception {
+    DomainApplication application = persistActiveDomainApplication("application.ib-any.test");
+    Set<ImmutableObject> ibEntities = persistLotsOfDomains("ib-any.test");
+    runMapreduce();
+    assertDeleted(ibEntities);
+    assertNotDeleted(ImmutableSet.<ImmutableObject>of(application));
+  }
+
+  @Test
+  public void testSuccess_noProberTlds() throws Exception {
+    persistResource(Registry.get("ib-any.test").asBuilder().setTldType(TldType.REAL).build());
+    persistResource(Registry.get("oa-canary.test").asBuilder().setTldType(TldType.REAL).build());
+    Set<ImmutableObject> ibEntities = persistLotsOfDomains("ib-any.test");
+    runMapreduce();
+    assertNotDeleted(ibEntities);
+  }
+
+  @Test
+  public void testSuccess_batchFailsPartway_nextRunFinishesDeletion() throws Exception {
+    ImmutableList.Builder<Set<ImmutableObject>> domainEntitiesBuilder =
+        new ImmutableList.Builder<>();
+    for (int i = 0; i < 20; i++) {
+      domainEntitiesBuilder.add(
+          persistDomainAndDescendants(String.format("domain%d.ib-any.test", i)));
+    }
+    ImmutableList<Set<ImmutableObject>> domainEntities = domainEntitiesBuilder.build();
+    // Delete a couple of entities at a time, and fail the second delete, which is always one of
+    // the descendants of the first chunk of domains.
+    inject.setStaticField(DeleteProberDataAction.class, "maxKeysPerDelete", 2);
+    inject.setStaticField(
+        DeleteProberDataAction.class,
+        "batchDeleter",
+        new Function<List<Key<?>>, Void>() {
+          private int deletes;
+
+          @Override
+          public Void apply(List<Key<?>> batch) {
+            if (++deletes == 2) {
+              throw new RuntimeException("Delete failed");
+            }
+            ofy().deleteWithoutBackup().keys(batch).now();
+            return null;
+          }});
+    runMapreduce();
+    ofy().clearSessionCache();
+    int domainsLeft = 0;
+    for (Set<ImmutableObject> entities : domainEntities) {
+      if (ofy().load().entity(entities.iterator().next()).now() == null) {
+        assertDeleted(entities);
+        continue;
+      }
+      // A domain that is left behind still has its indexes, which are deleted after all of its
+      // descendants, so the next run can find it and finish the job.
+      for (ImmutableObject entity : entities) {
+        if (entity instanceof ForeignKeyIndex || entity instanceof EppResourceIndex) {
+          assertThat(ofy().load().entity(entity).now()).isNotNull();
+        }
+      }
+      domainsLeft++;
+    }
+    assertThat(domainsLeft).isGreaterThan(0);
+    runMapreduce();
+    ofy().clearSessionCache();
+    for (Set<ImmutableObject> entities : domainEntities) {
+      assertDeleted(entities);
+    }
+  }
+
   /**
    * Persists and returns a domain and a descendant history entry, billing event, and poll message,
    * along with the ForeignKeyIndex and EppResourceIndex.
@@ -16,6 +16,7 @@ package google.registry.batch;
 
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.common.Cursor.CursorType.RECURRING_BILLING;
+import static google.registry.model.common.Cursor.CursorType.RECURRING_BILLING_BATCHED;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.assertBillingEvents;
 import static google.registry.testing.DatastoreHelper.assertBillingEventsForResource;
@@ -34,6 +35,7 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.VoidWork;
+import google.registry.batch.ExpandRecurringBillingEventsAction.ExpandRecurringBillingEventsMapper;
 import google.registry.model.billing.BillingEvent;
 import google.registry.model.billing.BillingEvent.Flag;
 import google.registry.model.billing.BillingEvent.Reason;
@@ -51,6 +53,7 @@ import java.util.ArrayList;
 import java.util.List;
 import org.joda.money.Money;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -105,6 +108,14 @@ public class ExpandRecurringBillingEventsActionTest
       }});
   }
 
+  void saveBatchedCursor(final DateTime switchTime) throws Exception {
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().save().entity(Cursor.createGlobal(RECURRING_BILLING_BATCHED, switchTime));
+      }});
+  }
+
   void runMapreduce() throws Exception {
     action.response = new FakeResponse();
     action.run();
@@ -712,6 +723,143 @@ public class ExpandRecurringBillingEventsActionTest
     assertCursorAt(testTime);
   }
 
+  @Test
+  public void testSuccess_batched_expandSingleEvent() throws Exception {
+    persistResource(recurring);
+    action.batched = true;
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    runMapreduce();
+    BillingEvent.OneTime expected = new BillingEvent.OneTime.Builder()
+        // Default renew grace period of 45 days.
+        .setBillingTime(DateTime.parse("2000-02-19T00:00:00Z"))
+        .setClientId("TheRegistrar")
+        .setCost(Money.of(USD, 11))
+        .setEventTime(DateTime.parse("2000-01-05T00:00:00Z"))
+        .setFlags(ImmutableSet.of(Flag.AUTO_RENEW, Flag.SYNTHETIC))
+        .setParent(historyEntry)
+        .setPeriodYears(1)
+        .setReason(Reason.RENEW)
+        .setSyntheticCreationTime(beginningOfTest)
+        .setCancellationMatchingBillingEvent(Key.create(recurring))
+        .setTargetId(domain.getFullyQualifiedDomainName())
+        .build();
+    assertBillingEventsForResource(domain, expected, recurring);
+    assertThat(Iterables.getOnlyElement(ofy().load().type(BillingEvent.OneTime.class)).getId())
+        .isEqualTo(ExpandRecurringBillingEventsMapper.getSyntheticOneTimeId(
+            recurring, DateTime.parse("2000-02-19T00:00:00Z")));
+    assertCursorAt(beginningOfTest);
+  }
+
+  @Test
+  public void testSuccess_batched_idempotentForDuplicateRuns() throws Exception {
+    persistResource(recurring);
+    action.batched = true;
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    runMapreduce();
+    BillingEvent.OneTime persisted =
+        Iterables.getOnlyElement(ofy().load().type(BillingEvent.OneTime.class));
+    action.response = new FakeResponse();
+    runMapreduce();
+    // The event from the first run is neither duplicated nor overwritten.
+    assertThat(ofy().load().type(BillingEvent.OneTime.class)).containsExactly(persisted);
+  }
+
+  @Test
+  public void testSuccess_batched_expandManyDomains() throws Exception {
+    // Enough domains to need more than one transaction to save their events.
+    List<BillingEvent.Recurring> recurrings = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      DomainResource otherDomain = persistActiveDomain(String.format("example%d.tld", i));
+      recurrings.add(persistResource(recurring.asBuilder()
+          .setId(100L + i)
+          .setParent(persistResource(new HistoryEntry.Builder().setParent(otherDomain).build()))
+          .setTargetId(otherDomain.getFullyQualifiedDomainName())
+          .build()));
+    }
+    action.batched = true;
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    runMapreduce();
+    assertThat(ofy().load().type(BillingEvent.OneTime.class).count()).isEqualTo(30);
+    for (BillingEvent.Recurring expanded : recurrings) {
+      BillingEvent.OneTime oneTime = Iterables.getOnlyElement(ofy().load()
+          .type(BillingEvent.OneTime.class)
+          .ancestor(expanded.getParentKey()));
+      assertThat(oneTime.getCancellationMatchingBillingEvent()).isEqualTo(Key.create(expanded));
+      assertThat(oneTime.getTargetId()).isEqualTo(expanded.getTargetId());
+    }
+    assertCursorAt(beginningOfTest);
+  }
+
+  @Test
+  public void testSuccess_batched_dryRun() throws Exception {
+    persistResource(recurring);
+    action.batched = true;
+    action.isDryRun = true;
+    saveCursor(START_OF_TIME); // Need a saved cursor to verify that it didn't move.
+    runMapreduce();
+    assertBillingEventsForResource(domain, recurring);
+    assertCursorAt(START_OF_TIME); // Cursor doesn't move on a dry run.
+    assertThat(ofy().load().key(Cursor.createGlobalKey(RECURRING_BILLING_BATCHED)).now())
+        .isNull();
+  }
+
+  @Test
+  public void testSuccess_batched_setsSwitchCursor() throws Exception {
+    persistResource(recurring);
+    action.batched = true;
+    saveCursor(START_OF_TIME);
+    runMapreduce();
+    assertThat(ofy().load().key(Cursor.createGlobalKey(RECURRING_BILLING_BATCHED)).now()
+            .getCursorTime())
+        .isEqualTo(beginningOfTest);
+  }
+
+  @Test
+  public void testSuccess_batched_skipsEventsSavedByUnbatchedRun() throws Exception {
+    persistResource(recurring);
+    // An unbatched run over the same range saves the event with an allocated id.
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    runMapreduce();
+    BillingEvent.OneTime persisted =
+        Iterables.getOnlyElement(ofy().load().type(BillingEvent.OneTime.class));
+    action.batched = true;
+    runMapreduce();
+    assertThat(ofy().load().type(BillingEvent.OneTime.class)).containsExactly(persisted);
+  }
+
+  @Test
+  public void testSuccess_batched_skipsEventsSavedByUnbatchedRunBeforeSwitch() throws Exception {
+    persistResource(recurring);
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    runMapreduce();
+    BillingEvent.OneTime persisted =
+        Iterables.getOnlyElement(ofy().load().type(BillingEvent.OneTime.class));
+    // The switch to batched mode happened later, but this run covers billing times before it.
+    action.batched = true;
+    saveBatchedCursor(clock.nowUtc());
+    clock.advanceBy(Duration.standardDays(1));
+    runMapreduce();
+    assertThat(ofy().load().type(BillingEvent.OneTime.class)).containsExactly(persisted);
+  }
+
+  @Test
+  public void testFailure_unbatchedAfterSwitchToBatched() throws Exception {
+    saveBatchedCursor(beginningOfTest.minusDays(1));
+    thrown.expect(IllegalArgumentException.class, "unbatched mode can no longer be used");
+    runMapreduce();
+  }
+
+  @Test
+  public void testFailure_batched_mapperException_doesNotMoveCursor() throws Exception {
+    saveCursor(START_OF_TIME); // Need a saved cursor to verify that it didn't move.
+    // Set target to a TLD that doesn't exist.
+    recurring = persistResource(recurring.asBuilder().setTargetId("domain.junk").build());
+    action.batched = true;
+    runMapreduce();
+    assertBillingEvents(recurring); // only the bogus one in Datastore
+    assertCursorAt(START_OF_TIME); // Cursor doesn't move on a failure.
+  }
+
   @Test
   public void testFailure_cursorAfterExecutionTime() throws Exception {
     action.cursorTimeParam = Optional.of(clock.nowUtc().plusYears(1));
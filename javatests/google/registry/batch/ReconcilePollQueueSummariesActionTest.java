@@ -0,0 +1,157 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.poll.PollQueueSummary.LOOKAHEAD;
+import static google.registry.testing.DatastoreHelper.createHistoryEntryForEppResource;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+
+import com.google.common.collect.ImmutableList;
+import google.registry.model.ofy.Ofy;
+import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollQueueSummary;
+import google.registry.model.reporting.HistoryEntry;
+import google.registry.testing.FakeClock;
+import google.registry.testing.FakeResponse;
+import google.registry.testing.InjectRule;
+import google.registry.testing.mapreduce.MapreduceTestCase;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ReconcilePollQueueSummariesAction}. */
+@RunWith(JUnit4.class)
+public class ReconcilePollQueueSummariesActionTest
+    extends MapreduceTestCase<ReconcilePollQueueSummariesAction> {
+
+  private static final DateTime CHECKPOINT = DateTime.parse("2017-01-01T00:00:00Z");
+
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2017-01-10T00:00:00Z"));
+  private HistoryEntry historyEntry;
+
+  @Before
+  public void init() {
+    inject.setStaticField(Ofy.class, "clock", clock);
+    createTld("tld");
+    historyEntry = createHistoryEntryForEppResource(persistActiveDomain("example.tld"));
+    action = new ReconcilePollQueueSummariesAction();
+    action.clock = clock;
+    action.mrRunner = makeDefaultRunner();
+    action.response = new FakeResponse();
+  }
+
+  private void persistPollMessage(String clientId, DateTime eventTime) {
+    persistResource(new PollMessage.OneTime.Builder()
+        .setClientId(clientId)
+        .setEventTime(eventTime)
+        .setMsg("Some poll message.")
+        .setParent(historyEntry)
+        .build());
+  }
+
+  private void runMapreduce() throws Exception {
+    action.run();
+    executeTasksUntilEmpty("mapreduce");
+    ofy().clearSessionCache();
+  }
+
+  @Test
+  public void testSuccess_advancesSummariesOfAllRegistrars() throws Exception {
+    runMapreduce();
+    for (String clientId : ImmutableList.of("TheRegistrar", "NewRegistrar")) {
+      PollQueueSummary summary = PollQueueSummary.load(clientId);
+      assertThat(summary.getCountedThrough()).isEqualTo(clock.nowUtc());
+      assertThat(summary.getTrackedThrough()).isEqualTo(clock.nowUtc().plus(LOOKAHEAD));
+      assertThat(summary.getDueCount()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void testSuccess_repairsDriftedSummary() throws Exception {
+    persistPollMessage("TheRegistrar", CHECKPOINT.minusDays(1));
+    persistPollMessage("TheRegistrar", CHECKPOINT);
+    persistPollMessage("TheRegistrar", CHECKPOINT.plusDays(1));
+    persistResource(
+        PollQueueSummary.create("TheRegistrar", CHECKPOINT, 7, CHECKPOINT.plus(LOOKAHEAD)));
+    runMapreduce();
+    // The two messages through the checkpoint are recounted, and the later one is picked up when
+    // the summary is advanced.
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.getDueCount()).isEqualTo(3);
+    assertThat(summary.getCountedThrough()).isEqualTo(clock.nowUtc());
+  }
+
+  @Test
+  public void testSuccess_leavesRecentlyChangedSummaryUnrepaired() throws Exception {
+    persistResource(
+        PollQueueSummary.create("TheRegistrar", CHECKPOINT, 7, CHECKPOINT.plus(LOOKAHEAD)));
+    // Recording this message marks the summary as just changed, so its count can't be checked.
+    persistPollMessage("TheRegistrar", clock.nowUtc());
+    runMapreduce();
+    assertThat(PollQueueSummary.load("TheRegistrar").getDueCount()).isEqualTo(8);
+  }
+
+  @Test
+  public void testSuccess_leavesAccurateSummaryAlone() throws Exception {
+    persistPollMessage("NewRegistrar", CHECKPOINT.minusDays(1));
+    persistResource(PollQueueSummary.create(
+        "NewRegistrar", clock.nowUtc(), 1, clock.nowUtc().plus(LOOKAHEAD)));
+    PollQueueSummary summary = PollQueueSummary.load("NewRegistrar");
+    runMapreduce();
+    assertThat(PollQueueSummary.load("NewRegistrar")).isEqualTo(summary);
+  }
+
+  @Test
+  public void testSuccess_picksUpMessagesWrittenFarAhead() throws Exception {
+    DateTime eventTime = clock.nowUtc().plusHours(3);
+    clock.setTo(eventTime.minusDays(1));
+    persistPollMessage("TheRegistrar", eventTime);
+    clock.setTo(eventTime.minusHours(3));
+    assertThat(PollQueueSummary.load("TheRegistrar").countDue(eventTime)).isEqualTo(0);
+    runMapreduce();
+    assertThat(PollQueueSummary.load("TheRegistrar").countDue(eventTime)).isEqualTo(1);
+  }
+
+  @Test
+  public void testSuccess_resetsOverflowedSummary_thenAdvancesItOnNextRun() throws Exception {
+    inject.setStaticField(PollQueueSummary.class, "maxTrackedMessages", 2);
+    persistPollMessage("TheRegistrar", CHECKPOINT.minusDays(1));
+    persistPollMessage("TheRegistrar", CHECKPOINT);
+    persistPollMessage("TheRegistrar", CHECKPOINT.plusDays(1));
+    assertThat(PollQueueSummary.load("TheRegistrar").isOverflowed()).isTrue();
+    runMapreduce();
+    assertThat(PollQueueSummary.load("TheRegistrar"))
+        .isEqualTo(PollQueueSummary.create("TheRegistrar", START_OF_TIME, 0, START_OF_TIME));
+    clock.advanceBy(Duration.standardHours(1));
+    runMapreduce();
+    // The messages are all due by now, so they are folded into the count rather than tracked.
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.isOverflowed()).isFalse();
+    assertThat(summary.getDueCount()).isEqualTo(3);
+    assertThat(summary.isCompleteAt(clock.nowUtc())).isTrue();
+  }
+}
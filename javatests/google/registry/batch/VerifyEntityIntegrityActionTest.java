@@ -14,6 +14,7 @@
 
 package google.registry.batch;
 
+import static com.google.appengine.tools.pipeline.PipelineServiceFactory.newPipelineService;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.deleteResource;
@@ -37,12 +38,15 @@ import com.google.api.services.bigquery.Bigquery;
 import com.google.api.services.bigquery.model.TableDataInsertAllRequest;
 import com.google.api.services.bigquery.model.TableDataInsertAllRequest.Rows;
 import com.google.api.services.bigquery.model.TableDataInsertAllResponse;
+import com.google.appengine.tools.mapreduce.MapReduceResult;
 import com.google.common.base.Optional;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
 import com.googlecode.objectify.Key;
+import google.registry.batch.VerifyEntityIntegrityAction.VerifyEntityIntegrityMapper;
 import google.registry.bigquery.BigqueryFactory;
 import google.registry.mapreduce.MapreduceRunner;
 import google.registry.model.contact.ContactResource;
@@ -53,6 +57,8 @@ import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyContactIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyDomainIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyHostIndex;
+import google.registry.request.HttpException.BadRequestException;
+import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
 import google.registry.testing.FakeSleeper;
@@ -78,6 +84,9 @@ public class VerifyEntityIntegrityActionTest
   @Rule
   public final InjectRule inject = new InjectRule();
 
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
   private VerifyEntityIntegrityStreamer integrity;
   private ArgumentCaptor<TableDataInsertAllRequest> rowsCaptor;
   private final DateTime now = DateTime.parse("2012-01-02T03:04:05Z");
@@ -104,6 +113,7 @@ public class VerifyEntityIntegrityActionTest
     action = new VerifyEntityIntegrityAction();
     action.mrRunner = new MapreduceRunner(Optional.of(2), Optional.of(2));
     action.response = new FakeResponse();
+    action.samplePercent = Optional.absent();
     BatchComponent component = mock(BatchComponent.class);
     inject.setStaticField(VerifyEntityIntegrityAction.class, "component", component);
     integrity =
@@ -129,6 +139,15 @@ public class VerifyEntityIntegrityActionTest
     executeTasksUntilEmpty("mapreduce");
   }
 
+  /** Returns the value of a counter of the mapreduce that was run. */
+  private long getCounter(String name) throws Exception {
+    String payload = ((FakeResponse) action.response).getPayload();
+    String jobId = payload.substring(payload.indexOf("root=") + "root=".length());
+    MapReduceResult<?> result =
+        (MapReduceResult<?>) newPipelineService().getJobInfo(jobId).getOutput();
+    return result.getCounters().getCounter(name).getValue();
+  }
+
   @Test
   public void test_singleDomain_noBadInvariants() throws Exception {
     persistActiveDomain("ninetails.tld");
@@ -177,6 +196,52 @@ public class VerifyEntityIntegrityActionTest
     verifyZeroInteractions(bigquery);
   }
 
+  @Test
+  public void test_lotsOfData_sampled_noBadInvariants() throws Exception {
+    // Resources and their indexes are sampled consistently, so no spurious errors are reported.
+    ContactResource contact = persistActiveContact("longbottom");
+    for (int i = 0; i < 20; i++) {
+      persistResource(newDomainResource(String.format("domain%d.tld", i), contact));
+      persistActiveHost(String.format("ns%d.example.net", i));
+    }
+    action.samplePercent = Optional.of(50);
+    runMapreduce();
+    verifyZeroInteractions(bigquery);
+    // Each host that isn't sampled skips emitting both its resource and its foreign key index.
+    int unsampledHosts = 0;
+    for (int i = 0; i < 20; i++) {
+      if (!VerifyEntityIntegrityMapper.isSampled(String.format("HOST:ns%d.example.net", i), 50)) {
+        unsampledHosts++;
+      }
+    }
+    assertThat(unsampledHosts).isIn(Range.open(0, 20));
+    assertThat(getCounter("skipped by sampling HOST")).isEqualTo(2L * unsampledHosts);
+    assertThat(getCounter("host resources")).isEqualTo(20L);
+  }
+
+  @Test
+  public void test_invalidSamplePercent() throws Exception {
+    action.samplePercent = Optional.of(0);
+    thrown.expect(BadRequestException.class, "Sample percent must be between 1 and 100: 0");
+    action.run();
+  }
+
+  @Test
+  public void test_manyErrors_streamedInBatches() throws Exception {
+    ImmutableSet.Builder<Key<HostResource>> missingHosts = new ImmutableSet.Builder<>();
+    for (int i = 0; i < 600; i++) {
+      missingHosts.add(Key.create(HostResource.class, String.format("%d-ROID", i)));
+    }
+    persistResource(
+        newDomainResource("blah.tld").asBuilder().setNameservers(missingHosts.build()).build());
+    runMapreduce();
+    ImmutableList.Builder<Integer> requestSizes = new ImmutableList.Builder<>();
+    for (TableDataInsertAllRequest req : rowsCaptor.getAllValues()) {
+      requestSizes.add(req.getRows().size());
+    }
+    assertThat(requestSizes.build()).containsExactly(500, 100).inOrder();
+  }
+
   @Test
   public void test_missingFki() throws Exception {
     persistActiveDomain("ninetails.tld");
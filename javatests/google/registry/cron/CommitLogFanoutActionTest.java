@@ -22,11 +22,14 @@ import com.google.common.base.Optional;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
+import google.registry.testing.FakeClock;
 import google.registry.testing.TaskQueueHelper.TaskMatcher;
 import google.registry.util.Retrier;
 import google.registry.util.TaskEnqueuer;
 import java.util.ArrayList;
 import java.util.List;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -55,18 +58,47 @@ public class CommitLogFanoutActionTest {
           "</queue-entries>"))
       .build();
 
-  @Test
-  public void testSuccess() throws Exception {
+  private final FakeClock clock = new FakeClock(DateTime.parse("2000-01-01T12:34:56Z"));
+
+  private void runAction() {
     CommitLogFanoutAction action = new CommitLogFanoutAction();
+    action.clock = clock;
     action.taskEnqueuer = new TaskEnqueuer(new Retrier(null, 1));
     action.endpoint = ENDPOINT;
     action.queue = QUEUE;
     action.jitterSeconds = Optional.absent();
     action.run();
+  }
+
+  private static List<TaskMatcher> getBucketTaskMatchers() {
     List<TaskMatcher> matchers = new ArrayList<>();
     for (int bucketId : CommitLogBucket.getBucketIds()) {
       matchers.add(new TaskMatcher().url(ENDPOINT).param(BUCKET_PARAM, Integer.toString(bucketId)));
     }
+    return matchers;
+  }
+
+  @Test
+  public void testSuccess() throws Exception {
+    runAction();
+    assertTasksEnqueued(QUEUE, getBucketTaskMatchers());
+  }
+
+  @Test
+  public void testSuccess_runTwiceInSameMinute_enqueuesTasksOnce() throws Exception {
+    runAction();
+    clock.advanceBy(Duration.standardSeconds(3));
+    runAction();
+    assertTasksEnqueued(QUEUE, getBucketTaskMatchers());
+  }
+
+  @Test
+  public void testSuccess_runInNextMinute_enqueuesTasksAgain() throws Exception {
+    runAction();
+    clock.advanceBy(Duration.standardMinutes(1));
+    runAction();
+    List<TaskMatcher> matchers = getBucketTaskMatchers();
+    matchers.addAll(getBucketTaskMatchers());
     assertTasksEnqueued(QUEUE, matchers);
   }
 }
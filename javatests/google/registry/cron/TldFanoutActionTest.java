@@ -32,9 +32,12 @@ import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldType;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
+import google.registry.testing.FakeClock;
 import google.registry.testing.TaskQueueHelper.TaskMatcher;
 import google.registry.util.Retrier;
 import google.registry.util.TaskEnqueuer;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -64,6 +67,8 @@ public class TldFanoutActionTest {
           "</queue-entries>"))
       .build();
 
+  private final FakeClock clock = new FakeClock(DateTime.parse("2000-01-01T12:34:56Z"));
+
   private static ImmutableListMultimap<String, String> getParamsMap(String... keysAndValues) {
     ImmutableListMultimap.Builder<String, String> params = new ImmutableListMultimap.Builder<>();
     params.put("queue", QUEUE);
@@ -74,8 +79,9 @@ public class TldFanoutActionTest {
     return params.build();
   }
 
-  private static void run(ImmutableListMultimap<String, String> params) throws Exception {
+  private void run(ImmutableListMultimap<String, String> params) throws Exception {
     TldFanoutAction action = new TldFanoutAction();
+    action.clock = clock;
     action.params = params;
     action.endpoint = getLast(params.get("endpoint"));
     action.queue = getLast(params.get("queue"));
@@ -208,4 +214,29 @@ public class TldFanoutActionTest {
     assertTasksEnqueued(QUEUE,
         new TaskMatcher().url("/the/servlet").param("newkey", "newval"));
   }
+
+  @Test
+  public void testSuccess_runTwiceInSameMinute_enqueuesTasksOnce() throws Exception {
+    run(getParamsMap("forEachRealTld", ""));
+    clock.advanceBy(Duration.standardSeconds(3));
+    run(getParamsMap("forEachRealTld", ""));
+    assertTasks("com", "net", "org");
+  }
+
+  @Test
+  public void testSuccess_runInNextMinute_enqueuesTasksAgain() throws Exception {
+    run(getParamsMap("forEachRealTld", ""));
+    clock.advanceBy(Duration.standardMinutes(1));
+    run(getParamsMap("forEachRealTld", ""));
+    assertTasks("com", "net", "org", "com", "net", "org");
+  }
+
+  @Test
+  public void testSuccess_differentArgsInSameMinute_enqueuesBoth() throws Exception {
+    run(getParamsMap("forEachTestTld", "", "newkey", "val1"));
+    run(getParamsMap("forEachTestTld", "", "newkey", "val2"));
+    assertTasksEnqueued(QUEUE,
+        new TaskMatcher().url("/the/servlet").param("newkey", "val1"),
+        new TaskMatcher().url("/the/servlet").param("newkey", "val2"));
+  }
 }
@@ -14,11 +14,15 @@
 
 package google.registry.dns;
 
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistActiveDomain;
 import static google.registry.testing.DatastoreHelper.persistActiveSubordinateHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -30,8 +34,11 @@ import google.registry.dns.writer.DnsWriter;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registry.Registry;
+import google.registry.request.HttpException.ServiceUnavailableException;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
+import google.registry.testing.InMemoryLockHandler;
 import google.registry.testing.InjectRule;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -39,7 +46,9 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 /** Unit tests for {@link PublishDnsUpdatesAction}. */
 @RunWith(MockitoJUnitRunner.class)
@@ -54,9 +63,13 @@ public class PublishDnsUpdatesActionTest {
   @Rule
   public final InjectRule inject = new InjectRule();
 
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
   private final FakeClock clock = new FakeClock(DateTime.parse("1971-01-01TZ"));
   private final DnsWriter dnsWriter = mock(DnsWriter.class);
   private final DnsMetrics dnsMetrics = mock(DnsMetrics.class);
+  private final InMemoryLockHandler lockHandler = new InMemoryLockHandler();
   private PublishDnsUpdatesAction action;
 
   @Before
@@ -80,6 +93,7 @@ public class PublishDnsUpdatesActionTest {
     action.domains = ImmutableSet.<String>of();
     action.dnsWriterProxy = new DnsWriterProxy(ImmutableMap.of("mock", dnsWriter));
     action.dnsMetrics = dnsMetrics;
+    action.lockHandler = lockHandler;
     return action;
   }
 
@@ -146,4 +160,43 @@ public class PublishDnsUpdatesActionTest {
     verify(dnsMetrics, times(3)).incrementPublishHostRequests("xn--q9jyb4c", Status.REJECTED);
     verifyNoMoreInteractions(dnsMetrics);
   }
+
+  @Test
+  public void testLockIsntAvailable() throws Exception {
+    action = createAction("xn--q9jyb4c");
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c");
+    lockHandler.hold("DNS zone xn--q9jyb4c", "xn--q9jyb4c");
+    thrown.expect(ServiceUnavailableException.class, "Lock failure");
+    action.run();
+  }
+
+  @Test
+  public void testLockIsReleased() throws Exception {
+    action = createAction("xn--q9jyb4c");
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c");
+    action.run();
+    verify(dnsWriter).publishDomain("example.xn--q9jyb4c");
+    assertThat(lockHandler.isHeld("DNS zone xn--q9jyb4c", "xn--q9jyb4c")).isFalse();
+  }
+
+  @Test
+  public void testLockLostWhilePublishing_batchNotCommitted() throws Exception {
+    action = createAction("xn--q9jyb4c");
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c");
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        lockHandler.loseLease("DNS zone xn--q9jyb4c", "xn--q9jyb4c");
+        return null;
+      }}).when(dnsWriter).publishDomain("example.xn--q9jyb4c");
+    try {
+      action.run();
+      fail("Expected ServiceUnavailableException");
+    } catch (ServiceUnavailableException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Lost lock before committing the batch");
+    }
+    verify(dnsWriter).publishDomain("example.xn--q9jyb4c");
+    verify(dnsWriter, never()).close();
+    assertThat(lockHandler.isHeld("DNS zone xn--q9jyb4c", "xn--q9jyb4c")).isFalse();
+  }
 }
@@ -18,10 +18,13 @@ import static com.google.common.truth.Truth.assertThat;
 import static google.registry.flows.EppXmlTransformer.marshal;
 import static google.registry.testing.TestDataHelper.loadFileWithSubstitutions;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableMap;
+import google.registry.flows.EppMetrics.Phase;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppoutput.EppOutput;
 import google.registry.model.eppoutput.EppResponse;
@@ -141,4 +144,30 @@ public class EppControllerTest extends ShardableTestCase {
     assertThat(metric.getCommandName()).hasValue("Create");
     assertThat(metric.getEppTarget()).hasValue("example.tld");
   }
+
+  @Test
+  public void testHandleEppCommand_recordsUnmarshalTime() {
+    eppController.handleEppCommand(
+        sessionMetadata,
+        transportCredentials,
+        EppRequestSource.UNIT_TEST,
+        false,
+        false,
+        loadFileWithSubstitutions(
+                getClass(), "domain_create_prettyprinted.xml", ImmutableMap.<String, String>of())
+            .getBytes(UTF_8));
+    verify(eppMetrics).recordPhaseTime(eq("Create"), eq(Phase.UNMARSHAL), anyLong());
+  }
+
+  @Test
+  public void testHandleEppCommand_unmarshallableData_recordsUnmarshalTime() {
+    eppController.handleEppCommand(
+        sessionMetadata,
+        transportCredentials,
+        EppRequestSource.UNIT_TEST,
+        false,
+        false,
+        new byte[0]);
+    verify(eppMetrics).recordPhaseTime(eq(""), eq(Phase.UNMARSHAL), anyLong());
+  }
 }
@@ -18,10 +18,12 @@ import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.createTlds;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
+import google.registry.model.poll.PollQueueSummary;
 import google.registry.model.registry.Registry.TldState;
 import google.registry.testing.AppEngineRule;
 import org.joda.time.DateTime;
@@ -311,6 +313,13 @@ public class EppLifecycleDomainTest extends EppTestCase {
     assertCommandAndResponse("logout.xml", "logout_response.xml");
   }
 
+  /** Picks up poll messages that are coming due, as the reconciliation cron job would. */
+  private static void advancePollQueueSummaries(DateTime now) {
+    for (String clientId : ImmutableList.of("NewRegistrar", "TheRegistrar")) {
+      PollQueueSummary.advance(clientId, now, now.plus(PollQueueSummary.LOOKAHEAD));
+    }
+  }
+
   @Test
   public void testDomainTransferPollMessage_serverApproved() throws Exception {
     // As the losing registrar, create the domain.
@@ -343,6 +352,7 @@ public class EppLifecycleDomainTest extends EppTestCase {
     DateTime.parse("2001-01-01T00:01:00Z"));
 
     // Five days in the future, expect a server approval poll message to the loser, and ack it.
+    advancePollQueueSummaries(DateTime.parse("2001-01-06T00:00:00Z"));
     assertCommandAndResponse(
         "poll.xml",
         "poll_response_domain_transfer_server_approve_loser.xml",
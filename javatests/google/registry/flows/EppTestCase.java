@@ -114,6 +114,7 @@ public class EppTestCase extends ShardableTestCase {
     EppRequestHandler handler = new EppRequestHandler();
     FakeResponse response = new FakeResponse();
     handler.response = response;
+    handler.eppMetrics = new EppMetrics();
     handler.eppController = DaggerEppTestComponent.builder()
         .fakesAndMocksModule(new FakesAndMocksModule(clock, TmchCaMode.PILOT))
         .build()
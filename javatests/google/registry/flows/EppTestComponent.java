@@ -57,6 +57,7 @@ interface EppTestComponent {
     final DnsQueue dnsQueue;
     final DomainFlowTmchUtils domainFlowTmchUtils;
     final EppMetric.Builder metricBuilder;
+    final EppMetrics eppMetrics;
     final FakeClock clock;
     final ModulesService modulesService;
     final Sleeper sleeper;
@@ -66,7 +67,12 @@ interface EppTestComponent {
     }
 
     FakesAndMocksModule(FakeClock clock, TmchCaMode tmchCaMode) {
+      this(clock, tmchCaMode, new EppMetrics());
+    }
+
+    FakesAndMocksModule(FakeClock clock, TmchCaMode tmchCaMode, EppMetrics eppMetrics) {
       this.clock = clock;
+      this.eppMetrics = eppMetrics;
       this.domainFlowTmchUtils =
           new DomainFlowTmchUtils(new TmchXmlSignature(new TmchCertificateAuthority(tmchCaMode)));
       this.sleeper = new FakeSleeper(clock);
@@ -106,6 +112,11 @@ interface EppTestComponent {
       return metricBuilder;
     }
 
+    @Provides
+    EppMetrics provideEppMetrics() {
+      return eppMetrics;
+    }
+
     @Provides
     ModulesService provideModulesService() {
       return modulesService;
@@ -0,0 +1,281 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+import static com.google.common.base.Preconditions.checkState;
+import static google.registry.loadtest.LoadTestTemplates.getRandomLabel;
+import static google.registry.loadtest.LoadTestTemplates.loadTemplate;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistReservedList;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import google.registry.config.RegistryConfig.ConfigModule.TmchCaMode;
+import google.registry.flows.EppMetrics.Phase;
+import google.registry.flows.EppTestComponent.FakesAndMocksModule;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.eppcommon.ProtocolDefinition;
+import google.registry.model.ofy.Ofy;
+import google.registry.model.registry.Registry;
+import google.registry.model.tmch.ClaimsListShard.ClaimsListSingleton;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.FakeResponse;
+import google.registry.testing.InjectRule;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Benchmark of whole EPP requests against the local Datastore service stub.
+ *
+ * <p>Each benchmark sends one kind of command through the same {@link EppRequestHandler},
+ * {@link EppController} and {@link FlowRunner} wiring that {@link EppTestCase} uses, so the times
+ * include commit log writes and the transaction itself. Besides the total time per request, the
+ * mean time spent in each {@link Phase} is reported, as recorded through {@link EppMetrics}.
+ *
+ * <p>This isn't part of the test suite, since its name doesn't end in "Test". Run it with {@code
+ * bazel run //javatests/google/registry/flows:flow_benchmark}, optionally passing system
+ * properties such as {@code --jvm_flag=-DflowBenchmark.domains=10000} to change the number of
+ * domains, contacts and hosts in the fixtures, or the number of warmup and measured iterations.
+ */
+@RunWith(JUnit4.class)
+public class FlowBenchmark {
+
+  private static final String TLD = "tld";
+
+  private static final int NUM_DOMAINS = Integer.getInteger("flowBenchmark.domains", 1000);
+  private static final int NUM_CONTACTS = Integer.getInteger("flowBenchmark.contacts", 100);
+  private static final int NUM_HOSTS = Integer.getInteger("flowBenchmark.hosts", 100);
+  private static final int WARMUP_ITERATIONS = Integer.getInteger("flowBenchmark.warmup", 100);
+  private static final int ITERATIONS = Integer.getInteger("flowBenchmark.iterations", 500);
+
+  @Rule
+  public final AppEngineRule appEngine = new AppEngineRule.Builder()
+      .withDatastore()
+      .withTaskQueue()
+      .build();
+
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.now(UTC));
+  private final PhaseRecordingEppMetrics eppMetrics = new PhaseRecordingEppMetrics();
+  private final Random random = new Random(1);
+
+  private SessionMetadata sessionMetadata;
+
+  @Before
+  public void before() {
+    inject.setStaticField(Ofy.class, "clock", clock);  // For transactional flows.
+    createTld(TLD);
+    persistResource(Registry.get(TLD).asBuilder()
+        .setReservedLists(persistReservedList(
+            "tld-reserved",
+            "lol,FULLY_BLOCKED",
+            "cat,FULLY_BLOCKED",
+            "reserveddomain,FULLY_BLOCKED"))
+        .build());
+    ofy().saveWithoutBackup().entity(new ClaimsListSingleton()).now();
+    ContactResource[] contacts = new ContactResource[NUM_CONTACTS];
+    for (int i = 0; i < NUM_CONTACTS; i++) {
+      contacts[i] = persistActiveContact("contact" + i);
+    }
+    for (int i = 0; i < NUM_HOSTS; i++) {
+      persistActiveHost(String.format("ns%d.example.com", i));
+    }
+    for (int i = 0; i < NUM_DOMAINS; i++) {
+      persistResource(
+          newDomainResource(String.format("domain%d.%s", i, TLD), contacts[i % NUM_CONTACTS]));
+    }
+    ofy().clearSessionCache();
+    sessionMetadata = new StatelessRequestSessionMetadata(
+        "TheRegistrar", ProtocolDefinition.getVisibleServiceExtensionUris());
+  }
+
+  @Test
+  public void benchmarkDomainCheck() {
+    benchmark("domain_check");
+  }
+
+  @Test
+  public void benchmarkDomainInfo() {
+    benchmark("domain_info");
+  }
+
+  @Test
+  public void benchmarkDomainCreate() {
+    benchmark("domain_create");
+  }
+
+  @Test
+  public void benchmarkContactInfo() {
+    benchmark("contact_info");
+  }
+
+  @Test
+  public void benchmarkContactCreate() {
+    benchmark("contact_create");
+  }
+
+  @Test
+  public void benchmarkHostInfo() {
+    benchmark("host_info");
+  }
+
+  @Test
+  public void benchmarkHostCreate() {
+    benchmark("host_create");
+  }
+
+  /** Runs the warmup and measured iterations of one command and prints the results. */
+  private void benchmark(String templateName) {
+    String template = loadTemplate(templateName);
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      runCommand(fillIn(template, templateName));
+    }
+    eppMetrics.reset();
+    long[] totalMicros = new long[ITERATIONS];
+    for (int i = 0; i < ITERATIONS; i++) {
+      String xml = fillIn(template, templateName);
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      runCommand(xml);
+      totalMicros[i] = stopwatch.elapsed(MICROSECONDS);
+    }
+    printResults(templateName, totalMicros);
+  }
+
+  /**
+   * Fills in a template with names from the fixtures, apart from the name of the resource that a
+   * create command creates, which is new each time.
+   */
+  private String fillIn(String template, String templateName) {
+    return template
+        .replace("%tld%", TLD)
+        .replace("%domain%", templateName.equals("domain_create")
+            ? getRandomLabel(random, 20)
+            : "domain" + random.nextInt(NUM_DOMAINS))
+        .replace("%contact%", templateName.equals("contact_create")
+            ? getRandomLabel(random, 13)
+            : "contact" + random.nextInt(NUM_CONTACTS))
+        .replace("%host%", templateName.equals("host_create")
+            ? getRandomLabel(random, 20)
+            : "ns" + random.nextInt(NUM_HOSTS));
+  }
+
+  /** Sends a command the way {@link EppTestCase} does, and checks that it succeeded. */
+  private void runCommand(String xml) {
+    clock.advanceOneMilli();
+    EppRequestHandler handler = new EppRequestHandler();
+    FakeResponse response = new FakeResponse();
+    handler.response = response;
+    handler.eppMetrics = eppMetrics;
+    handler.eppController = DaggerEppTestComponent.builder()
+        .fakesAndMocksModule(new FakesAndMocksModule(clock, TmchCaMode.PILOT, eppMetrics))
+        .build()
+        .startRequest()
+        .eppController();
+    handler.executeEpp(
+        sessionMetadata,
+        new PasswordOnlyTransportCredentials(),
+        EppRequestSource.UNIT_TEST,
+        false,  // Not dryRun.
+        false,  // Not superuser.
+        xml.getBytes(UTF_8));
+    checkState(response.getStatus() == SC_OK, "Request failed: %s", xml);
+    checkState(
+        response.getPayload().contains("<result code=\"100"),
+        "Command failed: %s\n%s",
+        xml,
+        response.getPayload());
+    ofy().clearSessionCache();  // Clear the cache like OfyFilter would.
+  }
+
+  private void printResults(String templateName, long[] totalMicros) {
+    Arrays.sort(totalMicros);
+    long sum = 0;
+    for (long micros : totalMicros) {
+      sum += micros;
+    }
+    StringBuilder builder = new StringBuilder()
+        .append(String.format(
+            "%s: %d iterations, %d domains, %d contacts, %d hosts\n",
+            templateName, ITERATIONS, NUM_DOMAINS, NUM_CONTACTS, NUM_HOSTS))
+        .append(String.format(
+            "  total: mean %dus, p50 %dus, p90 %dus, p99 %dus, max %dus\n",
+            sum / ITERATIONS,
+            getPercentile(totalMicros, 50),
+            getPercentile(totalMicros, 90),
+            getPercentile(totalMicros, 99),
+            totalMicros[ITERATIONS - 1]));
+    long phaseSum = 0;
+    for (Map.Entry<Phase, Long> entry : eppMetrics.getTotals().entrySet()) {
+      phaseSum += entry.getValue();
+      builder.append(String.format(
+          "  %s: mean %dus\n", entry.getKey().name().toLowerCase(), entry.getValue() / ITERATIONS));
+    }
+    // Whatever the phases don't cover, e.g. building the Dagger components and logging.
+    builder.append(String.format("  other: mean %dus\n", (sum - phaseSum) / ITERATIONS));
+    System.out.print(builder);
+  }
+
+  /** Returns the nearest-rank percentile of a sorted array. */
+  private static long getPercentile(long[] sorted, int percentile) {
+    int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+    return sorted[Math.max(0, rank - 1)];
+  }
+
+  /** {@link EppMetrics} that adds up the time spent in each phase, as well as recording it. */
+  private static class PhaseRecordingEppMetrics extends EppMetrics {
+
+    private final EnumMap<Phase, Long> totals = new EnumMap<>(Phase.class);
+
+    PhaseRecordingEppMetrics() {
+      reset();
+    }
+
+    void reset() {
+      for (Phase phase : Phase.values()) {
+        totals.put(phase, 0L);
+      }
+    }
+
+    ImmutableMap<Phase, Long> getTotals() {
+      return ImmutableMap.copyOf(totals);
+    }
+
+    @Override
+    public void recordPhaseTime(String commandName, Phase phase, long micros) {
+      super.recordPhaseTime(commandName, phase, micros);
+      totals.put(phase, totals.get(phase) + micros);
+    }
+  }
+}
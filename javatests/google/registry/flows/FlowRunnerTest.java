@@ -18,7 +18,12 @@ import static com.google.common.io.BaseEncoding.base64;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.TestDataHelper.loadFileWithSubstitutions;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.google.appengine.api.users.User;
 import com.google.common.base.Joiner;
@@ -29,7 +34,10 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.testing.TestLogHandler;
+import google.registry.flows.EppMetrics.Phase;
+import google.registry.flows.session.HelloFlow;
 import google.registry.model.eppcommon.Trid;
+import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.monitoring.whitebox.EppMetric;
 import google.registry.testing.AppEngineRule;
@@ -67,7 +75,11 @@ public class FlowRunnerTest extends ShardableTestCase {
 
     flowRunner.clientId = "TheRegistrar";
     flowRunner.credentials = new PasswordOnlyTransportCredentials();
+    flowRunner.eppInput = mock(EppInput.class);
+    when(flowRunner.eppInput.getCommandName()).thenReturn("Hello");
+    flowRunner.eppMetrics = mock(EppMetrics.class);
     flowRunner.eppRequestSource = EppRequestSource.UNIT_TEST;
+    flowRunner.flowClass = HelloFlow.class;
     flowRunner.flowProvider =
         Providers.<Flow>of(
             new Flow() {
@@ -110,6 +122,23 @@ public class FlowRunnerTest extends ShardableTestCase {
     assertThat(flowRunner.metric.build().getAttempts()).isEqualTo(1);
   }
 
+  @Test
+  public void testRun_notIsTransactional_recordsFlowTime() throws Exception {
+    flowRunner.run();
+    verify(flowRunner.eppMetrics).recordPhaseTime(eq("Hello"), eq(Phase.FLOW), anyLong());
+    verify(flowRunner.eppMetrics, never())
+        .recordPhaseTime(eq("Hello"), eq(Phase.TRANSACTION), anyLong());
+  }
+
+  @Test
+  public void testRun_isTransactional_recordsFlowAndTransactionTimes() throws Exception {
+    flowRunner.isTransactional = true;
+    flowRunner.run();
+    verify(flowRunner.eppMetrics).recordPhaseTime(eq("Hello"), eq(Phase.FLOW), anyLong());
+    verify(flowRunner.eppMetrics)
+        .recordPhaseTime(eq("Hello"), eq(Phase.TRANSACTION), anyLong());
+  }
+
   @Test
   public void testRun_reportingLogStatement_noClientId() throws Exception {
     flowRunner.clientId = "";
@@ -14,7 +14,9 @@
 
 package google.registry.flows.domain;
 
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.eppoutput.CheckData.DomainCheck.create;
+import static google.registry.model.registry.label.PremiumListUtils.getPremiumPrice;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainApplication;
 import static google.registry.testing.DatastoreHelper.persistActiveDomain;
@@ -23,12 +25,17 @@ import static google.registry.testing.DatastoreHelper.persistPremiumList;
 import static google.registry.testing.DatastoreHelper.persistReservedList;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static google.registry.util.DomainNameUtils.getTldFromDomainName;
 import static org.joda.money.CurrencyUnit.USD;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Strings;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Multiset;
+import com.google.common.net.InternetDomainName;
 import google.registry.flows.ResourceCheckFlowTestCase;
 import google.registry.flows.domain.DomainCheckFlow.OnlyCheckedNamesCanBeFeeCheckedException;
 import google.registry.flows.domain.DomainFlowUtils.BadCommandForRegistryPhaseException;
@@ -52,10 +59,13 @@ import google.registry.flows.exceptions.TooManyResourceChecksException;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.launch.ApplicationStatus;
 import google.registry.model.domain.launch.LaunchPhase;
+import google.registry.model.pricing.PremiumPricingEngine;
+import google.registry.model.pricing.StaticPremiumListPricingEngine;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
 import google.registry.model.registry.label.ReservedList;
+import google.registry.pricing.PricingEngineProxy;
 import google.registry.testing.DatastoreHelper;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
@@ -468,6 +478,46 @@ public class DomainCheckFlowTest
     runFlowAssertResponse(readFile("domain_check_fee_premium_response_v06.xml"));
   }
 
+  /**
+   * Pricing engine that counts how many times it looks up each domain name, and otherwise prices
+   * names from the TLD's premium list like {@link StaticPremiumListPricingEngine} does.
+   */
+  private static class CountingPricingEngine implements PremiumPricingEngine {
+
+    final Multiset<String> lookups = HashMultiset.create();
+
+    @Override
+    public DomainPrices getDomainPrices(String fullyQualifiedDomainName, DateTime priceTime) {
+      lookups.add(fullyQualifiedDomainName);
+      Registry registry = Registry.get(getTldFromDomainName(fullyQualifiedDomainName));
+      String label = InternetDomainName.from(fullyQualifiedDomainName).parts().get(0);
+      Optional<Money> premiumPrice = getPremiumPrice(label, registry);
+      return DomainPrices.create(
+          premiumPrice.isPresent(),
+          premiumPrice.or(registry.getStandardCreateCost()),
+          premiumPrice.or(registry.getStandardRenewCost(priceTime)),
+          premiumPrice.isPresent() ? Optional.of("premium") : Optional.<String>absent());
+    }
+  }
+
+  /**
+   * Test that the prices of each name are looked up once for all of its commands and periods. The
+   * fees are the same as those of the single-name tests above, which price each command alone.
+   */
+  @Test
+  public void testFeeExtension_multipleNames_looksUpPricesOncePerName_v06() throws Exception {
+    createTld("example");
+    CountingPricingEngine pricingEngine = new CountingPricingEngine();
+    inject.setStaticField(
+        PricingEngineProxy.class,
+        "premiumPricingEngines",
+        ImmutableMap.<String, PremiumPricingEngine>of(
+            StaticPremiumListPricingEngine.NAME, pricingEngine));
+    setEppInput("domain_check_fee_multiple_names_v06.xml");
+    runFlowAssertResponse(readFile("domain_check_fee_multiple_names_response_v06.xml"));
+    assertThat(pricingEngine.lookups).containsExactly("example1.tld", "rich.example");
+  }
+
   @Test
   public void testFeeExtension_premiumLabels_v11_create() throws Exception {
     createTld("example");
@@ -0,0 +1,113 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows.domain;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.tmch.TmchTestData.loadString;
+
+import com.google.common.collect.ImmutableMap;
+import google.registry.config.RegistryConfig.ConfigModule.TmchCaMode;
+import google.registry.flows.domain.DomainFlowTmchUtils.NoMarksFoundMatchingDomainException;
+import google.registry.flows.domain.DomainFlowTmchUtils.SignedMarkCertificateExpiredException;
+import google.registry.flows.domain.DomainFlowTmchUtils.SignedMarkRevokedErrorException;
+import google.registry.model.smd.EncodedSignedMark;
+import google.registry.model.smd.SignedMark;
+import google.registry.model.smd.SignedMarkRevocationList;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
+import google.registry.tmch.TmchCertificateAuthority;
+import google.registry.tmch.TmchData;
+import google.registry.tmch.TmchXmlSignature;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link DomainFlowTmchUtils}. */
+@RunWith(JUnit4.class)
+public class DomainFlowTmchUtilsTest {
+
+  private static final String SMD_ID = "0000001761376042759136-65535";
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2013-11-24T23:15:37.4Z"));
+  private final EncodedSignedMark encodedSignedMark = TmchData.readEncodedSignedMark(
+      loadString("active/Court-Agent-English-Active.smd"));
+  private DomainFlowTmchUtils tmchUtils;
+
+  @Before
+  public void before() throws Exception {
+    inject.setStaticField(TmchCertificateAuthority.class, "clock", clock);
+    tmchUtils = new DomainFlowTmchUtils(
+        new TmchXmlSignature(new TmchCertificateAuthority(TmchCaMode.PILOT)));
+  }
+
+  @Test
+  public void testVerifyEncodedSignedMark() throws Exception {
+    SignedMark signedMark =
+        tmchUtils.verifyEncodedSignedMark(encodedSignedMark, "test-validate", clock.nowUtc());
+    assertThat(signedMark.getId()).isEqualTo(SMD_ID);
+  }
+
+  @Test
+  public void testVerifyEncodedSignedMark_reusesVerifiedMark() throws Exception {
+    SignedMark signedMark =
+        tmchUtils.verifyEncodedSignedMark(encodedSignedMark, "test-validate", clock.nowUtc());
+    assertThat(tmchUtils.verifyEncodedSignedMark(
+            EncodedSignedMark.create("base64", encodedSignedMark.getEncodedData()),
+            "testandvalidate",
+            clock.nowUtc()))
+        .isSameAs(signedMark);
+  }
+
+  @Test
+  public void testVerifyEncodedSignedMark_verifiedMark_stillChecksLabel() throws Exception {
+    tmchUtils.verifyEncodedSignedMark(encodedSignedMark, "test-validate", clock.nowUtc());
+    thrown.expect(NoMarksFoundMatchingDomainException.class);
+    tmchUtils.verifyEncodedSignedMark(encodedSignedMark, "something-else", clock.nowUtc());
+  }
+
+  @Test
+  public void testVerifyEncodedSignedMark_verifiedMark_stillChecksRevocationList()
+      throws Exception {
+    tmchUtils.verifyEncodedSignedMark(encodedSignedMark, "test-validate", clock.nowUtc());
+    SignedMarkRevocationList.create(clock.nowUtc(), ImmutableMap.of(SMD_ID, clock.nowUtc()))
+        .save();
+    thrown.expect(SignedMarkRevokedErrorException.class);
+    tmchUtils.verifyEncodedSignedMark(encodedSignedMark, "test-validate", clock.nowUtc());
+  }
+
+  @Test
+  public void testVerifyEncodedSignedMark_verifiedMark_stillChecksCertificate() throws Exception {
+    tmchUtils.verifyEncodedSignedMark(encodedSignedMark, "test-validate", clock.nowUtc());
+    clock.setTo(DateTime.parse("2023-06-01T00:00:00Z"));
+    thrown.expect(SignedMarkCertificateExpiredException.class);
+    tmchUtils.verifyEncodedSignedMark(encodedSignedMark, "test-validate", clock.nowUtc());
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows.domain;
+
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.deleteResource;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
+
+import google.registry.flows.exceptions.ResourceAlreadyExistsException;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.domain.GracePeriod;
+import google.registry.model.domain.rgp.GracePeriodStatus;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RecentDomainCreates}. */
+@RunWith(JUnit4.class)
+public class RecentDomainCreatesTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private final DateTime now = DateTime.parse("2017-01-01T00:00:00Z");
+  private final RecentDomainCreates markers =
+      RecentDomainCreates.create(Duration.standardSeconds(5));
+
+  @Before
+  public void before() {
+    createTld("tld");
+  }
+
+  @Test
+  public void testCheck_nonexistentDomain_passes() throws Exception {
+    markers.check("example.tld", now);
+  }
+
+  @Test
+  public void testCheck_recordedCreate_fails() throws Exception {
+    markers.markTaken("example.tld", now);
+    thrown.expect(
+        ResourceAlreadyExistsException.class, "Object with given ID (example.tld) already exists");
+    markers.check("example.tld", now.plusSeconds(4));
+  }
+
+  @Test
+  public void testCheck_recordedCreate_expires() throws Exception {
+    markers.markTaken("example.tld", now);
+    markers.check("example.tld", now.plusSeconds(5));
+    markers.check("other.tld", now);
+  }
+
+  @Test
+  public void testCheck_recordedDelete_clearsMarker() throws Exception {
+    markers.markTaken("example.tld", now);
+    markers.unmark("example.tld");
+    markers.check("example.tld", now);
+  }
+
+  @Test
+  public void testCheck_existingDomain_failsAndIsRemembered() throws Exception {
+    DomainResource domain = persistActiveDomain("example.tld");
+    try {
+      markers.check("example.tld", now);
+      throw new AssertionError("Expected ResourceAlreadyExistsException");
+    } catch (ResourceAlreadyExistsException e) {
+      // Expected.
+    }
+    // The marker rejects the name without reading the domain again.
+    deleteResource(domain);
+    thrown.expect(ResourceAlreadyExistsException.class);
+    markers.check("example.tld", now.plusSeconds(1));
+  }
+
+  @Test
+  public void testCheck_domainInAddGracePeriod_failsAndIsRemembered() throws Exception {
+    DomainResource domain = persistResource(newDomainResource("example.tld").asBuilder()
+        .addGracePeriod(GracePeriod.create(GracePeriodStatus.ADD, END_OF_TIME, "", null))
+        .build());
+    try {
+      markers.check("example.tld", now);
+      throw new AssertionError("Expected ResourceAlreadyExistsException");
+    } catch (ResourceAlreadyExistsException e) {
+      // Expected.
+    }
+    deleteResource(domain);
+    thrown.expect(ResourceAlreadyExistsException.class);
+    markers.check("example.tld", now.plusSeconds(1));
+  }
+
+  @Test
+  public void testCheck_domainInAddGracePeriod_deletedHere_passes() throws Exception {
+    DomainResource domain = persistResource(newDomainResource("example.tld").asBuilder()
+        .addGracePeriod(GracePeriod.create(GracePeriodStatus.ADD, END_OF_TIME, "", null))
+        .build());
+    try {
+      markers.check("example.tld", now);
+      throw new AssertionError("Expected ResourceAlreadyExistsException");
+    } catch (ResourceAlreadyExistsException e) {
+      // Expected.
+    }
+    deleteResource(domain);
+    markers.unmark("example.tld");
+    markers.check("example.tld", now.plusSeconds(1));
+  }
+
+  @Test
+  public void testCheck_nonCanonicalName_isLeftToFlow() throws Exception {
+    persistActiveDomain("example.tld");
+    markers.markTaken("example.tld", now);
+    markers.check("EXAMPLE.tld", now);
+    markers.check("example..tld", now);
+  }
+
+  @Test
+  public void testMarkTaken_nonCanonicalName_marksCanonicalName() throws Exception {
+    markers.markTaken("EXAMPLE.tld", now);
+    thrown.expect(ResourceAlreadyExistsException.class);
+    markers.check("example.tld", now);
+  }
+}
@@ -14,6 +14,7 @@
 
 package google.registry.flows.poll;
 
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.createHistoryEntryForEppResource;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
@@ -29,6 +30,7 @@ import google.registry.flows.poll.PollAckFlow.NotAuthorizedToAckMessageException
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollQueueSummary;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
@@ -143,6 +145,18 @@ public class PollAckFlowTest extends FlowTestCase<PollAckFlow> {
     runFlowAssertResponse(readFile("poll_ack_response.xml"));
   }
 
+  @Test
+  public void testSuccess_decrementsPollQueueSummary() throws Exception {
+    // Persisting the messages records them in the summary, and the ack has to take one off of it.
+    for (int i = 0; i < 5; i++) {
+      persistOneTimePollMessage(MESSAGE_ID + i);
+    }
+    assertThat(PollQueueSummary.load(getClientIdForFlow()).countDue(clock.nowUtc())).isEqualTo(5);
+    assertTransactionalFlow(true);
+    runFlowAssertResponse(readFile("poll_ack_response.xml"));
+    assertThat(PollQueueSummary.load(getClientIdForFlow()).countDue(clock.nowUtc())).isEqualTo(4);
+  }
+
   @Test
   public void testFailure_noSuchMessage() throws Exception {
     assertTransactionalFlow(true);
@@ -14,12 +14,16 @@
 
 package google.registry.flows.poll;
 
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.flows.EppXmlTransformer.marshal;
 import static google.registry.testing.DatastoreHelper.createHistoryEntryForEppResource;
 import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.deleteResource;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
 import static google.registry.testing.DatastoreHelper.persistActiveContact;
 import static google.registry.testing.DatastoreHelper.persistActiveHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
 import google.registry.flows.FlowTestCase;
@@ -30,10 +34,12 @@ import google.registry.model.eppcommon.Trid;
 import google.registry.model.host.HostResource;
 import google.registry.model.poll.PendingActionNotificationResponse.DomainPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollQueueSummary;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.transfer.TransferResponse.ContactTransferResponse;
 import google.registry.model.transfer.TransferResponse.DomainTransferResponse;
 import google.registry.model.transfer.TransferStatus;
+import google.registry.xml.ValidationMode;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
@@ -131,6 +137,71 @@ public class PollRequestFlowTest extends FlowTestCase<PollRequestFlow> {
     runFlowAssertResponse(readFile("poll_response_autorenew.xml"));
   }
 
+  @Test
+  public void testSuccess_countsFromPollQueueSummary() throws Exception {
+    // The summary is trusted as is, so its drifted count shows up in the response.
+    persistResource(PollQueueSummary.create(
+        getClientIdForFlow(), clock.nowUtc().minusDays(2), 4, clock.nowUtc().plusHours(6)));
+    persistResource(
+        new PollMessage.Autorenew.Builder()
+            .setClientId(getClientIdForFlow())
+            .setEventTime(clock.nowUtc().minusDays(1))
+            .setMsg("Domain was auto-renewed.")
+            .setTargetId("test.example")
+            .setParent(createHistoryEntryForEppResource(domain))
+            .build());
+    assertThat(new String(marshal(runFlow(), ValidationMode.STRICT), UTF_8))
+        .contains("count=\"5\"");
+  }
+
+  @Test
+  public void testSuccess_emptyPollQueueSummary_doesNotQuery() throws Exception {
+    persistResource(
+        new PollMessage.Autorenew.Builder()
+            .setClientId(getClientIdForFlow())
+            .setEventTime(clock.nowUtc().minusDays(1))
+            .setMsg("Domain was auto-renewed.")
+            .setTargetId("test.example")
+            .setParent(createHistoryEntryForEppResource(domain))
+            .build());
+    persistResource(PollQueueSummary.create(
+        getClientIdForFlow(), clock.nowUtc(), 0, clock.nowUtc().plusHours(6)));
+    runFlowAssertResponse(readFile("poll_response_empty.xml"));
+  }
+
+  private void persistAutorenewPollMessage(DateTime eventTime) {
+    persistResource(
+        new PollMessage.Autorenew.Builder()
+            .setClientId(getClientIdForFlow())
+            .setEventTime(eventTime)
+            .setMsg("Domain was auto-renewed.")
+            .setTargetId("test.example")
+            .setParent(createHistoryEntryForEppResource(domain))
+            .build());
+  }
+
+  @Test
+  public void testSuccess_noPollQueueSummary_countsWithQuery() throws Exception {
+    persistAutorenewPollMessage(clock.nowUtc().minusDays(2));
+    persistAutorenewPollMessage(clock.nowUtc().minusDays(1));
+    // Like for a registrar whose summary hasn't been created by the reconcile job yet.
+    deleteResource(PollQueueSummary.load(getClientIdForFlow()));
+    assertThat(new String(marshal(runFlow(), ValidationMode.STRICT), UTF_8))
+        .contains("count=\"2\"");
+  }
+
+  @Test
+  public void testSuccess_pollQueueSummaryNotAdvanced_countsWithQuery() throws Exception {
+    persistAutorenewPollMessage(clock.nowUtc().minusDays(2));
+    persistAutorenewPollMessage(clock.nowUtc().minusDays(1));
+    // The summary is out of date, as if the reconcile job had stopped running an hour ago, so its
+    // count of zero is ignored.
+    persistResource(PollQueueSummary.create(
+        getClientIdForFlow(), clock.nowUtc().minusDays(3), 0, clock.nowUtc().minusHours(1)));
+    assertThat(new String(marshal(runFlow(), ValidationMode.STRICT), UTF_8))
+        .contains("count=\"2\"");
+  }
+
   @Test
   public void testSuccess_empty() throws Exception {
     runFlowAssertResponse(readFile("poll_response_empty.xml"));
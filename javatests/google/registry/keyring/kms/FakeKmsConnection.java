@@ -18,10 +18,24 @@ import com.google.common.io.BaseEncoding;
 import java.io.IOException;
 import org.bouncycastle.util.Arrays;
 
+/** A fake {@link KmsConnection} which "encrypts" by reversing, and counts the calls made to it. */
 class FakeKmsConnection implements KmsConnection {
 
+  private int encryptCount;
+  private int decryptCount;
+
   FakeKmsConnection() {}
 
+  /** Returns the number of calls made to {@link #encrypt}. */
+  int getEncryptCount() {
+    return encryptCount;
+  }
+
+  /** Returns the number of calls made to {@link #decrypt}. */
+  int getDecryptCount() {
+    return decryptCount;
+  }
+
   /**
    * Returns a dummy {@link EncryptResponse}.
    *
@@ -30,6 +44,7 @@ class FakeKmsConnection implements KmsConnection {
    */
   @Override
   public EncryptResponse encrypt(String cryptoKeyName, byte[] plaintext) throws IOException {
+    encryptCount++;
     return EncryptResponse.create(
         BaseEncoding.base64().encode(Arrays.reverse(plaintext)), cryptoKeyName + "/foo");
   }
@@ -41,6 +56,7 @@ class FakeKmsConnection implements KmsConnection {
    */
   @Override
   public byte[] decrypt(String cryptoKeyName, String encodedCiphertext) throws IOException {
+    decryptCount++;
     return Arrays.reverse(BaseEncoding.base64().decode(encodedCiphertext));
   }
 }
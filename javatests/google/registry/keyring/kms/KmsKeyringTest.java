@@ -27,6 +27,7 @@ import java.io.IOException;
 import org.bouncycastle.openpgp.PGPKeyPair;
 import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPPublicKey;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -38,11 +39,12 @@ public class KmsKeyringTest {
 
   @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
 
+  private final FakeKmsConnection kmsConnection = new FakeKmsConnection();
   private KmsKeyring keyring;
 
   @Before
   public void setUp() {
-    keyring = new KmsKeyring(new FakeKmsConnection());
+    keyring = new KmsKeyring(kmsConnection, Duration.standardMinutes(5));
   }
 
   @Test
@@ -178,6 +180,55 @@ public class KmsKeyringTest {
     assertThat(braintreePrivateKey).isEqualTo("braintree-private-keymoo");
   }
 
+  @Test
+  public void test_decryptedSecretIsCached() throws Exception {
+    saveCleartextSecret("marksdb-lordn-password");
+
+    assertThat(keyring.getMarksdbLordnPassword()).isEqualTo("marksdb-lordn-passwordmoo");
+    assertThat(keyring.getMarksdbLordnPassword()).isEqualTo("marksdb-lordn-passwordmoo");
+    assertThat(keyring.getMarksdbLordnPassword()).isEqualTo("marksdb-lordn-passwordmoo");
+
+    assertThat(kmsConnection.getDecryptCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void test_rotatedSecretIsUsedRightAway() throws Exception {
+    saveCleartextSecret("marksdb-lordn-password");
+    assertThat(keyring.getMarksdbLordnPassword()).isEqualTo("marksdb-lordn-passwordmoo");
+
+    new KmsUpdater(new FakeKmsConnection()).setMarksdbLordnPassword("rotated").update();
+
+    assertThat(keyring.getMarksdbLordnPassword()).isEqualTo("rotated");
+    assertThat(keyring.getMarksdbLordnPassword()).isEqualTo("rotated");
+    assertThat(kmsConnection.getDecryptCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void test_zeroCacheDuration_decryptsEveryTime() throws Exception {
+    keyring = new KmsKeyring(kmsConnection, Duration.ZERO);
+    saveCleartextSecret("marksdb-lordn-password");
+
+    keyring.getMarksdbLordnPassword();
+    keyring.getMarksdbLordnPassword();
+
+    assertThat(kmsConnection.getDecryptCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void test_parsedKeysAreCached() throws Exception {
+    saveKeyPairSecret("rde-signing-public", "rde-signing-private");
+    savePublicKeySecret("rde-staging-public");
+
+    PGPKeyPair first = keyring.getRdeSigningKey();
+    PGPKeyPair second = keyring.getRdeSigningKey();
+    PGPPublicKey encryptionKey = keyring.getRdeStagingEncryptionKey();
+
+    assertThat(second.getPublicKey()).isSameAs(first.getPublicKey());
+    assertThat(second.getPrivateKey()).isSameAs(first.getPrivateKey());
+    assertThat(keyring.getRdeStagingEncryptionKey()).isSameAs(encryptionKey);
+    assertThat(kmsConnection.getDecryptCount()).isEqualTo(3);
+  }
+
   private static void persistSecret(String secretName, byte[] secretValue) throws IOException {
     KmsConnection kmsConnection = new FakeKmsConnection();
 
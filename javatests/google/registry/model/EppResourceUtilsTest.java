@@ -23,6 +23,9 @@ import static google.registry.testing.DatastoreHelper.persistResourceWithCommitL
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static org.joda.time.DateTimeZone.UTC;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.googlecode.objectify.Key;
 import google.registry.model.host.HostResource;
 import google.registry.model.ofy.Ofy;
 import google.registry.testing.AppEngineRule;
@@ -183,4 +186,61 @@ public class EppResourceUtilsTest {
           .now().getUpdateAutoTimestamp().getTimestamp())
               .isEqualTo(host.getRevisions().firstKey());
   }
+
+  @Test
+  public void testLoadAtPointInTime_batch_rewindsOnlyModifiedResources() throws Exception {
+    clock.advanceOneMilli();
+    HostResource oldHost = persistResourceWithCommitLog(
+        newHostResource("ns1.cat.tld").asBuilder()
+            .setCreationTimeForTest(START_OF_TIME)
+            .setPersistedCurrentSponsorClientId("OLD")
+            .build());
+    HostResource unchangedHost = persistResourceWithCommitLog(
+        newHostResource("ns2.cat.tld").asBuilder()
+            .setCreationTimeForTest(START_OF_TIME)
+            .build());
+    // Advance a day so that the next created revision entry doesn't overwrite the existing one.
+    clock.advanceBy(Duration.standardDays(1));
+    HostResource currentHost = persistResource(oldHost.asBuilder()
+        .setPersistedCurrentSponsorClientId("NEW")
+        .build());
+    HostResource futureHost = persistResource(
+        newHostResource("ns3.cat.tld").asBuilder()
+            .setCreationTimeForTest(clock.nowUtc())
+            .build());
+    ImmutableMap<Key<HostResource>, HostResource> result =
+        loadAtPointInTime(
+                ImmutableList.of(currentHost, unchangedHost, futureHost),
+                clock.nowUtc().minusMillis(1))
+            .now();
+    assertThat(result).containsExactly(
+        Key.create(currentHost), oldHost,
+        Key.create(unchangedHost), unchangedHost).inOrder();
+  }
+
+  @Test
+  public void testLoadAtPointInTime_batch_matchesSingleLoads() throws Exception {
+    clock.advanceOneMilli();
+    HostResource oldHost = persistResourceWithCommitLog(
+        newHostResource("ns1.cat.tld").asBuilder()
+            .setCreationTimeForTest(START_OF_TIME)
+            .setPersistedCurrentSponsorClientId("OLD")
+            .build());
+    clock.advanceBy(Duration.standardDays(1));
+    HostResource currentHost = persistResource(oldHost.asBuilder()
+        .setPersistedCurrentSponsorClientId("NEW")
+        .build());
+    for (DateTime time : ImmutableList.of(
+        clock.nowUtc().minusDays(2), clock.nowUtc().minusMillis(1), clock.nowUtc())) {
+      assertThat(loadAtPointInTime(ImmutableList.of(currentHost), time).now().values())
+          .containsExactly(loadAtPointInTime(currentHost, time).now());
+    }
+  }
+
+  @Test
+  public void testLoadAtPointInTime_batch_empty() throws Exception {
+    assertThat(loadAtPointInTime(ImmutableList.<HostResource>of(), clock.nowUtc()).now())
+        .isEmpty();
+  }
+
 }
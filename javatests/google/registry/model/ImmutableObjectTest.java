@@ -19,6 +19,7 @@ import static com.google.common.collect.Maps.newHashMap;
 import static com.google.common.collect.Sets.newHashSet;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.ImmutableObject.cloneEmptyToNull;
+import static google.registry.model.ImmutableObject.hasEmptyValues;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 
@@ -251,6 +252,18 @@ public class ImmutableObjectTest {
     assertThat(cloned.heterogenousMap).containsEntry("b", "");
   }
 
+  @Test
+  public void testHasEmptyValues() {
+    assertThat(hasEmptyValues(new EmptyableObject())).isTrue();
+    assertThat(hasEmptyValues(new SimpleObject("a", null))).isFalse();
+    assertThat(hasEmptyValues(new SimpleObject("a", ""))).isTrue();
+    NestedCollectionsObject collectionsObject = new NestedCollectionsObject();
+    collectionsObject.set = ImmutableSet.of(new SimpleObject("a", "b"));
+    assertThat(hasEmptyValues(collectionsObject)).isFalse();
+    collectionsObject.set = ImmutableSet.of(new SimpleObject("a", "b"), new SimpleObject("", "b"));
+    assertThat(hasEmptyValues(collectionsObject)).isTrue();
+  }
+
   /** Subclass of ImmutableObject with keys to other objects. */
   public static class RootObject extends ImmutableObject {
 
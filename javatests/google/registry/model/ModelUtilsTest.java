@@ -16,11 +16,13 @@ package google.registry.model;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.annotation.Id;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.Map;
 import org.junit.Before;
 import org.junit.Rule;
@@ -138,4 +140,60 @@ public class ModelUtilsTest {
     // The hashCode is now cached and is stale (but that's the expected behavior).
     assertThat(cloned.hashCode()).isNotEqualTo(original.hashCode());
   }
+
+  @Test
+  public void testGetFieldAccessors() throws Exception {
+    ImmutableList<ModelUtils.FieldAccessor> accessors =
+        ModelUtils.getFieldAccessors(TestClass.class);
+    assertThat(accessors).hasSize(3);
+    assertThat(accessors.get(0).getField()).isEqualTo(TestClass.class.getDeclaredField("id"));
+    assertThat(accessors.get(1).getField()).isEqualTo(TestClass.class.getDeclaredField("a"));
+    assertThat(accessors.get(2).getField()).isEqualTo(TestClass.class.getDeclaredField("b"));
+    TestClass testInstance = new TestClass();
+    testInstance.id = "foo";
+    assertThat(accessors.get(0).get(testInstance)).isEqualTo("foo");
+    assertThat(accessors.get(1).get(testInstance)).isNull();
+    // Test again, to make sure we hit the cache.
+    assertThat(ModelUtils.getFieldAccessors(TestClass.class)).isSameAs(accessors);
+  }
+
+  @Test
+  public void testFieldValuesEqual() {
+    TestClass first = new TestClass();
+    first.id = "foo";
+    first.a = "a";
+    TestClass second = new TestClass();
+    second.id = "foo";
+    second.a = "a";
+    assertThat(ModelUtils.fieldValuesEqual(first, second)).isTrue();
+    second.b = "b";
+    assertThat(ModelUtils.fieldValuesEqual(first, second)).isFalse();
+  }
+
+  @Test
+  public void testHashFieldValues_matchesHashOfFieldValueMap() {
+    TestClass testInstance = new TestClass();
+    testInstance.id = "foo";
+    testInstance.b = "b";
+    assertThat(ModelUtils.hashFieldValues(testInstance))
+        .isEqualTo(Arrays.hashCode(ModelUtils.getFieldValues(testInstance).values().toArray()));
+  }
+
+  /** Test class with an array field. */
+  public static class ArrayTestClass extends ImmutableObject {
+    int[] values;
+  }
+
+  @Test
+  public void testEqualsAndHashCode_comparesArrayContents() {
+    ArrayTestClass first = new ArrayTestClass();
+    first.values = new int[] {1, 2, 3};
+    ArrayTestClass second = new ArrayTestClass();
+    second.values = new int[] {1, 2, 3};
+    assertThat(first).isEqualTo(second);
+    assertThat(first.hashCode()).isEqualTo(second.hashCode());
+    ArrayTestClass third = new ArrayTestClass();
+    third.values = new int[] {1, 2, 4};
+    assertThat(first).isNotEqualTo(third);
+  }
 }
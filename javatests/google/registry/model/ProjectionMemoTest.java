@@ -0,0 +1,86 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static org.joda.time.DateTimeZone.UTC;
+
+import google.registry.model.domain.DomainResource;
+import google.registry.model.domain.GracePeriod;
+import google.registry.model.domain.rgp.GracePeriodStatus;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ProjectionMemo}. */
+@RunWith(JUnit4.class)
+public class ProjectionMemoTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  private final FakeClock clock = new FakeClock(DateTime.now(UTC));
+  private final ProjectionMemo projectionMemo = new ProjectionMemo();
+  private DomainResource domain;
+
+  @Before
+  public void init() throws Exception {
+    createTld("tld");
+    domain = newDomainResource("example.tld").asBuilder()
+        .addGracePeriod(GracePeriod.createWithoutBillingEvent(
+            GracePeriodStatus.ADD, clock.nowUtc().minusDays(1), "TheRegistrar"))
+        .build();
+  }
+
+  @Test
+  public void testCloneProjectedAtTime_sameInstanceAndTime_reusesProjection() throws Exception {
+    DomainResource projected = projectionMemo.cloneProjectedAtTime(domain, clock.nowUtc());
+    assertThat(projected).isNotSameAs(domain);
+    assertThat(projected.getGracePeriods()).isEmpty();
+    assertThat(projectionMemo.cloneProjectedAtTime(domain, clock.nowUtc())).isSameAs(projected);
+  }
+
+  @Test
+  public void testCloneProjectedAtTime_differentTime_projectsAgain() throws Exception {
+    DomainResource projected = projectionMemo.cloneProjectedAtTime(domain, clock.nowUtc());
+    DomainResource projectedLater =
+        projectionMemo.cloneProjectedAtTime(domain, clock.nowUtc().plusMillis(1));
+    assertThat(projectedLater).isNotSameAs(projected);
+    assertThat(projectedLater.getGracePeriods()).isEmpty();
+  }
+
+  @Test
+  public void testCloneProjectedAtTime_equalButDistinctInstance_projectsAgain() throws Exception {
+    DomainResource copy = domain.asBuilder().build();
+    DomainResource projected = projectionMemo.cloneProjectedAtTime(domain, clock.nowUtc());
+    assertThat(projectionMemo.cloneProjectedAtTime(copy, clock.nowUtc())).isNotSameAs(projected);
+  }
+
+  @Test
+  public void testCloneProjectedAtTime_separateMemos_doNotShareProjections() throws Exception {
+    DomainResource projected = projectionMemo.cloneProjectedAtTime(domain, clock.nowUtc());
+    assertThat(new ProjectionMemo().cloneProjectedAtTime(domain, clock.nowUtc()))
+        .isNotSameAs(projected);
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.common;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.common.Cursor.CursorType.BRDA;
+import static google.registry.model.common.Cursor.CursorType.RDE_STAGING;
+import static google.registry.model.common.Cursor.CursorType.RDE_UPLOAD;
+import static google.registry.model.common.Cursor.CursorType.RECURRING_BILLING;
+import static google.registry.testing.DatastoreHelper.createTlds;
+import static google.registry.testing.DatastoreHelper.deleteResource;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import google.registry.model.EntityTestCase;
+import google.registry.model.common.Cursor.CursorType;
+import google.registry.model.registry.Registry;
+import google.registry.testing.ExceptionRule;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Unit tests for {@link CursorDao}. */
+public class CursorDaoTest extends EntityTestCase {
+
+  @Rule public final ExceptionRule thrown = new ExceptionRule();
+
+  private final DateTime time = DateTime.parse("2012-07-12T03:30:00.000Z");
+
+  @Before
+  public void setUp() {
+    createTlds("foo", "bar", "baz");
+    inject.setStaticField(CursorDao.class, "clock", clock);
+  }
+
+  private Cursor persistCursor(CursorType cursorType, DateTime cursorTime, String tld) {
+    return persistResource(Cursor.create(cursorType, cursorTime, Registry.get(tld)));
+  }
+
+  @Test
+  public void testLoad_returnsExistingCursors() {
+    Cursor fooBrda = persistCursor(BRDA, time, "foo");
+    Cursor fooStaging = persistCursor(RDE_STAGING, time.plusDays(1), "foo");
+    Cursor barStaging = persistCursor(RDE_STAGING, time.plusDays(2), "bar");
+    persistCursor(RDE_UPLOAD, time, "bar");
+    persistCursor(BRDA, time, "baz");
+    assertThat(CursorDao.load(ImmutableSet.of("foo", "bar"), ImmutableSet.of(BRDA, RDE_STAGING)))
+        .isEqualTo(new ImmutableTable.Builder<String, CursorType, Cursor>()
+            .put("foo", BRDA, fooBrda)
+            .put("foo", RDE_STAGING, fooStaging)
+            .put("bar", RDE_STAGING, barStaging)
+            .build());
+  }
+
+  @Test
+  public void testLoad_noTlds_returnsEmptyTable() {
+    assertThat(CursorDao.load(ImmutableSet.<String>of(), ImmutableSet.of(BRDA))).isEmpty();
+  }
+
+  @Test
+  public void testFailure_load_globalCursorType() {
+    thrown.expect(
+        IllegalArgumentException.class, "Cursor type is not scoped to a TLD: RECURRING_BILLING");
+    CursorDao.load(ImmutableSet.of("foo"), ImmutableSet.of(RECURRING_BILLING));
+  }
+
+  @Test
+  public void testLoadCached_returnsAllTldCursors() {
+    Cursor fooBrda = persistCursor(BRDA, time, "foo");
+    Cursor bazUpload = persistCursor(RDE_UPLOAD, time, "baz");
+    assertThat(CursorDao.loadCached())
+        .isEqualTo(new ImmutableTable.Builder<String, CursorType, Cursor>()
+            .put("foo", BRDA, fooBrda)
+            .put("baz", RDE_UPLOAD, bazUpload)
+            .build());
+  }
+
+  @Test
+  public void testGetCursorLags_servedFromCachedView() {
+    inject.setStaticField(
+        CursorDao.class, "cache", CursorDao.createFreshCache(Duration.standardMinutes(1)));
+    persistCursor(BRDA, clock.nowUtc().minusHours(1), "foo");
+    assertThat(CursorDao.getCursorLags())
+        .isEqualTo(ImmutableMap.of(ImmutableList.of("foo", "BRDA"), 3600L));
+    // The cursor's new time isn't seen until the cached view is reloaded, but the lag is still
+    // measured against the current time.
+    persistCursor(BRDA, clock.nowUtc().minusMinutes(1), "foo");
+    clock.advanceBy(Duration.standardSeconds(10));
+    assertThat(CursorDao.getCursorLags())
+        .isEqualTo(ImmutableMap.of(ImmutableList.of("foo", "BRDA"), 3610L));
+  }
+
+  @Test
+  public void testGetCursorLags() {
+    persistCursor(BRDA, clock.nowUtc().minusHours(1), "foo");
+    persistCursor(RDE_STAGING, clock.nowUtc().plusMinutes(1), "bar");
+    assertThat(CursorDao.getCursorLags())
+        .isEqualTo(ImmutableMap.of(
+            ImmutableList.of("foo", "BRDA"), 3600L,
+            ImmutableList.of("bar", "RDE_STAGING"), -60L));
+  }
+
+  @Test
+  public void testGetCursorLags_reflectsCurrentCursors() {
+    Cursor cursor = persistCursor(BRDA, clock.nowUtc().minusHours(1), "foo");
+    assertThat(CursorDao.getCursorLags()).containsKey(ImmutableList.of("foo", "BRDA"));
+    persistCursor(BRDA, clock.nowUtc().minusMinutes(1), "foo");
+    assertThat(CursorDao.getCursorLags())
+        .isEqualTo(ImmutableMap.of(ImmutableList.of("foo", "BRDA"), 60L));
+    deleteResource(cursor);
+    assertThat(CursorDao.getCursorLags()).isEmpty();
+  }
+}
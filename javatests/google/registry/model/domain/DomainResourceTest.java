@@ -34,6 +34,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
 import com.googlecode.objectify.Key;
 import google.registry.model.EntityTestCase;
+import google.registry.model.EppResource;
 import google.registry.model.billing.BillingEvent;
 import google.registry.model.billing.BillingEvent.Reason;
 import google.registry.model.contact.ContactResource;
@@ -52,6 +53,7 @@ import google.registry.model.transfer.TransferData;
 import google.registry.model.transfer.TransferData.TransferServerApproveEntity;
 import google.registry.model.transfer.TransferStatus;
 import google.registry.testing.ExceptionRule;
+import java.lang.reflect.Field;
 import org.joda.money.Money;
 import org.joda.time.DateTime;
 import org.junit.Before;
@@ -434,6 +436,64 @@ public class DomainResourceTest extends EntityTestCase {
             renewedThreeTimes.autorenewBillingEvent));
   }
 
+  @Test
+  public void testGetNextProjectionChangeTime_earliestGracePeriodExpiration() {
+    assertThat(domain.getNextProjectionChangeTime()).isEqualTo(clock.nowUtc().plusDays(1));
+  }
+
+  @Test
+  public void testGetNextProjectionChangeTime_pendingTransfer() {
+    domain = domain.asBuilder()
+        .setTransferData(domain.getTransferData().asBuilder()
+            .setTransferStatus(TransferStatus.PENDING)
+            .setPendingTransferExpirationTime(clock.nowUtc().plusHours(1))
+            .build())
+        .build();
+    assertThat(domain.getNextProjectionChangeTime()).isEqualTo(clock.nowUtc().plusHours(1));
+  }
+
+  @Test
+  public void testGetNextProjectionChangeTime_registrationExpiration() {
+    domain = domain.asBuilder()
+        .setGracePeriods(ImmutableSet.<GracePeriod>of())
+        .build();
+    assertThat(domain.getNextProjectionChangeTime())
+        .isEqualTo(domain.getRegistrationExpirationTime());
+  }
+
+  @Test
+  public void testCloneProjectedAtTime_beforeNextChange_returnsSameDomain() {
+    assertThat(domain.cloneProjectedAtTime(clock.nowUtc())).isSameAs(domain);
+    assertThat(domain.cloneProjectedAtTime(clock.nowUtc().plusDays(1).minusMillis(1)))
+        .isSameAs(domain);
+    DomainResource projected = domain.cloneProjectedAtTime(clock.nowUtc().plusDays(1));
+    assertThat(projected).isNotSameAs(domain);
+    assertThat(projected.getGracePeriods()).isEmpty();
+  }
+
+  @Test
+  public void testCloneProjectedAtTime_beforeNextChange_normalizesEmptyFields() throws Exception {
+    // Simulate an entity that was saved without going through the builder, which would have
+    // nulled out the empty set.
+    Field gracePeriodsField = DomainResource.class.getDeclaredField("gracePeriods");
+    gracePeriodsField.setAccessible(true);
+    gracePeriodsField.set(domain, ImmutableSet.of());
+    DomainResource projected = domain.cloneProjectedAtTime(clock.nowUtc());
+    assertThat(projected).isNotSameAs(domain);
+    assertThat(gracePeriodsField.get(projected)).isNull();
+  }
+
+  @Test
+  public void testCloneProjectedAtTime_beforeNextChange_normalizesStatusValues() throws Exception {
+    // Simulate an entity that was saved without going through the builder, which would have
+    // removed INACTIVE since the domain has nameservers.
+    Field statusField = EppResource.class.getDeclaredField("status");
+    statusField.setAccessible(true);
+    statusField.set(domain, ImmutableSet.of(StatusValue.INACTIVE, StatusValue.CLIENT_HOLD));
+    assertThat(domain.cloneProjectedAtTime(clock.nowUtc()).getStatusValues())
+        .containsExactly(StatusValue.CLIENT_HOLD);
+  }
+
   @Test
   public void testToHydratedString_notCircular() {
     domain.toHydratedString();  // If there are circular references, this will overflow the stack.
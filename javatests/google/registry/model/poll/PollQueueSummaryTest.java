@@ -0,0 +1,398 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.poll;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.poll.PollQueueSummary.LOOKAHEAD;
+import static google.registry.model.poll.PollQueueSummary.TRACKING_WINDOW;
+import static google.registry.model.poll.PollQueueSummary.countPollMessages;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import google.registry.model.EntityTestCase;
+import google.registry.model.domain.Period;
+import google.registry.model.eppcommon.Trid;
+import google.registry.model.poll.PollQueueSummary.UpcomingMessage;
+import google.registry.model.reporting.HistoryEntry;
+import google.registry.testing.ExceptionRule;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Unit tests for {@link PollQueueSummary}. */
+public class PollQueueSummaryTest extends EntityTestCase {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private HistoryEntry historyEntry;
+  private DateTime checkpoint;
+
+  @Before
+  public void setUp() throws Exception {
+    createTld("foobar");
+    historyEntry = persistResource(new HistoryEntry.Builder()
+        .setParent(persistActiveDomain("foo.foobar"))
+        .setType(HistoryEntry.Type.DOMAIN_CREATE)
+        .setPeriod(Period.create(1, Period.Unit.YEARS))
+        .setXmlBytes("<xml></xml>".getBytes(UTF_8))
+        .setModificationTime(clock.nowUtc())
+        .setClientId("TheRegistrar")
+        .setTrid(Trid.create("ABC-123"))
+        .setBySuperuser(false)
+        .build());
+    checkpoint = clock.nowUtc().minusDays(1);
+  }
+
+  private PollMessage createPollMessage(String clientId, DateTime eventTime) {
+    return new PollMessage.OneTime.Builder()
+        .setClientId(clientId)
+        .setEventTime(eventTime)
+        .setMsg("Test poll message")
+        .setParent(historyEntry)
+        .build();
+  }
+
+  private PollMessage persistPollMessage(String clientId, DateTime eventTime) {
+    return persistResource(createPollMessage(clientId, eventTime));
+  }
+
+  private static void runInTransaction(VoidWork work) {
+    ofy().transact(work);
+    ofy().clearSessionCache();
+  }
+
+  private static void deletePollMessage(final PollMessage pollMessage) {
+    runInTransaction(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().deleteWithoutBackup().entity(pollMessage);
+      }});
+  }
+
+  private static void reschedulePollMessage(
+      final PollMessage pollMessage, final DateTime eventTime) {
+    runInTransaction(new VoidWork() {
+      @Override
+      public void vrun() {
+        // Like the flows do, load the message before moving it, so that its old time is known.
+        PollMessage loaded = ofy().load().entity(pollMessage).now();
+        ofy().saveWithoutBackup().entity(loaded.asBuilder().setEventTime(eventTime).build());
+      }});
+  }
+
+  private void advance() {
+    assertThat(PollQueueSummary.advance(
+            "TheRegistrar", clock.nowUtc(), clock.nowUtc().plus(LOOKAHEAD)))
+        .isTrue();
+    ofy().clearSessionCache();
+  }
+
+  @Test
+  public void testLoad_absent_returnsEmptySummary() {
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.getClientId()).isEqualTo("TheRegistrar");
+    assertThat(summary.getCountedThrough()).isEqualTo(START_OF_TIME);
+    assertThat(summary.getDueCount()).isEqualTo(0);
+    assertThat(summary.getTrackedThrough()).isEqualTo(START_OF_TIME);
+    assertThat(summary.getUpcomingMessages()).isEmpty();
+    assertThat(summary.isCompleteAt(clock.nowUtc())).isFalse();
+  }
+
+  @Test
+  public void testCountPollMessages() {
+    persistPollMessage("TheRegistrar", checkpoint.minusDays(2));
+    persistPollMessage("TheRegistrar", checkpoint);
+    persistPollMessage("TheRegistrar", checkpoint.plusHours(1));
+    persistPollMessage("NewRegistrar", checkpoint);
+    assertThat(countPollMessages("TheRegistrar", START_OF_TIME, checkpoint)).isEqualTo(2);
+    assertThat(countPollMessages("TheRegistrar", checkpoint.minusDays(2), clock.nowUtc()))
+        .isEqualTo(2);
+    assertThat(countPollMessages("TheRegistrar", checkpoint, checkpoint)).isEqualTo(0);
+    assertThat(countPollMessages("NewRegistrar", START_OF_TIME, clock.nowUtc())).isEqualTo(1);
+  }
+
+  @Test
+  public void testReplace_unchanged_saves() {
+    PollQueueSummary empty = PollQueueSummary.load("TheRegistrar");
+    PollQueueSummary replacement =
+        PollQueueSummary.create("TheRegistrar", checkpoint, 3, clock.nowUtc());
+    assertThat(PollQueueSummary.replace(empty, replacement)).isTrue();
+    ofy().clearSessionCache();
+    assertThat(PollQueueSummary.load("TheRegistrar")).isEqualTo(replacement);
+  }
+
+  @Test
+  public void testReplace_changedConcurrently_doesNotSave() {
+    PollQueueSummary empty = PollQueueSummary.load("TheRegistrar");
+    PollQueueSummary concurrent =
+        PollQueueSummary.create("TheRegistrar", checkpoint, 3, clock.nowUtc());
+    PollQueueSummary.replace(empty, concurrent);
+    ofy().clearSessionCache();
+    assertThat(PollQueueSummary.replace(
+            empty, PollQueueSummary.create("TheRegistrar", checkpoint, 5, clock.nowUtc())))
+        .isFalse();
+    ofy().clearSessionCache();
+    assertThat(PollQueueSummary.load("TheRegistrar")).isEqualTo(concurrent);
+  }
+
+  @Test
+  public void testCreate_countedPastTracked_throws() {
+    thrown.expect(IllegalArgumentException.class, "only tracked through");
+    PollQueueSummary.create("TheRegistrar", clock.nowUtc(), 0, checkpoint);
+  }
+
+  @Test
+  public void testAdvance_emptyQueue_tracksAhead() {
+    advance();
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.getCountedThrough()).isEqualTo(clock.nowUtc());
+    assertThat(summary.getTrackedThrough()).isEqualTo(clock.nowUtc().plus(LOOKAHEAD));
+    assertThat(summary.getDueCount()).isEqualTo(0);
+    assertThat(summary.isCompleteAt(clock.nowUtc().plus(LOOKAHEAD))).isTrue();
+    assertThat(summary.isCompleteAt(clock.nowUtc().plus(LOOKAHEAD).plusMillis(1))).isFalse();
+  }
+
+  @Test
+  public void testRecordChanges_createDueMessage_counts() {
+    advance();
+    persistPollMessage("TheRegistrar", checkpoint);
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.getDueCount()).isEqualTo(1);
+    assertThat(summary.getUpcomingMessages()).isEmpty();
+    assertThat(summary.getLastChangeTime()).isEqualTo(clock.nowUtc());
+    assertThat(summary.countDue(clock.nowUtc())).isEqualTo(1);
+  }
+
+  @Test
+  public void testRecordChanges_createUpcomingMessage_countsOnceDue() {
+    advance();
+    PollMessage message = persistPollMessage("TheRegistrar", clock.nowUtc().plusHours(1));
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.getDueCount()).isEqualTo(0);
+    assertThat(summary.getUpcomingMessages())
+        .containsExactly(UpcomingMessage.create(Key.create(message), message.getEventTime()));
+    assertThat(summary.countDue(clock.nowUtc())).isEqualTo(0);
+    assertThat(summary.countDue(clock.nowUtc().plusHours(1))).isEqualTo(1);
+  }
+
+  @Test
+  public void testRecordChanges_createFarOffMessage_leavesSummaryAlone() {
+    advance();
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    persistPollMessage("TheRegistrar", clock.nowUtc().plus(TRACKING_WINDOW).plusMillis(1));
+    ofy().clearSessionCache();
+    assertThat(PollQueueSummary.load("TheRegistrar")).isEqualTo(summary);
+  }
+
+  @Test
+  public void testRecordChanges_noSummaryYet_createsOne() {
+    persistPollMessage("TheRegistrar", checkpoint);
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    // Nothing is counted through until the summary is first advanced, but the message is kept.
+    assertThat(summary.getTrackedThrough()).isEqualTo(START_OF_TIME);
+    assertThat(summary.getUpcomingMessages()).hasSize(1);
+    assertThat(summary.countDue(clock.nowUtc())).isEqualTo(1);
+  }
+
+  @Test
+  public void testRecordChanges_deleteDueMessage_decrements() {
+    advance();
+    PollMessage message = persistPollMessage("TheRegistrar", checkpoint);
+    persistPollMessage("TheRegistrar", checkpoint);
+    assertThat(PollQueueSummary.load("TheRegistrar").getDueCount()).isEqualTo(2);
+    deletePollMessage(message);
+    assertThat(PollQueueSummary.load("TheRegistrar").getDueCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRecordChanges_deleteWithBackup_decrements() {
+    advance();
+    final PollMessage message = persistPollMessage("TheRegistrar", checkpoint);
+    // Commit logged transactions can't share a timestamp with the domain's last save.
+    clock.advanceOneMilli();
+    runInTransaction(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().delete().entity(message);
+      }});
+    assertThat(PollQueueSummary.load("TheRegistrar").getDueCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRecordChanges_deleteUpcomingMessage_removesIt() {
+    advance();
+    PollMessage message = persistPollMessage("TheRegistrar", clock.nowUtc().plusHours(1));
+    deletePollMessage(message);
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.getUpcomingMessages()).isEmpty();
+    assertThat(summary.getUntrackedRemovals()).isEmpty();
+  }
+
+  @Test
+  public void testRecordChanges_deleteMessagePastTrackedThrough_remembersRemoval() {
+    advance();
+    PollMessage message =
+        persistPollMessage("TheRegistrar", clock.nowUtc().plus(LOOKAHEAD).plusMinutes(30));
+    deletePollMessage(message);
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.getUpcomingMessages()).isEmpty();
+    assertThat(summary.getUntrackedRemovals()).containsExactly(Key.create(message));
+  }
+
+  @Test
+  public void testRecordChanges_rescheduleDueMessageFarOff_decrements() {
+    advance();
+    PollMessage message = persistPollMessage("TheRegistrar", checkpoint);
+    reschedulePollMessage(message, checkpoint.plusYears(1));
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.getDueCount()).isEqualTo(0);
+    assertThat(summary.getUpcomingMessages()).isEmpty();
+  }
+
+  @Test
+  public void testRecordChanges_rescheduleDueMessageWithinCount_staysCounted() {
+    advance();
+    PollMessage message = persistPollMessage("TheRegistrar", checkpoint.minusYears(1));
+    reschedulePollMessage(message, checkpoint);
+    assertThat(PollQueueSummary.load("TheRegistrar").getDueCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRecordChanges_severalRegistrarsInOneTransaction() {
+    advance();
+    runInTransaction(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().saveWithoutBackup().entities(
+            createPollMessage("TheRegistrar", checkpoint),
+            createPollMessage("NewRegistrar", checkpoint));
+      }});
+    assertThat(PollQueueSummary.load("TheRegistrar").getDueCount()).isEqualTo(1);
+    assertThat(PollQueueSummary.load("NewRegistrar").countDue(clock.nowUtc())).isEqualTo(1);
+  }
+
+  @Test
+  public void testRecordChanges_foldsDueUpcomingMessages() {
+    advance();
+    persistPollMessage("TheRegistrar", clock.nowUtc().plusHours(1));
+    clock.advanceBy(Duration.standardHours(2));
+    persistPollMessage("TheRegistrar", clock.nowUtc());
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.getCountedThrough()).isEqualTo(clock.nowUtc());
+    assertThat(summary.getDueCount()).isEqualTo(2);
+    assertThat(summary.getUpcomingMessages()).isEmpty();
+  }
+
+  @Test
+  public void testAdvance_picksUpFarOffMessages() {
+    advance();
+    persistPollMessage("TheRegistrar", clock.nowUtc().plusHours(8));
+    persistPollMessage("TheRegistrar", clock.nowUtc().minusDays(1));
+    clock.advanceBy(Duration.standardHours(3));
+    advance();
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.getDueCount()).isEqualTo(1);
+    assertThat(summary.getUpcomingMessages()).hasSize(1);
+    assertThat(summary.countDue(clock.nowUtc().plusHours(5))).isEqualTo(2);
+  }
+
+  @Test
+  public void testAdvance_clearsRemovals() {
+    advance();
+    PollMessage message =
+        persistPollMessage("TheRegistrar", clock.nowUtc().plus(LOOKAHEAD).plusMinutes(30));
+    deletePollMessage(message);
+    clock.advanceBy(Duration.standardHours(1));
+    advance();
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.getUpcomingMessages()).isEmpty();
+    assertThat(summary.getUntrackedRemovals()).isEmpty();
+    assertThat(summary.countDue(clock.nowUtc().plus(LOOKAHEAD))).isEqualTo(0);
+  }
+
+  @Test
+  public void testAdvance_doesNotDoubleCountTrackedMessages() {
+    advance();
+    persistPollMessage("TheRegistrar", clock.nowUtc().plus(LOOKAHEAD).plusMinutes(30));
+    clock.advanceBy(Duration.standardHours(1));
+    advance();
+    assertThat(PollQueueSummary.load("TheRegistrar").getUpcomingMessages()).hasSize(1);
+  }
+
+  @Test
+  public void testAdvance_alreadyTrackedThrough_isNoOp() {
+    advance();
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(PollQueueSummary.advance("TheRegistrar", clock.nowUtc(), clock.nowUtc()))
+        .isTrue();
+    ofy().clearSessionCache();
+    assertThat(PollQueueSummary.load("TheRegistrar")).isEqualTo(summary);
+  }
+
+  @Test
+  public void testRecordChanges_tooManyMessagesToTrack_overflows() {
+    inject.setStaticField(PollQueueSummary.class, "maxTrackedMessages", 2);
+    advance();
+    persistPollMessage("TheRegistrar", clock.nowUtc().plusHours(1));
+    persistPollMessage("TheRegistrar", clock.nowUtc().plusHours(2));
+    assertThat(PollQueueSummary.load("TheRegistrar").isOverflowed()).isFalse();
+    persistPollMessage("TheRegistrar", clock.nowUtc().plusHours(3));
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.isOverflowed()).isTrue();
+    assertThat(summary.getUpcomingMessages()).isEmpty();
+    assertThat(summary.isCompleteAt(clock.nowUtc())).isFalse();
+  }
+
+  @Test
+  public void testRecordChanges_overflowed_leavesSummaryAlone() {
+    inject.setStaticField(PollQueueSummary.class, "maxTrackedMessages", 0);
+    persistPollMessage("TheRegistrar", clock.nowUtc());
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(summary.isOverflowed()).isTrue();
+    clock.advanceOneMilli();
+    persistPollMessage("TheRegistrar", clock.nowUtc());
+    assertThat(PollQueueSummary.load("TheRegistrar")).isEqualTo(summary);
+  }
+
+  @Test
+  public void testAdvance_overflowed_isSkipped() {
+    inject.setStaticField(PollQueueSummary.class, "maxTrackedMessages", 0);
+    persistPollMessage("TheRegistrar", clock.nowUtc());
+    PollQueueSummary summary = PollQueueSummary.load("TheRegistrar");
+    assertThat(PollQueueSummary.advance(
+            "TheRegistrar", clock.nowUtc(), clock.nowUtc().plus(LOOKAHEAD)))
+        .isFalse();
+    ofy().clearSessionCache();
+    assertThat(PollQueueSummary.load("TheRegistrar")).isEqualTo(summary);
+  }
+
+  @Test
+  public void testWithDueCount() {
+    PollQueueSummary summary =
+        PollQueueSummary.create("TheRegistrar", checkpoint, 3, clock.nowUtc());
+    assertThat(summary.withDueCount(5))
+        .isEqualTo(PollQueueSummary.create("TheRegistrar", checkpoint, 5, clock.nowUtc()));
+    assertThat(summary.getDueCount()).isEqualTo(3);
+  }
+}
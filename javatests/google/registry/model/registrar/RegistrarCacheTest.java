@@ -0,0 +1,181 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registrar;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.persistResourceWithCommitLog;
+import static google.registry.testing.DatastoreHelper.persistSimpleResource;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.InetAddresses;
+import com.googlecode.objectify.VoidWork;
+import google.registry.model.EntityTestCase;
+import google.registry.util.CidrAddressBlock;
+import google.registry.util.CidrAddressBlockMatcher;
+import java.util.concurrent.atomic.AtomicReference;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for {@link RegistrarCache}. */
+public class RegistrarCacheTest extends EntityTestCase {
+
+  private final AtomicReference<Optional<Long>> version =
+      new AtomicReference<>(Optional.<Long>absent());
+  private RegistrarCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    cache = RegistrarCache.create(new Supplier<Optional<Long>>() {
+      @Override
+      public Optional<Long> get() {
+        return version.get();
+      }});
+  }
+
+  private static Registrar loadRegistrar(String clientId) {
+    ofy().clearSessionCache();
+    return Registrar.loadByClientId(clientId);
+  }
+
+  @Test
+  public void testGetRegistrar() {
+    assertThat(cache.getRegistrar("TheRegistrar")).isEqualTo(loadRegistrar("TheRegistrar"));
+    assertThat(cache.getRegistrar("NewRegistrar")).isEqualTo(loadRegistrar("NewRegistrar"));
+    assertThat(cache.getRegistrar("NoSuchRegistrar")).isNull();
+  }
+
+  @Test
+  public void testGetRegistrar_servesSnapshot_untilVersionChanges() {
+    Registrar original = cache.getRegistrar("TheRegistrar");
+    persistSimpleResource(original.asBuilder().setUrl("http://example.com").build());
+    assertThat(cache.getRegistrar("TheRegistrar")).isSameAs(original);
+
+    version.set(Optional.of(1L));
+    Registrar reloaded = cache.getRegistrar("TheRegistrar");
+    assertThat(reloaded).isNotSameAs(original);
+    assertThat(reloaded.getUrl()).isEqualTo("http://example.com");
+    assertThat(cache.getRegistrar("TheRegistrar")).isSameAs(reloaded);
+  }
+
+  @Test
+  public void testRegistrarSave_bumpsVersion() {
+    Optional<Long> initialVersion = RegistrarVersion.load();
+    persistSimpleResource(loadRegistrar("NewRegistrar").asBuilder().setUrl("a.b").build());
+    Optional<Long> versionAfterSave = RegistrarVersion.load();
+    assertThat(versionAfterSave).isPresent();
+    assertThat(versionAfterSave).isNotEqualTo(initialVersion);
+
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(loadRegistrar("NewRegistrar").asBuilder().setUrl("c.d").build());
+    assertThat(RegistrarVersion.load()).isNotEqualTo(versionAfterSave);
+  }
+
+  @Test
+  public void testRegistrarDelete_bumpsVersion() {
+    persistSimpleResource(loadRegistrar("NewRegistrar").asBuilder().setUrl("a.b").build());
+    Optional<Long> versionBefore = RegistrarVersion.load();
+    clock.advanceOneMilli();
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().deleteWithoutBackup().entity(Registrar.loadByClientId("NewRegistrar"));
+      }});
+    assertThat(RegistrarVersion.load()).isNotEqualTo(versionBefore);
+  }
+
+  @Test
+  public void testRegistrarToEntity_doesNotBumpVersion() {
+    persistSimpleResource(loadRegistrar("NewRegistrar").asBuilder().setUrl("a.b").build());
+    Optional<Long> versionBefore = RegistrarVersion.load();
+    // Commit logs convert entities like this, which mustn't count as another save.
+    ofy().save().toEntity(loadRegistrar("NewRegistrar"));
+    assertThat(RegistrarVersion.load()).isEqualTo(versionBefore);
+  }
+
+  @Test
+  public void testRegistrarSave_rolledBack_doesNotBumpVersion() {
+    persistSimpleResource(loadRegistrar("NewRegistrar").asBuilder().setUrl("a.b").build());
+    Optional<Long> versionBefore = RegistrarVersion.load();
+    final Registrar registrar = loadRegistrar("NewRegistrar").asBuilder().setUrl("c.d").build();
+    try {
+      ofy().transact(new VoidWork() {
+        @Override
+        public void vrun() {
+          ofy().saveWithoutBackup().entity(registrar);
+          throw new IllegalStateException("Roll back");
+        }});
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException expected) {}
+    ofy().clearSessionCache();
+    assertThat(RegistrarVersion.load()).isEqualTo(versionBefore);
+    assertThat(loadRegistrar("NewRegistrar").getUrl()).isEqualTo("a.b");
+  }
+
+  @Test
+  public void testLoadByClientIdCached_withCheckInterval_picksUpEditAfterInterval()
+      throws Exception {
+    inject.setStaticField(
+        RegistrarCache.class, "instance", RegistrarCache.createInstance(Duration.millis(10)));
+    Registrar original = Registrar.loadByClientIdCached("TheRegistrar");
+    assertThat(original).isEqualTo(loadRegistrar("TheRegistrar"));
+    persistSimpleResource(original.asBuilder().setUrl("http://example.com").build());
+    // Wait out the check interval, after which the bumped version makes the snapshot reload.
+    Thread.sleep(20);
+    Registrar updated = Registrar.loadByClientIdCached("TheRegistrar");
+    assertThat(updated.getUrl()).isEqualTo("http://example.com");
+    // Until the version changes again, the same snapshot is served.
+    Thread.sleep(20);
+    assertThat(Registrar.loadByClientIdCached("TheRegistrar")).isSameAs(updated);
+  }
+
+  @Test
+  public void testGetMatcher_precompiledForSnapshotRegistrars() {
+    persistSimpleResource(loadRegistrar("TheRegistrar").asBuilder()
+        .setIpAddressWhitelist(ImmutableList.of(
+            CidrAddressBlock.create("10.0.0.0/8"),
+            CidrAddressBlock.create("2001:db8::/32")))
+        .build());
+    Registrar registrar = cache.getRegistrar("TheRegistrar");
+    CidrAddressBlockMatcher matcher = cache.getMatcher(registrar);
+    assertThat(cache.getMatcher(registrar)).isSameAs(matcher);
+    assertThat(matcher.contains(InetAddresses.forString("10.1.2.3"))).isTrue();
+    assertThat(matcher.contains(InetAddresses.forString("2001:db8::1"))).isTrue();
+    assertThat(matcher.contains(InetAddresses.forString("11.1.2.3"))).isFalse();
+  }
+
+  @Test
+  public void testGetMatcher_compiledOnTheSpotForOtherRegistrars() {
+    cache.getRegistrar("TheRegistrar");
+    Registrar registrar = loadRegistrar("TheRegistrar").asBuilder()
+        .setIpAddressWhitelist(ImmutableList.of(CidrAddressBlock.create("1.2.3.4")))
+        .build();
+    CidrAddressBlockMatcher matcher = cache.getMatcher(registrar);
+    assertThat(matcher.contains(InetAddresses.forString("1.2.3.4"))).isTrue();
+    assertThat(matcher.contains(InetAddresses.forString("1.2.3.5"))).isFalse();
+  }
+
+  @Test
+  public void testLoadByClientIdCached_readsThroughInUnitTests() {
+    Registrar registrar = Registrar.loadByClientIdCached("TheRegistrar");
+    persistSimpleResource(registrar.asBuilder().setUrl("http://example.com").build());
+    assertThat(Registrar.loadByClientIdCached("TheRegistrar").getUrl())
+        .isEqualTo("http://example.com");
+  }
+}
@@ -81,4 +81,32 @@ public class RegistriesTest {
     // Substring tld matches aren't considered.
     assertThat(Registries.findTldForName(InternetDomainName.from("example.barfoo"))).isAbsent();
   }
+
+  @Test
+  public void testFindTldForName_string() {
+    initTestTlds();
+    assertThat(Registries.findTldForName("example.foo").get().toString()).isEqualTo("foo");
+    assertThat(Registries.findTldForName("x.y.a.b.c").get().toString()).isEqualTo("a.b.c");
+    assertThat(Registries.findTldForName("foo.example")).isAbsent();
+    assertThat(Registries.findTldForName("foo")).isAbsent();
+    assertThat(Registries.findTldForName("x.y.b.c")).isAbsent();
+    assertThat(Registries.findTldForName("example.barfoo")).isAbsent();
+  }
+
+  @Test
+  public void testFindTldForName_prefersLongestTld() {
+    createTlds("foo", "bar.foo");
+    assertThat(Registries.findTldForName(InternetDomainName.from("example.bar.foo")).get()
+        .toString()).isEqualTo("bar.foo");
+    assertThat(Registries.findTldForName("example.foo").get().toString()).isEqualTo("foo");
+  }
+
+  @Test
+  public void testFindTldForName_seesNewTldsAfterCacheReset() {
+    initTestTlds();
+    assertThat(Registries.findTldForName("example.bar")).isAbsent();
+    createTlds("bar");
+    Registries.resetCache();
+    assertThat(Registries.findTldForName("example.bar").get().toString()).isEqualTo("bar");
+  }
 }
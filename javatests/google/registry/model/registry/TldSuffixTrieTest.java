@@ -0,0 +1,81 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.InternetDomainName;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TldSuffixTrie}. */
+@RunWith(JUnit4.class)
+public class TldSuffixTrieTest {
+
+  private final TldSuffixTrie trie =
+      TldSuffixTrie.create(ImmutableSet.of("foo", "bar.foo", "a.b.c", "xn--q9jyb4c"));
+
+  private String find(String name) {
+    InternetDomainName tld = trie.findTldForName(name);
+    return tld == null ? null : tld.toString();
+  }
+
+  @Test
+  public void testFindTldForName_singleLabelTld() {
+    assertThat(find("example.foo")).isEqualTo("foo");
+    assertThat(find("ns1.example.foo")).isEqualTo("foo");
+    assertThat(find("x.xn--q9jyb4c")).isEqualTo("xn--q9jyb4c");
+  }
+
+  @Test
+  public void testFindTldForName_multipartTld() {
+    assertThat(find("x.y.a.b.c")).isEqualTo("a.b.c");
+    assertThat(find("x.a.b.c")).isEqualTo("a.b.c");
+  }
+
+  @Test
+  public void testFindTldForName_prefersLongestTld() {
+    assertThat(find("example.bar.foo")).isEqualTo("bar.foo");
+    assertThat(find("ns1.example.bar.foo")).isEqualTo("bar.foo");
+    // The name itself is never its own TLD, so this falls back to the shorter match.
+    assertThat(find("bar.foo")).isEqualTo("foo");
+  }
+
+  @Test
+  public void testFindTldForName_noMatch() {
+    assertThat(find("foo")).isNull();
+    assertThat(find("a.b.c")).isNull();
+    assertThat(find("foo.example")).isNull();
+    assertThat(find("x.y.a.b")).isNull();
+    assertThat(find("x.y.b.c")).isNull();
+    assertThat(find("example.barfoo")).isNull();
+    assertThat(find("")).isNull();
+  }
+
+  @Test
+  public void testFindTldForName_foldsAsciiCase() {
+    assertThat(find("Example.FOO")).isEqualTo("foo");
+    assertThat(find("X.A.B.C")).isEqualTo("a.b.c");
+  }
+
+  @Test
+  public void testFindTldForName_emptyTrie() {
+    TldSuffixTrie emptyTrie = TldSuffixTrie.create(ImmutableList.<String>of());
+    assertThat(emptyTrie.findTldForName("example.foo")).isNull();
+  }
+}
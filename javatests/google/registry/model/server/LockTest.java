@@ -15,12 +15,19 @@
 package google.registry.model.server;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.googlecode.objectify.Work;
 import google.registry.model.ofy.Ofy;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 import org.joda.time.Duration;
 import org.junit.Rule;
 import org.junit.Test;
@@ -35,6 +42,11 @@ public class LockTest {
   private static final Duration ONE_DAY = Duration.standardDays(1);
   private static final Duration TWO_MILLIS = Duration.millis(2);
 
+  // Leases are renewed halfway to 5 seconds before they expire, so these two are renewed every 10
+  // milliseconds and every second of real time respectively.
+  private static final Duration QUICKLY_RENEWED_LEASE = Duration.millis(5020);
+  private static final Duration SLOWLY_RENEWED_LEASE = Duration.millis(7000);
+
   @Rule
   public final AppEngineRule appEngine = AppEngineRule.builder()
       .withDatastore()
@@ -104,6 +116,206 @@ public class LockTest {
     assertThat(Lock.acquire(String.class, RESOURCE_NAME, "", TWO_MILLIS)).isNotNull();
   }
 
+  @Test
+  public void testFencingTokens_increaseWithEachAcquisition() throws Exception {
+    FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    Lock first = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    assertThat(first.getFencingToken()).isEqualTo(1L);
+    // Taking over an expired lock.
+    clock.advanceBy(TWO_MILLIS);
+    Lock second = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    assertThat(second.getFencingToken()).isEqualTo(2L);
+    // Acquiring a lock that was released, at the same time as the release.
+    second.release();
+    Lock third = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    assertThat(third.getFencingToken()).isEqualTo(3L);
+  }
+
+  @Test
+  public void testRelease_keepsExpiredLock() throws Exception {
+    FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    Lock lock = Lock.acquire(getClass(), RESOURCE_NAME, "", ONE_DAY);
+    clock.advanceOneMilli();
+    lock.release();
+    Lock releasedLock = ofy().load().type(Lock.class).id(lock.lockId).now();
+    assertThat(releasedLock).isNotNull();
+    assertThat(releasedLock.getExpirationTime()).isEqualTo(clock.nowUtc());
+    assertThat(releasedLock.getFencingToken()).isEqualTo(lock.getFencingToken());
+  }
+
+  @Test
+  public void testRelease_afterTakeover_leavesNewLock() throws Exception {
+    FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    Lock lock = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    clock.advanceBy(TWO_MILLIS);
+    Lock newLock = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    lock.release();
+    assertThat(ofy().load().type(Lock.class).id(lock.lockId).now()).isEqualTo(newLock);
+  }
+
+  @Test
+  public void testRenew_extendsLease() throws Exception {
+    FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    Lock lock = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    clock.advanceOneMilli();
+    Lock renewedLock = lock.renew(TWO_MILLIS);
+    assertThat(renewedLock).isNotNull();
+    assertThat(renewedLock.getExpirationTime()).isEqualTo(clock.nowUtc().plus(TWO_MILLIS));
+    assertThat(renewedLock.getFencingToken()).isEqualTo(lock.getFencingToken());
+    // The original lease would have run out by now.
+    clock.advanceOneMilli();
+    assertThat(Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS)).isNull();
+  }
+
+  @Test
+  public void testRenew_afterQueueJoined_extendsLease() throws Exception {
+    FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    Lock lock = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    Lock.joinQueue(Object.class, RESOURCE_NAME, "");
+    clock.advanceOneMilli();
+    assertThat(lock.renew(TWO_MILLIS)).isNotNull();
+  }
+
+  @Test
+  public void testRenew_takenOver_fails() throws Exception {
+    FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    Lock lock = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    clock.advanceBy(TWO_MILLIS);
+    assertThat(Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS)).isNotNull();
+    assertThat(lock.renew(TWO_MILLIS)).isNull();
+  }
+
+  @Test
+  public void testRenew_expired_fails() throws Exception {
+    FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    Lock lock = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    clock.advanceBy(TWO_MILLIS);
+    assertThat(lock.renew(TWO_MILLIS)).isNull();
+  }
+
+  @Test
+  public void testIsHeld() throws Exception {
+    FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    final Lock lock = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    assertThat(isHeld(lock.getFencingToken())).isTrue();
+    assertThat(isHeld(lock.getFencingToken() - 1)).isFalse();
+    clock.advanceBy(TWO_MILLIS);
+    assertThat(isHeld(lock.getFencingToken())).isFalse();
+  }
+
+  private static boolean isHeld(final long fencingToken) {
+    return ofy().transact(new Work<Boolean>() {
+      @Override
+      public Boolean run() {
+        return Lock.isHeld(RESOURCE_NAME, "", fencingToken);
+      }});
+  }
+
+  @Test
+  public void testExecuteWithLocks_runsWithFencingTokenAndReleases() throws Exception {
+    final AtomicLong fencingToken = new AtomicLong();
+    assertThat(Lock.executeWithLocks(
+            new Callable<Void>() {
+              @Override
+              public Void call() {
+                fencingToken.set(Lock.getHeldFencingToken(RESOURCE_NAME, ""));
+                assertThat(isHeld(fencingToken.get())).isTrue();
+                return null;
+              }},
+            getClass(),
+            "",
+            ONE_DAY,
+            RESOURCE_NAME))
+        .isTrue();
+    assertThat(fencingToken.get()).isGreaterThan(0L);
+    assertThat(Lock.acquire(getClass(), RESOURCE_NAME, "", ONE_DAY)).isNotNull();
+  }
+
+  @Test
+  public void testExecuteWithLocks_lockHeld_doesNotRun() throws Exception {
+    Lock.acquire(getClass(), RESOURCE_NAME, "", ONE_DAY);
+    assertThat(Lock.executeWithLocks(
+            new Callable<Void>() {
+              @Override
+              public Void call() {
+                throw new AssertionError("Shouldn't have run");
+              }},
+            getClass(),
+            "",
+            ONE_DAY,
+            RESOURCE_NAME))
+        .isFalse();
+  }
+
+  @Test
+  public void testExecuteWithLocks_renewsLeaseWhileRunningPastIt() throws Exception {
+    final FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    assertThat(Lock.executeWithLocks(
+            new Callable<Void>() {
+              @Override
+              public Void call() throws InterruptedException {
+                long fencingToken = Lock.getHeldFencingToken(RESOURCE_NAME, "");
+                // Run for twice the lease, giving it a few renewals along the way.
+                for (int i = 0; i < 10; i++) {
+                  clock.advanceBy(Duration.standardSeconds(1));
+                  Thread.sleep(50);
+                }
+                assertThat(isHeld(fencingToken)).isTrue();
+                return null;
+              }},
+            getClass(),
+            "",
+            QUICKLY_RENEWED_LEASE,
+            RESOURCE_NAME))
+        .isTrue();
+  }
+
+  @Test
+  public void testExecuteWithLocks_leaseLost_interruptsAndThrows() throws Exception {
+    final FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    try {
+      Lock.executeWithLocks(
+          new Callable<Void>() {
+            @Override
+            public Void call() {
+              // Let the lease run out before its first renewal, and have someone else take over.
+              clock.advanceBy(SLOWLY_RENEWED_LEASE);
+              assertThat(Lock.acquire(Object.class, RESOURCE_NAME, "", ONE_DAY)).isNotNull();
+              try {
+                new CountDownLatch(1).await();
+              } catch (InterruptedException e) {
+                interrupted.countDown();
+              }
+              return null;
+            }},
+          getClass(),
+          "",
+          SLOWLY_RENEWED_LEASE,
+          RESOURCE_NAME);
+      assertWithMessage("Expected the lost lease to fail with IllegalStateException").fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Lost lock while in use: null-foo");
+    }
+    assertThat(interrupted.await(10, SECONDS)).isTrue();
+  }
+
+  @Test
+  public void testFailure_getHeldFencingToken_notHeld() throws Exception {
+    thrown.expect(IllegalStateException.class, "Lock null-foo is not held by the current thread");
+    Lock.getHeldFencingToken(RESOURCE_NAME, "");
+  }
+
   @Test
   public void testFailure_emptyResourceName() throws Exception {
     thrown.expect(IllegalArgumentException.class, "resourceName cannot be null or empty");
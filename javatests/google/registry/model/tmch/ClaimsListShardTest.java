@@ -14,6 +14,7 @@
 
 package google.registry.model.tmch;
 
+import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
@@ -22,14 +23,17 @@ import static org.joda.time.DateTimeZone.UTC;
 import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.VoidWork;
+import google.registry.model.tmch.ClaimsListShard.ClaimsListDelta;
 import google.registry.model.tmch.ClaimsListShard.ClaimsListRevision;
 import google.registry.model.tmch.ClaimsListShard.UnshardedSaveException;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.InjectRule;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
@@ -112,6 +116,114 @@ public class ClaimsListShardTest {
     assertThat(ClaimsListShard.getCurrentRevision()).isEqualTo(shards2.get(0).parent);
   }
 
+  @Test
+  public void testGet_reusesLoadedList_untilRevisionChanges() throws Exception {
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard.create(now, ImmutableMap.of("a", "1", "b", "2")).save();
+    ClaimsListShard loaded = ClaimsListShard.get();
+    assertThat(loaded.getClaimKey("a")).isEqualTo("1");
+    assertThat(loaded.getCreationTime()).isEqualTo(now);
+    // Without a new revision, the same in-memory list is handed out again.
+    assertThat(ClaimsListShard.get()).isSameAs(loaded);
+
+    ClaimsListShard.create(now.plusDays(1), ImmutableMap.of("c", "3")).save();
+    ofy().clearSessionCache();
+    ClaimsListShard reloaded = ClaimsListShard.get();
+    assertThat(reloaded).isNotSameAs(loaded);
+    assertThat(reloaded.getClaimKey("a")).isNull();
+    assertThat(reloaded.getClaimKey("c")).isEqualTo("3");
+    assertThat(reloaded.getCreationTime()).isEqualTo(now.plusDays(1));
+    assertThat(reloaded.getLabelsToKeys()).containsExactly("c", "3");
+  }
+
+  @Test
+  public void testGet_newRevision_servesPreviousListUntilLoadFinishes() throws Exception {
+    final List<Runnable> loads = new ArrayList<>();
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard.create(now, ImmutableMap.of("a", "1")).save();
+    ClaimsListShard loaded = ClaimsListShard.get();
+    ClaimsListShard.setLoadExecutorForTesting(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        loads.add(command);
+      }});
+
+    ClaimsListShard.create(now.plusDays(1), ImmutableMap.of("c", "3")).save();
+    ofy().clearSessionCache();
+    assertThat(ClaimsListShard.get()).isSameAs(loaded);
+    assertThat(ClaimsListShard.get()).isSameAs(loaded);
+    // Only one load was started, and nothing was rebuilt on the calling thread.
+    assertThat(loads).hasSize(1);
+
+    getOnlyElement(loads).run();
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).containsExactly("c", "3");
+    assertThat(loads).hasSize(1);
+  }
+
+  @Test
+  public void testSave_smallChange_savesDelta() throws Exception {
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard.create(now, ImmutableMap.of("a", "1", "b", "2", "c", "3")).save();
+    Key<ClaimsListRevision> revision = ClaimsListShard.getCurrentRevision();
+    ClaimsListShard loaded = ClaimsListShard.get();
+
+    ClaimsListShard.create(now.plusDays(1), ImmutableMap.of("a", "1", "b", "4", "d", "5")).save();
+    ofy().clearSessionCache();
+    assertThat(ClaimsListShard.getCurrentRevision()).isEqualTo(revision);
+    assertThat(ofy().load().type(ClaimsListShard.class).list()).hasSize(1);
+    ClaimsListDelta delta = getOnlyElement(ofy().load().type(ClaimsListDelta.class).list());
+    assertThat(delta.changedLabelsToKeys).containsExactly("b", "4", "d", "5");
+    assertThat(delta.removedLabels).containsExactly("c");
+
+    ClaimsListShard updated = ClaimsListShard.get();
+    assertThat(updated).isNotSameAs(loaded);
+    assertThat(updated.getLabelsToKeys()).containsExactly("a", "1", "b", "4", "d", "5");
+    assertThat(updated.getCreationTime()).isEqualTo(now.plusDays(1));
+
+    // An instance that has yet to load anything applies the deltas on top of the revision too.
+    ClaimsListShard.resetCache();
+    assertThat(ClaimsListShard.get().getLabelsToKeys())
+        .containsExactly("a", "1", "b", "4", "d", "5");
+  }
+
+  @Test
+  public void testSave_largeChange_savesNewRevision() throws Exception {
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard.create(now, ImmutableMap.of("a", "1")).save();
+    Key<ClaimsListRevision> revision = ClaimsListShard.getCurrentRevision();
+    Map<String, String> labelsToKeys = new HashMap<>();
+    for (int i = 0; i <= ClaimsListShard.shardSize; i++) {
+      labelsToKeys.put(Integer.toString(i), Integer.toString(i));
+    }
+    ClaimsListShard.create(now.plusDays(1), ImmutableMap.copyOf(labelsToKeys)).save();
+    ofy().clearSessionCache();
+    assertThat(ClaimsListShard.getCurrentRevision()).isNotEqualTo(revision);
+    assertThat(ofy().load().type(ClaimsListDelta.class).list()).isEmpty();
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(labelsToKeys);
+  }
+
+  @Test
+  public void testSave_afterMaxDeltas_compactsIntoNewRevision() throws Exception {
+    inject.setStaticField(ClaimsListShard.class, "maxDeltas", 2);
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard.create(now, ImmutableMap.of("a", "1")).save();
+    Key<ClaimsListRevision> revision = ClaimsListShard.getCurrentRevision();
+    ClaimsListShard.create(now.plusDays(1), ImmutableMap.of("a", "2")).save();
+    ClaimsListShard.create(now.plusDays(2), ImmutableMap.of("a", "3")).save();
+    ofy().clearSessionCache();
+    assertThat(ClaimsListShard.getCurrentRevision()).isEqualTo(revision);
+    assertThat(ofy().load().type(ClaimsListDelta.class).list()).hasSize(2);
+    assertThat(ClaimsListShard.get().getClaimKey("a")).isEqualTo("3");
+
+    ClaimsListShard.create(now.plusDays(3), ImmutableMap.of("a", "4")).save();
+    ofy().clearSessionCache();
+    assertThat(ClaimsListShard.getCurrentRevision()).isNotEqualTo(revision);
+    assertThat(ofy().load().type(ClaimsListDelta.class).list()).isEmpty();
+    assertThat(ofy().load().type(ClaimsListShard.class).list()).hasSize(1);
+    assertThat(ClaimsListShard.get().getClaimKey("a")).isEqualTo("4");
+    assertThat(ClaimsListShard.get().getCreationTime()).isEqualTo(now.plusDays(3));
+  }
+
   /**
    * Returns a created claims list shard with the specified parent key for testing purposes only.
    */
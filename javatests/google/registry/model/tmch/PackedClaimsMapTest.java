@@ -0,0 +1,162 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.tmch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PackedClaimsMap}. */
+@RunWith(JUnit4.class)
+public class PackedClaimsMapTest {
+
+  private static PackedClaimsMap pack(Map<String, String> map) {
+    return PackedClaimsMap.copyOf(ImmutableList.of(map));
+  }
+
+  @Test
+  public void testEmpty() {
+    PackedClaimsMap map = pack(ImmutableMap.<String, String>of());
+    assertThat(map).isEmpty();
+    assertThat(map.get("a")).isNull();
+    assertThat(map.entrySet().iterator().hasNext()).isFalse();
+  }
+
+  @Test
+  public void testGet() {
+    PackedClaimsMap map = pack(ImmutableMap.of(
+        "example", "2013041500/2/6/9/rJ1NrDO92vDsAzf7EQzgjX4R0000000001",
+        "examples", "2013041500/2/6/9/rJ1NrDO92vDsAzf7EQzgjX4R0000000002",
+        "xn--mgbh0fb", "2013041500/2/6/9/rJ1NrDO92vDsAzf7EQzgjX4R0000000003"));
+    assertThat(map).hasSize(3);
+    assertThat(map.get("example"))
+        .isEqualTo("2013041500/2/6/9/rJ1NrDO92vDsAzf7EQzgjX4R0000000001");
+    assertThat(map.get("examples"))
+        .isEqualTo("2013041500/2/6/9/rJ1NrDO92vDsAzf7EQzgjX4R0000000002");
+    assertThat(map.get("xn--mgbh0fb"))
+        .isEqualTo("2013041500/2/6/9/rJ1NrDO92vDsAzf7EQzgjX4R0000000003");
+    assertThat(map.get("exampl")).isNull();
+    assertThat(map.get("examplez")).isNull();
+    assertThat(map.get("")).isNull();
+    assertThat(map.get("a")).isNull();
+    assertThat(map.get("zzzzzzzzzzzzzzzzzzzz")).isNull();
+    assertThat(map.get(1)).isNull();
+    assertThat(map.get(null)).isNull();
+    assertThat(map.containsKey("example")).isTrue();
+    assertThat(map.containsKey("exampl")).isFalse();
+  }
+
+  @Test
+  public void testNonAsciiLabels() {
+    PackedClaimsMap map = pack(ImmutableMap.of("café", "1", "cafe", "2", "日本", "3"));
+    assertThat(map.get("café")).isEqualTo("1");
+    assertThat(map.get("cafe")).isEqualTo("2");
+    assertThat(map.get("日本")).isEqualTo("3");
+    assertThat(map.get("日")).isNull();
+  }
+
+  @Test
+  public void testLaterMapsWin() {
+    PackedClaimsMap map = PackedClaimsMap.copyOf(ImmutableList.of(
+        ImmutableMap.of("a", "1", "b", "2"),
+        ImmutableMap.of("b", "3", "c", "4")));
+    assertThat(map).isEqualTo(ImmutableMap.of("a", "1", "b", "3", "c", "4"));
+  }
+
+  @Test
+  public void testWithChanges() {
+    PackedClaimsMap map = pack(ImmutableMap.of("b", "1", "d", "2", "f", "3"));
+    PackedClaimsMap changed = map.withChanges(
+        ImmutableMap.of("a", "4", "d", "5", "g", "6"), ImmutableSet.of("f", "x"));
+    assertThat(changed).isEqualTo(ImmutableMap.of("a", "4", "b", "1", "d", "5", "g", "6"));
+    assertThat(changed.keySet()).containsExactly("a", "b", "d", "g").inOrder();
+    // The original map is unchanged.
+    assertThat(map).isEqualTo(ImmutableMap.of("b", "1", "d", "2", "f", "3"));
+  }
+
+  @Test
+  public void testWithChanges_manyBlocks_equalsChangedSourceMap() {
+    Map<String, String> labelsToKeys = new HashMap<>();
+    for (int i = 0; i < 20 * PackedClaimsMap.BLOCK_SIZE; i++) {
+      labelsToKeys.put("label" + i, "key" + i);
+    }
+    PackedClaimsMap map = pack(labelsToKeys);
+    Map<String, String> changedLabelsToKeys = new HashMap<>();
+    Set<String> removedLabels = new HashSet<>();
+    for (int i = 0; i < 20 * PackedClaimsMap.BLOCK_SIZE; i += 7) {
+      changedLabelsToKeys.put("label" + i, "newkey" + i);
+      changedLabelsToKeys.put("label" + i + "x", "key" + i + "x");
+      removedLabels.add("label" + (i + 3));
+    }
+    labelsToKeys.putAll(changedLabelsToKeys);
+    labelsToKeys.keySet().removeAll(removedLabels);
+    assertThat(map.withChanges(changedLabelsToKeys, removedLabels)).isEqualTo(labelsToKeys);
+  }
+
+  @Test
+  public void testManyBlocks_equalsSourceMap() {
+    Map<String, String> labelsToKeys = new HashMap<>();
+    for (int i = 0; i < 20 * PackedClaimsMap.BLOCK_SIZE + 3; i++) {
+      labelsToKeys.put("label" + i, "key" + i);
+    }
+    PackedClaimsMap map = pack(labelsToKeys);
+    assertThat(map).isEqualTo(labelsToKeys);
+    assertThat(labelsToKeys).isEqualTo(map);
+    assertThat(map.hashCode()).isEqualTo(labelsToKeys.hashCode());
+    for (Map.Entry<String, String> entry : labelsToKeys.entrySet()) {
+      assertThat(map.get(entry.getKey())).isEqualTo(entry.getValue());
+      assertThat(map.get(entry.getKey() + "x")).isNull();
+    }
+  }
+
+  @Test
+  public void testIterationIsSorted() {
+    PackedClaimsMap map = pack(ImmutableMap.of("c", "3", "a", "1", "b", "2"));
+    assertThat(map.keySet()).containsExactly("a", "b", "c").inOrder();
+    assertThat(map.values()).containsExactly("1", "2", "3").inOrder();
+  }
+
+  @Test
+  public void testPackedSize_isCompact() {
+    // Stands in for a full-size memory benchmark: realistic labels share long prefixes once
+    // sorted, so the front-coded label table should average well under the raw label length.
+    Map<String, String> labelsToKeys = new HashMap<>();
+    long rawLabelBytes = 0;
+    long rawKeyBytes = 0;
+    for (int i = 0; i < 100000; i++) {
+      String label = String.format("brand-%07d", i);
+      String key = String.format("2013041500/2/6/9/rJ1NrDO92vDsAzf7EQzgjX4R%010d", i);
+      labelsToKeys.put(label, key);
+      rawLabelBytes += label.length();
+      rawKeyBytes += key.length();
+    }
+    PackedClaimsMap map = pack(labelsToKeys);
+    assertThat(map).hasSize(100000);
+    assertThat(map.get("brand-0054321"))
+        .isEqualTo("2013041500/2/6/9/rJ1NrDO92vDsAzf7EQzgjX4R0000054321");
+    // Keys are stored as is, plus a four byte offset each; labels should shrink to under half.
+    assertThat(map.getPackedSizeInBytes())
+        .isLessThan(rawKeyBytes + 4L * 100001 + rawLabelBytes / 2);
+  }
+}
@@ -17,6 +17,7 @@ package google.registry.rdap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import google.registry.config.RdapNoticeDescriptor;
+import google.registry.model.ProjectionMemo;
 
 public class RdapTestHelper {
 
@@ -104,6 +105,7 @@ public class RdapTestHelper {
   static RdapJsonFormatter getTestRdapJsonFormatter() {
     RdapJsonFormatter rdapJsonFormatter = new RdapJsonFormatter();
     rdapJsonFormatter.rdapTosPath = "/tos";
+    rdapJsonFormatter.projectionMemo = new ProjectionMemo();
     rdapJsonFormatter.rdapHelpMap = ImmutableMap.of(
         "/",
         RdapNoticeDescriptor.builder()
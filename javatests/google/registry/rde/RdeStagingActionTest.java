@@ -135,6 +135,7 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
     action.pendingDepositChecker.rdeInterval = Duration.standardDays(1);
     action.response = response;
     action.transactionCooldown = Duration.ZERO;
+    action.pointInTimeLoadBatchSize = 2;
   }
 
   @Test
@@ -0,0 +1,247 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.request;
+
+import com.google.common.base.Function;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Microbenchmark of routing a request path and instantiating its action through {@link Router}.
+ *
+ * <p>Instantiation is also timed through {@link Method#invoke}, as the router used to do it, as a
+ * baseline for the {@link java.lang.invoke.MethodHandle} instantiators. The actions and component
+ * are trivial, so the times are those of the router itself rather than of Dagger injection.
+ *
+ * <p>This isn't part of the test suite, since its name doesn't end in "Test". Run it with {@code
+ * bazel run //javatests/google/registry/request:router_benchmark}, optionally passing system
+ * properties such as {@code --jvm_flag=-DrouterBenchmark.rounds=100} to change the number of
+ * warmup and measured rounds, or the number of operations timed together in each round.
+ */
+@RunWith(JUnit4.class)
+public class RouterBenchmark {
+
+  private static final int WARMUP_ROUNDS = Integer.getInteger("routerBenchmark.warmup", 20);
+  private static final int ROUNDS = Integer.getInteger("routerBenchmark.rounds", 50);
+  private static final int OPERATIONS = Integer.getInteger("routerBenchmark.operations", 100000);
+
+  private static final String[] EXACT_PATHS = {
+    "/_dr/epp", "/_dr/task/one", "/_dr/task/two", "/_dr/task/three", "/_dr/cron/fanout",
+  };
+
+  private static final String[] PREFIX_PATHS = {
+    "/registrar/one", "/registrar/two/three", "/console/four",
+  };
+
+  private final Router router = Router.create(BenchmarkComponent.class);
+  private final BenchmarkComponent component = new BenchmarkComponentImpl();
+
+  /** Sink for the results of each operation, so that the JIT can't drop them. */
+  private int sink;
+
+  @Test
+  public void benchmarkRouteExactPath() {
+    benchmark("route exact path", new Operation() {
+      @Override
+      public int run(int i) {
+        return System.identityHashCode(router.route(EXACT_PATHS[i % EXACT_PATHS.length]).get());
+      }});
+  }
+
+  @Test
+  public void benchmarkRoutePrefixPath() {
+    benchmark("route prefix path", new Operation() {
+      @Override
+      public int run(int i) {
+        return System.identityHashCode(router.route(PREFIX_PATHS[i % PREFIX_PATHS.length]).get());
+      }});
+  }
+
+  @Test
+  public void benchmarkInstantiate() {
+    final Function<?, ?>[] instantiators = new Function<?, ?>[EXACT_PATHS.length];
+    for (int i = 0; i < EXACT_PATHS.length; i++) {
+      instantiators[i] = router.route(EXACT_PATHS[i]).get().instantiator();
+    }
+    benchmark("instantiate", new Operation() {
+      @Override
+      public int run(int i) {
+        @SuppressWarnings("unchecked")  // Safe since the router built it.
+        Function<Object, Runnable> instantiator =
+            (Function<Object, Runnable>) instantiators[i % instantiators.length];
+        return System.identityHashCode(instantiator.apply(component));
+      }});
+  }
+
+  @Test
+  public void benchmarkInstantiateReflectively() {
+    List<Method> exactMethods = new ArrayList<>();
+    for (Method method : BenchmarkComponent.class.getMethods()) {
+      if (!method.getReturnType().getAnnotation(Action.class).isPrefix()) {
+        exactMethods.add(method);
+      }
+    }
+    final Method[] methods = exactMethods.toArray(new Method[0]);
+    benchmark("instantiate reflectively", new Operation() {
+      @Override
+      public int run(int i) throws Exception {
+        return System.identityHashCode(methods[i % methods.length].invoke(component));
+      }});
+  }
+
+  /** One operation of a benchmark, returning something derived from its result. */
+  private interface Operation {
+    int run(int i) throws Exception;
+  }
+
+  /** Runs the warmup and measured rounds of an operation and prints the results. */
+  private void benchmark(String name, Operation operation) {
+    try {
+      for (int round = 0; round < WARMUP_ROUNDS; round++) {
+        runRound(operation);
+      }
+      double[] nanosPerOperation = new double[ROUNDS];
+      for (int round = 0; round < ROUNDS; round++) {
+        nanosPerOperation[round] = (double) runRound(operation) / OPERATIONS;
+      }
+      Arrays.sort(nanosPerOperation);
+      double sum = 0;
+      for (double nanos : nanosPerOperation) {
+        sum += nanos;
+      }
+      System.out.printf(
+          "%s: %d rounds of %d operations\n  mean %.1fns, min %.1fns, p50 %.1fns, max %.1fns\n",
+          name,
+          ROUNDS,
+          OPERATIONS,
+          sum / ROUNDS,
+          nanosPerOperation[0],
+          nanosPerOperation[ROUNDS / 2],
+          nanosPerOperation[ROUNDS - 1]);
+      System.out.printf("  (sink %d)\n", sink);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Runs one round of operations, and returns how long it took in nanoseconds. */
+  private long runRound(Operation operation) throws Exception {
+    int result = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < OPERATIONS; i++) {
+      result += operation.run(i);
+    }
+    long elapsed = System.nanoTime() - start;
+    sink += result;
+    return elapsed;
+  }
+
+  @Action(path = "/_dr/epp")
+  public static final class EppAction implements Runnable {
+    @Override
+    public void run() {}
+  }
+
+  @Action(path = "/_dr/task/one")
+  public static final class TaskOneAction implements Runnable {
+    @Override
+    public void run() {}
+  }
+
+  @Action(path = "/_dr/task/two")
+  public static final class TaskTwoAction implements Runnable {
+    @Override
+    public void run() {}
+  }
+
+  @Action(path = "/_dr/task/three")
+  public static final class TaskThreeAction implements Runnable {
+    @Override
+    public void run() {}
+  }
+
+  @Action(path = "/_dr/cron/fanout")
+  public static final class FanoutAction implements Runnable {
+    @Override
+    public void run() {}
+  }
+
+  @Action(path = "/registrar", isPrefix = true)
+  public static final class RegistrarAction implements Runnable {
+    @Override
+    public void run() {}
+  }
+
+  @Action(path = "/console", isPrefix = true)
+  public static final class ConsoleAction implements Runnable {
+    @Override
+    public void run() {}
+  }
+
+  /** A component with a mix of exact and prefix actions, like the request components. */
+  public interface BenchmarkComponent {
+    EppAction eppAction();
+    TaskOneAction taskOneAction();
+    TaskTwoAction taskTwoAction();
+    TaskThreeAction taskThreeAction();
+    FanoutAction fanoutAction();
+    RegistrarAction registrarAction();
+    ConsoleAction consoleAction();
+  }
+
+  /** Stands in for the Dagger implementation of the component, creating a new action each time. */
+  private static final class BenchmarkComponentImpl implements BenchmarkComponent {
+
+    @Override
+    public EppAction eppAction() {
+      return new EppAction();
+    }
+
+    @Override
+    public TaskOneAction taskOneAction() {
+      return new TaskOneAction();
+    }
+
+    @Override
+    public TaskTwoAction taskTwoAction() {
+      return new TaskTwoAction();
+    }
+
+    @Override
+    public TaskThreeAction taskThreeAction() {
+      return new TaskThreeAction();
+    }
+
+    @Override
+    public FanoutAction fanoutAction() {
+      return new FanoutAction();
+    }
+
+    @Override
+    public RegistrarAction registrarAction() {
+      return new RegistrarAction();
+    }
+
+    @Override
+    public ConsoleAction consoleAction() {
+      return new ConsoleAction();
+    }
+  }
+}
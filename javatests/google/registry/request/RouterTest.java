@@ -136,6 +136,65 @@ public final class RouterTest {
 
   ////////////////////////////////////////////////////////////////////////////////////////////////
 
+  @Action(path = "/prefix/exact")
+  public static final class ExactTask implements Runnable {
+    @Override
+    public void run() {}
+  }
+
+  public interface ExactPathComponent {
+    PrefixTask prefixTask();
+    ExactTask exactTask();
+  }
+
+  @Test
+  public void testRoute_exactPathUnderPrefix_returnsExactPath() throws Exception {
+    Optional<Route> route = Router.create(ExactPathComponent.class).route("/prefix/exact");
+    assertThat(route).isPresent();
+    assertThat(route.get().action().path()).isEqualTo("/prefix/exact");
+  }
+
+  @Test
+  public void testRoute_pathJustAfterExactPath_returnsAbsent() throws Exception {
+    // The closest route at or before the path is the exact one, which doesn't match.
+    assertThat(Router.create(ExactPathComponent.class).route("/prefix/exactly")).isAbsent();
+  }
+
+  @Test
+  public void testRoute_pathBeforeExactPath_returnsPrefix() throws Exception {
+    Optional<Route> route = Router.create(ExactPathComponent.class).route("/prefix/cat");
+    assertThat(route).isPresent();
+    assertThat(route.get().action().path()).isEqualTo("/prefix");
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Test
+  public void testInstantiator_returnsActionFromComponent() throws Exception {
+    final SlothTask slothTask = new SlothTask();
+    SlothComponent component = new SlothComponent() {
+      @Override
+      public SlothTask slothTask() {
+        return slothTask;
+      }};
+    Route route = Router.create(SlothComponent.class).route("/sloth").get();
+    assertThat(route.instantiator().apply(component)).isSameAs(slothTask);
+  }
+
+  @Test
+  public void testInstantiator_injectionFails_propagatesException() throws Exception {
+    SlothComponent component = new SlothComponent() {
+      @Override
+      public SlothTask slothTask() {
+        throw new IllegalStateException("Injection failed");
+      }};
+    Route route = Router.create(SlothComponent.class).route("/sloth").get();
+    thrown.expect(IllegalStateException.class, "Injection failed");
+    route.instantiator().apply(component);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////////////////
+
   public interface WeirdMethodsComponent {
     SlothTask hasAnArgumentWhichIsIgnored(boolean lol);
     Callable<?> notARunnableWhichIsIgnored();
@@ -15,6 +15,7 @@
 package google.registry.testing;
 
 import static com.google.common.truth.Truth.assert_;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static google.registry.testing.DatastoreHelper.persistSimpleResources;
 import static google.registry.util.ResourceUtils.readResourceUtf8;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -39,6 +40,7 @@ import google.registry.model.registrar.Registrar;
 import google.registry.model.registrar.Registrar.State;
 import google.registry.model.registrar.RegistrarAddress;
 import google.registry.model.registrar.RegistrarContact;
+import google.registry.model.tmch.ClaimsListShard;
 import google.registry.util.Clock;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -316,6 +318,9 @@ public final class AppEngineRule extends ExternalResource {
       ObjectifyService.initOfy();
       // Reset id allocation in ObjectifyService so that ids are deterministic in tests.
       ObjectifyService.resetNextTestId();
+      // Since ids are reused, drop any claims list loaded from a previous test's revision.
+      ClaimsListShard.resetCache();
+      ClaimsListShard.setLoadExecutorForTesting(directExecutor());
       loadInitialData();
     }
   }
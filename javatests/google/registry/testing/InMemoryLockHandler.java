@@ -0,0 +1,107 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.testing;
+
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import google.registry.model.server.LockHandler;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.joda.time.Duration;
+
+/**
+ * {@link LockHandler} that keeps its locks in memory, for tests that don't need Datastore locks.
+ *
+ * <p>Locks are held until the work under them finishes, so leases never run out unless a test
+ * {@link #loseLease loses one} on purpose.
+ */
+@ThreadSafe
+public final class InMemoryLockHandler implements LockHandler {
+
+  private final Set<String> heldLockIds = new HashSet<>();
+  private final Set<String> lostLockIds = new HashSet<>();
+
+  @Override
+  public boolean executeWithLocks(
+      Callable<Void> callable,
+      @Nullable Class<?> requester,
+      @Nullable String tld,
+      Duration leaseLength,
+      String... lockNames) {
+    ImmutableSet.Builder<String> lockIds = new ImmutableSet.Builder<>();
+    for (String lockName : lockNames) {
+      lockIds.add(makeLockId(lockName, tld));
+    }
+    if (!tryAcquire(lockIds.build())) {
+      return false;
+    }
+    try {
+      callable.call();
+      return true;
+    } catch (Exception e) {
+      throwIfUnchecked(e);
+      throw new RuntimeException(e);
+    } finally {
+      release(lockIds.build());
+    }
+  }
+
+  /** Takes a lock as if some other work held it, so that work needing it can't run. */
+  public void hold(String lockName, @Nullable String tld) {
+    tryAcquire(ImmutableSet.of(makeLockId(lockName, tld)));
+  }
+
+  @Override
+  public synchronized boolean isStillHeld(String lockName, @Nullable String tld) {
+    String lockId = makeLockId(lockName, tld);
+    checkState(heldLockIds.contains(lockId), "Lock %s is not held", lockId);
+    return !lostLockIds.contains(lockId);
+  }
+
+  /** Makes the work holding a lock see it as lost, as if its lease had run out. */
+  public synchronized void loseLease(String lockName, @Nullable String tld) {
+    lostLockIds.add(makeLockId(lockName, tld));
+  }
+
+  /** Returns whether a lock is held, either by running work or by {@link #hold}. */
+  public synchronized boolean isHeld(String lockName, @Nullable String tld) {
+    return heldLockIds.contains(makeLockId(lockName, tld));
+  }
+
+  private synchronized boolean tryAcquire(ImmutableSet<String> lockIds) {
+    for (String lockId : lockIds) {
+      if (heldLockIds.contains(lockId)) {
+        return false;
+      }
+    }
+    heldLockIds.addAll(lockIds);
+    return true;
+  }
+
+  private synchronized void release(ImmutableSet<String> lockIds) {
+    heldLockIds.removeAll(lockIds);
+    lostLockIds.removeAll(lockIds);
+  }
+
+  private static String makeLockId(String lockName, @Nullable String tld) {
+    return String.format("%s-%s", Strings.emptyToNull(tld), lockName);
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tldconfig.idn;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import google.registry.testing.ExceptionRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CodepointSet}. */
+@RunWith(JUnit4.class)
+public class CodepointSetTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  @Test
+  public void testEmpty() {
+    CodepointSet set = new CodepointSet.Builder().build();
+    assertThat(set.contains(0)).isFalse();
+    assertThat(set.contains('a')).isFalse();
+    assertThat(set.contains(0xFFFF)).isFalse();
+    assertThat(set.contains(0x2070E)).isFalse();
+  }
+
+  @Test
+  public void testBmpCodepoints() {
+    CodepointSet set = new CodepointSet.Builder()
+        .add(0x0000)
+        .add(0x003F)
+        .add(0x0040)
+        .add(0x00FF)
+        .add(0x3042)
+        .add(0xFFFF)
+        .build();
+    assertThat(set.contains(0x0000)).isTrue();
+    assertThat(set.contains(0x003F)).isTrue();
+    assertThat(set.contains(0x0040)).isTrue();
+    assertThat(set.contains(0x00FF)).isTrue();
+    assertThat(set.contains(0x3042)).isTrue();
+    assertThat(set.contains(0xFFFF)).isTrue();
+    // Neighbors on the same page and across word boundaries.
+    assertThat(set.contains(0x0001)).isFalse();
+    assertThat(set.contains(0x003E)).isFalse();
+    assertThat(set.contains(0x0041)).isFalse();
+    assertThat(set.contains(0x0100)).isFalse();
+    assertThat(set.contains(0x3041)).isFalse();
+    assertThat(set.contains(0x3043)).isFalse();
+    assertThat(set.contains(0xFFFE)).isFalse();
+  }
+
+  @Test
+  public void testSupplementaryCodepoints() {
+    CodepointSet set = new CodepointSet.Builder()
+        .add(0x20731)
+        .add(0x2070E)
+        .add(0x10FFFF)
+        .build();
+    assertThat(set.contains(0x2070E)).isTrue();
+    assertThat(set.contains(0x20731)).isTrue();
+    assertThat(set.contains(0x10FFFF)).isTrue();
+    assertThat(set.contains(0x10000)).isFalse();
+    assertThat(set.contains(0x2070F)).isFalse();
+    // The low 16 bits of a supplementary codepoint don't alias into the BMP.
+    assertThat(set.contains(0x070E)).isFalse();
+  }
+
+  @Test
+  public void testBuilderReuse_doesNotChangeBuiltSet() {
+    CodepointSet.Builder builder = new CodepointSet.Builder().add('a');
+    CodepointSet set = builder.build();
+    builder.add('b').add(0x2070E);
+    assertThat(set.contains('a')).isTrue();
+    assertThat(set.contains('b')).isFalse();
+    assertThat(set.contains(0x2070E)).isFalse();
+  }
+
+  @Test
+  public void testInvalidCodepoint_throws() {
+    thrown.expect(IllegalArgumentException.class, "Invalid codepoint: 1114112");
+    new CodepointSet.Builder().add(0x110000);
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tmch;
+
+import static com.google.common.net.HttpHeaders.LOCATION;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.servlet.http.HttpServletResponse.SC_ACCEPTED;
+import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+
+import com.google.appengine.api.urlfetch.HTTPHeader;
+import com.google.appengine.api.urlfetch.HTTPMethod;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.common.collect.ImmutableList;
+import google.registry.testing.ForwardingURLFetchService;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A local fake of the MarksDB endpoint that LORDN files are uploaded to.
+ *
+ * <p>Each file POSTed to {@code /LORDN/<tld>/<phase>} is recorded and acknowledged the way MarksDB
+ * does it, with a 202 and a Location header for the file's log. Uploads can be made to fail once a
+ * given number of files have been accepted, to test what happens to the rest.
+ */
+class FakeMarksdbLordnService extends ForwardingURLFetchService {
+
+  private static final Pattern LORDN_PATH = Pattern.compile("/LORDN/[^/]+/(sunrise|claims)");
+
+  private final List<String> acceptedFiles = new ArrayList<>();
+  private int maxAcceptedFiles = Integer.MAX_VALUE;
+
+  /** Makes all uploads fail once the given number of files have been accepted. */
+  void setMaxAcceptedFiles(int maxAcceptedFiles) {
+    this.maxAcceptedFiles = maxAcceptedFiles;
+  }
+
+  /** Returns the CSV data of the accepted files, in the order they were uploaded. */
+  ImmutableList<String> getAcceptedFiles() {
+    return ImmutableList.copyOf(acceptedFiles);
+  }
+
+  @Override
+  public HTTPResponse fetch(HTTPRequest request) {
+    URL url = request.getURL();
+    if (request.getMethod() != HTTPMethod.POST || !LORDN_PATH.matcher(url.getPath()).matches()) {
+      return createResponse(SC_NOT_FOUND, url, ImmutableList.<HTTPHeader>of());
+    }
+    if (acceptedFiles.size() >= maxAcceptedFiles) {
+      return createResponse(SC_INTERNAL_SERVER_ERROR, url, ImmutableList.<HTTPHeader>of());
+    }
+    // Pull the file out of the single part of the multipart payload.
+    String payload = new String(request.getPayload(), UTF_8);
+    acceptedFiles.add(
+        payload.substring(payload.indexOf("\r\n\r\n") + 4, payload.lastIndexOf("\r\n--")));
+    return createResponse(
+        SC_ACCEPTED,
+        url,
+        ImmutableList.of(new HTTPHeader(LOCATION, url + "/" + acceptedFiles.size())));
+  }
+
+  private static HTTPResponse createResponse(int responseCode, URL url, List<HTTPHeader> headers) {
+    return new HTTPResponse(responseCode, new byte[0], url, headers);
+  }
+}
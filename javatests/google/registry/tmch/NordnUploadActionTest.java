@@ -24,10 +24,12 @@ import static google.registry.testing.DatastoreHelper.newDomainResource;
 import static google.registry.testing.DatastoreHelper.persistDomainAndEnqueueLordn;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
+import static google.registry.testing.TaskQueueHelper.getQueueInfo;
 import static google.registry.util.UrlFetchUtils.getHeaderFirst;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static javax.servlet.http.HttpServletResponse.SC_ACCEPTED;
 import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -120,6 +122,8 @@ public class NordnUploadActionTest {
     action.phase = "claims";
     action.tld = "tld";
     action.tmchMarksdbUrl = "http://127.0.0.1";
+    action.maxLinesPerUpload = 10000;
+    action.maxBytesPerUpload = 65536;
   }
 
   @Test
@@ -214,6 +218,54 @@ public class NordnUploadActionTest {
     action.run();
   }
 
+  @Test
+  public void testRun_overLineLimit_uploadsSeveralFiles() throws Exception {
+    FakeMarksdbLordnService marksdb = new FakeMarksdbLordnService();
+    action.fetchService = marksdb;
+    action.maxLinesPerUpload = 2;
+    persistClaimsModeDomains(5);
+    action.run();
+    assertThat(marksdb.getAcceptedFiles()).hasSize(3);
+    assertThat(marksdb.getAcceptedFiles().get(0)).startsWith("1,2000-01-01T00:00:00.000Z,2\n");
+    assertThat(marksdb.getAcceptedFiles().get(1)).startsWith("1,2000-01-01T00:00:00.000Z,2\n");
+    assertThat(marksdb.getAcceptedFiles().get(2)).startsWith("1,2000-01-01T00:00:00.000Z,1\n");
+    assertThat(getQueueInfo(LordnTask.QUEUE_CLAIMS).getCountTasks()).isEqualTo(0);
+    assertThat(getQueueInfo(NordnVerifyAction.QUEUE).getCountTasks()).isEqualTo(3);
+  }
+
+  @Test
+  public void testRun_overByteLimit_uploadsEachLineOnItsOwn() throws Exception {
+    FakeMarksdbLordnService marksdb = new FakeMarksdbLordnService();
+    action.fetchService = marksdb;
+    action.maxBytesPerUpload = 1;
+    persistClaimsModeDomains(3);
+    action.run();
+    assertThat(marksdb.getAcceptedFiles()).hasSize(3);
+    for (String csv : marksdb.getAcceptedFiles()) {
+      assertThat(csv).startsWith("1,2000-01-01T00:00:00.000Z,1\n");
+    }
+    assertThat(getQueueInfo(LordnTask.QUEUE_CLAIMS).getCountTasks()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFailure_uploadRejected_onlyDeletesTasksOfAcceptedFiles() throws Exception {
+    FakeMarksdbLordnService marksdb = new FakeMarksdbLordnService();
+    marksdb.setMaxAcceptedFiles(1);
+    action.fetchService = marksdb;
+    action.maxLinesPerUpload = 2;
+    persistClaimsModeDomains(5);
+    try {
+      action.run();
+      fail("Expected UrlFetchException");
+    } catch (UrlFetchException expected) {
+      // The second file was rejected.
+    }
+    assertThat(marksdb.getAcceptedFiles()).hasSize(1);
+    // The tasks of the rejected file and of the ones after it are still leased, not deleted.
+    assertThat(getQueueInfo(LordnTask.QUEUE_CLAIMS).getCountTasks()).isEqualTo(3);
+    assertThat(getQueueInfo(NordnVerifyAction.QUEUE).getCountTasks()).isEqualTo(1);
+  }
+
   private HTTPRequest getCapturedHttpRequest() throws Exception {
     verify(fetchService).fetch(httpRequestCaptor.capture());
     return httpRequestCaptor.getAllValues().get(0);
@@ -228,6 +280,16 @@ public class NordnUploadActionTest {
         .build());
   }
 
+  private void persistClaimsModeDomains(int count) {
+    for (int i = 0; i < count; i++) {
+      DomainResource domain = newDomainResource(String.format("claims-landrush%d.tld", i));
+      persistDomainAndEnqueueLordn(domain.asBuilder()
+          .setLaunchNotice(LaunchNotice.create(
+              "landrush" + i + "tcn", null, null, domain.getCreationTime().minusHours(1)))
+          .build());
+    }
+  }
+
   private void persistSunriseModeDomain() {
     action.phase = "sunrise";
     DomainResource domain = newDomainResource("sunrise1.tld");
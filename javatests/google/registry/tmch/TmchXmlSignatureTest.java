@@ -14,6 +14,7 @@
 
 package google.registry.tmch;
 
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.tmch.TmchTestData.loadSmd;
 
 import google.registry.config.RegistryConfig.ConfigModule.TmchCaMode;
@@ -25,6 +26,7 @@ import java.security.SignatureException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.CertificateRevokedException;
+import java.security.cert.X509Certificate;
 import javax.xml.crypto.dsig.XMLSignatureException;
 import org.joda.time.DateTime;
 import org.junit.Before;
@@ -85,6 +87,23 @@ public class TmchXmlSignatureTest {
     tmchXmlSignature.verify(smdData);
   }
 
+  @Test
+  public void testVerify_returnsSigningCertificate() throws Exception {
+    smdData = loadSmd("active/Court-Agent-Arabic-Active.smd");
+    X509Certificate certificate = tmchXmlSignature.verify(smdData);
+    assertThat(certificate).isNotNull();
+    tmchXmlSignature.verifyCertificate(certificate);
+  }
+
+  @Test
+  public void testVerifyCertificate_afterCertificateHasExpired() throws Exception {
+    X509Certificate certificate =
+        tmchXmlSignature.verify(loadSmd("active/Court-Agent-Arabic-Active.smd"));
+    clock.setTo(DateTime.parse("2023-06-01T00:00:00Z"));
+    thrown.expect(CertificateExpiredException.class);
+    tmchXmlSignature.verifyCertificate(certificate);
+  }
+
   @Test
   public void testActiveCourtAgentArabicActive() throws Exception {
     smdData = loadSmd("active/Court-Agent-Arabic-Active.smd");
@@ -0,0 +1,102 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import google.registry.testing.ExceptionRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LatencyHistogram}. */
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertThat(histogram.getCount()).isEqualTo(0);
+    assertThat(histogram.getMin()).isEqualTo(0);
+    assertThat(histogram.getMax()).isEqualTo(0);
+    assertThat(histogram.getMean()).isWithin(0).of(0);
+    assertThat(histogram.getValueAtPercentile(99)).isEqualTo(0);
+  }
+
+  @Test
+  public void testSmallValues_areExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertThat(histogram.getCount()).isEqualTo(100);
+    assertThat(histogram.getMin()).isEqualTo(1);
+    assertThat(histogram.getMax()).isEqualTo(100);
+    assertThat(histogram.getMean()).isWithin(0.001).of(50.5);
+    assertThat(histogram.getValueAtPercentile(0)).isEqualTo(1);
+    assertThat(histogram.getValueAtPercentile(50)).isEqualTo(50);
+    assertThat(histogram.getValueAtPercentile(99)).isEqualTo(99);
+    assertThat(histogram.getValueAtPercentile(100)).isEqualTo(100);
+  }
+
+  @Test
+  public void testLargeValues_withinRelativeError() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 1000000; value++) {
+      histogram.record(value);
+    }
+    for (double percentile : new double[] {50, 90, 99, 99.9}) {
+      long exact = (long) (percentile / 100 * 1000000);
+      long estimate = histogram.getValueAtPercentile(percentile);
+      assertThat(estimate).isAtLeast(exact);
+      assertThat((double) estimate).isAtMost(exact * (1 + 1.0 / 64));
+    }
+    assertThat(histogram.getValueAtPercentile(100)).isEqualTo(1000000);
+  }
+
+  @Test
+  public void testHugeValues_areClamped() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1L << 45);
+    histogram.record(1L << 50);
+    assertThat(histogram.getMax()).isEqualTo(1L << 50);
+    assertThat(histogram.getValueAtPercentile(50)).isAtLeast(1L << 40);
+  }
+
+  @Test
+  public void testAdd() {
+    LatencyHistogram first = new LatencyHistogram();
+    LatencyHistogram second = new LatencyHistogram();
+    first.record(10);
+    first.record(20);
+    second.record(5000);
+    first.add(second);
+    assertThat(first.getCount()).isEqualTo(3);
+    assertThat(first.getMin()).isEqualTo(10);
+    assertThat(first.getMax()).isEqualTo(5000);
+    assertThat(first.getValueAtPercentile(50)).isEqualTo(20);
+    assertThat(first.getValueAtPercentile(100)).isEqualTo(5000);
+  }
+
+  @Test
+  public void testNegativeValue_throws() {
+    thrown.expect(IllegalArgumentException.class, "Negative latency: -1");
+    new LatencyHistogram().record(-1);
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.common.net.MediaType;
+import google.registry.tools.ServerSideCommand.Connection;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.Map;
+import org.json.simple.JSONValue;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+/** Unit tests for {@link RunLoadTestCommand}. */
+public class RunLoadTestCommandTest extends CommandTestCase<RunLoadTestCommand> {
+
+  private static final String SUCCESS_RESPONSE =
+      "<epp><response><result code=\"1000\"><msg>Command completed successfully</msg></result>"
+          + "</response></epp>";
+
+  @Mock
+  private Connection connection;
+
+  private File output;
+
+  @Before
+  public void init() throws Exception {
+    command.setConnection(connection);
+    output = tmpDir.newFile("report.json");
+  }
+
+  @SuppressWarnings("unchecked")
+  private void stubResponse(String response) throws Exception {
+    when(connection.send(eq("/_dr/epptool"), anyMap(), any(MediaType.class), any(byte[].class)))
+        .thenReturn(response);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> readReport() throws Exception {
+    return (Map<String, Object>) JSONValue.parse(Files.toString(output, UTF_8));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> getOperation(Map<String, Object> report, String name) {
+    return (Map<String, Object>) ((Map<String, Object>) report.get("operations")).get(name);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testSuccess_closedLoop() throws Exception {
+    stubResponse(SUCCESS_RESPONSE);
+    runCommand(
+        "--client=NewRegistrar",
+        "--tld=tld",
+        "--mode=CLOSED",
+        "--concurrency=3",
+        "--max_commands=20",
+        "--output=" + output.getPath());
+    verify(connection, times(20))
+        .send(eq("/_dr/epptool"), anyMap(), eq(MediaType.FORM_DATA), any(byte[].class));
+    Map<String, Object> report = readReport();
+    assertThat(report.get("mode")).isEqualTo("CLOSED");
+    assertThat(report.get("commands")).isEqualTo(20L);
+    assertThat(report).doesNotContainKey("rate");
+    Map<String, Object> domainCheck = getOperation(report, "domain_check");
+    assertThat(domainCheck.get("commands")).isEqualTo(20L);
+    assertThat(domainCheck.get("results")).isEqualTo(ImmutableMap.of("1000", 20L));
+    assertThat(((Map<String, Object>) domainCheck.get("latencyMillis")).keySet())
+        .containsExactly("min", "mean", "p50", "p90", "p99", "p99.9", "max");
+  }
+
+  @Test
+  public void testSuccess_openLoop() throws Exception {
+    stubResponse(SUCCESS_RESPONSE);
+    runCommand(
+        "--client=NewRegistrar",
+        "--tld=tld",
+        "--rate=1000",
+        "--max_commands=10",
+        "--output=" + output.getPath());
+    Map<String, Object> report = readReport();
+    assertThat(report.get("mode")).isEqualTo("OPEN");
+    assertThat(report.get("rate")).isEqualTo(1000L);
+    assertThat(report.get("commands")).isEqualTo(10L);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testSuccess_mixFillsTemplates() throws Exception {
+    stubResponse(SUCCESS_RESPONSE);
+    runCommand(
+        "--client=NewRegistrar",
+        "--tld=tld",
+        "--mode=CLOSED",
+        "--concurrency=1",
+        "--max_commands=30",
+        "--mix=domain_info=1,contact_create=1",
+        "--output=" + output.getPath());
+    ArgumentCaptor<byte[]> requests = ArgumentCaptor.forClass(byte[].class);
+    verify(connection, times(30))
+        .send(eq("/_dr/epptool"), anyMap(), eq(MediaType.FORM_DATA), requests.capture());
+    for (byte[] request : requests.getAllValues()) {
+      String body = URLDecoder.decode(new String(request, UTF_8), UTF_8.name());
+      assertThat(body).contains("clientId=NewRegistrar");
+      assertThat(body).contains("dryRun=false");
+      assertThat(body).doesNotContain("%");
+      if (body.contains("<domain:info")) {
+        assertThat(body).contains("testdomain.tld");
+      } else {
+        assertThat(body).contains("<contact:create");
+        assertThat(body).doesNotContain("<contact:id>contact</contact:id>");
+      }
+    }
+    Map<String, Object> report = readReport();
+    assertThat(((Map<String, Object>) report.get("operations")).keySet())
+        .containsAnyOf("domain_info", "contact_create");
+    assertThat(report.get("commands")).isEqualTo(30L);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testSuccess_recordsErrors() throws Exception {
+    when(connection.send(eq("/_dr/epptool"), anyMap(), any(MediaType.class), any(byte[].class)))
+        .thenReturn(
+            "<epp><response><result code=\"2302\"><msg>Object exists</msg></result></response>"
+                + "</epp>")
+        .thenThrow(new IOException("Connection reset"))
+        .thenReturn("<html>Internal server error</html>");
+    runCommand(
+        "--client=NewRegistrar",
+        "--tld=tld",
+        "--mode=CLOSED",
+        "--concurrency=1",
+        "--max_commands=4",
+        "--output=" + output.getPath());
+    assertThat(getOperation(readReport(), "domain_check").get("results"))
+        .isEqualTo(ImmutableMap.of("2302", 1L, "noResponse", 1L, "unparseableResponse", 2L));
+  }
+
+  @Test
+  public void testFailure_unknownOperation() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Unknown kind of command: domain_delete");
+    runCommand("--client=NewRegistrar", "--tld=tld", "--mix=domain_delete=1");
+  }
+
+  @Test
+  public void testFailure_production() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "DO NOT RUN LOADTESTS IN PROD!");
+    runCommandInEnvironment(
+        RegistryToolEnvironment.PRODUCTION, "--client=NewRegistrar", "--tld=tld");
+  }
+}
@@ -112,6 +112,7 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
     action.bucket = "zonefiles-bucket";
     action.gcsBufferSize = 123;
     action.datastoreRetention = standardDays(29);
+    action.pointInTimeLoadBatchSize = 2;
     action.clock = new FakeClock(now.plusMinutes(2));  // Move past the actions' 2 minute check.
 
     Map<String, Object> response = action.handleJsonRequest(ImmutableMap.<String, Object>of(
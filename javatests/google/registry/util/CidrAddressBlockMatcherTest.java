@@ -0,0 +1,123 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.InetAddresses;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CidrAddressBlockMatcher}. */
+@RunWith(JUnit4.class)
+public class CidrAddressBlockMatcherTest {
+
+  private static CidrAddressBlockMatcher matcher(String... blocks) {
+    ImmutableList.Builder<CidrAddressBlock> builder = new ImmutableList.Builder<>();
+    for (String block : blocks) {
+      builder.add(CidrAddressBlock.create(block));
+    }
+    return CidrAddressBlockMatcher.create(builder.build());
+  }
+
+  private static boolean matches(CidrAddressBlockMatcher matcher, String address) {
+    return matcher.contains(InetAddresses.forString(address));
+  }
+
+  @Test
+  public void testEmpty() {
+    CidrAddressBlockMatcher matcher = matcher();
+    assertThat(matcher.isEmpty()).isTrue();
+    assertThat(matches(matcher, "1.2.3.4")).isFalse();
+    assertThat(matcher.contains(null)).isFalse();
+  }
+
+  @Test
+  public void testIpv4() {
+    CidrAddressBlockMatcher matcher = matcher("10.0.0.0/8", "192.168.1.0/31", "1.2.3.4");
+    assertThat(matcher.isEmpty()).isFalse();
+    assertThat(matches(matcher, "10.0.0.0")).isTrue();
+    assertThat(matches(matcher, "10.255.255.255")).isTrue();
+    assertThat(matches(matcher, "11.0.0.0")).isFalse();
+    assertThat(matches(matcher, "9.255.255.255")).isFalse();
+    assertThat(matches(matcher, "192.168.1.1")).isTrue();
+    assertThat(matches(matcher, "192.168.1.2")).isFalse();
+    assertThat(matches(matcher, "1.2.3.4")).isTrue();
+    assertThat(matches(matcher, "1.2.3.5")).isFalse();
+    assertThat(matches(matcher, "0.0.0.0")).isFalse();
+    assertThat(matches(matcher, "255.255.255.255")).isFalse();
+    assertThat(matcher.contains(null)).isFalse();
+  }
+
+  @Test
+  public void testAddressFamiliesDoNotMix() {
+    CidrAddressBlockMatcher matcher = matcher("0.0.0.0/0", "2001:db8::/32");
+    assertThat(matches(matcher, "8.8.8.8")).isTrue();
+    assertThat(matches(matcher, "2001:db8::1")).isTrue();
+    assertThat(matches(matcher, "2001:db9::1")).isFalse();
+    assertThat(matches(matcher, "::1")).isFalse();
+    assertThat(matches(matcher("::/0"), "8.8.8.8")).isFalse();
+    assertThat(matches(matcher("::/0"), "::1")).isTrue();
+  }
+
+  @Test
+  public void testNestedAndDuplicateBlocks() {
+    CidrAddressBlockMatcher matcher =
+        matcher("10.1.2.0/24", "10.0.0.0/8", "10.1.0.0/16", "10.0.0.0/8", "11.0.0.1");
+    assertThat(matches(matcher, "10.200.0.1")).isTrue();
+    assertThat(matches(matcher, "10.1.2.3")).isTrue();
+    assertThat(matches(matcher, "11.0.0.1")).isTrue();
+    assertThat(matches(matcher, "11.0.0.2")).isFalse();
+    assertThat(matcher.getBlocks()).hasSize(5);
+  }
+
+  @Test
+  public void testNestedBlocksWithSameLowAddress() {
+    CidrAddressBlockMatcher matcher = matcher("10.0.0.0/16", "10.0.0.0/8");
+    assertThat(matches(matcher, "10.0.1.2")).isTrue();
+    assertThat(matches(matcher, "10.1.2.3")).isTrue();
+    assertThat(matches(matcher, "10.255.255.255")).isTrue();
+    assertThat(matches(matcher, "11.0.0.0")).isFalse();
+  }
+
+  @Test
+  public void testAgreesWithCidrAddressBlock() {
+    Random random = new Random(42);
+    List<CidrAddressBlock> blocks = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      blocks.add(CidrAddressBlock.create(
+          InetAddresses.fromInteger(random.nextInt()), 8 + random.nextInt(25)));
+    }
+    CidrAddressBlockMatcher matcher = CidrAddressBlockMatcher.create(blocks);
+    for (int i = 0; i < 10000; i++) {
+      InetAddress address = InetAddresses.fromInteger(random.nextInt());
+      boolean expected = false;
+      for (CidrAddressBlock block : blocks) {
+        expected |= block.contains(address);
+      }
+      assertThat(matcher.contains(address)).isEqualTo(expected);
+    }
+    for (CidrAddressBlock block : blocks) {
+      assertThat(matcher.contains(block.getInetAddress())).isTrue();
+      assertThat(matcher.contains(block.getAllOnesAddress())).isTrue();
+    }
+  }
+}
@@ -16,13 +16,20 @@ package google.registry.util;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
 
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.Environment;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.testing.NullPointerTester;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import google.registry.testing.AppEngineRule;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -67,6 +74,86 @@ public class ConcurrentTest {
     }
   }
 
+  @Test
+  public void testTransform_nested_doesNotWaitOnOwnPermits() throws Exception {
+    // More outer items than the instance-wide limit, so that all permits are held by outer items
+    // while they make their inner calls.
+    ImmutableList.Builder<Integer> items = new ImmutableList.Builder<>();
+    ImmutableList.Builder<Integer> expected = new ImmutableList.Builder<>();
+    for (int i = 0; i < 50; i++) {
+      items.add(i);
+      expected.add(3 * i);
+    }
+    assertThat(Concurrent.transform(items.build(), 50, new Function<Integer, Integer>() {
+      @Override
+      public Integer apply(final Integer outer) {
+        int sum = 0;
+        for (int product : Concurrent.transform(
+            ImmutableList.of(1, 2),
+            new Function<Integer, Integer>() {
+              @Override
+              public Integer apply(Integer inner) {
+                return outer * inner;
+              }})) {
+          sum += product;
+        }
+        return sum;
+      }})).containsExactlyElementsIn(expected.build()).inOrder();
+  }
+
+  @Test
+  public void testTransform_nearDeadline_cancelsUnfinishedItems() throws Exception {
+    // Leave no time at all once the margin before the deadline has been taken off.
+    Environment environment = spy(ApiProxy.getCurrentEnvironment());
+    doReturn(5000L).when(environment).getRemainingMillis();
+    ApiProxy.setEnvironmentForCurrentThread(environment);
+    try {
+      Concurrent.transform(ImmutableList.of(1, 2, 3), new Function<Integer, Integer>() {
+        @Override
+        public Integer apply(Integer input) {
+          try {
+            new CountDownLatch(1).await();
+          } catch (InterruptedException e) {
+            // Cancelled, as expected.
+          }
+          return input;
+        }});
+      fail("Didn't throw!");
+    } catch (UncheckedExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(TimeoutException.class);
+    }
+  }
+
+  @Test
+  public void testTransform_moreThreadsThanInstanceLimit_waitForPermits() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    ImmutableList.Builder<Integer> items = new ImmutableList.Builder<>();
+    for (int i = 0; i < 200; i++) {
+      items.add(i);
+    }
+    Concurrent.transform(items.build(), 50, new Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer input) {
+        int nowRunning = running.incrementAndGet();
+        while (true) {
+          int max = maxRunning.get();
+          if (nowRunning <= max || maxRunning.compareAndSet(max, nowRunning)) {
+            break;
+          }
+        }
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        } finally {
+          running.decrementAndGet();
+        }
+        return input;
+      }});
+    assertThat(maxRunning.get()).isAtMost(Concurrent.MAX_INSTANCE_THREADS);
+  }
+
   @Test
   public void testNullness() throws Exception {
     NullPointerTester tester = new NullPointerTester()